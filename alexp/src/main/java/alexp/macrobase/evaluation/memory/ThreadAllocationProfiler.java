@@ -0,0 +1,45 @@
+package alexp.macrobase.evaluation.memory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the heap allocated by the current thread since the profiler was created, so that
+ * tasks running side by side are measured separately. This is the total allocated, not a peak,
+ * so it is not comparable with {@link BasicMemoryProfiler}.
+ * Allocations made by other threads on behalf of the task are not counted.
+ */
+public class ThreadAllocationProfiler {
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final long threadId = Thread.currentThread().getId();
+    private final long startAllocated;
+
+    /**
+     * @throws UnsupportedOperationException If the JVM does not count allocations per thread,
+     * see {@link #isSupported()}.
+     */
+    public ThreadAllocationProfiler() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("per-thread allocation counters are not available in this JVM");
+        }
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * @return Whether the JVM counts the bytes allocated by each thread.
+     */
+    public static boolean isSupported() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * @return Bytes allocated by the thread that created the profiler.
+     */
+    public long getUsage() {
+        return threadBean.getThreadAllocatedBytes(threadId) - startAllocated;
+    }
+}
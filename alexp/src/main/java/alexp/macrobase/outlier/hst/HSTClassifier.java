@@ -309,7 +309,8 @@ public class HSTClassifier extends MultiMetricClassifier implements Trainable, U
         } else {
             windowDF.addColumn(outputColumnName, windowScores);
             windowDF.addColumn(orderedWindow, windowOrder);
-            output = windowDF.copy();
+            // the window may be a view of the stream's buffer, which later windows overwrite
+            output = DataFrameUtils.copyOutOfBuffers(windowDF);
         }
     }
 
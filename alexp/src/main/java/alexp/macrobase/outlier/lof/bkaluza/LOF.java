@@ -4,11 +4,13 @@ import alexp.macrobase.outlier.MultiMetricClassifier;
 import alexp.macrobase.outlier.Trainable;
 import alexp.macrobase.utils.DataFrameUtils;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 import it.unimi.dsi.fastutil.ints.IntArrays;
 
 import java.lang.Math;
 import java.util.*;
-import java.util.stream.IntStream;
+import java.util.concurrent.Callable;
+import java.util.function.IntConsumer;
 
 
 /**
@@ -25,20 +27,31 @@ public class LOF extends MultiMetricClassifier implements Trainable {
     }
 
     /**
-     * The training instances
+     * The training instances, one after another in a single array
      */
-    private Collection<double[]> trainInstances;
+    private double[] trainData;
     private int numAttributes, numInstances;
 
     /**
-     * The distances among instances.
+     * The nearest training neighbors of each training instance, nearest first: instance i has
+     * ids[start[i]] to ids[start[i + 1] - 1]. These are its k nearest, and any more at the same
+     * distance as the k-th. Never modified once built, so instances scored in parallel can share it.
      */
-    private double[][] distTable;
+    private static class Neighbors {
+        final int k;
+        final int[] start;
+        final int[] ids;
+        final double[] dists;
+
+        Neighbors(int k, int[] start, int[] ids, double[] dists) {
+            this.k = k;
+            this.start = start;
+            this.ids = ids;
+            this.dists = dists;
+        }
+    }
 
-    /**
-     * Indices of the sorted distance
-     */
-    private int[][] distSorted;
+    private volatile Neighbors neighbors;
 
     /**
      * The minimum values for training instances
@@ -69,16 +82,16 @@ public class LOF extends MultiMetricClassifier implements Trainable {
     public void process(DataFrame input) throws Exception {
         List<double[]> inputRows = DataFrameUtils.toRowArray(input, columns);
 
-        if (distTable == null || retrainOnEachInput) {
+        if (trainData == null || retrainOnEachInput) {
             train(inputRows);
         }
 
         output = input.copy();
 
+        // Built here rather than by the first row scored, so that it does not run inside a pool task
+        getNeighbors(kNN);
         double[] resultColumn = new double[input.getNumRows()];
-        for (int i = 0; i < input.getNumRows(); i++) {
-            resultColumn[i] = score(inputRows.get(i), kNN);
-        }
+        forEachRow(input.getNumRows(), i -> resultColumn[i] = score(inputRows.get(i), kNN));
 
         output.addColumn(outputColumnName, resultColumn);
     }
@@ -96,13 +109,18 @@ public class LOF extends MultiMetricClassifier implements Trainable {
     public void train(List<double[]> trainInstances) {
         trainInstances = trainInstances.subList(0, Math.min(trainSize, trainInstances.size()));
 
-        this.trainInstances = trainInstances;
-
         numInstances = trainInstances.size();
 
         double[] first = trainInstances.iterator().next();
         numAttributes = first.length;
 
+        trainData = new double[numInstances * numAttributes];
+        int offset = 0;
+        for (double[] instance : trainInstances) {
+            System.arraycopy(instance, 0, trainData, offset, numAttributes);
+            offset += numAttributes;
+        }
+
         // get the bounds for numeric attributes of training instances:
         minTrain = new double[numAttributes];
         maxTrain = new double[numAttributes];
@@ -122,37 +140,39 @@ public class LOF extends MultiMetricClassifier implements Trainable {
             }
         }
 
-
-        // fill the table with distances among training instances
-        distTable = new double[numInstances + 1][numInstances + 1];
-        distSorted = new int[numInstances + 1][numInstances + 1];
-        for (int i = 0; i < distSorted.length; i++) {
-            for (int j = 0; j < distSorted.length; j++) {
-                distSorted[i][j] = j;
-            }
-        }
-
-        int i = 0, j = 0;
-        for (double[] instance1 : trainInstances) {
-            j = 0;
-            for (double[] instance2 : trainInstances) {
-                distTable[i][j] = getDistance(instance1, instance2);
-                j++;
-            }
-            if (i == j)
-                distTable[i][j] = -1;
-            i++;
-        }
+        neighbors = buildNeighbors(kNN);
     }
 
     /**
      * Returns LOF score for new example.
+     * The example is scored as if it were added to the training instances, so it may also
+     * become a neighbor of the training instances near it.
      */
     public double score(double[] testInstance, int kNN) {
+        Neighbors neighbors = getNeighbors(kNN);
+
+        double[] testDists = new double[numInstances];
+        for (int i = 0; i < numInstances; i++) {
+            testDists[i] = getDistance(trainData, i * numAttributes, testInstance, 0);
+        }
 
-        calcuateDistanceToTest(testInstance);
+        int[] testNeighbors = getNearestNeighbors(testDists, -1, kNN);
+        double testKDist = testDists[testNeighbors[testNeighbors.length - 1]];
 
-        return getLofIdx(numInstances, kNN);
+        // get LOF for the current test instance:
+        double lrdTest = 0;
+        for (int o : testNeighbors) {
+            lrdTest += Math.max(getKDistance(neighbors, kNN, o, testDists[o]), testDists[o]);
+        }
+        lrdTest = (lrdTest == 0) ? 0 : testNeighbors.length / lrdTest;
+
+        double lof = 0.0;
+        for (int o : testNeighbors) {
+            lof += (lrdTest == 0) ? 0 : getLocalReachDensity(neighbors, kNN, o, testDists, testKDist) / lrdTest;
+        }
+        lof /= testNeighbors.length;
+
+        return lof;
     }
 
     public int getkNN() {
@@ -175,38 +195,183 @@ public class LOF extends MultiMetricClassifier implements Trainable {
         this.retrainOnEachInput = retrainOnEachInput;
     }
 
-    private double getLofIdx(int index, int kNN) {
-        // get the number of nearest neighbors for the current test instance:
-        int numNN = getNNCount(kNN, index);
+    /**
+     * @return Neighbors for at least kNN, built if the current ones are for fewer.
+     */
+    private Neighbors getNeighbors(int kNN) {
+        Neighbors current = neighbors;
+        if (current == null || current.k < kNN) {
+            synchronized (this) {
+                current = neighbors;
+                if (current == null || current.k < kNN) {
+                    current = buildNeighbors(kNN);
+                    neighbors = current;
+                }
+            }
+        }
+        return current;
+    }
 
-        // get LOF for the current test instance:
-        double lof = 0.0;
-        for (int i = 1; i <= numNN; i++) {
-            double lrdi = getLocalReachDensity(kNN, index);
-            lof += (lrdi == 0) ? 0 : getLocalReachDensity(kNN, distSorted[index][i]) / lrdi;
+    private Neighbors buildNeighbors(int kNN) {
+        int[][] ids = new int[numInstances][];
+        double[][] dists = new double[numInstances][];
+        forEachRow(numInstances, i -> {
+            double[] allDists = new double[numInstances];
+            for (int j = 0; j < numInstances; j++) {
+                allDists[j] = getDistance(trainData, i * numAttributes, trainData, j * numAttributes);
+            }
+            ids[i] = getNearestNeighbors(allDists, i, kNN);
+            dists[i] = new double[ids[i].length];
+            for (int j = 0; j < ids[i].length; j++) {
+                dists[i][j] = allDists[ids[i][j]];
+            }
+        });
+
+        int[] start = new int[numInstances + 1];
+        for (int i = 0; i < numInstances; i++) {
+            start[i + 1] = start[i] + ids[i].length;
+        }
+        int[] neighborIds = new int[start[numInstances]];
+        double[] neighborDists = new double[start[numInstances]];
+        for (int i = 0; i < numInstances; i++) {
+            System.arraycopy(ids[i], 0, neighborIds, start[i], ids[i].length);
+            System.arraycopy(dists[i], 0, neighborDists, start[i], dists[i].length);
         }
-        lof /= numNN;
+        return new Neighbors(kNN, start, neighborIds, neighborDists);
+    }
 
-        return lof;
+    /**
+     * Run a task for every row, in chunks on the shared pool. An exception thrown by the task is
+     * rethrown here.
+     */
+    private static void forEachRow(int n, IntConsumer task) {
+        int numThreads = Math.min(Runtime.getRuntime().availableProcessors(), n);
+        if (numThreads <= 1) {
+            for (int i = 0; i < n; i++) {
+                task.accept(i);
+            }
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int start = (int) ((long) n * t / numThreads);
+            final int end = (int) ((long) n * (t + 1) / numThreads);
+            tasks.add(() -> {
+                for (int i = start; i < end; i++) {
+                    task.accept(i);
+                }
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+    }
+
+    /**
+     * Indices of the kNN smallest distances, and of any more equal to the kNN-th, in order of
+     * distance. A bounded heap finds the kNN-th distance without sorting all of them.
+     */
+    private static int[] getNearestNeighbors(double[] dists, int exclude, int kNN) {
+        int numCandidates = exclude >= 0 ? dists.length - 1 : dists.length;
+        int k = Math.min(kNN, numCandidates);
+        double kDist = Double.POSITIVE_INFINITY;
+        if (k > 0 && k < numCandidates) {
+            // Max-heap of the k smallest distances so far
+            double[] heap = new double[k];
+            int size = 0;
+            for (int j = 0; j < dists.length; j++) {
+                if (j == exclude) {
+                    continue;
+                }
+                double dist = dists[j];
+                if (size < k) {
+                    int pos = size++;
+                    while (pos > 0 && heap[(pos - 1) / 2] < dist) {
+                        heap[pos] = heap[(pos - 1) / 2];
+                        pos = (pos - 1) / 2;
+                    }
+                    heap[pos] = dist;
+                } else if (dist < heap[0]) {
+                    int pos = 0;
+                    while (2 * pos + 1 < k) {
+                        int child = 2 * pos + 1;
+                        if (child + 1 < k && heap[child + 1] > heap[child]) {
+                            child++;
+                        }
+                        if (heap[child] <= dist) {
+                            break;
+                        }
+                        heap[pos] = heap[child];
+                        pos = child;
+                    }
+                    heap[pos] = dist;
+                }
+            }
+            kDist = heap[0];
+        }
+
+        int count = 0;
+        for (int j = 0; j < dists.length; j++) {
+            if (j != exclude && dists[j] <= kDist) {
+                count++;
+            }
+        }
+        int[] neighbors = new int[count];
+        count = 0;
+        for (int j = 0; j < dists.length; j++) {
+            if (j != exclude && dists[j] <= kDist) {
+                neighbors[count++] = j;
+            }
+        }
+        IntArrays.quickSort(neighbors, (i1, i2) -> Double.compare(dists[i1], dists[i2]));
+        return neighbors;
     }
 
-    private void calcuateDistanceToTest(double[] testInstance) {
-        // update the table with distances among training instances and the current test instance:
-        int i = 0;
-        for (double[] trainInstance : trainInstances) {
-            distTable[i][numInstances] = getDistance(trainInstance, testInstance);
-            distTable[numInstances][i] = distTable[i][numInstances];
-            i++;
+    /**
+     * Distance to the kNN-th nearest neighbor of a training instance once the test instance,
+     * at testDist from it, is added.
+     */
+    private static double getKDistance(Neighbors neighbors, int kNN, int instIndex, double testDist) {
+        int start = neighbors.start[instIndex];
+        int size = neighbors.start[instIndex + 1] - start;
+        if (kNN <= size && neighbors.dists[start + kNN - 1] <= testDist) {
+            return neighbors.dists[start + kNN - 1];
         }
-        distTable[numInstances][numInstances] = -1;
+        // The test instance is one of the kNN nearest, so the kNN-th is the one before
+        double kDist = testDist;
+        if (kNN >= 2 && size > 0) {
+            kDist = Math.max(kDist, neighbors.dists[start + Math.min(kNN - 2, size - 1)]);
+        }
+        return kDist;
+    }
+
+    private static double getLocalReachDensity(Neighbors neighbors, int kNN, int instIndex, double[] testDists, double testKDist) {
+        double testDist = testDists[instIndex];
+        double kDist = getKDistance(neighbors, kNN, instIndex, testDist);
 
-        // sort the distances
-        for (i = 0; i < numInstances + 1; i++) {
-            sortIndices(distTable[i], distSorted[i]);
+        // neighbors within the k-distance, in order of distance with the test instance among them
+        int numNN = 0;
+        double lrd = 0;
+        boolean testCounted = testDist > kDist;
+        for (int j = neighbors.start[instIndex]; j < neighbors.start[instIndex + 1] && neighbors.dists[j] <= kDist; j++) {
+            if (!testCounted && testDist < neighbors.dists[j]) {
+                lrd += Math.max(testKDist, testDist);
+                numNN++;
+                testCounted = true;
+            }
+            int other = neighbors.ids[j];
+            lrd += Math.max(getKDistance(neighbors, kNN, other, testDists[other]), neighbors.dists[j]);
+            numNN++;
         }
+        if (!testCounted) {
+            lrd += Math.max(testKDist, testDist);
+            numNN++;
+        }
+        lrd = (lrd == 0) ? 0 : numNN / lrd;
+
+        return lrd;
     }
 
-    private double getDistance(double[] first, double[] second) {
+    private double getDistance(double[] first, int firstOffset, double[] second, int secondOffset) {
         // calculate absolute relative distance
         double distance = 0;
 
@@ -214,12 +379,12 @@ public class LOF extends MultiMetricClassifier implements Trainable {
 
             case ABS_RELATIVE:
                 for (int i = 0; i < this.numAttributes; i++) {
-                    distance += Math.abs(first[i] - second[i]) / (maxTrain[i] - minTrain[i]);
+                    distance += Math.abs(first[firstOffset + i] - second[secondOffset + i]) / (maxTrain[i] - minTrain[i]);
                 }
 
             case EUCLIDIAN:
                 for (int i = 0; i < this.numAttributes; i++) {
-                    distance += Math.pow(first[i] - second[i], 2);
+                    distance += Math.pow(first[firstOffset + i] - second[secondOffset + i], 2);
                 }
                 distance = Math.sqrt(distance);
 
@@ -230,49 +395,4 @@ public class LOF extends MultiMetricClassifier implements Trainable {
         return distance;
     }
 
-    private double getReachDistance(int kNN, int firstIndex, int secondIndex) {
-        // max({distance to k-th nn of second}, distance(first, second))
-
-        double reachDist = distTable[firstIndex][secondIndex];
-
-        int numNN = getNNCount(kNN, secondIndex);
-
-        if (distTable[secondIndex][distSorted[secondIndex][numNN]] > reachDist)
-            reachDist = distTable[secondIndex][distSorted[secondIndex][numNN]];
-
-        return reachDist;
-    }
-
-    private int getNNCount(int kNN, int instIndex) {
-        int numNN = kNN;
-
-        // if there are more neighbors with the same distance, take them too
-        for (int i = kNN; i < distTable.length - 1; i++) {
-            if (distTable[instIndex][distSorted[instIndex][i]] == distTable[instIndex][distSorted[instIndex][i + 1]])
-                numNN++;
-            else
-                break;
-        }
-
-        return numNN;
-    }
-
-    private double getLocalReachDensity(int kNN, int instIndex) {
-        // get the number of nearest neighbors:
-        int numNN = getNNCount(kNN, instIndex);
-
-        double lrd = 0;
-
-        for (int i = 1; i <= numNN; i++) {
-            lrd += getReachDistance(kNN, instIndex, distSorted[instIndex][i]);
-        }
-        lrd = (lrd == 0) ? 0 : numNN / lrd;
-
-        return lrd;
-    }
-
-    private void sortIndices(double[] array, int[] indices) {
-        IntArrays.quickSort(indices, (i1, i2) -> Double.compare(array[i1], array[i2]));
-    }
-
 }
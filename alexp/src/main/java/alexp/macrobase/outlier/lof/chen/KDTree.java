@@ -0,0 +1,363 @@
+package alexp.macrobase.outlier.lof.chen;
+
+
+/**
+ * KD-tree over a fixed set of points for Euclidean nearest neighbor and radius queries.
+ * Points are copied into one flat array in tree order, and every node keeps its bounding box,
+ * so that whole subtrees can be skipped, or counted without visiting their points.
+ * The tree is read-only once built and safe to query from several threads.
+ */
+public class KDTree {
+    // Nodes with at most this many points are not split
+    private static final int leafSize = 16;
+
+    private final int n;
+    private final int d;
+    // Coordinates of the points in tree order, point after point
+    private final double[] coords;
+    // Original index of each point in tree order, and the reverse
+    private final int[] ids;
+    private final int[] positions;
+
+    // Nodes: the points in [nodeStart, nodeEnd), their bounding box and children (-1 for leaves)
+    private int[] nodeStart;
+    private int[] nodeEnd;
+    private int[] nodeLeft;
+    private int[] nodeRight;
+    private double[] nodeMin;
+    private double[] nodeMax;
+    private int numNodes = 0;
+
+    public KDTree(double[][] points) {
+        this.n = points.length;
+        this.d = n == 0 ? 0 : points[0].length;
+        this.ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+        }
+        int maxNodes = Math.max(1, 4 * (n / leafSize + 1));
+        nodeStart = new int[maxNodes];
+        nodeEnd = new int[maxNodes];
+        nodeLeft = new int[maxNodes];
+        nodeRight = new int[maxNodes];
+        nodeMin = new double[maxNodes * d];
+        nodeMax = new double[maxNodes * d];
+        build(points, 0, n);
+
+        coords = new double[n * d];
+        positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(points[ids[i]], 0, coords, i * d, d);
+            positions[ids[i]] = i;
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Find the k nearest points to a query, nearest first.
+     * @param exclude Index of a point to leave out, e.g. the query itself, or -1.
+     * @param neighborIds Filled with the indices of the neighbors.
+     * @param neighborDists Filled with the distances of the neighbors.
+     * @return Number of neighbors found, which is less than k only if there are too few points.
+     */
+    public int knn(double[] query, int k, int exclude, int[] neighborIds, double[] neighborDists) {
+        if (k <= 0 || n == 0) {
+            return 0;
+        }
+        // Max-heap on squared distance of the best k points so far
+        KnnHeap heap = new KnnHeap(k, neighborIds, neighborDists);
+        knn(0, query, exclude, heap);
+        int found = heap.size;
+        // Pop the heap into ascending order
+        for (int end = found - 1; end > 0; end--) {
+            int topId = neighborIds[0];
+            double topDist = neighborDists[0];
+            neighborIds[0] = neighborIds[end];
+            neighborDists[0] = neighborDists[end];
+            heap.size = end;
+            heap.siftDown();
+            neighborIds[end] = topId;
+            neighborDists[end] = topDist;
+        }
+        for (int i = 0; i < found; i++) {
+            neighborDists[i] = Math.sqrt(neighborDists[i]);
+        }
+        return found;
+    }
+
+    /**
+     * @return Number of points strictly closer than radius to the query, not counting exclude.
+     */
+    public int countWithin(double[] query, double radius, int exclude) {
+        if (n == 0 || !(radius > 0)) {
+            return 0;
+        }
+        int count = countWithin(0, query, radius * radius);
+        if (exclude >= 0 && pointDistanceSquared(query, positions[exclude]) < radius * radius) {
+            count--;
+        }
+        return count;
+    }
+
+    /**
+     * @return Indices of the points strictly closer than radius to the query, not counting
+     * exclude, in no particular order.
+     */
+    public int[] within(double[] query, double radius, int exclude) {
+        int[] result = new int[countWithin(query, radius, exclude)];
+        if (result.length > 0) {
+            within(0, query, radius * radius, exclude, result, 0);
+        }
+        return result;
+    }
+
+    /**
+     * @return Euclidean distance between the query and the point with the given index.
+     */
+    public double distance(double[] query, int id) {
+        return Math.sqrt(pointDistanceSquared(query, positions[id]));
+    }
+
+    private double pointDistanceSquared(double[] query, int pos) {
+        double sum = 0;
+        int offset = pos * d;
+        for (int j = 0; j < d; j++) {
+            double diff = query[j] - coords[offset + j];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private int build(double[][] points, int start, int end) {
+        int node = numNodes++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeLeft[node] = -1;
+        nodeRight[node] = -1;
+
+        // Bounding box, and the dimension in which it is widest
+        int splitDim = 0;
+        double widest = -1;
+        for (int j = 0; j < d; j++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                double value = points[ids[i]][j];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            nodeMin[node * d + j] = min;
+            nodeMax[node * d + j] = max;
+            if (max - min > widest) {
+                widest = max - min;
+                splitDim = j;
+            }
+        }
+        if (end - start <= leafSize || widest <= 0) {
+            return node;
+        }
+
+        int mid = (start + end) >>> 1;
+        select(points, start, end, mid, splitDim);
+        nodeLeft[node] = build(points, start, mid);
+        nodeRight[node] = build(points, mid, end);
+        return node;
+    }
+
+    /**
+     * Partially sort ids[start, end) on one dimension so that position mid holds its value in
+     * sorted order, with no larger values before it and no smaller after it.
+     */
+    private void select(double[][] points, int start, int end, int mid, int dim) {
+        int lo = start;
+        int hi = end - 1;
+        while (lo < hi) {
+            double pivot = points[ids[(lo + hi) >>> 1]][dim];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (points[ids[i]][dim] < pivot) {
+                    i++;
+                }
+                while (points[ids[j]][dim] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = ids[i];
+                    ids[i] = ids[j];
+                    ids[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (mid <= j) {
+                hi = j;
+            } else if (mid >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Squared distance from the query to the node's bounding box
+    private double boxDistanceSquared(int node, double[] query) {
+        double sum = 0;
+        int offset = node * d;
+        for (int j = 0; j < d; j++) {
+            double diff = 0;
+            if (query[j] < nodeMin[offset + j]) {
+                diff = nodeMin[offset + j] - query[j];
+            } else if (query[j] > nodeMax[offset + j]) {
+                diff = query[j] - nodeMax[offset + j];
+            }
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    // Squared distance from the query to the farthest corner of the node's bounding box
+    private double boxMaxDistanceSquared(int node, double[] query) {
+        double sum = 0;
+        int offset = node * d;
+        for (int j = 0; j < d; j++) {
+            double diff = Math.max(query[j] - nodeMin[offset + j], nodeMax[offset + j] - query[j]);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private void knn(int node, double[] query, int exclude, KnnHeap heap) {
+        if (nodeLeft[node] < 0) {
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                if (ids[i] != exclude) {
+                    heap.offer(ids[i], pointDistanceSquared(query, i));
+                }
+            }
+            return;
+        }
+        int near = nodeLeft[node];
+        int far = nodeRight[node];
+        double nearDist = boxDistanceSquared(near, query);
+        double farDist = boxDistanceSquared(far, query);
+        if (farDist < nearDist) {
+            int tmpNode = near;
+            near = far;
+            far = tmpNode;
+            double tmpDist = nearDist;
+            nearDist = farDist;
+            farDist = tmpDist;
+        }
+        if (heap.accepts(nearDist)) {
+            knn(near, query, exclude, heap);
+        }
+        if (heap.accepts(farDist)) {
+            knn(far, query, exclude, heap);
+        }
+    }
+
+    private int countWithin(int node, double[] query, double radiusSquared) {
+        if (boxDistanceSquared(node, query) >= radiusSquared) {
+            return 0;
+        }
+        if (boxMaxDistanceSquared(node, query) < radiusSquared) {
+            return nodeEnd[node] - nodeStart[node];
+        }
+        if (nodeLeft[node] < 0) {
+            int count = 0;
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                if (pointDistanceSquared(query, i) < radiusSquared) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        return countWithin(nodeLeft[node], query, radiusSquared)
+                + countWithin(nodeRight[node], query, radiusSquared);
+    }
+
+    private int within(int node, double[] query, double radiusSquared, int exclude, int[] result, int count) {
+        if (boxDistanceSquared(node, query) >= radiusSquared) {
+            return count;
+        }
+        if (nodeLeft[node] < 0) {
+            for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+                if (ids[i] != exclude && pointDistanceSquared(query, i) < radiusSquared) {
+                    result[count++] = ids[i];
+                }
+            }
+            return count;
+        }
+        count = within(nodeLeft[node], query, radiusSquared, exclude, result, count);
+        return within(nodeRight[node], query, radiusSquared, exclude, result, count);
+    }
+
+    /**
+     * Bounded max-heap of (id, squared distance), stored in the caller's output arrays.
+     * Ties on distance are broken by id, so that results do not depend on the tree layout.
+     */
+    private static class KnnHeap {
+        final int k;
+        final int[] ids;
+        final double[] dists;
+        int size = 0;
+
+        KnnHeap(int k, int[] ids, double[] dists) {
+            this.k = k;
+            this.ids = ids;
+            this.dists = dists;
+        }
+
+        boolean accepts(double dist) {
+            return size < k || dist <= dists[0];
+        }
+
+        void offer(int id, double dist) {
+            if (size < k) {
+                int pos = size++;
+                while (pos > 0) {
+                    int parent = (pos - 1) / 2;
+                    if (!greater(id, dist, ids[parent], dists[parent])) {
+                        break;
+                    }
+                    ids[pos] = ids[parent];
+                    dists[pos] = dists[parent];
+                    pos = parent;
+                }
+                ids[pos] = id;
+                dists[pos] = dist;
+            } else if (greater(ids[0], dists[0], id, dist)) {
+                ids[0] = id;
+                dists[0] = dist;
+                siftDown();
+            }
+        }
+
+        void siftDown() {
+            int id = ids[0];
+            double dist = dists[0];
+            int pos = 0;
+            while (2 * pos + 1 < size) {
+                int child = 2 * pos + 1;
+                if (child + 1 < size && greater(ids[child + 1], dists[child + 1], ids[child], dists[child])) {
+                    child++;
+                }
+                if (!greater(ids[child], dists[child], id, dist)) {
+                    break;
+                }
+                ids[pos] = ids[child];
+                dists[pos] = dists[child];
+                pos = child;
+            }
+            ids[pos] = id;
+            dists[pos] = dist;
+        }
+
+        private static boolean greater(int id1, double dist1, int id2, double dist2) {
+            return dist1 > dist2 || (dist1 == dist2 && id1 > id2);
+        }
+    }
+}
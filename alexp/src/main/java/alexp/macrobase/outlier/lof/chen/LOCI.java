@@ -2,11 +2,6 @@ package alexp.macrobase.outlier.lof.chen;
 
 import alexp.macrobase.outlier.MultiMetricClassifier;
 import com.github.chen0040.data.frame.DataFrame;
-import com.github.chen0040.data.frame.DataRow;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.BiFunction;
 
 import alexp.macrobase.utils.DataFrameUtils;
 import java.util.Arrays;
@@ -14,6 +9,12 @@ import java.util.Arrays;
 
 /**
  * Created by xschen on 23/8/15.
+ *
+ * Sampling neighborhoods are found one point at a time with a {@link KDTree} and dropped after
+ * use. What is kept for every point is only the distances to its neighbors closer than the
+ * largest counting radius that can occur, alpha times the largest distance between points, or
+ * r_max if that is smaller. So memory is bounded by the number of pairs of points within that
+ * radius, which can still approach m^2 for tightly clustered data.
  */
 public class LOCI extends MultiMetricClassifier {
     private double r_max;
@@ -21,9 +22,10 @@ public class LOCI extends MultiMetricClassifier {
     private double alpha = 0.5;
     private double kSigma = 3;
 
-    private double[][] distanceMatrix;
-
-    private BiFunction<DataRow, DataRow, Double> distanceMeasure;
+    private double[][] points;
+    private KDTree index;
+    // Distances from every point to the others within the largest counting radius, ascending
+    private double[][] countingDistances;
 
     private edu.stanford.futuredata.macrobase.datamodel.DataFrame output;
 
@@ -47,22 +49,42 @@ public class LOCI extends MultiMetricClassifier {
         double[] resultColumn = new double[input.getNumRows()];
         Arrays.fill(resultColumn, 0.0);
 
-        List<List<Integer>> D = new ArrayList<>();
-
-        for (int i = 0; i < input.getNumRows(); ++i) {
-            List<Integer> D_i = get_r_neighbors(i, r_max, distanceMatrix);
-            D.add(D_i);
-        }
+        int m = input.getNumRows();
+        int[] counts = new int[m];
+        double[] nhat = new double[m];
+        double[] sigma = new double[m];
+        for (int i = 0; i < m; ++i) {
+            int[] D_i = index.within(points[i], r_max, i);
+            // r ranges over the distances from i to its r-neighbors, in ascending order
+            double[] radii = sortedDistances(points[i], D_i);
+            int n = D_i.length;
+            int n_pi_r = n + 1; // including i itself
+
+            // n_hat(p_i, r, alpha): mean alpha*r neighbor count over the r-neighbors, for every r
+            Arrays.fill(nhat, 0, n, 0.0);
+            for (int j : D_i) {
+                get_alphar_neighbor_counts(countingDistances[j], radii, counts);
+                for (int t = 0; t < n; ++t) {
+                    nhat[t] += counts[t];
+                }
+            }
+            for (int t = 0; t < n; ++t) {
+                nhat[t] /= n_pi_r;
+            }
+            Arrays.fill(sigma, 0, n, 0.0);
+            for (int j : D_i) {
+                get_alphar_neighbor_counts(countingDistances[j], radii, counts);
+                for (int t = 0; t < n; ++t) {
+                    double deviation = counts[t] - nhat[t];
+                    sigma[t] += deviation * deviation;
+                }
+            }
 
-        for (int i = 0; i < input.getNumRows(); ++i) {
-            List<Integer> D_i = D.get(i);
-            int n = D_i.size();
-            for (int j = 0; j < n; ++j) {
-                double r = distanceMatrix[i][D_i.get(j)];
-                double alphar = alpha * r;
-                int n_pi_alphar = get_alphar_neighbor_count(i, alphar, D_i, distanceMatrix);
-                double nhat_pi_r_alpha = get_nhat_pi_r_alpha(i, alpha, r, D, distanceMatrix);
-                double sigma_nhat_pi_r_alpha = get_sigma_nhat_pi_r_alpha(i, alpha, r, D, distanceMatrix, nhat_pi_r_alpha);
+            get_alphar_neighbor_counts(countingDistances[i], radii, counts);
+            for (int t = 0; t < n; ++t) {
+                int n_pi_alphar = counts[t];
+                double nhat_pi_r_alpha = nhat[t];
+                double sigma_nhat_pi_r_alpha = Math.sqrt(sigma[t] / n_pi_r);
                 double MDEF = 1 - n_pi_alphar / nhat_pi_r_alpha;
                 double sigma_MDEF = sigma_nhat_pi_r_alpha / nhat_pi_r_alpha;
 
@@ -84,25 +106,36 @@ public class LOCI extends MultiMetricClassifier {
     public void fitAndTransform(DataFrame batch) {
         int m = batch.rowCount();
 
-        distanceMatrix = new double[m][];
+        points = new double[m][];
         for (int i = 0; i < m; ++i) {
-            distanceMatrix[i] = new double[m];
+            points[i] = batch.row(i).toArray();
         }
+        index = new KDTree(points);
 
         double maxDistance = Double.MIN_VALUE;
         for (int i = 0; i < m; ++i) {
-            DataRow tuple_i = batch.row(i);
             for (int j = i + 1; j < m; ++j) {
-                DataRow tuple_j = batch.row(j);
-                double distance = DistanceMeasureService.getDistance(batch, tuple_i, tuple_j, distanceMeasure);
-                distanceMatrix[i][j] = distance;
-                distanceMatrix[j][i] = distance;
-                maxDistance = Math.max(maxDistance, distance);
+                maxDistance = Math.max(maxDistance, index.distance(points[i], j));
             }
         }
 
         r_max = maxDistance / alpha;
 
+        // Counts only take in r_max-neighbors closer than alpha * r, and r is at most maxDistance
+        double countingRadius = Math.min(alpha * maxDistance, r_max);
+        countingDistances = new double[m][];
+        for (int i = 0; i < m; ++i) {
+            countingDistances[i] = sortedDistances(points[i], index.within(points[i], countingRadius, i));
+        }
+    }
+
+    private double[] sortedDistances(double[] point, int[] neighbors) {
+        double[] distances = new double[neighbors.length];
+        for (int j = 0; j < distances.length; ++j) {
+            distances[j] = index.distance(point, neighbors[j]);
+        }
+        Arrays.sort(distances);
+        return distances;
     }
 
     public void setAlpha(double alpha) {
@@ -113,51 +146,19 @@ public class LOCI extends MultiMetricClassifier {
         this.kSigma = kSigma;
     }
 
-    private double get_sigma_nhat_pi_r_alpha(int i, double alpha, double r, List<List<Integer>> D, double[][] distanceMatrix, double n_hat) {
-        List<Integer> D_i = D.get(i);
-        int n_pi_r = D_i.size() + 1; // including i itself
-        double alphar = alpha * r;
-        double sum = 0;
-        for (Integer j : D_i) {
-            sum += Math.pow(get_alphar_neighbor_count(j, alphar, D.get(j), distanceMatrix) - n_hat, 2);
-        }
-        return Math.sqrt(sum / n_pi_r);
-    }
-
-    private double get_nhat_pi_r_alpha(int i, double alpha, double r, List<List<Integer>> D, double[][] distanceMatrix) {
-        List<Integer> D_i = D.get(i);
-        int n_pi_r = D_i.size() + 1; // including i itself
-        double alphar = alpha * r;
-        double sum = 0;
-        for (Integer j : D_i) {
-            sum += get_alphar_neighbor_count(j, alphar, D.get(j), distanceMatrix);
-        }
-        return sum / n_pi_r;
-    }
-
-    private int get_alphar_neighbor_count(int i, double alphar, List<Integer> d_i, double[][] distanceMatrix) {
-        int count = 1; // including i itself
-        for (Integer j : d_i) {
-            double distance = distanceMatrix[i][j];
-            if (distance < alphar) {
+    /**
+     * Count the alpha*r neighbors of a point for every r, including the point itself.
+     * @param distances The point's distances to its neighbors within the counting radius, ascending.
+     * @param radii Values of r, ascending, so that one pass over the distances answers all.
+     */
+    private void get_alphar_neighbor_counts(double[] distances, double[] radii, int[] counts) {
+        int count = 0;
+        for (int t = 0; t < radii.length; ++t) {
+            double alphar = alpha * radii[t];
+            while (count < distances.length && distances[count] < alphar) {
                 count++;
             }
+            counts[t] = count + 1; // including i itself
         }
-
-        return count;
-    }
-
-    private List<Integer> get_r_neighbors(int i, double r, double[][] distanceMatrix) {
-        int m = distanceMatrix.length;
-        List<Integer> rnn = new ArrayList<Integer>();
-        for (int j = 0; j < m; ++j) {
-            if (i == j) continue;
-            double distance = distanceMatrix[i][j];
-            if (distance < r) {
-                rnn.add(j);
-            }
-        }
-
-        return rnn;
     }
 }
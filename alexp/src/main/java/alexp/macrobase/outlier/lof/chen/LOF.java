@@ -6,18 +6,23 @@ import alexp.macrobase.utils.DataFrameUtils;
 import com.github.chen0040.data.frame.DataFrame;
 import com.github.chen0040.data.frame.DataRow;
 import com.github.chen0040.data.utils.TupleTwo;
-import org.apache.commons.math3.linear.RealVector;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.BiFunction;
-import java.util.logging.Level;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
 
 
 /**
  * Created by xschen on 17/8/15.
  * Link:
+ *
+ * Neighbors are found with a {@link KDTree} over the training rows (Euclidean distance).
+ * The k nearest neighbors of every training row are found once for the largest minPts, and
+ * the k-distances and local reachability densities of the training rows are cached for every
+ * minPts, so scoring a row costs one tree query instead of a scan per neighbor.
  */
 public class LOF extends MultiMetricClassifier {
 
@@ -34,12 +39,21 @@ public class LOF extends MultiMetricClassifier {
 
     private static final Logger logger = Logger.getLogger(String.valueOf(LOF.class));
 
-    private BiFunction<DataRow, DataRow, Double> distanceMeasure;
-
     private double minScore;
     private double maxScore;
 
     private DataFrame model;
+    // Position of each model row, by identity, so that a row is not its own neighbor
+    private Map<DataRow, Integer> modelRows;
+    private KDTree index;
+    // Neighbors kept per training row: minPtsUB, or fewer if there are too few rows
+    private int maxNeighbors;
+    // Nearest neighbors of each training row, maxNeighbors per row, nearest first
+    private int[] neighborIds;
+    private double[] neighborDists;
+    // k-distance and local reachability density of each training row, per minPts
+    private double[][] kDistances;
+    private double[][] densities;
 
     private edu.stanford.futuredata.macrobase.datamodel.DataFrame output;
 
@@ -67,9 +81,7 @@ public class LOF extends MultiMetricClassifier {
         output = input.copy();
 
         double[] resultColumn = new double[input.getNumRows()];
-        for (int i = 0; i < input.getNumRows(); i++) {
-            resultColumn[i] = evaluate(inputRows.row(i));
-        }
+        forEachRow(input.getNumRows(), i -> resultColumn[i] = evaluate(inputRows.row(i)));
 
         output.addColumn(outputColumnName, resultColumn);
     }
@@ -159,8 +171,13 @@ public class LOF extends MultiMetricClassifier {
         this.trainSize = trainSize;
     }
 
+    /**
+     * @deprecated Distances are always Euclidean; this is always null, which
+     * {@link DistanceMeasureService} also takes as Euclidean.
+     */
+    @Deprecated
     public BiFunction<DataRow, DataRow, Double> getDistanceMeasure() {
-        return distanceMeasure;
+        return null;
     }
 
     public boolean isAnomaly(DataRow tuple) {
@@ -168,58 +185,59 @@ public class LOF extends MultiMetricClassifier {
         return score_lof > threshold;
     }
 
-    private class ScoreTask implements Callable<Double>{
-        private DataFrame batch;
-        private DataRow tuple;
-        public ScoreTask(DataFrame batch, DataRow tuple){
-            this.batch = batch;
-            this.tuple = tuple;
-        }
-
-        public Double call() throws Exception {
-            double score = score_lof_sync(batch, tuple);
-            return score;
-        }
-    }
-
     public DataFrame fitAndTransform(DataFrame batch) {
         this.model = batch.makeCopy();
 
         int m = model.rowCount();
 
-        minScore = Double.MAX_VALUE;
-        maxScore = Double.NEGATIVE_INFINITY;
-
-
+        modelRows = new IdentityHashMap<>();
+        double[][] points = new double[m][];
+        for (int i = 0; i < m; ++i) {
+            modelRows.put(model.row(i), i);
+            points[i] = model.row(i).toArray();
+        }
+        index = new KDTree(points);
+
+        // Neighbors for the largest minPts; smaller ones use a prefix of them
+        maxNeighbors = Math.max(0, Math.min(minPtsUB, m - 1));
+        neighborIds = new int[m * maxNeighbors];
+        neighborDists = new double[m * maxNeighbors];
+        forEachRow(m, i -> {
+            int[] ids = new int[maxNeighbors];
+            double[] dists = new double[maxNeighbors];
+            index.knn(points[i], maxNeighbors, i, ids, dists);
+            System.arraycopy(ids, 0, neighborIds, i * maxNeighbors, maxNeighbors);
+            System.arraycopy(dists, 0, neighborDists, i * maxNeighbors, maxNeighbors);
+        });
 
-        if(parallel) {
-            ExecutorService executor = Executors.newFixedThreadPool(10);
-            List<ScoreTask> tasks = new ArrayList<>();
+        int numMinPts = Math.max(0, minPtsUB - minPtsLB + 1);
+        kDistances = new double[numMinPts][m];
+        densities = new double[numMinPts][m];
+        for (int minPts = minPtsLB; minPts <= minPtsUB; ++minPts) {
+            double[] kDistance = kDistances[minPts - minPtsLB];
+            int k = Math.min(minPts, maxNeighbors);
             for (int i = 0; i < m; ++i) {
-                tasks.add(new ScoreTask(model, model.row(i)));
+                kDistance[i] = k > 0 ? neighborDists[i * maxNeighbors + k - 1] : Double.NaN;
             }
-
-            try {
-                List<Future<Double>> results = executor.invokeAll(tasks);
-                executor.shutdown();
-                for (int i = 0; i < m; ++i) {
-                    double score = results.get(i).get();
-                    if(Double.isNaN(score)) continue;
-                    if(Double.isInfinite(score)) continue;
-                    minScore = Math.min(score, minScore);
-                    maxScore = Math.max(score, maxScore);
-                }
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
-        }else{
-            for(int i=0; i < m; ++i){
-                double score = score_lof_sync(model, model.row(i));
-                if(Double.isNaN(score)) continue;
-                if(Double.isInfinite(score)) continue;
-                minScore = Math.min(score, minScore);
-                maxScore = Math.max(score, maxScore);
+        }
+        forEachRow(m, i -> {
+            for (int minPts = minPtsLB; minPts <= minPtsUB; ++minPts) {
+                densities[minPts - minPtsLB][i] = local_reachability_density(
+                        neighborIds, neighborDists, i * maxNeighbors, Math.min(minPts, maxNeighbors), minPts);
             }
+        });
+
+        minScore = Double.MAX_VALUE;
+        maxScore = Double.NEGATIVE_INFINITY;
+
+        double[] scores = new double[m];
+        forEachRow(m, i -> scores[i] = score_lof_sync(neighborIds, neighborDists, i * maxNeighbors, i));
+        for (int i = 0; i < m; ++i) {
+            double score = scores[i];
+            if(Double.isNaN(score)) continue;
+            if(Double.isInfinite(score)) continue;
+            minScore = Math.min(score, minScore);
+            maxScore = Math.max(score, maxScore);
         }
 
         if(automaticThresholding){
@@ -234,28 +252,38 @@ public class LOF extends MultiMetricClassifier {
         return this.model;
     }
 
-    private class LOFTask implements Callable<Double>{
-        private DataFrame batch;
-        private DataRow tuple;
-        private int minPts;
-
-        public LOFTask(DataFrame batch, DataRow tuple, int minPts){
-            this.batch = batch;
-            this.tuple = tuple;
-            this.minPts = minPts;
+    /**
+     * Run a task for every row, in chunks on the shared pool if parallel.  An exception thrown by
+     * the task is rethrown here.
+     */
+    private void forEachRow(int m, IntConsumer task) {
+        int numThreads = parallel ? Math.min(Runtime.getRuntime().availableProcessors(), m) : 1;
+        if (numThreads <= 1) {
+            for (int i = 0; i < m; ++i) {
+                task.accept(i);
+            }
+            return;
         }
-
-        public Double call() throws Exception {
-            double lof = local_outlier_factor(batch, tuple, minPts);
-            return lof;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            final int start = (int) ((long) m * t / numThreads);
+            final int end = (int) ((long) m * (t + 1) / numThreads);
+            tasks.add(() -> {
+                for (int i = start; i < end; ++i) {
+                    task.accept(i);
+                }
+                return null;
+            });
         }
+        MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
     }
 
-    private double score_lof_sync(DataFrame batch, DataRow tuple){
+    // Scores of a row with the given neighbors (ids[offset], ...); self is its model row or -1
+    private double score_lof_sync(int[] ids, double[] dists, int offset, int self){
         double maxLOF = Double.NEGATIVE_INFINITY;
 
         for(int minPts = minPtsLB; minPts <= minPtsUB; ++minPts) { // the number of nearest neighbors used in defining the local neighborhood of the object.
-            double lof = local_outlier_factor(batch, tuple, minPts);
+            double lof = local_outlier_factor(ids, dists, offset, self, minPts);
             if(Double.isNaN(lof)) continue;
             maxLOF = Math.max(maxLOF, lof);
         }
@@ -264,38 +292,34 @@ public class LOF extends MultiMetricClassifier {
         return maxLOF;
     }
 
-    private double score_lof_async(DataFrame batch, DataRow tuple){
+    private double score_lof_async(int[] ids, double[] dists, int offset, int self){
         if(!parallel){
-            return score_lof_sync(batch, tuple);
+            return score_lof_sync(ids, dists, offset, self);
         }
 
         double maxLOF = 0;
 
-        ExecutorService executor = Executors.newFixedThreadPool(Math.min(8, minPtsUB - minPtsLB + 1));
-
-        List<LOFTask> tasks = new ArrayList<>();
         for(int minPts = minPtsLB; minPts <= minPtsUB; ++minPts) { // the number of nearest neighbors used in defining the local neighborhood of the object.
-            tasks.add(new LOFTask(batch, tuple, minPts));
-        }
-
-        try {
-            List <Future<Double>> results = executor.invokeAll(tasks);
-            executor.shutdown();
-            for(int i=0; i < results.size(); ++i){
-                double lof = results.get(i).get();
-                if(Double.isNaN(lof)) continue;
-                if(Double.isInfinite(lof)) continue;
-                maxLOF = Math.max(maxLOF, lof);
-            }
-        } catch (InterruptedException | ExecutionException e) {
-            logger.log(Level.SEVERE, "score_lof_async failed", e);
+            double lof = local_outlier_factor(ids, dists, offset, self, minPts);
+            if(Double.isNaN(lof)) continue;
+            if(Double.isInfinite(lof)) continue;
+            maxLOF = Math.max(maxLOF, lof);
         }
 
         return maxLOF;
     }
 
     public double evaluate(DataRow tuple){
-        double score = score_lof_async(model, tuple);
+        Integer self = modelRows.get(tuple);
+        double score;
+        if (self != null) {
+            score = score_lof_async(neighborIds, neighborDists, self * maxNeighbors, self);
+        } else {
+            int[] ids = new int[maxNeighbors];
+            double[] dists = new double[maxNeighbors];
+            index.knn(tuple.toArray(), maxNeighbors, -1, ids, dists);
+            score = score_lof_async(ids, dists, 0, -1);
+        }
 
         //logger.info(String.format("score: %f minScore: %f, maxScore: %f", score, minScore, maxScore));
 
@@ -309,23 +333,59 @@ public class LOF extends MultiMetricClassifier {
         return score;
     }
 
+    public double k_distance(int row, int k){
+        return kDistances[k - minPtsLB][row];
+    }
+
+    /**
+     * @deprecated Scans the whole batch; use {@link #k_distance(int, int)} for training rows.
+     */
+    @Deprecated
     public double k_distance(DataFrame batch, DataRow o, int k){
-        TupleTwo<DataRow, Double> kth = DistanceMeasureService.getKthNearestNeighbor(batch, o, k, distanceMeasure);
+        TupleTwo<DataRow, Double> kth = DistanceMeasureService.getKthNearestNeighbor(batch, o, k, null);
         return kth._2();
     }
 
-    private double reach_dist(DataFrame batch, DataRow p, DataRow o, int k){
-        double distance_p_o = DistanceMeasureService.getDistance(batch, p, o, distanceMeasure);
-        double distance_k_o = k_distance(batch, o, k);
+    private double reach_dist(double distance_p_o, int o, int k){
+        double distance_k_o = k_distance(o, k);
         return Math.max(distance_k_o, distance_p_o);
     }
 
-    private double local_reachability_density(DataFrame batch, DataRow p, int k){
-        List<TupleTwo<DataRow, Double>> knn_p = DistanceMeasureService.getKNearestNeighbors(batch, p, k, distanceMeasure);
-        double density = local_reachability_density(batch, p, k, knn_p);
+    // Density of a row from its first count neighbors (ids[offset], ...)
+    private double local_reachability_density(int[] ids, double[] dists, int offset, int count, int k){
+        double sum_reach_dist = 0;
+        for(int j = 0; j < count; ++j){
+            sum_reach_dist += reach_dist(dists[offset + j], ids[offset + j], k);
+        }
+        double density = 1 / (sum_reach_dist / count);
         return density;
     }
 
+    // the higher this value, the more likely the point is an outlier
+    private double local_outlier_factor(int[] ids, double[] dists, int offset, int self, int k){
+        int count = Math.min(k, maxNeighbors);
+        double lrd_p = self >= 0 ? densities[k - minPtsLB][self]
+                : local_reachability_density(ids, dists, offset, count, k);
+        double sum_lrd = 0;
+        for(int j = 0; j < count; ++j){
+            sum_lrd += densities[k - minPtsLB][ids[offset + j]];
+        }
+
+        if(Double.isInfinite(sum_lrd) && Double.isInfinite(lrd_p)){
+            return 1.0 / count;
+        }
+
+        double lof = (sum_lrd / lrd_p) / count;
+
+        return lof;
+    }
+
+    private double reach_dist(DataFrame batch, DataRow p, DataRow o, int k){
+        double distance_p_o = DistanceMeasureService.getDistance(batch, p, o, null);
+        double distance_k_o = k_distance(batch, o, k);
+        return Math.max(distance_k_o, distance_p_o);
+    }
+
     private double local_reachability_density(DataFrame batch, DataRow p, int k, List<TupleTwo<DataRow, Double>> knn_p){
         double sum_reach_dist = 0;
         for(TupleTwo<DataRow, Double> o : knn_p){
@@ -335,14 +395,20 @@ public class LOF extends MultiMetricClassifier {
         return density;
     }
 
-    // the higher this value, the more likely the point is an outlier
+    /**
+     * Local outlier factor of a row within a batch, computed from scratch by scanning the batch.
+     * @deprecated The model scores rows with {@link #evaluate(DataRow)}, which reuses the
+     * neighbors and densities of the training rows.
+     */
+    @Deprecated
     public double local_outlier_factor(DataFrame batch, DataRow p, int k){
 
-        List<TupleTwo<DataRow, Double>> knn_p = DistanceMeasureService.getKNearestNeighbors(batch, p, k, distanceMeasure);
+        List<TupleTwo<DataRow, Double>> knn_p = DistanceMeasureService.getKNearestNeighbors(batch, p, k, null);
         double lrd_p = local_reachability_density(batch, p, k, knn_p);
         double sum_lrd = 0;
         for(TupleTwo<DataRow,Double> o : knn_p){
-            sum_lrd += local_reachability_density(batch, o._1(), k);
+            sum_lrd += local_reachability_density(batch, o._1(), k,
+                    DistanceMeasureService.getKNearestNeighbors(batch, o._1(), k, null));
         }
 
         if(Double.isInfinite(sum_lrd) && Double.isInfinite(lrd_p)){
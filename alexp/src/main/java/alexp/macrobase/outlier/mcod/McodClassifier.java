@@ -107,7 +107,8 @@ public class McodClassifier extends MultiMetricClassifier implements ParametersA
         } else {
             windowDF.addColumn(outputColumnName, windowScores);
             windowDF.addColumn(orderedWindow, windowOrder);
-            output = windowDF.copy();
+            // the window may be a view of the stream's buffer, which later windows overwrite
+            output = DataFrameUtils.copyOutOfBuffers(windowDF);
         }
     }
 
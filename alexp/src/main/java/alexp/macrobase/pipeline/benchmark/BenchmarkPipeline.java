@@ -2,6 +2,7 @@ package alexp.macrobase.pipeline.benchmark;
 
 import alexp.macrobase.evaluation.GridSearch;
 import alexp.macrobase.evaluation.memory.BasicMemoryProfiler;
+import alexp.macrobase.evaluation.memory.ThreadAllocationProfiler;
 import alexp.macrobase.explanation.Explanation;
 import alexp.macrobase.outlier.Trainable;
 import alexp.macrobase.outlier.Updatable;
@@ -24,6 +25,10 @@ import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import org.apache.commons.io.FilenameUtils;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -37,9 +42,26 @@ public class BenchmarkPipeline extends Pipeline {
     private final String rootDataDir;
     private ResultWriter resultWriter;
     private final String timeColumn = "__autogenerated_time";
+    private final String streamingRepsKey = "streamingReps"; // number of streaming repetitions
+    private final String streamingThreadsKey = "streamingThreads"; // number of repetitions run at once
+    private final String streamingSeedKey = "streamingSeed"; // seed of the first repetition, the others follow it
     private DataFrame dataFrame;
     private int[] labels;
 
+    private static class StreamingRep {
+        Classifier classifier;
+        DataFrame results;
+        DataFrame modelInfo;
+        double[] scores;
+        double performance;
+        List<Long> trainTime;
+        List<Long> predictTime;
+        List<Long> updateTime;
+        long memoryPeak;
+        long allocatedBytes;
+        long lastGeneratedTime;
+    }
+
     public BenchmarkPipeline(ExecutionType executionType, ExecutionConfig conf) {
         this(executionType, conf, null, null);
     }
@@ -111,151 +133,110 @@ public class BenchmarkPipeline extends Pipeline {
 
     private void streamingMode() throws Exception {
         // - - - - - - - - - - - - - - - - - - - - - - - - - - //
-        List<List<Long>> streamTrainTimeReps = new ArrayList<>();
-        List<List<Long>> streamPredictTimeReps = new ArrayList<>();
-        List<List<Long>> streamUpdateTimeReps = new ArrayList<>();
-        List<Long> streamMemoryPeakReps = new ArrayList<>();
-        List<DataFrame> streamDFReps = new ArrayList<>();
-        List<DataFrame> streamMIReps = new ArrayList<>();
-        List<StringObjectMap> streamMPReps = new ArrayList<>();
-        List<Double> performanceReps = new ArrayList<>();
-        List<double[]> streamScores = new ArrayList<>();
-        Classifier clf = null;
+        AlgorithmConfig classifierConf = conf.getClassifierConfig();
+        printInfo(String.format("Running %s %s on %s", classifierConf.getAlgorithmId(), classifierConf.getParameters(), conf.getDatasetConfig().getUri().getOriginalString()));
+        if (resultWriter == null) { // Print the classifier information
+            setupResultWriter();
+        }
+        StringObjectMap algorithmParameters = getAlgorithmParameters(classifierConf); // Validate the algorithm parameters
+        if (!algorithmParameters.equals(classifierConf.getParameters())) {
+            out.println(algorithmParameters);
+        }
+        if (new WindowManager(classifierConf, conf.getDatasetConfig()).getWindowMethod().equals("none")) { // Make sure that the current classifier is streaming classifier.
+            return;
+        }
         // - - - - - - - - - - - - - - - - - - - - - - - - - - //
-        int streaming_reps = 100 ;
+        int streaming_reps = classifierConf.getParameters().get(streamingRepsKey, 100);
+        int streaming_threads = classifierConf.getParameters().get(streamingThreadsKey, 1);
+        long streaming_seed = classifierConf.getParameters().<Number>get(streamingSeedKey, 0).longValue();
+        DataFrame streamData = loadRawData(); // Parse the dataset once, every repetition replays it
+        boolean measureAllocations = ThreadAllocationProfiler.isSupported();
+        if (!measureAllocations) {
+            System.out.println("[Alert] The JVM does not count allocations per thread, allocated memory is not reported");
+        }
         // Repeat the streaming n times (that is because of non-deterministic algorithms)
-        for (int rep = 0; rep < streaming_reps; rep++) {
-            System.out.println("Streaming mode: ON. REP = " + rep);
-            // - - - - - - - - - - - - - - - - - - - - - - - - - - //
-            DataFrame streamDF;
-            DataFrame streamMI;
-            final List<Long> streamTrainTime = new ArrayList<>();
-            final List<Long> streamPredictTime = new ArrayList<>();
-            final List<Long> streamUpdateTime = new ArrayList<>();
-            BasicMemoryProfiler memoryProfiler = new BasicMemoryProfiler();
-            StreamGenerator.init();
-            String rawDataPoint = "";
-            // - - - - - - - - - - - - - - - - - - - - - - - - - - //
-            AlgorithmConfig classifierConf = conf.getClassifierConfig();
-            printInfo(String.format("Running %s %s on %s", classifierConf.getAlgorithmId(), classifierConf.getParameters(), conf.getDatasetConfig().getUri().getOriginalString()));
-            if (resultWriter == null) { // Print the classifier information
-                setupResultWriter();
-            }
-            StringObjectMap algorithmParameters = getAlgorithmParameters(classifierConf); // Validate the algorithm parameters
-            if (!algorithmParameters.equals(classifierConf.getParameters())) {
-                out.println(algorithmParameters);
+        List<StreamingRep> reps = new ArrayList<>();
+        if (streaming_threads <= 1) {
+            // One repetition at a time, the time column carrying on from one to the next
+            for (int rep = 0; rep < streaming_reps; rep++) {
+                System.out.println("Streaming mode: ON. REP = " + rep);
+                StreamingRep result = runStreamingRep(classifierConf, algorithmParameters, streamData,
+                        streaming_seed + rep, lastGeneratedTime, measureAllocations);
+                if (result == null) {
+                    break;
+                }
+                reps.add(result);
+                lastGeneratedTime = result.lastGeneratedTime;
             }
-            WindowManager wm = new WindowManager(classifierConf, conf.getDatasetConfig()); // Initialize window manager
-            String windowType = wm.getWindowMethod();
-            Classifier streamingClassifier = Pipelines.getClassifier( // Build the Streaming Classifier Model
-                    classifierConf.getAlgorithmId(),
-                    algorithmParameters,
-                    conf.getDatasetConfig().getMetricColumns(),
-                    conf.getDatasetConfig().getDatasetId()
-            );
-            clf = streamingClassifier;
-            if (windowType.equals("none")) { // Make sure that the current classifier is streaming classifier.
-                return;
+        } else {
+            // Concurrent repetitions each number their time column from the same point
+            System.out.println("[Alert] Running " + streaming_threads + " streaming repetitions at once: they share the CPUs " +
+                    "and the heap, so their times and memory peaks are not comparable with sequential runs");
+            final long firstGeneratedTime = lastGeneratedTime;
+            List<Callable<StreamingRep>> repTasks = new ArrayList<>();
+            for (int rep = 0; rep < streaming_reps; rep++) {
+                final long repSeed = streaming_seed + rep;
+                final int curRep = rep;
+                repTasks.add(() -> {
+                    System.out.println("Streaming mode: ON. REP = " + curRep);
+                    return runStreamingRep(classifierConf, algorithmParameters, streamData, repSeed,
+                            firstGeneratedTime, measureAllocations);
+                });
             }
-            while (true) { // Iteratively Repeat (Streaming Simulation)
-                if (!wm.windowIsConstructed()) {
-
-                    rawDataPoint = StreamGenerator.fetch(conf.getDatasetConfig().getUri().getPath()); // Read a raw data point from the Stream Generator
-
-                    wm.manage(rawDataPoint); // Obtain the window when the window method invariants are satisfied
-
-                    if (wm.getWindowSize() <= 0) {
-                        break; // Stop streaming simulation when the real size of the window is zero
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(streaming_threads, streaming_reps));
+            try {
+                for (Future<StreamingRep> future : executor.invokeAll(repTasks)) {
+                    StreamingRep rep = future.get();
+                    if (rep == null) {
+                        break;
                     }
-
-                } else {
-
-                    dataFrame = wm.getWindowDF(); // Build the window DataFrame
-
-                    createAutoGeneratedColumns(dataFrame, timeColumn); // Add a time column to the DataFrame
-
-                    streamTrainTime.add(streamingClassifier instanceof Trainable ? BenchmarkUtils.measureTime(() -> {
-                        ((Trainable) streamingClassifier).train(dataFrame);
-                    }) : 0);
-
-                    streamPredictTime.add(BenchmarkUtils.measureTime(() -> {
-                        streamingClassifier.process(dataFrame);
-                    }));
-
-                    streamUpdateTime.add(streamingClassifier instanceof Updatable ? BenchmarkUtils.measureTime(() -> {
-                        ((Updatable) streamingClassifier).update(dataFrame);
-                    }) : 0);
-
-                    wm.clearWindowData();  // Clear the window data (in order to continue to the next window construction)
-
-                    if (wm.isEndStream()) {
-                        break; // Stop streaming simulation when the generator is empty
-                    }
-
+                    reps.add(rep);
+                    lastGeneratedTime = Math.max(lastGeneratedTime, rep.lastGeneratedTime);
                 }
-            } // End of streaming simulation
-            long streamMemoryPeak = memoryProfiler.getPeakUsage();
-            streamDF = streamingClassifier.getResults();
-            streamMI = streamingClassifier.getModelInfo();
-            if (streamDF != null) {
-                double[] scores = streamDF.getDoubleColumnByName(streamingClassifier.getOutputColumnName());
-                double performance = aucCurve(scores, getLabels(streamDF)).rocArea();
-                streamScores.add(scores);
-                streamTrainTimeReps.add(streamTrainTime);
-                streamPredictTimeReps.add(streamPredictTime);
-                streamUpdateTimeReps.add(streamUpdateTime);
-                streamMemoryPeakReps.add(streamMemoryPeak);
-                streamDFReps.add(streamDF);
-                streamMIReps.add(streamMI);
-                streamMPReps.add(algorithmParameters);
-                performanceReps.add(performance);
-            } else {
-                break;
+            } finally {
+                executor.shutdown();
             }
-            // Continue to the next rep..
         }
         // Repetitions has been completed.
-        if (!streamDFReps.isEmpty()) {
+        if (!reps.isEmpty()) {
             // Calculate the average scores
-            double[] scoresAVG = new double[streamScores.get(0).length];
-            for (int col = 0; col < streamScores.get(0).length; col++) {
+            double[] scoresAVG = new double[reps.get(0).scores.length];
+            for (int col = 0; col < scoresAVG.length; col++) {
                 double colSum = 0;
-                for (double[] streamScore : streamScores) {
-                    colSum += streamScore[col];
+                for (StreamingRep rep : reps) {
+                    colSum += rep.scores[col];
                 }
-                scoresAVG[col] = colSum / streaming_reps;
+                scoresAVG[col] = colSum / reps.size();
             }
 
             // Calculate the average performance
-            double performanceAVG = aucCurve(scoresAVG, getLabels(streamDFReps.get(0))).rocArea();
+            double performanceAVG = aucCurve(scoresAVG, getLabels(reps.get(0).results)).rocArea();
             // Find the index of the model that its performance is closer to the average performance
-            double[] performanceDistances = new double[performanceReps.size()];
-            for (int idx = 0; idx < performanceReps.size(); idx++) {
-                performanceDistances[idx] = Math.abs(performanceAVG - performanceReps.get(idx));
-            }
             int avgModelIndex = 0;
-            double minValue = performanceDistances[avgModelIndex];
-            for (int idx = 0; idx < performanceDistances.length; idx++) {
-                if (minValue > performanceDistances[idx]) {
-                    minValue = performanceDistances[idx];
+            double minValue = Math.abs(performanceAVG - reps.get(avgModelIndex).performance);
+            for (int idx = 0; idx < reps.size(); idx++) {
+                double performanceDistance = Math.abs(performanceAVG - reps.get(idx).performance);
+                if (minValue > performanceDistance) {
+                    minValue = performanceDistance;
                     avgModelIndex = idx;
                 }
             }
             // Find the information of the average model
-            double modelPerformance = performanceReps.get(avgModelIndex);
-            long modelTTime = avg(streamTrainTimeReps.get(avgModelIndex));
-            long modelPTime = avg(streamPredictTimeReps.get(avgModelIndex));
-            long modelUTime = avg(streamUpdateTimeReps.get(avgModelIndex));
-            long modelMPeak = streamMemoryPeakReps.get(avgModelIndex);
-            DataFrame model = streamDFReps.get(avgModelIndex);
-            DataFrame modelInfo = streamMIReps.get(avgModelIndex);
-            StringObjectMap modelParams = streamMPReps.get(avgModelIndex);
+            StreamingRep avgModel = reps.get(avgModelIndex);
+            double modelPerformance = avgModel.performance;
+            long modelTTime = avg(avgModel.trainTime);
+            long modelPTime = avg(avgModel.predictTime);
+            long modelUTime = avg(avgModel.updateTime);
+            long modelMPeak = avgModel.memoryPeak;
+            long modelAllocated = avgModel.allocatedBytes;
+            DataFrame model = avgModel.results;
+            DataFrame modelInfo = avgModel.modelInfo;
 
             // Write the results of the average model
-            resultWriter.write(model, new ExecutionResult(modelTTime, modelPTime, modelUTime, modelMPeak, conf, modelParams));
+            resultWriter.write(model, new ExecutionResult(modelTTime, modelPTime, modelUTime, modelMPeak, modelAllocated, conf, algorithmParameters));
             // Write the model info
             if (modelInfo != null) {
-                clf.setModelInfo(modelInfo);
+                reps.get(reps.size() - 1).classifier.setModelInfo(modelInfo);
             }
             // Print results
             printInfo(String.format("" +
@@ -263,6 +244,7 @@ public class BenchmarkPipeline extends Pipeline {
                             "Classification time: %f sec, " +
                             "Update time: %f sec, " +
                             "Max memory usage: %d MB, " +
+                            (modelAllocated >= 0 ? String.format("Allocated memory: %d MB, ", modelAllocated / 1024 / 1024) : "") +
                             "ROC AUC: %.4f",
                     ((double) modelTTime / 1000.0),
                     ((double) modelPTime / 1000.0),
@@ -276,6 +258,93 @@ public class BenchmarkPipeline extends Pipeline {
         // End of streaming mode
     }
 
+    /**
+     * Stream the data once through a fresh classifier and window. Repetitions share nothing but
+     * the read-only data, so they can run concurrently.
+     * @param lastGeneratedTime Time of the point before the stream, the time column of its windows
+     *                          carries on from it as in {@link #createAutoGeneratedColumns}.
+     * @param measureAllocations Whether to count the bytes allocated by the repetition.
+     * @return The results of the repetition, or null if the classifier produced none.
+     */
+    private StreamingRep runStreamingRep(AlgorithmConfig classifierConf, StringObjectMap algorithmParameters,
+                                         DataFrame streamData, long seed, long lastGeneratedTime,
+                                         boolean measureAllocations) throws Exception {
+        // - - - - - - - - - - - - - - - - - - - - - - - - - - //
+        final List<Long> streamTrainTime = new ArrayList<>();
+        final List<Long> streamPredictTime = new ArrayList<>();
+        final List<Long> streamUpdateTime = new ArrayList<>();
+        BasicMemoryProfiler memoryProfiler = new BasicMemoryProfiler();
+        ThreadAllocationProfiler allocationProfiler = measureAllocations ? new ThreadAllocationProfiler() : null;
+        long lastTime = lastGeneratedTime;
+        // - - - - - - - - - - - - - - - - - - - - - - - - - - //
+        WindowManager wm = new WindowManager(classifierConf, conf.getDatasetConfig(), seed); // Initialize window manager
+        StreamGenerator stream = new StreamGenerator(streamData, wm.getColumns()); // Replay the dataset from the start
+        Classifier streamingClassifier = Pipelines.getClassifier( // Build the Streaming Classifier Model
+                classifierConf.getAlgorithmId(),
+                algorithmParameters,
+                conf.getDatasetConfig().getMetricColumns(),
+                conf.getDatasetConfig().getDatasetId()
+        );
+        while (true) { // Iteratively Repeat (Streaming Simulation)
+            if (!wm.windowIsConstructed()) {
+
+                DataFrame dataPoints = stream.fetch(wm.getPointsNeeded()); // Read the data points the window still needs
+
+                wm.manage(dataPoints); // Obtain the window when the window method invariants are satisfied
+
+                if (wm.getWindowSize() <= 0) {
+                    break; // Stop streaming simulation when the real size of the window is zero
+                }
+
+            } else {
+
+                DataFrame windowDF = wm.getWindowDF(); // Build the window DataFrame
+
+                Pipelines.generateTimeColumn(windowDF, timeColumn, lastTime + 1); // Add a time column to the DataFrame
+                lastTime += windowDF.getNumRows();
+
+                streamTrainTime.add(streamingClassifier instanceof Trainable ? BenchmarkUtils.measureTime(() -> {
+                    ((Trainable) streamingClassifier).train(windowDF);
+                }) : 0);
+
+                streamPredictTime.add(BenchmarkUtils.measureTime(() -> {
+                    streamingClassifier.process(windowDF);
+                }));
+
+                streamUpdateTime.add(streamingClassifier instanceof Updatable ? BenchmarkUtils.measureTime(() -> {
+                    ((Updatable) streamingClassifier).update(windowDF);
+                }) : 0);
+
+                wm.clearWindowData();  // Clear the window data (in order to continue to the next window construction)
+
+                if (wm.isEndStream()) {
+                    break; // Stop streaming simulation when the generator is empty
+                }
+
+            }
+        } // End of streaming simulation
+        long streamMemoryPeak = memoryProfiler.getPeakUsage();
+        long streamAllocatedBytes = allocationProfiler != null ? allocationProfiler.getUsage() : -1;
+        DataFrame streamDF = streamingClassifier.getResults();
+        if (streamDF == null) {
+            return null;
+        }
+        double[] scores = streamDF.getDoubleColumnByName(streamingClassifier.getOutputColumnName());
+        StreamingRep rep = new StreamingRep();
+        rep.classifier = streamingClassifier;
+        rep.results = streamDF;
+        rep.modelInfo = streamingClassifier.getModelInfo();
+        rep.scores = scores;
+        rep.performance = aucCurve(scores, getLabels(streamDF)).rocArea();
+        rep.trainTime = streamTrainTime;
+        rep.predictTime = streamPredictTime;
+        rep.updateTime = streamUpdateTime;
+        rep.memoryPeak = streamMemoryPeak;
+        rep.allocatedBytes = streamAllocatedBytes;
+        rep.lastGeneratedTime = lastTime;
+        return rep;
+    }
+
     private static long avg(List<Long> list) {
         long sum = 0;
         for (long i : list) {
@@ -368,17 +437,21 @@ public class BenchmarkPipeline extends Pipeline {
     }
 
     private DataFrame loadData() throws Exception {
-        Map<String, Schema.ColType> colTypes = getColTypes();
-
-        List<String> requiredColumns = new ArrayList<>(colTypes.keySet());
-
-        DataFrame dataFrame = Pipelines.loadDataFrame(conf.getDatasetConfig().getUri().addRootPath(rootDataDir), colTypes, requiredColumns, conf.getDatasetConfig().toMap());
+        DataFrame dataFrame = loadRawData();
 
         createAutoGeneratedColumns(dataFrame, timeColumn); // needed for MCOD
 
         return dataFrame;
     }
 
+    private DataFrame loadRawData() throws Exception {
+        Map<String, Schema.ColType> colTypes = getColTypes();
+
+        List<String> requiredColumns = new ArrayList<>(colTypes.keySet());
+
+        return Pipelines.loadDataFrame(conf.getDatasetConfig().getUri().addRootPath(rootDataDir), colTypes, requiredColumns, conf.getDatasetConfig().toMap());
+    }
+
     private int[] getLabels(DataFrame dataFrame) {
         String labelColumn = conf.getDatasetConfig().getLabelColumn();
         if (Strings.isNullOrEmpty(labelColumn)) {
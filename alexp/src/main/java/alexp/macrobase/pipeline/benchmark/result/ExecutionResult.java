@@ -10,6 +10,7 @@ public class ExecutionResult {
     private final long classificationTime;
     private final long updateTime;
     private final long maxMemory;
+    private final long allocatedBytes;
     private final ExecutionConfig executionConfig;
     private final StringObjectMap finalAlgorithmConfig;
 
@@ -19,10 +20,19 @@ public class ExecutionResult {
 
     public ExecutionResult(long trainingTime, long classificationTime, long updateTime, long maxMemory, ExecutionConfig executionConfig,
                            StringObjectMap finalAlgorithmConfig) {
+        this(trainingTime, classificationTime, updateTime, maxMemory, -1, executionConfig, finalAlgorithmConfig);
+    }
+
+    /**
+     * @param allocatedBytes Heap allocated while running the algorithm, or -1 if not measured.
+     */
+    public ExecutionResult(long trainingTime, long classificationTime, long updateTime, long maxMemory, long allocatedBytes,
+                           ExecutionConfig executionConfig, StringObjectMap finalAlgorithmConfig) {
         this.trainingTime = trainingTime;
         this.classificationTime = classificationTime;
         this.updateTime = updateTime;
         this.maxMemory = maxMemory;
+        this.allocatedBytes = allocatedBytes;
         this.executionConfig = executionConfig;
         this.finalAlgorithmConfig = finalAlgorithmConfig;
     }
@@ -43,6 +53,10 @@ public class ExecutionResult {
         return maxMemory;
     }
 
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
     public ExecutionConfig getExecutionConfig() {
         return executionConfig;
     }
@@ -52,17 +66,20 @@ public class ExecutionResult {
     }
 
     public StringObjectMap toMap() {
+        ImmutableMap.Builder<String, Object> result = ImmutableMap.<String, Object>builder()
+                .put("trainingTime", trainingTime)
+                .put("classificationTime", classificationTime)
+                .put("updateTime", updateTime)
+                .put("maxMemory", maxMemory);
+        if (allocatedBytes >= 0) {
+            result.put("allocatedBytes", allocatedBytes);
+        }
+        result.put("finalAlgorithmConfig", ImmutableMap.of(
+                "parameters", finalAlgorithmConfig.getValues()
+        ));
         return new StringObjectMap(ImmutableMap.of(
                 "config", executionConfig.toMap().getValues(),
-                "result", ImmutableMap.of(
-                        "trainingTime", trainingTime,
-                        "classificationTime", classificationTime,
-                        "updateTime", updateTime,
-                        "maxMemory", maxMemory,
-                        "finalAlgorithmConfig", ImmutableMap.of(
-                                "parameters", finalAlgorithmConfig.getValues()
-                        )
-                )
+                "result", result.build()
         ));
     }
 
@@ -1,60 +1,104 @@
 package alexp.macrobase.streaming;
 
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 
-// https://www.baeldung.com/a-guide-to-java-sockets
-
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.DoubleBuffer;
 import java.util.List;
-import java.util.Random;
 
+/*
+ *  Replays a dataset as a stream of data points.
+ *  The dataset is parsed once into columns, which are only read here, so a repetition costs no
+ *  I/O and several generators can run concurrently over the same data.
+ *  A single generator is not thread-safe.
+ * */
 public class StreamGenerator {
 
-    private static BufferedReader br;
-    private static boolean generatorIsSetted = false;
-    private static int maxBound = 10;
+    private final String[] columnNames;
+    private final double[][] columns;
+    private final int numPoints;
+    private final double[] timestamps;
+    private int position = 0;
 
-    public static void init(){
-        generatorIsSetted = false;
+    public StreamGenerator(DataFrame data, List<String> columnNames) {
+        this(data, columnNames, null);
     }
 
-    // P/P Streaming Generator e.g. P1
-    public static String fetch(String filePath) throws IOException {
-        if (!generatorIsSetted) {
-            generatorIsSetted = true;
-            br = new BufferedReader(new FileReader(new File(filePath)));
-            br.readLine();
+    /**
+     * @param data Parsed dataset.
+     * @param columnNames Double columns of the data to stream.
+     * @param timeColumn Column with non-decreasing timestamps for {@link #fetchUntil(double)},
+     *                   or null.
+     * @throws IllegalArgumentException If the timestamps decrease.
+     */
+    public StreamGenerator(DataFrame data, List<String> columnNames, String timeColumn) {
+        this.columnNames = columnNames.toArray(new String[0]);
+        this.columns = new double[this.columnNames.length][];
+        for (int c = 0; c < this.columnNames.length; c++) {
+            columns[c] = data.getDoubleColumnByName(this.columnNames[c]);
+        }
+        this.numPoints = data.getNumRows();
+        this.timestamps = timeColumn == null ? null : data.getDoubleColumnByName(timeColumn);
+        if (timestamps != null) {
+            for (int i = 1; i < numPoints; i++) {
+                if (timestamps[i] < timestamps[i - 1]) {
+                    throw new IllegalArgumentException(String.format(
+                            "timestamps in %s decrease at row %d", timeColumn, i));
+                }
+            }
         }
+    }
 
-        String line = br.readLine();
+    public boolean hasNext() {
+        return position < numPoints;
+    }
+
+    /**
+     * @return The next (up to) n data points; an empty DataFrame once the stream has ended.
+     */
+    public DataFrame fetch(int n) {
+        int count = Math.max(0, Math.min(n, numPoints - position));
+        DataFrame points = view(position, count);
+        position += count;
+        return points;
+    }
+
+    /**
+     * Timestamp paced replay: fetch every remaining point stamped before the given time.
+     * @throws IllegalStateException If the stream has no time column.
+     */
+    public DataFrame fetchUntil(double timestamp) {
+        checkTimestamps();
+        int end = position;
+        while (end < numPoints && timestamps[end] < timestamp) {
+            end++;
+        }
+        return fetch(end - position);
+    }
+
+    /**
+     * @return The timestamp of the next data point, or NaN once the stream has ended.
+     * @throws IllegalStateException If the stream has no time column.
+     */
+    public double peekTimestamp() {
+        checkTimestamps();
+        return hasNext() ? timestamps[position] : Double.NaN;
+    }
 
-        if (line == null) {
-            return "";
-        } else {
-            return line;
+    private void checkTimestamps() {
+        if (timestamps == null) {
+            throw new IllegalStateException("stream has no time column");
         }
     }
 
-    // Time (Simulation) Streaming Generator e.g. [[P1, P2], [P3, P4, P5], [P6]] ~ 1 SEC of data points
-    // Comment: this method is currently not in use.
-    public static List<String> fetch(String filePath, int seconds) throws IOException {
-        if (!generatorIsSetted) {
-            generatorIsSetted = true;
-            br = new BufferedReader(new FileReader(new File(filePath)));
-            br.readLine();
+    private DataFrame view(int start, int count) {
+        DataFrame points = new DataFrame();
+        if (count == 0) {
+            return points;
         }
-        int random = new Random().nextInt(maxBound * seconds) + 1;
-        List<String> lineChunk = new ArrayList<String>();
-        while (random-- != 0) {
-            String line = br.readLine();
-            if (line == null)
-                break;
-            lineChunk.add(line);
+        for (int c = 0; c < columns.length; c++) {
+            points.addColumn(columnNames[c], DoubleBuffer.wrap(columns[c], start, count).asReadOnlyBuffer());
         }
-        return lineChunk;
+        return points;
     }
 
 }
@@ -0,0 +1,96 @@
+package alexp.macrobase.streaming.Windows;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *  Column-major buffer of parsed data points, used as a ring.
+ *  Points are appended behind the buffered ones and dropped from the front, so the buffered
+ *  points are always contiguous and can be handed to a DataFrame without copying. When appending
+ *  reaches the end of the arrays, the points are moved back to their start; the arrays are then
+ *  at least four times as long as the points moved, so on average a point is moved a third of a time.
+ * */
+public class ColumnRingBuffer {
+
+    private static final int initialCapacity = 64;
+
+    private final List<String> columnNames;
+    private double[][] columns;
+    private int capacity;
+    private int head = 0;
+    private int size = 0;
+
+    public ColumnRingBuffer(List<String> columnNames) {
+        this.columnNames = new ArrayList<>(columnNames);
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Append data points, copying the buffer's columns from the DataFrame by name.
+     */
+    public void add(DataFrame points) {
+        int n = points.getNumRows();
+        if (head + size + n > capacity) {
+            if (4 * (size + n) > capacity) {
+                allocate(Math.max(2 * capacity, 4 * (size + n)));
+            } else {
+                for (double[] column : columns) {
+                    System.arraycopy(column, head, column, 0, size);
+                }
+                head = 0;
+            }
+        }
+        for (int c = 0; c < columns.length; c++) {
+            DoubleBuffer values = points.getDoubleColumnBuffer(points.getSchema().getColumnIndex(columnNames.get(c)));
+            values.get(columns[c], head + size, n);
+        }
+        size += n;
+    }
+
+    /**
+     * Drop the n oldest points.
+     */
+    public void removeFirst(int n) {
+        n = Math.min(n, size);
+        head += n;
+        size -= n;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A DataFrame over the numRows oldest points.  Its columns are read-only views of
+     * the buffer, so it is only valid until points are next added or removed.
+     */
+    public DataFrame getDataFrame(int numRows) {
+        numRows = Math.min(numRows, size);
+        DataFrame dataFrame = new DataFrame();
+        for (int c = 0; c < columns.length; c++) {
+            dataFrame.addColumn(columnNames.get(c), DoubleBuffer.wrap(columns[c], head, numRows).asReadOnlyBuffer());
+        }
+        return dataFrame;
+    }
+
+    private void allocate(int newCapacity) {
+        double[][] newColumns = new double[columnNames.size()][newCapacity];
+        if (columns != null) {
+            for (int c = 0; c < columns.length; c++) {
+                System.arraycopy(columns[c], head, newColumns[c], 0, size);
+            }
+        }
+        columns = newColumns;
+        capacity = newCapacity;
+        head = 0;
+    }
+
+}
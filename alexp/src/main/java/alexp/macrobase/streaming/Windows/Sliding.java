@@ -1,9 +1,8 @@
 package alexp.macrobase.streaming.Windows;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+
 import java.util.List;
-import java.util.Queue;
 
 /*
 *  Count based sliding window implementation
@@ -14,19 +13,20 @@ public class Sliding implements Window {
     int windowSlide;
     boolean ready = false;
 
-    Queue<String> capacitor = new LinkedList<>();
+    ColumnRingBuffer capacitor;
 
     boolean endStream = false;
 
-    public Sliding(int windowSize, int windowSlide) {
+    public Sliding(int windowSize, int windowSlide, List<String> columns) {
         this.windowSize = windowSize;
         this.windowSlide = windowSlide;
+        this.capacitor = new ColumnRingBuffer(columns);
     }
 
     @Override
-    public void build(String dp) {
-        if (!dp.isEmpty()) {
-            capacitor.add(dp);
+    public void build(DataFrame points) {
+        if (points.getNumRows() > 0) {
+            capacitor.add(points);
             if (capacitor.size() >= windowSize + windowSlide) {
                 ready = true;
             }
@@ -40,19 +40,18 @@ public class Sliding implements Window {
     }
 
     @Override
-    public List<String> getWindow() {
-        List<String> temp = new ArrayList<>();
-        List<String> queueAsList = new ArrayList<>(capacitor);
-        int bound = 0;
-        if (queueAsList.size() >= windowSize) {
-            bound = windowSize;
-        } else {
-            bound = queueAsList.size();
-        }
-        for (int i = 0; i < bound; i++) {
-            temp.add(queueAsList.get(i));
-        }
-        return temp;
+    public int getPointsNeeded() {
+        return Math.max(1, windowSize + windowSlide - capacitor.size());
+    }
+
+    @Override
+    public DataFrame getWindow() {
+        return capacitor.getDataFrame(windowSize);
+    }
+
+    @Override
+    public int getWindowSize() {
+        return Math.min(windowSize, capacitor.size());
     }
 
     @Override
@@ -75,12 +74,8 @@ public class Sliding implements Window {
 
     @Override
     public void clearWindow() {
-
-        for (int i = 0; i < windowSlide; i++) {
-            capacitor.poll();
-        }
+        capacitor.removeFirst(windowSlide);
         ready = false;
-
     }
 
-}
\ No newline at end of file
+}
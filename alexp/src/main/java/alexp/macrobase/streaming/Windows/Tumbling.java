@@ -1,6 +1,7 @@
 package alexp.macrobase.streaming.Windows;
 
-import java.util.ArrayList;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+
 import java.util.List;
 
 /*
@@ -10,20 +11,21 @@ public class Tumbling implements Window {
 
     int windowSize;
     boolean ready = false;
-    List<String> window = new ArrayList<>();
+    ColumnRingBuffer window;
 
     boolean endStream = false;
 
-    public Tumbling(int windowSize) {
+    public Tumbling(int windowSize, List<String> columns) {
         this.windowSize = windowSize;
+        this.window = new ColumnRingBuffer(columns);
     }
 
     @Override
-    public void build(String dp) {
+    public void build(DataFrame points) {
 
-        if (!dp.isEmpty()) {
-            window.add(dp);
-            if (window.size() == windowSize) {
+        if (points.getNumRows() > 0) {
+            window.add(points);
+            if (window.size() >= windowSize) {
                 ready = true;
             }
         } else {
@@ -34,8 +36,18 @@ public class Tumbling implements Window {
     }
 
     @Override
-    public List<String> getWindow() {
-        return window;
+    public int getPointsNeeded() {
+        return Math.max(1, windowSize - window.size());
+    }
+
+    @Override
+    public DataFrame getWindow() {
+        return window.getDataFrame(window.size());
+    }
+
+    @Override
+    public int getWindowSize() {
+        return window.size();
     }
 
     @Override
@@ -1,12 +1,27 @@
 package alexp.macrobase.streaming.Windows;
 
-import java.util.List;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 
 public interface Window {
 
-    void build(String dp);
+    /**
+     * Add data points to the window; an empty DataFrame marks the end of the stream.
+     */
+    void build(DataFrame points);
 
-    List<String> getWindow();
+    /**
+     * @return Number of data points still needed before the window is ready.
+     */
+    int getPointsNeeded();
+
+    /**
+     * @return The current window as a view of the buffered points. The view is only valid until
+     * the window is next built or cleared, after which its values are overwritten; callers
+     * that keep the frame, or add columns to a copy of it, must copy its columns first.
+     */
+    DataFrame getWindow();
+
+    int getWindowSize();
 
     boolean windowIsReady();
 
@@ -24,8 +24,21 @@ public class WindowManager {
     private int windowSizeTime;
     private int windowSlideTime = 1;
     private Window window;
+    private final Random random;
 
     public WindowManager(AlgorithmConfig classifierConf, DatasetConfig datasetConf) {
+        this(classifierConf, datasetConf, new Random());
+    }
+
+    /**
+     * @param seed Seed of the random window sizes in time mode.
+     */
+    public WindowManager(AlgorithmConfig classifierConf, DatasetConfig datasetConf, long seed) {
+        this(classifierConf, datasetConf, new Random(seed));
+    }
+
+    private WindowManager(AlgorithmConfig classifierConf, DatasetConfig datasetConf, Random random) {
+        this.random = random;
         this.classifierConf = classifierConf;
         this.datasetConf = datasetConf;
         this.windowSize = classifierConf.getParameters().get(windowSizeKey);
@@ -44,18 +57,31 @@ public class WindowManager {
     }
 
     private void initWindowMethod() {
+        List<String> columns = getColumns();
         switch (this.windowType) {
             case "tumbling":
-                window = new Tumbling(windowSize);
+                window = new Tumbling(windowSize, columns);
                 break;
             case "sliding":
-                window = new Sliding(windowSize, windowSlide);
+                window = new Sliding(windowSize, windowSlide, columns);
                 break;
             default:
                 throw new IllegalArgumentException("window type is unknown! " + windowTypeKey + " You must select between 'sliding' or 'tumbling' window");
         }
     }
 
+    /**
+     * @return The columns a window holds: the metric columns and the label column, if any.
+     */
+    public List<String> getColumns() {
+        List<String> columns = new ArrayList<>(Arrays.asList(datasetConf.getMetricColumns()));
+        String labelColumn = datasetConf.getLabelColumn();
+        if (labelColumn != null && !labelColumn.isEmpty()) {
+            columns.add(labelColumn);
+        }
+        return columns;
+    }
+
     public String getWindowMethod() {
         String windowMethod = classifierConf.getParameters().get(windowTypeKey);
         if (windowMethod.isEmpty()) {
@@ -65,8 +91,12 @@ public class WindowManager {
         }
     }
 
-    public void manage(String rawDp) {
-        window.build(rawDp);
+    public void manage(DataFrame points) {
+        window.build(points);
+    }
+
+    public int getPointsNeeded() {
+        return window.getPointsNeeded();
     }
 
     public boolean windowIsConstructed() {
@@ -78,42 +108,12 @@ public class WindowManager {
     }
 
 
+    /**
+     * @return The current window, a view of the window's buffer that is only valid until the
+     * window is next built or cleared (see {@link Window#getWindow()}).
+     */
     public DataFrame getWindowDF() throws Exception {
-        // INITIALIZE THE DATA FRAME
-        DataFrame dataFrame = new DataFrame();
-        // GET ALL THE DATASET COLUMNS
-        List<String> dimensions = new ArrayList<>();
-        for (String dim : datasetConf.getMetricColumns()) {
-            dimensions.add(dim);
-        }
-        dimensions.add(datasetConf.getLabelColumn());
-        // GET ALL WINDOW DATA
-        List<String> windowRawDP = window.getWindow();
-        Map<String, double[]> accumulator = new HashMap<>();
-        int dimCounter = 0;
-        int pointCounter = 0;
-        //System.out.println("==================== START");
-        for (String dp : windowRawDP) {
-            //System.out.println(dp);
-            String[] lineParts = dp.split("[,]\\s*+");
-            for (String numStr : lineParts) {
-                double num = Double.parseDouble(numStr);
-                String currLabel = dimensions.get(dimCounter);
-                double[] tmpTable = accumulator.getOrDefault(currLabel, new double[windowRawDP.size()]);
-                tmpTable[pointCounter] = num;
-                accumulator.put(currLabel, tmpTable);
-                dimCounter++;
-            }
-            pointCounter++;
-            dimCounter = 0;
-        }
-        //System.out.println("==================== END");
-        // BUILD THE DATA FRAME
-        for (String dimension : accumulator.keySet()) {
-            dataFrame.addColumn(dimension, accumulator.get(dimension));
-        }
-        // RETURN THE DATA FRAME
-        return dataFrame;
+        return window.getWindow();
     }
 
     public void clearWindowData() {
@@ -126,9 +126,9 @@ public class WindowManager {
             case "time":
                 int maxBound = 5; // maximum number of points bound
                 int minBound = 1; // minimum number of points bound
-                this.windowSize = new Random().nextInt(this.windowSizeTime * maxBound) + minBound;
+                this.windowSize = random.nextInt(this.windowSizeTime * maxBound) + minBound;
                 int shift = (int) Math.ceil(((double) this.windowSlideTime / this.windowSizeTime) * this.windowSize);
-                this.windowSlide = new Random().nextInt(shift) + 1;
+                this.windowSlide = random.nextInt(shift) + 1;
                 if (updateWindowInstance) {
                     window.resetParams(new int[]{this.windowSize, this.windowSlide});
                 }
@@ -145,7 +145,7 @@ public class WindowManager {
     }
 
     public int getWindowSize() {
-        return window.getWindow().size();
+        return window.getWindowSize();
     }
 
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package alexp.macrobase.utils;
 import com.github.chen0040.data.frame.BasicDataFrame;
 import com.github.chen0040.data.frame.DataRow;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
 import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameWriter;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
@@ -55,6 +56,25 @@ public class DataFrameUtils {
         return result;
     }
 
+    /**
+     * @return A DataFrame with the same columns, whose double columns are arrays of its own
+     * rather than buffers. Frames that are kept beyond the call that received them use this, since
+     * a streaming window is a view of a buffer that is overwritten as the window moves on.
+     */
+    public static DataFrame copyOutOfBuffers(DataFrame data) {
+        DataFrame result = new DataFrame();
+        Schema schema = data.getSchema();
+        for (int c = 0; c < schema.getNumColumns(); c++) {
+            if (schema.getColumnType(c) == Schema.ColType.DOUBLE) {
+                // a buffered column is copied onto the heap when its array is requested
+                result.addColumn(schema.getColumnName(c), data.getDoubleColumn(c));
+            } else {
+                result.addColumn(schema.getColumnName(c), data.getStringColumn(c));
+            }
+        }
+        return result;
+    }
+
     public static void saveToCsv(String filePath, DataFrame data) throws IOException {
         Files.createDirectories(Paths.get(filePath).getParent());
 
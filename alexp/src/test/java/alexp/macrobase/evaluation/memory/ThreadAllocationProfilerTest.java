@@ -0,0 +1,32 @@
+package alexp.macrobase.evaluation.memory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ThreadAllocationProfilerTest {
+    private static final int size = 8 * 1024 * 1024;
+
+    private static volatile Object sink;
+
+    @Test
+    public void getUsage() throws Exception {
+        assumeTrue(ThreadAllocationProfiler.isSupported());
+
+        ThreadAllocationProfiler profiler = new ThreadAllocationProfiler();
+        sink = new byte[size];
+        long usage = profiler.getUsage();
+        assertTrue(usage >= size);
+
+        // Allocations of other threads are not counted
+        Thread other = new Thread(() -> {
+            for (int i = 0; i < 4; i++) {
+                sink = new byte[size];
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(profiler.getUsage() - usage < size);
+    }
+}
@@ -0,0 +1,156 @@
+package alexp.macrobase.outlier.lof.bkaluza;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class LOFTest {
+    private static final String[] columns = {"x", "y"};
+
+    private static double[][] randomPoints(int n, Random rand) {
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            double x = rand.nextGaussian();
+            double y = i % 40 == 0 ? 6 + rand.nextDouble() : rand.nextGaussian();
+            if (i % 3 == 0) {
+                // On a grid, so that distances are tied and some points are duplicated
+                x = Math.round(x * 2) / 2.0;
+                y = Math.round(y);
+            }
+            points[i] = new double[]{x, y};
+        }
+        return points;
+    }
+
+    /**
+     * LOF from the full table of distances between the training instances and the test instance,
+     * which is appended last, as the classifier used to compute it.
+     */
+    private static class DenseLOF {
+        final double[][] dist;
+        final Integer[][] sorted;
+        final int kNN;
+
+        DenseLOF(double[][] train, double[] test, int kNN) {
+            int n = train.length;
+            double[][] points = new double[n + 1][];
+            System.arraycopy(train, 0, points, 0, n);
+            points[n] = test;
+            dist = new double[n + 1][n + 1];
+            for (int i = 0; i <= n; i++) {
+                for (int j = 0; j <= n; j++) {
+                    dist[i][j] = distance(points[i], points[j]);
+                }
+            }
+            dist[n][n] = -1;
+            sorted = new Integer[n + 1][];
+            for (int i = 0; i <= n; i++) {
+                final double[] row = dist[i];
+                sorted[i] = IntStream.rangeClosed(0, n).boxed()
+                        .sorted(Comparator.comparingDouble(j -> row[j])).toArray(Integer[]::new);
+            }
+            this.kNN = kNN;
+        }
+
+        // kNN, and more if they are at the same distance as the kNN-th
+        int nnCount(int i) {
+            int numNN = kNN;
+            for (int j = kNN; j < dist.length - 1 && dist[i][sorted[i][j]] == dist[i][sorted[i][j + 1]]; j++) {
+                numNN++;
+            }
+            return numNN;
+        }
+
+        double reachDistance(int first, int second) {
+            return Math.max(dist[first][second], dist[second][sorted[second][nnCount(second)]]);
+        }
+
+        double localReachDensity(int i) {
+            int numNN = nnCount(i);
+            double lrd = 0;
+            for (int j = 1; j <= numNN; j++) {
+                lrd += reachDistance(i, sorted[i][j]);
+            }
+            return lrd == 0 ? 0 : numNN / lrd;
+        }
+
+        double score() {
+            int test = dist.length - 1;
+            int numNN = nnCount(test);
+            double lrdTest = localReachDensity(test);
+            double lof = 0;
+            for (int j = 1; j <= numNN; j++) {
+                lof += lrdTest == 0 ? 0 : localReachDensity(sorted[test][j]) / lrdTest;
+            }
+            return lof / numNN;
+        }
+
+        static double distance(double[] first, double[] second) {
+            double distance = 0;
+            for (int i = 0; i < first.length; i++) {
+                distance += Math.pow(first[i] - second[i], 2);
+            }
+            return Math.sqrt(distance);
+        }
+    }
+
+    private static void assertMatchesDense(int n, int trainSize, int kNN) throws Exception {
+        double[][] points = randomPoints(n, new Random(2));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = points[i][0];
+            y[i] = points[i][1];
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("x", x);
+        df.addColumn("y", y);
+
+        LOF lof = new LOF(columns, LOF.Distance.EUCLIDIAN);
+        lof.setTrainSize(trainSize);
+        lof.setkNN(kNN);
+        lof.process(df);
+        double[] scores = lof.getResults().getDoubleColumnByName(lof.getOutputColumnName());
+
+        double[][] train = new double[trainSize][];
+        System.arraycopy(points, 0, train, 0, trainSize);
+        for (int i = 0; i < n; i++) {
+            assertEquals(new DenseLOF(train, points[i], kNN).score(), scores[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testMatchesDense() throws Exception {
+        assertMatchesDense(150, 100, 5);
+        assertMatchesDense(150, 100, 12);
+    }
+
+    @Test
+    public void testAllNeighbors() throws Exception {
+        // Every other training instance is a neighbor, with the test instance too for kNN = n
+        assertMatchesDense(40, 20, 19);
+        assertMatchesDense(40, 20, 20);
+    }
+
+    @Test
+    public void testLargerKAfterTraining() throws Exception {
+        double[][] points = randomPoints(60, new Random(3));
+        LOF lof = new LOF(columns, LOF.Distance.EUCLIDIAN);
+        lof.setTrainSize(60);
+        lof.train(Arrays.asList(points));
+
+        // Scoring with a larger k than trained for extends the neighbors, also in parallel
+        double[] scores = IntStream.range(0, points.length).parallel()
+                .mapToDouble(i -> lof.score(points[i], 10 + i % 3))
+                .toArray();
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(new DenseLOF(points, points[i], 10 + i % 3).score(), scores[i], 1e-9);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package alexp.macrobase.outlier.lof.chen;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class KDTreeTest {
+    private static double[][] randomPoints(int n, int d, Random rand) {
+        double[][] points = new double[n][d];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < d; j++) {
+                // Rounded, so that some points and distances are duplicated
+                points[i][j] = i % 5 == 0 ? Math.round(rand.nextGaussian()) : rand.nextGaussian();
+            }
+        }
+        return points;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        return DistanceMeasureService.euclideanDistance(a, b);
+    }
+
+    @Test
+    public void testKnnMatchesBruteForce() {
+        Random rand = new Random(0);
+        double[][] points = randomPoints(1000, 3, rand);
+        KDTree tree = new KDTree(points);
+        int k = 7;
+        int[] ids = new int[k];
+        double[] dists = new double[k];
+        for (int q = 0; q < points.length; q += 13) {
+            final double[] query = points[q];
+            Integer[] expected = IntStream.range(0, points.length).filter(i -> i != 0).boxed()
+                    .sorted(Comparator.<Integer>comparingDouble(i -> distance(query, points[i])).thenComparing(i -> i))
+                    .toArray(Integer[]::new);
+            assertEquals(k, tree.knn(query, k, 0, ids, dists));
+            for (int i = 0; i < k; i++) {
+                assertEquals(expected[i].intValue(), ids[i]);
+                assertEquals(distance(query, points[expected[i]]), dists[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testKnnFewPoints() {
+        double[][] points = {{0.0}, {1.0}, {3.0}};
+        KDTree tree = new KDTree(points);
+        int[] ids = new int[5];
+        double[] dists = new double[5];
+        assertEquals(2, tree.knn(points[0], 5, 0, ids, dists));
+        assertArrayEquals(new int[]{1, 2}, Arrays.copyOf(ids, 2));
+        assertArrayEquals(new double[]{1.0, 3.0}, Arrays.copyOf(dists, 2), 0.0);
+    }
+
+    @Test
+    public void testWithinMatchesBruteForce() {
+        Random rand = new Random(0);
+        double[][] points = randomPoints(1000, 2, rand);
+        KDTree tree = new KDTree(points);
+        for (int q = 0; q < points.length; q += 17) {
+            final double[] query = points[q];
+            for (double radius : new double[]{0.0, 0.1, 0.5, 2.0, 100.0}) {
+                final int self = q;
+                int[] expected = IntStream.range(0, points.length)
+                        .filter(i -> i != self && distance(query, points[i]) < radius)
+                        .toArray();
+                int[] actual = tree.within(query, radius, q);
+                Arrays.sort(actual);
+                assertArrayEquals(expected, actual);
+                assertEquals(expected.length, tree.countWithin(query, radius, q));
+            }
+        }
+    }
+}
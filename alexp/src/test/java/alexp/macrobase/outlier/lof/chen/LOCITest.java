@@ -0,0 +1,120 @@
+package alexp.macrobase.outlier.lof.chen;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LOCITest {
+    private static final String[] columns = {"x", "y"};
+
+    private static double[][] randomPoints(int n, Random rand) {
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            // A dense cluster, a sparse one, a few isolated points, and some tied distances
+            if (i % 20 == 0) {
+                points[i] = new double[]{10 + rand.nextDouble(), -10 + rand.nextDouble()};
+            } else if (i % 3 == 0) {
+                points[i] = new double[]{5 + 3 * rand.nextGaussian(), 5 + 3 * rand.nextGaussian()};
+            } else {
+                points[i] = new double[]{Math.round(4 * rand.nextGaussian()) / 4.0, rand.nextGaussian()};
+            }
+        }
+        return points;
+    }
+
+    // LOCI over the full distance matrix, as the classifier used to compute it
+    private static double[] bruteForce(double[][] points, double alpha, double kSigma) {
+        int m = points.length;
+        double[][] distances = new double[m][m];
+        double maxDistance = Double.MIN_VALUE;
+        for (int i = 0; i < m; i++) {
+            for (int j = i + 1; j < m; j++) {
+                distances[i][j] = distances[j][i] = DistanceMeasureService.euclideanDistance(points[i], points[j]);
+                maxDistance = Math.max(maxDistance, distances[i][j]);
+            }
+        }
+        double rMax = maxDistance / alpha;
+
+        double[] flags = new double[m];
+        for (int i = 0; i < m; i++) {
+            for (int r = 0; r < m; r++) {
+                if (r == i || distances[i][r] >= rMax) {
+                    continue;
+                }
+                double alphar = alpha * distances[i][r];
+                int n = 1;
+                double sum = 0;
+                for (int j = 0; j < m; j++) {
+                    if (j != i && distances[i][j] < rMax) {
+                        n++;
+                        sum += alpharCount(distances, j, alphar, rMax);
+                    }
+                }
+                double nhat = sum / n;
+                double deviations = 0;
+                for (int j = 0; j < m; j++) {
+                    if (j != i && distances[i][j] < rMax) {
+                        deviations += Math.pow(alpharCount(distances, j, alphar, rMax) - nhat, 2);
+                    }
+                }
+                double sigma = Math.sqrt(deviations / n);
+                double mdef = 1 - alpharCount(distances, i, alphar, rMax) / nhat;
+                if (mdef > kSigma * sigma / nhat) {
+                    flags[i] = 1.0;
+                    break;
+                }
+            }
+        }
+        return flags;
+    }
+
+    private static int alpharCount(double[][] distances, int i, double alphar, double rMax) {
+        int count = 1;
+        for (int j = 0; j < distances.length; j++) {
+            if (j != i && distances[i][j] < rMax && distances[i][j] < alphar) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertMatchesBruteForce(double alpha, double kSigma) throws Exception {
+        double[][] points = randomPoints(100, new Random(0));
+        double[] x = new double[points.length];
+        double[] y = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            x[i] = points[i][0];
+            y[i] = points[i][1];
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("x", x);
+        df.addColumn("y", y);
+
+        LOCI loci = new LOCI(columns);
+        loci.setAlpha(alpha);
+        loci.setkSigma(kSigma);
+        loci.process(df);
+        double[] flags = loci.getResults().getDoubleColumnByName(loci.getOutputColumnName());
+
+        double[] expected = bruteForce(points, alpha, kSigma);
+        double numOutliers = Arrays.stream(expected).sum();
+        assertTrue(numOutliers > 0 && numOutliers < points.length);
+        assertArrayEquals(expected, flags, 0.0);
+    }
+
+    @Test
+    public void testMatchesBruteForce() throws Exception {
+        assertMatchesBruteForce(0.5, 3);
+        assertMatchesBruteForce(0.5, 2);
+    }
+
+    @Test
+    public void testLargeAlpha() throws Exception {
+        // r_max is then below the largest distance, so sampling neighborhoods are proper subsets
+        assertMatchesBruteForce(2, 2);
+    }
+}
@@ -0,0 +1,91 @@
+package alexp.macrobase.outlier.lof.chen;
+
+import alexp.macrobase.utils.DataFrameUtils;
+import com.github.chen0040.data.frame.DataRow;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LOFTest {
+    private static final String[] columns = {"x", "y", "z"};
+
+    private static DataFrame randomData(int n, Random rand) {
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Rounded, so that some distances are tied
+            x[i] = i % 7 == 0 ? Math.round(rand.nextGaussian()) : rand.nextGaussian();
+            y[i] = 2 * rand.nextGaussian();
+            z[i] = i % 50 == 0 ? 8 + rand.nextDouble() : rand.nextGaussian();
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("x", x);
+        df.addColumn("y", y);
+        df.addColumn("z", z);
+        return df;
+    }
+
+    // Score of a row as the brute-force LOF computed it: the largest LOF over all minPts
+    @SuppressWarnings("deprecation")
+    private static double bruteForceScore(LOF lof, com.github.chen0040.data.frame.DataFrame batch, DataRow row) {
+        double maxLOF = Double.NEGATIVE_INFINITY;
+        for (int minPts = 3; minPts <= 10; minPts++) {
+            double score = lof.local_outlier_factor(batch, row, minPts);
+            if (!Double.isNaN(score)) {
+                maxLOF = Math.max(maxLOF, score);
+            }
+        }
+        return maxLOF;
+    }
+
+    @Test
+    public void testScoresMatchBruteForce() throws Exception {
+        DataFrame df = randomData(150, new Random(0));
+
+        LOF lof = new LOF(columns);
+        lof.setTrainSize(100);
+        lof.setParallel(false);
+        lof.process(df);
+        double[] scores = lof.getResults().getDoubleColumnByName(lof.getOutputColumnName());
+
+        com.github.chen0040.data.frame.DataFrame rows = DataFrameUtils.toRowDataFrame(df, columns);
+        com.github.chen0040.data.frame.DataFrame model = DataFrameUtils.toRowDataFrame(df.limit(100), columns);
+        double minScore = Double.MAX_VALUE;
+        double maxScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < model.rowCount(); i++) {
+            double score = bruteForceScore(lof, model, model.row(i));
+            if (!Double.isInfinite(score)) {
+                minScore = Math.min(minScore, score);
+                maxScore = Math.max(maxScore, score);
+            }
+        }
+        for (int i = 0; i < rows.rowCount(); i++) {
+            double expected = (Math.max(0, bruteForceScore(lof, model, rows.row(i)) - minScore)) / (maxScore - minScore);
+            assertEquals(Math.min(1, expected), scores[i], 1e-9);
+        }
+        // The planted outliers stand out
+        assertTrue(scores[0] > 0.5);
+        assertTrue(scores[50] > 0.5);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        DataFrame df = randomData(300, new Random(1));
+
+        LOF sequential = new LOF(columns);
+        sequential.setTrainSize(200);
+        sequential.setParallel(false);
+        sequential.process(df);
+
+        LOF parallel = new LOF(columns);
+        parallel.setTrainSize(200);
+        parallel.process(df);
+
+        assertArrayEquals(sequential.getResults().getDoubleColumnByName(sequential.getOutputColumnName()),
+                parallel.getResults().getDoubleColumnByName(parallel.getOutputColumnName()), 1e-12);
+    }
+}
@@ -0,0 +1,92 @@
+package alexp.macrobase.streaming;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class StreamGeneratorTest {
+
+    @Test
+    public void testFetch() {
+        DataFrame data = new DataFrame();
+        data.addColumn("a", new double[]{1, 2, 3, 4, 5});
+        data.addColumn("b", new double[]{-1, -2, -3, -4, -5});
+        StreamGenerator stream = new StreamGenerator(data, Arrays.asList("b", "a"));
+
+        DataFrame points = stream.fetch(2);
+        assertEquals(2, points.getNumRows());
+        assertArrayEquals(new double[]{1, 2}, points.getDoubleColumnByName("a"), 0.0);
+        assertArrayEquals(new double[]{-1, -2}, points.getDoubleColumnByName("b"), 0.0);
+
+        // Only what is left of the stream, then nothing
+        points = stream.fetch(10);
+        assertEquals(3, points.getNumRows());
+        assertArrayEquals(new double[]{3, 4, 5}, points.getDoubleColumnByName("a"), 0.0);
+        assertEquals(0, stream.fetch(10).getNumRows());
+
+        // Generators over the same data are independent
+        StreamGenerator other = new StreamGenerator(data, Collections.singletonList("a"));
+        assertArrayEquals(new double[]{1}, other.fetch(1).getDoubleColumnByName("a"), 0.0);
+    }
+
+    @Test
+    public void testFetchUntil() {
+        DataFrame data = new DataFrame();
+        data.addColumn("a", new double[]{1, 2, 3, 4, 5, 6});
+        data.addColumn("time", new double[]{0, 10, 10, 20, 35, 35});
+        StreamGenerator stream = new StreamGenerator(data, Collections.singletonList("a"), "time");
+
+        assertEquals(0, stream.peekTimestamp(), 0.0);
+        // Strictly before the given time, so tied timestamps are fetched together
+        assertEquals(1, stream.fetchUntil(10).getNumRows());
+        assertEquals(10, stream.peekTimestamp(), 0.0);
+        assertEquals(0, stream.fetchUntil(10).getNumRows());
+        assertArrayEquals(new double[]{2, 3, 4}, stream.fetchUntil(30).getDoubleColumnByName("a"), 0.0);
+        assertEquals(35, stream.peekTimestamp(), 0.0);
+
+        // The rest of the stream, then nothing
+        assertArrayEquals(new double[]{5, 6}, stream.fetchUntil(100).getDoubleColumnByName("a"), 0.0);
+        assertFalse(stream.hasNext());
+        assertTrue(Double.isNaN(stream.peekTimestamp()));
+        assertEquals(0, stream.fetchUntil(200).getNumRows());
+    }
+
+    @Test
+    public void testFetchUntilMixedWithFetch() {
+        DataFrame data = new DataFrame();
+        data.addColumn("a", new double[]{1, 2, 3, 4});
+        data.addColumn("time", new double[]{1, 2, 3, 4});
+        StreamGenerator stream = new StreamGenerator(data, Collections.singletonList("a"), "time");
+
+        assertEquals(2, stream.fetch(2).getNumRows());
+        assertEquals(3, stream.peekTimestamp(), 0.0);
+        assertArrayEquals(new double[]{3}, stream.fetchUntil(4).getDoubleColumnByName("a"), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecreasingTimestamps() {
+        DataFrame data = new DataFrame();
+        data.addColumn("a", new double[]{1, 2, 3});
+        data.addColumn("time", new double[]{1, 3, 2});
+        new StreamGenerator(data, Collections.singletonList("a"), "time");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFetchUntilWithoutTimeColumn() {
+        DataFrame data = new DataFrame();
+        data.addColumn("a", new double[]{1, 2, 3});
+        new StreamGenerator(data, Collections.singletonList("a")).fetchUntil(2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPeekWithoutTimeColumn() {
+        DataFrame data = new DataFrame();
+        data.addColumn("a", new double[]{1, 2, 3});
+        new StreamGenerator(data, Collections.singletonList("a")).peekTimestamp();
+    }
+
+}
@@ -0,0 +1,94 @@
+package alexp.macrobase.streaming.Windows;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ColumnRingBufferTest {
+
+    private static DataFrame points(int start, int count) {
+        double[] a = new double[count];
+        double[] b = new double[count];
+        for (int i = 0; i < count; i++) {
+            a[i] = start + i;
+            b[i] = -(start + i);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("b", b);
+        df.addColumn("a", a);
+        return df;
+    }
+
+    private static void assertWindow(ColumnRingBuffer buffer, int start, int count) {
+        DataFrame df = buffer.getDataFrame(count);
+        assertEquals(count, df.getNumRows());
+        double[] a = df.getDoubleColumnByName("a");
+        double[] b = df.getDoubleColumnByName("b");
+        for (int i = 0; i < count; i++) {
+            assertEquals(start + i, a[i], 0.0);
+            assertEquals(-(start + i), b[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testRemoveFirst() {
+        ColumnRingBuffer buffer = new ColumnRingBuffer(Arrays.asList("a", "b"));
+        buffer.add(points(0, 10));
+        buffer.removeFirst(3);
+        assertEquals(7, buffer.size());
+        assertWindow(buffer, 3, 7);
+        // Asking for more rows than are buffered gives what there is
+        assertEquals(7, buffer.getDataFrame(100).getNumRows());
+        buffer.removeFirst(100);
+        assertEquals(0, buffer.size());
+        buffer.add(points(10, 2));
+        assertWindow(buffer, 10, 2);
+    }
+
+    @Test
+    public void testWrap() {
+        ColumnRingBuffer buffer = new ColumnRingBuffer(Arrays.asList("a", "b"));
+        // Slide past the end of the arrays, so that the points are moved back to their start
+        buffer.add(points(0, 50));
+        int next = 50;
+        for (int step = 0; step < 20; step++) {
+            buffer.removeFirst(7);
+            buffer.add(points(next, 7));
+            next += 7;
+            assertEquals(50, buffer.size());
+            assertWindow(buffer, next - 50, 50);
+        }
+        // A single add that reaches past the end of the arrays
+        buffer.removeFirst(40);
+        buffer.add(points(next, 40));
+        next += 40;
+        assertWindow(buffer, next - 50, 50);
+    }
+
+    @Test
+    public void testGrowth() {
+        ColumnRingBuffer buffer = new ColumnRingBuffer(Arrays.asList("a", "b"));
+        // Slide first, so growing has to move the points from past the start of the arrays
+        buffer.add(points(0, 60));
+        buffer.removeFirst(40);
+        buffer.add(points(60, 30));
+        assertWindow(buffer, 40, 50);
+        buffer.add(points(90, 1000));
+        assertEquals(1050, buffer.size());
+        assertWindow(buffer, 40, 1050);
+    }
+
+    @Test
+    public void testClear() {
+        ColumnRingBuffer buffer = new ColumnRingBuffer(Arrays.asList("a", "b"));
+        buffer.add(points(0, 5));
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getDataFrame(5).getNumRows());
+        buffer.add(points(5, 5));
+        assertWindow(buffer, 5, 5);
+    }
+}
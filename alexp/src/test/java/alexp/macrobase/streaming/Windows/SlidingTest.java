@@ -0,0 +1,69 @@
+package alexp.macrobase.streaming.Windows;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SlidingTest {
+
+    private static DataFrame points(int start, int count) {
+        double[] a = new double[count];
+        for (int i = 0; i < count; i++) {
+            a[i] = start + i;
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("a", a);
+        return df;
+    }
+
+    private static void assertWindow(Window window, int start, int count) {
+        assertTrue(window.windowIsReady());
+        assertEquals(count, window.getWindowSize());
+        double[] a = window.getWindow().getDoubleColumnByName("a");
+        assertEquals(count, a.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(start + i, a[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testSlide() {
+        Sliding window = new Sliding(4, 2, Collections.singletonList("a"));
+        // A window and a slide are buffered before the first window is ready
+        assertEquals(6, window.getPointsNeeded());
+        window.build(points(0, 5));
+        assertFalse(window.windowIsReady());
+        assertEquals(1, window.getPointsNeeded());
+        window.build(points(5, 1));
+        assertWindow(window, 0, 4);
+
+        window.clearWindow();
+        assertFalse(window.windowIsReady());
+        assertEquals(2, window.getPointsNeeded());
+        window.build(points(6, 2));
+        assertWindow(window, 2, 4);
+        assertFalse(window.isEndStream());
+    }
+
+    @Test
+    public void testEndOfStream() {
+        Sliding window = new Sliding(4, 2, Collections.singletonList("a"));
+        window.build(points(0, 7));
+        assertWindow(window, 0, 4);
+        window.clearWindow();
+
+        // More than a window is left, so the stream ends only after one more slide
+        window.build(points(0, 0));
+        assertWindow(window, 2, 4);
+        assertFalse(window.isEndStream());
+        window.clearWindow();
+
+        // The window shrinks to the points that are left
+        window.build(points(0, 0));
+        assertTrue(window.isEndStream());
+        assertWindow(window, 4, 3);
+    }
+}
@@ -0,0 +1,66 @@
+package alexp.macrobase.streaming.Windows;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TumblingTest {
+
+    private static DataFrame points(int start, int count) {
+        double[] a = new double[count];
+        for (int i = 0; i < count; i++) {
+            a[i] = start + i;
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("a", a);
+        return df;
+    }
+
+    private static void assertWindow(Window window, int start, int count) {
+        assertTrue(window.windowIsReady());
+        assertEquals(count, window.getWindowSize());
+        double[] a = window.getWindow().getDoubleColumnByName("a");
+        assertEquals(count, a.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(start + i, a[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testTumble() {
+        Tumbling window = new Tumbling(3, Collections.singletonList("a"));
+        assertEquals(3, window.getPointsNeeded());
+        window.build(points(0, 2));
+        assertFalse(window.windowIsReady());
+        assertEquals(1, window.getPointsNeeded());
+        window.build(points(2, 1));
+        assertWindow(window, 0, 3);
+
+        // Windows do not overlap
+        window.clearWindow();
+        assertFalse(window.windowIsReady());
+        assertEquals(3, window.getPointsNeeded());
+        window.build(points(3, 3));
+        assertWindow(window, 3, 3);
+        assertFalse(window.isEndStream());
+    }
+
+    @Test
+    public void testEndOfStream() {
+        Tumbling window = new Tumbling(3, Collections.singletonList("a"));
+        window.build(points(0, 3));
+        window.clearWindow();
+        window.build(points(3, 1));
+        assertEquals(2, window.getPointsNeeded());
+
+        // The last window holds the points that are left
+        window.build(points(0, 0));
+        assertTrue(window.isEndStream());
+        assertWindow(window, 3, 1);
+        window.clearWindow();
+        assertEquals(0, window.getWindowSize());
+    }
+}
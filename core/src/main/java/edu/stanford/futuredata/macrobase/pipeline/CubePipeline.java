@@ -53,6 +53,7 @@ public class CubePipeline implements Pipeline {
     private double meanShiftRatio;
 
     private boolean debugDump;
+    private boolean fusedClassification;
 
     public CubePipeline(PipelineConfig conf) {
         inputURI = conf.get("inputURI");
@@ -92,6 +93,8 @@ public class CubePipeline implements Pipeline {
         numThreads = conf.get("numThreads", Runtime.getRuntime().availableProcessors());
 
         debugDump = conf.get("debugDump", false);
+        // Classification is handed straight to the summarizer unless the classified data is dumped
+        fusedClassification = conf.get("fusedClassification", true) && !debugDump;
     }
 
     public APLExplanation results() throws Exception {
@@ -117,11 +120,21 @@ public class CubePipeline implements Pipeline {
         log.info("Attributes: {}", attributes);
 
         CubeClassifier classifier = getClassifier();
+        APLSummarizer summarizer = getSummarizer(classifier);
         startTime = System.currentTimeMillis();
-        classifier.process(df);
+        // Hand the classifier's results straight to the summarizer instead of adding them to a
+        // copy of the input and reading them back by name
+        if (fusedClassification && summarizer instanceof APLOutlierSummarizer) {
+            ((APLOutlierSummarizer) summarizer).setOutlierValues(classifier.getOutlierCounts(df));
+        } else if (fusedClassification && summarizer instanceof APLCountMeanShiftSummarizer) {
+            ((APLCountMeanShiftSummarizer) summarizer).setAggregateColumns(
+                ((CountMeanShiftCubedClassifier) classifier).getAggregateColumns(df));
+        } else {
+            classifier.process(df);
+            df = classifier.getResults();
+        }
         elapsed = System.currentTimeMillis() - startTime;
         log.info("Classification time: {}", elapsed);
-        df = classifier.getResults();
         if (debugDump) {
             CSVDataFrameWriter writer = new CSVDataFrameWriter();
             PrintWriter out = new PrintWriter("classified.csv");
@@ -129,7 +142,6 @@ public class CubePipeline implements Pipeline {
         }
 
         startTime = System.currentTimeMillis();
-        APLSummarizer summarizer = getSummarizer(classifier);
         summarizer.process(df);
         APLExplanation explanation = summarizer.getResults();
         elapsed = System.currentTimeMillis() - startTime;
@@ -0,0 +1,59 @@
+package edu.stanford.futuredata.macrobase.pipeline;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLExplanation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CubePipelineTest {
+
+    private static APLExplanation results(Map<String, Object> values, boolean fused) throws Exception {
+        Map<String, Object> conf = new HashMap<>(values);
+        conf.put("fusedClassification", fused);
+        return new CubePipeline(new PipelineConfig(conf)).results();
+    }
+
+    // The classifier's results handed straight to the summarizer explain the same as when they
+    // are added to the input as columns
+    private static void assertFusedMatchesTwoStage(Map<String, Object> conf) throws Exception {
+        APLExplanation fused = results(conf, true);
+        APLExplanation twoStage = results(conf, false);
+        assertFalse(twoStage.getResults().isEmpty());
+        assertEquals(twoStage.numTotal(), fused.numTotal(), 0.0);
+        assertEquals(twoStage.numOutliers(), fused.numOutliers(), 0.0);
+        assertEquals(twoStage.results(), fused.results());
+    }
+
+    @Test
+    public void testArithmetic() throws Exception {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("inputURI", "csv://src/test/resources/sample_cubed.csv");
+        conf.put("classifier", "arithmetic");
+        conf.put("meanColumn", "mean");
+        conf.put("stdColumn", "std");
+        conf.put("cutoff", 1.0);
+        conf.put("attributes", Arrays.asList("location", "version"));
+        conf.put("minSupport", 0.05);
+        conf.put("minRatioMetric", 1.1);
+        assertFusedMatchesTwoStage(conf);
+    }
+
+    @Test
+    public void testCountMeanShift() throws Exception {
+        Map<String, Object> conf = new HashMap<>();
+        conf.put("inputURI", "csv://src/test/resources/sample_cubedshift.csv");
+        conf.put("classifier", "countmeanshift");
+        conf.put("metric", "time");
+        conf.put("cutoff", "1");
+        conf.put("meanColumn", "meanLatency");
+        conf.put("attributes", Arrays.asList("location", "version", "language"));
+        conf.put("minSupport", 0.05);
+        conf.put("meanShiftRatio", 1.1);
+        assertFusedMatchesTwoStage(conf);
+    }
+}
@@ -33,16 +33,22 @@ public class ArithmeticClassifier extends CubeClassifier implements ThresholdCla
 
     @Override
     public void process(DataFrame input) {
+        double[] resultColumn = getOutlierCounts(input);
+        output = input.copy();
+        output.addColumn(outputColumnName, resultColumn);
+    }
+
+    @Override
+    public double[] getOutlierCounts(DataFrame input) {
         double[] means = input.getDoubleColumnByName(meanColumnName);
         double[] counts = input.getDoubleColumnByName(countColumnName);
         double[] stds = input.getDoubleColumnByName(stdColumnName);
         int len = means.length;
 
-        WeightedPercentile wp = new WeightedPercentile(counts, means);
-        lowCutoff = wp.evaluate(percentile);
-        highCutoff = wp.evaluate(100.0 - percentile);
+        double[] cutoffs = WeightedPercentile.evaluateSymmetric(counts, means, percentile);
+        lowCutoff = cutoffs[0];
+        highCutoff = cutoffs[1];
 
-        output = input.copy();
         double[] resultColumn = new double[len];
         NormalDist dist = new NormalDist();
         for (int i = 0; i < len; i++) {
@@ -68,7 +74,7 @@ public class ArithmeticClassifier extends CubeClassifier implements ThresholdCla
             }
             resultColumn[i] = numOutliers;
         }
-        output.addColumn(outputColumnName, resultColumn);
+        return resultColumn;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package edu.stanford.futuredata.macrobase.analysis.classify;
 
 import edu.stanford.futuredata.macrobase.analysis.classify.stats.MBPredicate;
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 
@@ -70,9 +71,21 @@ public class CountMeanShiftCubedClassifier extends CubeClassifier {
      */
     @Override
     public void process(DataFrame input) throws Exception {
-        String[] stringMetrics = input.getStringColumnByName(metricColumnName);
-        double[] doubleMetrics = input.getDoubleColumnByName(metricColumnName);
+        double[][] aggregateColumns = getAggregateColumns(input);
         output = input.copy();
+        output.addColumn(outlierCountColumnName, aggregateColumns[0]);
+        output.addColumn(inlierCountColumnName, aggregateColumns[1]);
+        output.addColumn(outlierMeanSumColumnName, aggregateColumns[2]);
+        output.addColumn(inlierMeanSumColumnName, aggregateColumns[3]);
+    }
+
+    /**
+     * Classify the input without copying it, for callers that consume the results directly.
+     * @return The outlier counts, inlier counts, outlier mean sums and inlier mean sums of each
+     * row: the columns that process adds to a copy of the input, in that order.
+     */
+    public double[][] getAggregateColumns(DataFrame input) {
+        boolean[] isOutlier = getOutlierMask(input);
         double[] totalCountColumn = input.getDoubleColumnByName(getCountColumnName());
         double[] totalMeanColumn = input.getDoubleColumnByName(meanColumnName);
         int len = totalCountColumn.length;
@@ -81,19 +94,50 @@ public class CountMeanShiftCubedClassifier extends CubeClassifier {
         double[] outlierMeanSumColumn = new double[len];
         double[] inlierMeanSumColumn = new double[len];
         for (int i = 0; i < len; i++) {
-                if ((isStrPredicate && strPredicate.test(stringMetrics[i])) ||
-                        (!isStrPredicate && doublePredicate.test(doubleMetrics[i]))) {
-                    outlierCountColumn[i] = totalCountColumn[i];
-                    outlierMeanSumColumn[i] = totalMeanColumn[i] * totalCountColumn[i];
-                } else {
-                    inlierCountColumn[i] = totalCountColumn[i];
-                    inlierMeanSumColumn[i] = totalMeanColumn[i] * totalCountColumn[i];
-                }
+            final double count = totalCountColumn[i];
+            final double meanSum = totalMeanColumn[i] * count;
+            if (isOutlier[i]) {
+                outlierCountColumn[i] = count;
+                outlierMeanSumColumn[i] = meanSum;
+            } else {
+                inlierCountColumn[i] = count;
+                inlierMeanSumColumn[i] = meanSum;
+            }
+        }
+        return new double[][]{outlierCountColumn, inlierCountColumn, outlierMeanSumColumn,
+            inlierMeanSumColumn};
+    }
+
+    /**
+     * @return Whether each row matches the predicate.  Encoded String columns are tested once
+     * per distinct value.
+     */
+    private boolean[] getOutlierMask(DataFrame input) {
+        final int metricIdx = input.getSchema().getColumnIndex(metricColumnName);
+        final int len = input.getNumRows();
+        final boolean[] isOutlier = new boolean[len];
+        if (!isStrPredicate) {
+            final double[] metrics = input.getDoubleColumn(metricIdx);
+            for (int i = 0; i < len; i++) {
+                isOutlier[i] = doublePredicate.test(metrics[i]);
+            }
+        } else if (input.isStringColumnEncoded(metricIdx)) {
+            final ColumnDictionary metrics = input.getEncodedStringColumn(metricIdx);
+            final boolean[] matches = new boolean[metrics.size()];
+            for (int code = 0; code < matches.length; code++) {
+                matches[code] = strPredicate.test(metrics.getValue(code));
+            }
+            final int[] codes = metrics.getCodes();
+            for (int i = 0; i < len; i++) {
+                isOutlier[i] = matches[codes[i]];
+            }
+        } else {
+            final String[] metrics = input.getStringColumn(metricIdx);
+            for (int i = 0; i < len; i++) {
+                isOutlier[i] = strPredicate.test(metrics[i]);
+            }
         }
-        output.addColumn(outlierCountColumnName, outlierCountColumn);
-        output.addColumn(inlierCountColumnName, inlierCountColumn);
-        output.addColumn(outlierMeanSumColumnName, outlierMeanSumColumn);
-        output.addColumn(inlierMeanSumColumnName, inlierMeanSumColumn);
+        return isOutlier;
     }
 
 
@@ -1,5 +1,6 @@
 package edu.stanford.futuredata.macrobase.analysis.classify;
 
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.operator.Transformer;
 
 /**
@@ -17,6 +18,16 @@ public abstract class CubeClassifier implements Transformer {
         this.countColumnName = countColumnName;
     }
 
+    /**
+     * Classify the input without copying it, for callers that consume the results directly.
+     * @return Estimated number of outliers in each row: the values that process adds to a copy
+     * of the input as the output column.
+     */
+    public double[] getOutlierCounts(DataFrame input) throws Exception {
+        process(input);
+        return getResults().getDoubleColumnByName(outputColumnName);
+    }
+
     public String getOutputColumnName() {
         return outputColumnName;
     }
@@ -1,11 +1,16 @@
 package edu.stanford.futuredata.macrobase.analysis.classify;
 
+import edu.stanford.futuredata.macrobase.analysis.classify.stats.QuantileSketch;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 
 /**
  * Classify rows based on high / low values for a single column. Returns a new DataFrame with a
  * column representation the classification status for each row: 1.0 if outlier, 0.0 otherwise.
+ *
+ * By default the cutoffs are exact percentiles of each input. With a sketch error set, they are
+ * instead approximated by a {@link QuantileSketch} that accumulates every input processed so
+ * far, which suits streaming use where each batch should be judged against all data seen.
  */
 public class PercentileClassifier extends Classifier implements ThresholdClassifier {
 
@@ -13,11 +18,14 @@ public class PercentileClassifier extends Classifier implements ThresholdClassif
     private double percentile = 0.5;
     private boolean includeHigh = true;
     private boolean includeLow = true;
+    // If positive, cutoffs come from a quantile sketch with this rank error
+    private double sketchError = 0.0;
 
     // Calculated values
     private double lowCutoff;
     private double highCutoff;
     private DataFrame output;
+    private QuantileSketch sketch;
 
     public PercentileClassifier(String columnName) {
         super(columnName);
@@ -27,8 +35,22 @@ public class PercentileClassifier extends Classifier implements ThresholdClassif
     public void process(DataFrame input) {
         double[] metrics = input.getDoubleColumnByName(columnName);
         int len = metrics.length;
-        lowCutoff = new Percentile().evaluate(metrics, percentile);
-        highCutoff = new Percentile().evaluate(metrics, 100.0 - percentile);
+        if (sketchError > 0.0) {
+            QuantileSketch batchSketch = QuantileSketch.of(metrics, sketchError);
+            if (sketch == null) {
+                sketch = batchSketch;
+            } else {
+                sketch.merge(batchSketch);
+            }
+            lowCutoff = sketch.evaluate(percentile);
+            highCutoff = sketch.evaluate(100.0 - percentile);
+        } else {
+            // One copy of the metrics serves both cutoffs
+            Percentile pCalc = new Percentile();
+            pCalc.setData(metrics);
+            lowCutoff = pCalc.evaluate(percentile);
+            highCutoff = pCalc.evaluate(100.0 - percentile);
+        }
 
         output = input.copy();
         double[] resultColumn = new double[len];
@@ -88,6 +110,30 @@ public class PercentileClassifier extends Classifier implements ThresholdClassif
         return this;
     }
 
+    public double getSketchError() {
+        return sketchError;
+    }
+
+    /**
+     * @param sketchError If positive, approximate the cutoffs with a quantile sketch of all
+     *                    inputs processed so far, with about this rank error (e.g. 0.01 for 1%).
+     *                    If zero, use exact percentiles of each input.
+     * @return this
+     */
+    public PercentileClassifier setSketchError(double sketchError) {
+        this.sketchError = sketchError;
+        this.sketch = null;
+        return this;
+    }
+
+    /**
+     * @return The sketch of all inputs processed so far, or null if not using a sketch. Can be
+     * merged with the sketches of classifiers processing other partitions of the data.
+     */
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
     public double getLowCutoff() {
         return lowCutoff;
     }
@@ -40,39 +40,52 @@ public class QuantileClassifier extends CubeClassifier implements ThresholdClass
 
     @Override
     public void process(DataFrame input) {
+        double[] resultColumn = getOutlierCounts(input);
+        output = input.copy();
+        output.addColumn(outputColumnName, resultColumn);
+    }
+
+    @Override
+    public double[] getOutlierCounts(DataFrame input) {
         double[] counts = input.getDoubleColumnByName(countColumnName);
-        List<double[]> quantileColumns = input.getDoubleColsByName(quantileColumnNames);
+        double[][] quantileColumns = input.getDoubleColsByName(quantileColumnNames)
+                .toArray(new double[0][]);
         int len = counts.length;
         int numQuantiles = quantiles.length;
-
-        double[] modifiedCounts = new double[len * (numQuantiles-1)];
-        double[] modifiedMeans = new double[len * (numQuantiles-1)];
-        for (int i = 0; i < len; i++) {
-            for (int j = 0; j < quantiles.length - 1; j++) {
-                modifiedCounts[i * (numQuantiles-1) + j] = (quantiles[j+1] - quantiles[j]) * counts[i];
-                modifiedMeans[i * (numQuantiles-1) + j] =
-                        (quantileColumns.get(j)[i] + quantileColumns.get(j+1)[i]) / 2.0;
+        int numBins = numQuantiles - 1;
+
+        // Each row stands for numBins groups of events, one between each pair of quantiles,
+        // weighted by the fraction of the row's events in that bin
+        double[] modifiedCounts = new double[len * numBins];
+        double[] modifiedMeans = new double[len * numBins];
+        for (int j = 0; j < numBins; j++) {
+            double binWidth = quantiles[j+1] - quantiles[j];
+            double[] lower = quantileColumns[j];
+            double[] upper = quantileColumns[j+1];
+            for (int i = 0; i < len; i++) {
+                modifiedCounts[i * numBins + j] = binWidth * counts[i];
+                modifiedMeans[i * numBins + j] = (lower[i] + upper[i]) / 2.0;
             }
         }
-        WeightedPercentile wp = new WeightedPercentile(modifiedCounts, modifiedMeans);
-        lowCutoff = wp.evaluate(percentile);
-        highCutoff = wp.evaluate(100.0 - percentile);
+        double[] cutoffs = WeightedPercentile.evaluateSymmetric(
+                modifiedCounts, modifiedMeans, percentile);
+        lowCutoff = cutoffs[0];
+        highCutoff = cutoffs[1];
 
-        output = input.copy();
         double[] resultColumn = new double[len];
+        double[] quantileValues = new double[numQuantiles];
         for (int i = 0; i < len; i++) {
             double count = counts[i];
-            double[] quantileValues = new double[numQuantiles];
             for (int j = 0; j < numQuantiles; j++) {
-                quantileValues[j] = quantileColumns.get(j)[i];
+                quantileValues[j] = quantileColumns[j][i];
             }
-            LinearInterpolator interpolator = new LinearInterpolator(quantileValues, quantiles);
             double numOutliers = 0.0;
             if (includeHigh) {
                 if (highCutoff < quantileValues[0]) {
                     numOutliers += count;
                 } else if (highCutoff < quantileValues[numQuantiles-1]) {
-                    double highCutoffQuantile = interpolator.evaluate(highCutoff);
+                    double highCutoffQuantile =
+                            LinearInterpolator.evaluate(quantileValues, quantiles, highCutoff);
                     numOutliers += (1.0 - highCutoffQuantile) * count;
                 }
             }
@@ -80,13 +93,14 @@ public class QuantileClassifier extends CubeClassifier implements ThresholdClass
                 if (lowCutoff > quantileValues[numQuantiles-1]) {
                     numOutliers += count;
                 } else if (lowCutoff > quantileValues[0]) {
-                    double lowCutoffQuantile = interpolator.evaluate(lowCutoff);
+                    double lowCutoffQuantile =
+                            LinearInterpolator.evaluate(quantileValues, quantiles, lowCutoff);
                     numOutliers += lowCutoffQuantile * count;
                 }
             }
             resultColumn[i] = numOutliers;
         }
-        output.addColumn(outputColumnName, resultColumn);
+        return resultColumn;
     }
 
     @Override
@@ -25,6 +25,15 @@ public class LinearInterpolator {
     }
 
     public double evaluate(double value) throws MacroBaseInternalError {
+        return evaluate(x, y, value);
+    }
+
+    /**
+     * Interpolate without constructing an interpolator, for callers that evaluate many
+     * small curves; x and y are as in the constructor.
+     */
+    public static double evaluate(double[] x, double[] y, double value)
+            throws MacroBaseInternalError {
         if ((value > x[x.length - 1]) || (value < x[0])) {
             return Double.NaN;
         }
@@ -11,7 +11,7 @@ public class MBPredicate {
         LESS_THAN("<"), GREATER_THAN(">"),
         LEQ("<="), GEQ(">=");
 
-        private static PredicateType getEnum(final String str) throws MacroBaseException {
+        public static PredicateType getEnum(final String str) throws MacroBaseException {
             switch (str) {
                 case "==":
                     return EQUALS;
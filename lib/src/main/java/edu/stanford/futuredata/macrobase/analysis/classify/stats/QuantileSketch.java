@@ -0,0 +1,266 @@
+package edu.stanford.futuredata.macrobase.analysis.classify.stats;
+
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Mergeable streaming quantile sketch in the style of Karnin, Lang and Liberty (KLL).
+ * Values are kept in a hierarchy of compactors: level h holds values that each stand for 2^h
+ * inputs, and a level that fills up is sorted and every other value is promoted to the next
+ * level.  Memory is bounded by the rank error alone, not by the number of values seen.
+ *
+ * Sketches are not thread-safe; build one per thread and merge them.
+ */
+public class QuantileSketch {
+    // Each level holds this fraction of the values of the level above it
+    private static final double capacityDecay = 2.0 / 3.0;
+    private static final int minCapacity = 2;
+    // Fewest values worth sketching in a separate task
+    private static final int minValuesPerTask = 1 << 16;
+
+    private final double rankError;
+    private final int k;
+    // Fixed seed, so that results are reproducible
+    private final Random random = new Random(0);
+
+    private double[][] levels = new double[0][];
+    private int[] levelSizes = new int[0];
+    private int numLevels = 0;
+    private long count = 0;
+    private int numRetained = 0;
+    private int maxRetained = 0;
+    // Retained values in ascending order with their cumulative weights, built when quantiles
+    // are asked for and dropped whenever the sketch changes
+    private double[] sortedValues;
+    private long[] cumulativeWeights;
+
+    /**
+     * @param rankError Approximate bound on the error of quantiles, as a fraction of the number
+     *                  of values, e.g. 0.01 for 1%.  Smaller errors cost memory and time in
+     *                  inverse proportion.
+     */
+    public QuantileSketch(double rankError) {
+        if (!(rankError > 0.0 && rankError < 1.0)) {
+            throw new IllegalArgumentException("Rank error must be between 0 and 1");
+        }
+        this.rankError = rankError;
+        this.k = (int) Math.ceil(3.0 / rankError);
+        grow();
+    }
+
+    /**
+     * Sketch an array of values, in parallel on the shared pool if it is large.
+     * @param values Values to sketch.
+     * @param rankError Approximate bound on the error of quantiles.
+     * @return A new sketch of the values.
+     */
+    public static QuantileSketch of(double[] values, double rankError) {
+        int numTasks = Math.max(1, Math.min(values.length / minValuesPerTask,
+                Runtime.getRuntime().availableProcessors()));
+        QuantileSketch[] sketches = new QuantileSketch[numTasks];
+        List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            final int curTaskIdx = taskIdx;
+            final int start = (int) ((long) values.length * taskIdx / numTasks);
+            final int end = (int) ((long) values.length * (taskIdx + 1) / numTasks);
+            tasks.add(() -> {
+                QuantileSketch sketch = new QuantileSketch(rankError);
+                for (int i = start; i < end; i++) {
+                    sketch.update(values[i]);
+                }
+                sketches[curTaskIdx] = sketch;
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+        for (int i = 1; i < numTasks; i++) {
+            sketches[0].merge(sketches[i]);
+        }
+        return sketches[0];
+    }
+
+    /**
+     * @param value Value to add; NaN values are ignored.
+     */
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        sortedValues = null;
+        append(0, value);
+        count++;
+        numRetained++;
+        if (numRetained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Add all values sketched by another sketch to this one.
+     * @param other Sketch to add, which must not be this one.
+     */
+    public void merge(QuantileSketch other) {
+        if (other == this) {
+            throw new IllegalArgumentException("Cannot merge a sketch into itself");
+        }
+        sortedValues = null;
+        while (numLevels < other.numLevels) {
+            grow();
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            for (int i = 0; i < other.levelSizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+            numRetained += other.levelSizes[h];
+        }
+        count += other.count;
+        while (numRetained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * @param quantile Fraction between 0 and 1.
+     * @return A value whose rank is within about rankError * getCount() of quantile * getCount(),
+     * or NaN if no values have been seen.
+     */
+    public double getQuantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (sortedValues == null) {
+            sortRetained();
+        }
+        // First value whose cumulative weight reaches the rank, or the largest value
+        double targetRank = quantile * count;
+        int lo = 0;
+        int hi = sortedValues.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulativeWeights[mid] >= targetRank) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return sortedValues[lo];
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100.
+     * @return {@link #getQuantile(double)} of percentile / 100.
+     */
+    public double evaluate(double percentile) {
+        return getQuantile(percentile / 100.0);
+    }
+
+    public double getRankError() {
+        return rankError;
+    }
+
+    /**
+     * @return Number of values sketched.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Number of values currently held, which is bounded by the rank error.
+     */
+    public int getNumRetained() {
+        return numRetained;
+    }
+
+    /**
+     * Merge the sorted levels into one sorted array, accumulating the weight of each value.
+     */
+    private void sortRetained() {
+        double[][] sortedLevels = new double[numLevels][];
+        int numValues = 0;
+        for (int h = 0; h < numLevels; h++) {
+            sortedLevels[h] = Arrays.copyOf(levels[h], levelSizes[h]);
+            Arrays.sort(sortedLevels[h]);
+            numValues += levelSizes[h];
+        }
+        double[] values = new double[numValues];
+        long[] weights = new long[numValues];
+        int[] positions = new int[numLevels];
+        long rank = 0;
+        for (int i = 0; i < numValues; i++) {
+            int minLevel = -1;
+            for (int h = 0; h < numLevels; h++) {
+                if (positions[h] < sortedLevels[h].length && (minLevel < 0
+                        || sortedLevels[h][positions[h]] < sortedLevels[minLevel][positions[minLevel]])) {
+                    minLevel = h;
+                }
+            }
+            values[i] = sortedLevels[minLevel][positions[minLevel]++];
+            rank += 1L << minLevel;
+            weights[i] = rank;
+        }
+        sortedValues = values;
+        cumulativeWeights = weights;
+    }
+
+    private int capacity(int level) {
+        int depth = numLevels - level - 1;
+        return Math.max(minCapacity, (int) Math.ceil(k * Math.pow(capacityDecay, depth)));
+    }
+
+    private void grow() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        levelSizes = Arrays.copyOf(levelSizes, numLevels + 1);
+        levels[numLevels] = new double[minCapacity];
+        numLevels++;
+        maxRetained = 0;
+        for (int h = 0; h < numLevels; h++) {
+            maxRetained += capacity(h);
+        }
+    }
+
+    private void append(int level, double value) {
+        if (levelSizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], 2 * levels[level].length);
+        }
+        levels[level][levelSizes[level]++] = value;
+    }
+
+    /**
+     * Compact the lowest level that is full.
+     */
+    private void compress() {
+        for (int h = 0; h < numLevels; h++) {
+            if (levelSizes[h] >= capacity(h)) {
+                if (h + 1 == numLevels) {
+                    grow();
+                }
+                compact(h);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sort a level and promote every other value, starting at a random one, to the next level.
+     * With an odd number of values, the smallest one stays behind.
+     */
+    private void compact(int level) {
+        int size = levelSizes[level];
+        double[] items = levels[level];
+        Arrays.sort(items, 0, size);
+        int start = size % 2;
+        int numPromoted = 0;
+        for (int i = start + random.nextInt(2); i < size; i += 2) {
+            append(level + 1, items[i]);
+            numPromoted++;
+        }
+        levelSizes[level] = start;
+        numRetained -= (size - start) - numPromoted;
+    }
+}
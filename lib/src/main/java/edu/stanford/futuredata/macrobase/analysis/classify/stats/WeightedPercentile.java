@@ -2,71 +2,374 @@ package edu.stanford.futuredata.macrobase.analysis.classify.stats;
 
 import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * Computes percentiles when given an array of metrics and the count of the
  * number of times each occurs. Useful for computing percentiles on cubed data.
+ *
+ * The metrics and counts are sorted together as primitive arrays and the running
+ * total of the counts is kept, so each percentile is then a binary search.  When
+ * only a percentile and its complement are needed, {@link #evaluateSymmetric}
+ * finds both by selection without sorting.
  */
 public class WeightedPercentile {
-    private double[] counts;
-    private double[] metrics;
+    // Ranges at most this long are sorted by insertion sort
+    private static final int insertionSortThreshold = 32;
+    // Selection sorts ranges at most this long instead of partitioning them further
+    private static final int selectSortThreshold = 1024;
+    // Number of metrics sampled to choose each selection pivot
+    private static final int pivotSampleSize = 1024;
 
     // Computed
     private double numRawMetrics = 0;
-    private WeightedMetric[] weightedMetrics;
+    private double[] sortedMetrics;
+    // cumulativeCounts[i] is the total count of sortedMetrics[0..i]
+    private double[] cumulativeCounts;
 
     public WeightedPercentile(double[] counts, double[] metrics) {
-        this.counts = counts;
-        this.metrics = metrics;
-        computeCounts();
+        computeCounts(counts, metrics);
     }
 
     public double evaluate(double percentile) {
+        int len = sortedMetrics.length;
+        if (len == 0) {
+            throw new MacroBaseInternalError("WeightedPercentile was implemented incorrectly");
+        }
         if (percentile >= 50.0) {
+            // Last metric such that the metrics from it to the end count at least numToPass
             int numToPass = (int)((100.0 - percentile) / 100.0 * numRawMetrics);
-            int numPassed = 0;
-            for (int i = weightedMetrics.length - 1; i >= 0; i--) {
-                numPassed += weightedMetrics[i].count;
-                if (numPassed >= numToPass) {
-                    return weightedMetrics[i].metric;
+            int lo = 0;
+            int hi = len - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (numRawMetrics - cumulativeCounts[mid - 1] >= numToPass) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
                 }
             }
+            return sortedMetrics[lo];
         } else {
+            // First metric such that the metrics up to it count at least numToPass
             int numToPass = (int)(percentile / 100.0 * numRawMetrics);
-            int numPassed = 0;
-            for (int i = 0; i < weightedMetrics.length; i++) {
-                numPassed += weightedMetrics[i].count;
-                if (numPassed >= numToPass) {
-                    return weightedMetrics[i].metric;
+            int lo = 0;
+            int hi = len - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cumulativeCounts[mid] >= numToPass) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
                 }
             }
+            return sortedMetrics[lo];
         }
-        throw new MacroBaseInternalError("WeightedPercentile was implemented incorrectly");
     }
 
-    private void computeCounts() {
+    /**
+     * @param percentiles Percentiles between 0 and 100.
+     * @return {@link #evaluate(double)} of each percentile.
+     */
+    public double[] evaluate(double[] percentiles) {
+        double[] results = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            results[i] = evaluate(percentiles[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Evaluate a percentile and its complement by weighted selection, in expected linear time
+     * instead of sorting all the metrics.  One pass over the inputs copies out just the metrics
+     * beyond a pivot sampled near each target, and the targets are then selected among those.
+     * The inputs are not modified.
+     * @return The same values as evaluate(percentile) and evaluate(100 - percentile) on a
+     * WeightedPercentile of the inputs, in that order.
+     */
+    public static double[] evaluateSymmetric(double[] counts, double[] metrics, double percentile) {
         int len = metrics.length;
-        weightedMetrics = new WeightedMetric[len];
+        if (len == 0) {
+            throw new MacroBaseInternalError("WeightedPercentile was implemented incorrectly");
+        }
+        double[] percentiles = {percentile, 100.0 - percentile};
+        Tail[] tails = new Tail[2];
+        for (int k = 0; k < 2; k++) {
+            boolean fromTop = percentiles[k] >= 50.0;
+            double fractionToPass = fromTop ? (100.0 - percentiles[k]) / 100.0
+                    : percentiles[k] / 100.0;
+            double pivot = samplePivot(metrics, counts, 0, len, 1.0, fractionToPass, fromTop);
+            tails[k] = new Tail(pivot, fromTop, Math.max(16, len / 64));
+        }
+
+        double total = 0;
+        Tail first = tails[0];
+        Tail second = tails[1];
         for (int i = 0; i < len; i++) {
-            weightedMetrics[i] = new WeightedMetric(metrics[i], counts[i]);
-            numRawMetrics += counts[i];
+            double metric = metrics[i];
+            double count = counts[i];
+            total += count;
+            first.offer(metric, count);
+            second.offer(metric, count);
+        }
+
+        double[] results = new double[2];
+        double[] metricsCopy = null;
+        double[] countsCopy = null;
+        for (int k = 0; k < 2; k++) {
+            double p = percentiles[k];
+            Tail tail = tails[k];
+            int numToPass = tail.fromTop ? (int)((100.0 - p) / 100.0 * total)
+                    : (int)(p / 100.0 * total);
+            if (tail.size > 0 && tail.total >= numToPass) {
+                // The target lies among the copied metrics, which sort to the start (or end)
+                results[k] = select(tail.metrics, tail.counts, tail.size, tail.total,
+                        numToPass, tail.fromTop);
+            } else {
+                // The sample misled us; select among all the metrics
+                if (metricsCopy == null) {
+                    metricsCopy = Arrays.copyOf(metrics, len);
+                    countsCopy = Arrays.copyOf(counts, len);
+                }
+                results[k] = select(metricsCopy, countsCopy, len, total, numToPass, tail.fromTop);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Metrics, with their counts, below a pivot when counting from the smallest metric, or
+     * above it when counting from the largest.
+     */
+    private static class Tail {
+        final double pivot;
+        final boolean fromTop;
+        double[] metrics;
+        double[] counts;
+        int size = 0;
+        double total = 0;
+
+        Tail(double pivot, boolean fromTop, int capacity) {
+            this.pivot = pivot;
+            this.fromTop = fromTop;
+            this.metrics = new double[capacity];
+            this.counts = new double[capacity];
+        }
+
+        void offer(double metric, double count) {
+            // Plain comparisons decide nearly all metrics; Double.compare settles NaN and -0.0
+            boolean inTail;
+            if (metric < pivot) {
+                inTail = !fromTop;
+            } else if (metric > pivot) {
+                inTail = fromTop;
+            } else {
+                int cmp = Double.compare(metric, pivot);
+                inTail = fromTop ? cmp > 0 : cmp < 0;
+            }
+            if (!inTail) {
+                return;
+            }
+            if (size == metrics.length) {
+                metrics = Arrays.copyOf(metrics, 2 * size);
+                counts = Arrays.copyOf(counts, 2 * size);
+            }
+            metrics[size] = metric;
+            counts[size] = count;
+            size++;
+            total += count;
+        }
+    }
+
+    private void computeCounts(double[] counts, double[] metrics) {
+        int len = metrics.length;
+        sortedMetrics = Arrays.copyOf(metrics, len);
+        cumulativeCounts = Arrays.copyOf(counts, len);
+        sort(sortedMetrics, cumulativeCounts, 0, len);
+        for (int i = 0; i < len; i++) {
+            numRawMetrics += cumulativeCounts[i];
+            cumulativeCounts[i] = numRawMetrics;
+        }
+    }
+
+    /**
+     * Sort metrics[start, end), moving counts along with them.
+     */
+    private static void sort(double[] metrics, double[] counts, int start, int end) {
+        double[] sums = new double[3];
+        while (end - start > insertionSortThreshold) {
+            double a = metrics[start];
+            double b = metrics[(start + end) >>> 1];
+            double c = metrics[end - 1];
+            double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            int[] bounds = partition(metrics, counts, start, end, pivot, sums);
+            // Recurse into the smaller side, so that the stack stays logarithmic
+            if (bounds[0] - start < end - bounds[1]) {
+                sort(metrics, counts, start, bounds[0]);
+                start = bounds[1];
+            } else {
+                sort(metrics, counts, bounds[1], end);
+                end = bounds[0];
+            }
+        }
+        for (int i = start + 1; i < end; i++) {
+            double metric = metrics[i];
+            double count = counts[i];
+            int j = i - 1;
+            while (j >= start && Double.compare(metrics[j], metric) > 0) {
+                metrics[j + 1] = metrics[j];
+                counts[j + 1] = counts[j];
+                j--;
+            }
+            metrics[j + 1] = metric;
+            counts[j + 1] = count;
         }
-        Arrays.sort(weightedMetrics);
     }
 
-    public class WeightedMetric implements Comparable<WeightedMetric> {
-        public double metric;
-        public double count;
+    /**
+     * Find the metric in metrics[0, len) that sorted order would place where the cumulative
+     * count first reaches numToPass, counting from the smallest metric, or from the largest if
+     * fromTop.  total is the count of the whole range.
+     */
+    private static double select(double[] metrics, double[] counts, int len, double total,
+                                 double numToPass, boolean fromTop) {
+        int start = 0;
+        int end = len;
+        double rangeCount = total;
+        double[] sums = new double[3];
+        while (end - start > selectSortThreshold) {
+            double pivot = samplePivot(metrics, counts, start, end, rangeCount, numToPass, fromTop);
+            int[] bounds = partition(metrics, counts, start, end, pivot, sums);
+            double lessCount = sums[0];
+            double equalCount = sums[1];
+            double greaterCount = sums[2];
+            if (fromTop) {
+                if (bounds[1] < end && greaterCount >= numToPass) {
+                    start = bounds[1];
+                    rangeCount = greaterCount;
+                } else if (greaterCount + equalCount >= numToPass) {
+                    return pivot;
+                } else {
+                    numToPass -= greaterCount + equalCount;
+                    end = bounds[0];
+                    rangeCount = lessCount;
+                }
+            } else {
+                if (start < bounds[0] && lessCount >= numToPass) {
+                    end = bounds[0];
+                    rangeCount = lessCount;
+                } else if (lessCount + equalCount >= numToPass) {
+                    return pivot;
+                } else {
+                    numToPass -= lessCount + equalCount;
+                    start = bounds[1];
+                    rangeCount = greaterCount;
+                }
+            }
+        }
 
-        public WeightedMetric(double metric, double count) {
-            this.metric = metric;
-            this.count = count;
+        // Few metrics are left: sort them and count through them
+        sort(metrics, counts, start, end);
+        double numPassed = 0;
+        if (fromTop) {
+            for (int i = end - 1; i >= start; i--) {
+                numPassed += counts[i];
+                if (numPassed >= numToPass) {
+                    return metrics[i];
+                }
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                numPassed += counts[i];
+                if (numPassed >= numToPass) {
+                    return metrics[i];
+                }
+            }
+        }
+        throw new MacroBaseInternalError("WeightedPercentile was implemented incorrectly");
+    }
+
+    /**
+     * Choose a pivot from a sample of metrics[start, end), a few standard errors from the
+     * estimated position of the target towards the middle, so that the target most likely
+     * ends up on the smaller side of the partition and the range shrinks quickly.
+     */
+    private static double samplePivot(double[] metrics, double[] counts, int start, int end,
+                                      double rangeCount, double numToPass, boolean fromTop) {
+        int len = end - start;
+        int sampleSize = Math.min(len, pivotSampleSize);
+        double[] sampleMetrics = new double[sampleSize];
+        double[] sampleCounts = new double[sampleSize];
+        double sampleTotal = 0;
+        for (int j = 0; j < sampleSize; j++) {
+            int i = start + (int) ((long) len * j / sampleSize);
+            sampleMetrics[j] = metrics[i];
+            sampleCounts[j] = counts[i];
+            sampleTotal += counts[i];
+        }
+        sort(sampleMetrics, sampleCounts, 0, sampleSize);
+
+        // Fraction of the range's count below the target
+        double fraction = rangeCount > 0 ? numToPass / rangeCount : 0.0;
+        if (fromTop) {
+            fraction = 1.0 - fraction;
         }
+        fraction = Math.min(1.0, Math.max(0.0, fraction));
+        double margin = 3.0 * Math.sqrt(fraction * (1.0 - fraction) / sampleSize)
+                + 1.0 / sampleSize;
+        fraction = fraction < 0.5 ? fraction + margin : fraction - margin;
 
-        @Override
-        public int compareTo(WeightedMetric wm) {
-            return Double.compare(metric, wm.metric);
+        double sampleTarget = Math.min(1.0, Math.max(0.0, fraction)) * sampleTotal;
+        double numPassed = 0;
+        for (int j = 0; j < sampleSize; j++) {
+            numPassed += sampleCounts[j];
+            if (numPassed >= sampleTarget) {
+                return sampleMetrics[j];
+            }
         }
+        return sampleMetrics[sampleSize - 1];
+    }
+
+    /**
+     * Three-way partition of metrics[start, end) around a pivot, moving counts along with them.
+     * @param pivot Pivot metric, which must be one of the metrics in the range.
+     * @param sums Filled with the total count of the smaller, equal and larger metrics.
+     * @return {lt, gt} such that metrics in [start, lt) are smaller than the pivot, those in
+     * [lt, gt) are equal to it, and those in [gt, end) are larger.
+     */
+    private static int[] partition(double[] metrics, double[] counts, int start, int end,
+                                   double pivot, double[] sums) {
+        double lessCount = 0;
+        double equalCount = 0;
+        double greaterCount = 0;
+        int lt = start;
+        int gt = end;
+        int i = start;
+        while (i < gt) {
+            int cmp = Double.compare(metrics[i], pivot);
+            if (cmp < 0) {
+                lessCount += counts[i];
+                swap(metrics, counts, lt++, i++);
+            } else if (cmp > 0) {
+                greaterCount += counts[i];
+                swap(metrics, counts, i, --gt);
+            } else {
+                equalCount += counts[i];
+                i++;
+            }
+        }
+        sums[0] = lessCount;
+        sums[1] = equalCount;
+        sums[2] = greaterCount;
+        return new int[]{lt, gt};
+    }
+
+    private static void swap(double[] metrics, double[] counts, int i, int j) {
+        double metric = metrics[i];
+        metrics[i] = metrics[j];
+        metrics[j] = metric;
+        double count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
     }
 }
@@ -38,6 +38,7 @@ public abstract class BatchSummarizer implements Operator<DataFrame, Explanation
         this.attributes = attributes;
         return this;
     }
+    public List<String> getAttributes() { return attributes; }
 
     /**
      * Set the column which indicates outlier status. "_OUTLIER" by default.
@@ -75,12 +76,19 @@ public abstract class BatchSummarizer implements Operator<DataFrame, Explanation
         return this;
     }
 
+    /**
+     * The largest number of attributes combined in a single explanation.  Orders above three
+     * are supported, but the number of candidates grows combinatorially with the order.
+     *
+     * @param maxOrder Maximum explanation order.
+     */
     public BatchSummarizer setMaxOrder(final int maxOrder) throws MacroBaseException {
-        if (maxOrder < 1 || maxOrder > 3) {
+        if (maxOrder < 1) {
             throw new MacroBaseException("Max Order " + maxOrder +
-                " cannot be less than 1 or greater than 3");
+                " cannot be less than 1");
         }
         this.maxOrder = maxOrder;
         return this;
     }
+    public int getMaxOrder() { return maxOrder; }
 }
@@ -23,6 +23,17 @@ public class APLCountMeanShiftSummarizer  extends APLSummarizer {
     private Logger log = LoggerFactory.getLogger("APLMeanSummarizer");
 
     private double minMeanShift = 1.0;
+    private double[][] aggregateColumns = null;
+
+    @Override
+    public void process(DataFrame input) throws Exception {
+        try {
+            super.process(input);
+        } finally {
+            // Aggregate columns belong to this input only
+            aggregateColumns = null;
+        }
+    }
 
     @Override
     public List<String> getAggregateNames() {
@@ -36,12 +47,15 @@ public class APLCountMeanShiftSummarizer  extends APLSummarizer {
     }
 
     @Override
-    public int[][] getEncoded(List<String[]> columns, DataFrame input) {
-        return encoder.encodeAttributesAsArray(columns);
+    public int[][] getEncodedColumns(List<String> columns, DataFrame input) {
+        return encoder.encodeColumns(input, columns);
     }
 
     @Override
     public double[][] getAggregateColumns(DataFrame input) {
+        if (aggregateColumns != null) {
+            return aggregateColumns;
+        }
         double[] outlierCountColumn = input.getDoubleColumnByName(CountMeanShiftCubedClassifier.outlierCountColumnName);
         double[] inlierCountColumn = input.getDoubleColumnByName(CountMeanShiftCubedClassifier.inlierCountColumnName);
         double[] outlierMeanSumColumn = input.getDoubleColumnByName(CountMeanShiftCubedClassifier.outlierMeanSumColumnName);
@@ -84,6 +98,17 @@ public class APLCountMeanShiftSummarizer  extends APLSummarizer {
         return sum;
     }
 
+    /**
+     * @param aggregateColumns Outlier counts, inlier counts, outlier mean sums and inlier mean
+     *                         sums of each row, used instead of the classifier's columns.  Lets
+     *                         {@link CountMeanShiftCubedClassifier#getAggregateColumns(DataFrame)}
+     *                         hand over its results without adding them to a copy of the input.
+     *                         Only applies to the next call to process.
+     */
+    public void setAggregateColumns(double[][] aggregateColumns) {
+        this.aggregateColumns = aggregateColumns;
+    }
+
     public void setMinMeanShift(double minMeanShift) {
         this.minMeanShift = minMeanShift;
     }
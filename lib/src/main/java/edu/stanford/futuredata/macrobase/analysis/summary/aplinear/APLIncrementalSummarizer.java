@@ -0,0 +1,476 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSet;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetAsArray;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.SupportQualityMetric;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.operator.IncrementalOperator;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Runs the explanation of an {@link APLSummarizer} over a sliding window of panes, so it can be
+ * wrapped in a WindowedOperator.  The wrapped summarizer supplies the attributes, aggregates,
+ * quality metrics, thresholds and maximum order.
+ *
+ * The window keeps the sums of the aggregates of every candidate combination over its panes.
+ * Adding a pane adds its aggregates and expiring the oldest subtracts them, which requires every
+ * aggregate to be a SUM.  A combination that passes a support threshold over the window passes
+ * it within at least one pane, so candidates are the combinations that pass the support
+ * thresholds of some pane in the window, and each pane only counts, at each order, combinations
+ * whose subsets pass its support thresholds, plus the candidates the window already has.  When a
+ * pane makes a combination a candidate, the older panes count it from their encoded rows.
+ * Results are found with the same APriori walk as {@link APrioriLinear}, which only re-evaluates
+ * the quality metrics of candidates whose aggregates changed since the last walk, unless the
+ * global aggregates changed as well.  On a sliding window nearly every pane changes the global
+ * aggregates, so nearly every getResults re-evaluates every candidate and this rarely saves
+ * anything; it pays off when results are asked for again before the window moves.
+ */
+public class APLIncrementalSummarizer implements IncrementalOperator<APLExplanation> {
+    private Logger log = LoggerFactory.getLogger("APLIncrementalSummarizer");
+
+    private APLSummarizer summarizer;
+    private int numPanes;
+
+    // Settings taken from the summarizer on the first pane
+    private AttributeEncoder encoder;
+    private List<String> attributes;
+    private List<String> aggregateNames;
+    private List<QualityMetric> qualityMetricList;
+    private List<Double> thresholdList;
+    private QualityMetric[] qualityMetrics;
+    private double[] thresholds;
+    // Indices of the support metrics, which bound the combinations the panes count
+    private int[] supportMetrics;
+    private int numAggregates;
+    private int maxOrder;
+
+    // Panes in the window, oldest first
+    private Deque<Pane> panes;
+
+    // Window sums of the pane aggregates of every candidate, by order - 1
+    private List<HashMap<IntSet, WindowEntry>> windowAggregates;
+    private double[] globalAggregates;
+    private long numEvents = 0;
+    // Global aggregates of the last walk, and a version bumped whenever a walk finds them changed
+    private double[] evaluatedGlobalAggregates;
+    private int globalVersion = 0;
+
+    private static class Pane {
+        // Encoded attributes by row and aggregate columns, to count new candidates later
+        int[][] encoded;
+        double[][] aggregateColumns;
+        double[] globalAggregates;
+        long numEvents;
+        // Aggregates of the combinations counted in the pane, by order - 1.  Every candidate of
+        // the window is counted in each of its panes, and is left out where it does not occur.
+        List<HashMap<IntSet, double[]>> aggregates;
+        // Combinations that pass the support thresholds within the pane, by order - 1
+        List<HashSet<IntSet>> supported;
+    }
+
+    private static class WindowEntry {
+        double[] aggregates;
+        // Number of panes in the window the combination passes the support thresholds in
+        int numSupportingPanes = 0;
+        // Bumped whenever the aggregates change
+        int version = 0;
+        QualityMetric.Action action;
+        // Versions of the aggregates and of the global aggregates action was computed at
+        int evaluatedVersion = -1;
+        int evaluatedGlobalVersion = -1;
+
+        WindowEntry(int numAggregates) {
+            aggregates = new double[numAggregates];
+        }
+    }
+
+    public APLIncrementalSummarizer(APLSummarizer summarizer, int numPanes) {
+        this.summarizer = summarizer;
+        setWindowSize(numPanes);
+    }
+
+    public APLIncrementalSummarizer(APLSummarizer summarizer) {
+        this(summarizer, 1);
+    }
+
+    @Override
+    public void setWindowSize(int numPanes) {
+        this.numPanes = numPanes;
+    }
+    @Override
+    public int getWindowSize() { return numPanes; }
+
+    public APLSummarizer getSummarizer() { return summarizer; }
+
+    /* Read the summarizer settings and reset the window. */
+    private void initialize() throws MacroBaseException {
+        for (AggregationOp op : summarizer.getAggregationOps()) {
+            if (op != AggregationOp.SUM) {
+                throw new MacroBaseException("Incremental summarization requires SUM aggregates, got " + op);
+            }
+        }
+        attributes = summarizer.getAttributes();
+        aggregateNames = summarizer.getAggregateNames();
+        numAggregates = aggregateNames.size();
+        maxOrder = Math.min(summarizer.getMaxOrder(), attributes.size());
+
+        qualityMetricList = summarizer.getQualityMetricList();
+        thresholdList = summarizer.getThresholds();
+        qualityMetrics = qualityMetricList.toArray(new QualityMetric[0]);
+        thresholds = new double[thresholdList.size()];
+        int numSupportMetrics = 0;
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = thresholdList.get(i);
+            if (qualityMetrics[i] instanceof SupportQualityMetric) {
+                numSupportMetrics++;
+            }
+        }
+        supportMetrics = new int[numSupportMetrics];
+        for (int i = 0, j = 0; i < qualityMetrics.length; i++) {
+            if (qualityMetrics[i] instanceof SupportQualityMetric) {
+                supportMetrics[j++] = i;
+            }
+        }
+
+        encoder = new AttributeEncoder();
+        encoder.setColumnNames(attributes);
+        panes = new ArrayDeque<>(numPanes);
+        windowAggregates = new ArrayList<>(maxOrder);
+        for (int i = 0; i < maxOrder; i++) {
+            windowAggregates.add(new HashMap<>());
+        }
+        globalAggregates = new double[numAggregates];
+    }
+
+    /* Whether aggregates pass every support threshold, with the metrics initialized on a pane. */
+    private boolean isSupported(double[] aggregates) {
+        for (int i : supportMetrics) {
+            if (!qualityMetrics[i].isPastThreshold(aggregates, thresholds[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Count the aggregates of a pane: at each order, every combination whose subsets all pass
+     * the support thresholds within the pane, and every candidate of the window.
+     */
+    private void countPane(Pane pane) {
+        for (int i : supportMetrics) {
+            qualityMetrics[i].initialize(pane.globalAggregates);
+        }
+        int numColumns = attributes.size();
+        HashSet<IntSet> prevSupported = null;
+        for (int curOrder = 1; curOrder <= maxOrder; curOrder++) {
+            HashMap<IntSet, WindowEntry> window = windowAggregates.get(curOrder - 1);
+            HashMap<IntSet, double[]> counts = new HashMap<>();
+            HashSet<IntSet> supported = new HashSet<>();
+            if (curOrder == 1 || !prevSupported.isEmpty() || !window.isEmpty()) {
+                int[] colNums = new int[curOrder];
+                for (int i = 0; i < curOrder; i++) {
+                    colNums[i] = i;
+                }
+                // Probe keys whose values are overwritten for every row
+                int[] values = new int[curOrder];
+                IntSet probe = new IntSetAsArray(values);
+                int[] subset = new int[curOrder - 1];
+                IntSet subsetProbe = new IntSetAsArray(subset);
+                do {
+                    for (int rowNum = 0; rowNum < pane.encoded.length; rowNum++) {
+                        int[] curRow = pane.encoded[rowNum];
+                        for (int i = 0; i < curOrder; i++) {
+                            values[i] = curRow[colNums[i]];
+                        }
+                        double[] candidateVal = counts.get(probe);
+                        if (candidateVal == null) {
+                            if (curOrder > 1 && !window.containsKey(probe)
+                                    && !subsetsInSet(values, subset, subsetProbe, prevSupported)) {
+                                continue;
+                            }
+                            candidateVal = new double[numAggregates];
+                            counts.put(new IntSetAsArray(values.clone()), candidateVal);
+                        }
+                        for (int a = 0; a < numAggregates; a++) {
+                            candidateVal[a] += pane.aggregateColumns[a][rowNum];
+                        }
+                    }
+                } while (APrioriLinear.nextCombination(colNums, numColumns));
+                for (Map.Entry<IntSet, double[]> e : counts.entrySet()) {
+                    if (isSupported(e.getValue())) {
+                        supported.add(e.getKey());
+                    }
+                }
+            }
+            pane.aggregates.add(counts);
+            pane.supported.add(supported);
+            prevSupported = supported;
+        }
+    }
+
+    /* Count the combinations of one order that a pane has not counted yet. */
+    private void countCandidates(Pane pane, int curOrder, Set<IntSet> candidates) {
+        HashMap<IntSet, double[]> counts = pane.aggregates.get(curOrder - 1);
+        HashSet<IntSet> missing = new HashSet<>();
+        for (IntSet candidate : candidates) {
+            if (!counts.containsKey(candidate)) {
+                missing.add(candidate);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        int numColumns = attributes.size();
+        int[] colNums = new int[curOrder];
+        for (int i = 0; i < curOrder; i++) {
+            colNums[i] = i;
+        }
+        int[] values = new int[curOrder];
+        IntSet probe = new IntSetAsArray(values);
+        do {
+            for (int rowNum = 0; rowNum < pane.encoded.length; rowNum++) {
+                int[] curRow = pane.encoded[rowNum];
+                for (int i = 0; i < curOrder; i++) {
+                    values[i] = curRow[colNums[i]];
+                }
+                if (!missing.contains(probe)) {
+                    continue;
+                }
+                double[] candidateVal = counts.get(probe);
+                if (candidateVal == null) {
+                    candidateVal = new double[numAggregates];
+                    counts.put(new IntSetAsArray(values.clone()), candidateVal);
+                }
+                for (int a = 0; a < numAggregates; a++) {
+                    candidateVal[a] += pane.aggregateColumns[a][rowNum];
+                }
+            }
+        } while (APrioriLinear.nextCombination(colNums, numColumns));
+    }
+
+    /* Add the aggregates of a pane to the window, along with the candidates it makes new. */
+    private void addPane(Pane pane) {
+        for (int curOrder = 1; curOrder <= maxOrder; curOrder++) {
+            HashMap<IntSet, WindowEntry> window = windowAggregates.get(curOrder - 1);
+            HashSet<IntSet> supported = pane.supported.get(curOrder - 1);
+            HashSet<IntSet> newCandidates = new HashSet<>();
+            for (IntSet curSet : supported) {
+                if (!window.containsKey(curSet)) {
+                    newCandidates.add(curSet);
+                }
+            }
+            if (!newCandidates.isEmpty()) {
+                for (Pane older : panes) {
+                    countCandidates(older, curOrder, newCandidates);
+                }
+                for (IntSet curSet : newCandidates) {
+                    WindowEntry entry = new WindowEntry(numAggregates);
+                    for (Pane older : panes) {
+                        double[] val = older.aggregates.get(curOrder - 1).get(curSet);
+                        if (val != null) {
+                            for (int a = 0; a < numAggregates; a++) {
+                                entry.aggregates[a] += val[a];
+                            }
+                        }
+                    }
+                    window.put(curSet, entry);
+                }
+            }
+            for (Map.Entry<IntSet, double[]> e : pane.aggregates.get(curOrder - 1).entrySet()) {
+                WindowEntry entry = window.get(e.getKey());
+                if (entry == null) {
+                    // Counted because its subsets are supported, but not a candidate
+                    continue;
+                }
+                double[] val = e.getValue();
+                for (int a = 0; a < numAggregates; a++) {
+                    entry.aggregates[a] += val[a];
+                }
+                entry.version++;
+                if (supported.contains(e.getKey())) {
+                    entry.numSupportingPanes++;
+                }
+            }
+        }
+        for (int a = 0; a < numAggregates; a++) {
+            globalAggregates[a] += pane.globalAggregates[a];
+        }
+        numEvents += pane.numEvents;
+    }
+
+    /* Subtract the aggregates of a pane from the window, dropping candidates no pane supports. */
+    private void expirePane(Pane pane) {
+        for (int curOrder = 1; curOrder <= maxOrder; curOrder++) {
+            HashMap<IntSet, WindowEntry> window = windowAggregates.get(curOrder - 1);
+            HashSet<IntSet> supported = pane.supported.get(curOrder - 1);
+            for (Map.Entry<IntSet, double[]> e : pane.aggregates.get(curOrder - 1).entrySet()) {
+                WindowEntry entry = window.get(e.getKey());
+                if (entry == null) {
+                    continue;
+                }
+                if (supported.contains(e.getKey()) && --entry.numSupportingPanes == 0) {
+                    // No pane left in which it passes the support thresholds, so neither does the window
+                    window.remove(e.getKey());
+                    continue;
+                }
+                double[] val = e.getValue();
+                for (int a = 0; a < numAggregates; a++) {
+                    entry.aggregates[a] -= val[a];
+                }
+                entry.version++;
+            }
+        }
+        for (int a = 0; a < numAggregates; a++) {
+            globalAggregates[a] -= pane.globalAggregates[a];
+        }
+        numEvents -= pane.numEvents;
+    }
+
+    @Override
+    public void process(DataFrame input) throws Exception {
+        if (encoder == null) {
+            initialize();
+        }
+        long startTime = System.currentTimeMillis();
+        // 1. Retire the oldest pane if the window is full
+        while (panes.size() >= numPanes) {
+            expirePane(panes.pollFirst());
+        }
+
+        // 2. Count the new pane
+        Pane pane = new Pane();
+        pane.globalAggregates = new double[numAggregates];
+        pane.aggregates = new ArrayList<>(maxOrder);
+        pane.supported = new ArrayList<>(maxOrder);
+        if (input.getNumRows() == 0) {
+            pane.encoded = new int[0][];
+            pane.aggregateColumns = new double[numAggregates][0];
+        } else {
+            pane.encoded = encoder.encodeAttributesAsArray(input.getStringColsByName(attributes));
+            pane.aggregateColumns = summarizer.getAggregateColumns(input);
+            pane.numEvents = (long) summarizer.getNumberEvents(pane.aggregateColumns);
+            for (int a = 0; a < numAggregates; a++) {
+                for (double v : pane.aggregateColumns[a]) {
+                    pane.globalAggregates[a] += v;
+                }
+            }
+        }
+        countPane(pane);
+
+        // 3. Add it to the window
+        addPane(pane);
+        panes.add(pane);
+        log.debug("Pane of {} rows processed in {} ms",
+                input.getNumRows(), System.currentTimeMillis() - startTime);
+    }
+
+    /*
+     * Whether every subset of a combination with one attribute removed is in a set, using the
+     * given probe to look them up.
+     */
+    private static boolean subsetsInSet(int[] values, int[] subset, IntSet subsetProbe, HashSet<IntSet> set) {
+        int order = values.length;
+        for (int skip = 0; skip < order; skip++) {
+            for (int i = 0, j = 0; i < order; i++) {
+                if (i != skip) {
+                    subset[j++] = values[i];
+                }
+            }
+            if (!set.contains(subsetProbe)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private QualityMetric.Action getAction(WindowEntry entry) {
+        if (entry.evaluatedVersion != entry.version || entry.evaluatedGlobalVersion != globalVersion) {
+            QualityMetric.Action action = QualityMetric.Action.KEEP;
+            for (int i = 0; i < qualityMetrics.length; i++) {
+                action = QualityMetric.Action.combine(action,
+                        qualityMetrics[i].getAction(entry.aggregates, thresholds[i]));
+            }
+            entry.action = action;
+            entry.evaluatedVersion = entry.version;
+            entry.evaluatedGlobalVersion = globalVersion;
+        }
+        return entry.action;
+    }
+
+    /**
+     * Runs the APriori walk over the window aggregates: combinations are explored when all of
+     * their subsets were kept for further exploration, and only candidates whose aggregates or
+     * global aggregates changed have their quality metrics re-evaluated.
+     * @return explanation of the current window
+     */
+    @Override
+    public APLExplanation getResults() {
+        if (encoder == null) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        for (QualityMetric q : qualityMetrics) {
+            q.initialize(globalAggregates);
+        }
+        if (!Arrays.equals(globalAggregates, evaluatedGlobalAggregates)) {
+            globalVersion++;
+            evaluatedGlobalAggregates = globalAggregates.clone();
+        }
+
+        List<APLExplanationResult> results = new ArrayList<>();
+        HashSet<IntSet> prevNext = null;
+        for (int curOrder = 1; curOrder <= maxOrder; curOrder++) {
+            HashSet<IntSet> curNext = new HashSet<>();
+            int[] subset = new int[curOrder - 1];
+            IntSet subsetProbe = new IntSetAsArray(subset);
+            for (Map.Entry<IntSet, WindowEntry> e : windowAggregates.get(curOrder - 1).entrySet()) {
+                IntSet curSet = e.getKey();
+                if (curOrder > 1
+                        && !subsetsInSet(((IntSetAsArray) curSet).getValues(), subset, subsetProbe, prevNext)) {
+                    continue;
+                }
+                WindowEntry entry = e.getValue();
+                QualityMetric.Action action = getAction(entry);
+                if (action == QualityMetric.Action.KEEP) {
+                    double[] aggregates = entry.aggregates.clone();
+                    double[] metrics = new double[qualityMetrics.length];
+                    for (int i = 0; i < metrics.length; i++) {
+                        metrics[i] = qualityMetrics[i].value(aggregates);
+                    }
+                    results.add(new APLExplanationResult(qualityMetrics, curSet, aggregates, metrics));
+                } else if (action == QualityMetric.Action.NEXT) {
+                    curNext.add(curSet);
+                }
+            }
+            if (curNext.isEmpty()) {
+                break;
+            }
+            prevNext = curNext;
+        }
+        // Outliers are counted against the global aggregates of the window, as in a batch run
+        double numOutliers = 0;
+        for (Pane pane : panes) {
+            if (pane.encoded.length > 0) {
+                numOutliers += summarizer.getNumberOutliers(pane.aggregateColumns, qualityMetricList, thresholdList);
+            }
+        }
+        log.debug("Explained window of {} panes in {} ms",
+                panes.size(), System.currentTimeMillis() - startTime);
+
+        return new APLExplanation(
+                encoder,
+                numEvents,
+                (long) numOutliers,
+                aggregateNames,
+                qualityMetricList,
+                results
+        );
+    }
+}
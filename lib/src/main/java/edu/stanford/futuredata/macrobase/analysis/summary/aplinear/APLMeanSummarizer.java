@@ -37,8 +37,8 @@ public class APLMeanSummarizer extends APLSummarizer {
     }
 
     @Override
-    public int[][] getEncoded(List<String[]> columns, DataFrame input) {
-        return encoder.encodeAttributesAsArray(columns);
+    public int[][] getEncodedColumns(List<String> columns, DataFrame input) {
+        return encoder.encodeColumns(input, columns);
     }
 
     @Override
@@ -83,9 +83,23 @@ public class APLMeanSummarizer extends APLSummarizer {
 
     @Override
     public double getNumberOutliers(double[][] aggregates) {
+        return getNumberOutliers(aggregates, qualityMetricList, thresholds);
+    }
+
+    @Override
+    double getNumberEvents(double[][] aggregates) {
+        double count = 0.0;
+        for (double rowCount : aggregates[0]) {
+            count += rowCount;
+        }
+        return count;
+    }
+
+    @Override
+    double getNumberOutliers(double[][] aggregates, List<QualityMetric> qualityMetrics, List<Double> thresholds) {
         int n = aggregates[0].length;
         int k = aggregates.length;
-        QualityMetric meanDevMetric = qualityMetricList.get(1);
+        QualityMetric meanDevMetric = qualityMetrics.get(1);
         double meanDevThreshold = thresholds.get(1);
         double[] curRow = new double[k];
         double outlierCount = 0;
@@ -15,6 +15,17 @@ public class APLOutlierSummarizer extends APLSummarizer {
 
     private Logger log = LoggerFactory.getLogger("APLOutlierSummarizer");
     private String countColumn = null;
+    private double[] outlierValues = null;
+
+    @Override
+    public void process(DataFrame input) throws Exception {
+        try {
+            super.process(input);
+        } finally {
+            // Outlier values belong to this input only
+            outlierValues = null;
+        }
+    }
 
     @Override
     public List<String> getAggregateNames() {
@@ -28,14 +39,14 @@ public class APLOutlierSummarizer extends APLSummarizer {
     }
 
     @Override
-    public int[][] getEncoded(List<String[]> columns, DataFrame input) {
-        return encoder.encodeAttributesWithSupport(columns, minOutlierSupport,
-            input.getDoubleColumnByName(outlierColumn));
+    public int[][] getEncodedColumns(List<String> columns, DataFrame input) {
+        return encoder.encodeColumnsWithSupport(input, columns, minOutlierSupport,
+            getOutlierValues(input));
     }
 
     @Override
     public double[][] getAggregateColumns(DataFrame input) {
-        double[] outlierCol = input.getDoubleColumnByName(outlierColumn);
+        double[] outlierCol = getOutlierValues(input);
         double[] countCol = processCountCol(input, countColumn, outlierCol.length);
 
         double[][] aggregateColumns = new double[2][];
@@ -86,6 +97,29 @@ public class APLOutlierSummarizer extends APLSummarizer {
         return count;
     }
 
+    @Override
+    double getNumberEvents(double[][] aggregates) {
+        double count = 0.0;
+        for (double rowCount : aggregates[1]) {
+            count += rowCount;
+        }
+        return count;
+    }
+
+    private double[] getOutlierValues(DataFrame input) {
+        return outlierValues != null ? outlierValues : input.getDoubleColumnByName(outlierColumn);
+    }
+
+    /**
+     * @param outlierValues Number of outliers in each row, used instead of the outlier column.
+     *                      Lets a classifier hand over its results without adding them to a
+     *                      copy of the input.  Only applies to the next call to process, after
+     *                      which the outlier column is read again.
+     */
+    public void setOutlierValues(double[] outlierValues) {
+        this.outlierValues = outlierValues;
+    }
+
     public String getCountColumn() {
         return countColumn;
     }
@@ -5,10 +5,12 @@ import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.Ag
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Generic summarizer superclass that can be customized with
@@ -25,15 +27,36 @@ public abstract class APLSummarizer extends BatchSummarizer {
 
     protected long numEvents = 0;
     protected long numOutliers = 0;
+    protected ExecutorService executor = MacroBaseExecutors.getSharedPool();
 
     public abstract List<String> getAggregateNames();
     public abstract AggregationOp[] getAggregationOps();
     public abstract double[][] getAggregateColumns(DataFrame input);
     public abstract List<QualityMetric> getQualityMetricList();
     public abstract List<Double> getThresholds();
-    public abstract int[][] getEncoded(List<String[]> columns, DataFrame input);
+    /**
+     * @param columns Names of the attribute columns to encode.
+     * @return Encoded attributes by column: encoded[column][row].
+     */
+    public abstract int[][] getEncodedColumns(List<String> columns, DataFrame input);
     public abstract double getNumberOutliers(double[][] aggregates);
 
+    /**
+     * Count outliers with quality metrics that were initialized elsewhere, e.g. on the global
+     * aggregates of a window rather than of the last input processed.
+     */
+    double getNumberOutliers(double[][] aggregates, List<QualityMetric> qualityMetrics, List<Double> thresholds) {
+        return getNumberOutliers(aggregates);
+    }
+
+    /**
+     * @return Number of events that the aggregate columns of an input represent, as process
+     * counts them.  Summarizers without a count aggregate report none.
+     */
+    double getNumberEvents(double[][] aggregates) {
+        return 0;
+    }
+
     protected double[] processCountCol(DataFrame input, String countColumn, int numRows) {
         double[] countCol;
         if (countColumn != null) {
@@ -55,8 +78,9 @@ public abstract class APLSummarizer extends BatchSummarizer {
     public void process(DataFrame input) throws Exception {
         encoder = new AttributeEncoder();
         encoder.setColumnNames(attributes);
+        encoder.setExecutor(executor);
         long startTime = System.currentTimeMillis();
-        int[][] encoded = getEncoded(input.getStringColsByName(attributes), input);
+        int[][] encoded = getEncodedColumns(attributes, input);
         long elapsed = System.currentTimeMillis() - startTime;
         log.info("Encoded in: {} ms", elapsed);
         log.info("Encoded Categories: {}", encoder.getNextKey() - 1);
@@ -65,13 +89,14 @@ public abstract class APLSummarizer extends BatchSummarizer {
         qualityMetricList = getQualityMetricList();
         aplKernel = new APrioriLinear(
                 qualityMetricList,
-                thresholds
+                thresholds,
+                executor
         );
 
         double[][] aggregateColumns = getAggregateColumns(input);
         List<String> aggregateNames = getAggregateNames();
         AggregationOp[] aggregationOps = getAggregationOps();
-        List<APLExplanationResult> aplResults = aplKernel.explain(encoded,
+        List<APLExplanationResult> aplResults = aplKernel.explainColumns(encoded,
                 aggregateColumns,
                 aggregationOps,
                 encoder.getNextKey(),
@@ -91,6 +116,17 @@ public abstract class APLSummarizer extends BatchSummarizer {
         );
     }
 
+    /**
+     * The pool on which explanation runs.  Summarizers share one pool by default, so
+     * repeated calls reuse its threads instead of starting new ones.
+     *
+     * @param executor Pool to run on; numThreads tasks are submitted to it per order.
+     */
+    public APLSummarizer setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public APLExplanation getResults() {
         return explanation;
     }
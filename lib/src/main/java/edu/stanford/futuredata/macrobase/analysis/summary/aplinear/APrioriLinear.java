@@ -3,12 +3,13 @@ package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.*;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
-import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Class for handling the generic, algorithmic aspects of apriori explanation.
@@ -22,28 +23,57 @@ public class APrioriLinear {
     // **Parameters**
     private QualityMetric[] qualityMetrics;
     private double[] thresholds;
+    // Pool on which candidate generation and merging run
+    private ExecutorService executor;
+    // Initial number of entries in the per-thread tables of orders above one
+    private static final int initialTableSize = 1024;
 
     // **Cached values**
     // Singleton viable sets for quick lookup
     private boolean[] singleNextArray;
     // Sets that have high enough support but not high qualityMetrics, need to be explored
     private HashMap<Integer, HashSet<IntSet>> setNext;
+    // The same for orders whose sets are packed into longs
+    private HashMap<Integer, LongHashSet> setNextLong;
     // Aggregate values for all of the sets we saved
     private HashMap<Integer, Map<IntSet, double []>> savedAggregates;
+    // The same for orders whose sets are packed into longs
+    private HashMap<Integer, LongAggregateMap> savedAggregatesLong;
 
     public APrioriLinear(
             List<QualityMetric> qualityMetrics,
             List<Double> thresholds
     ) {
+        this(qualityMetrics, thresholds, MacroBaseExecutors.getSharedPool());
+    }
+
+    public APrioriLinear(
+            List<QualityMetric> qualityMetrics,
+            List<Double> thresholds,
+            ExecutorService executor
+    ) {
+        this.executor = executor;
         this.qualityMetrics = qualityMetrics.toArray(new QualityMetric[0]);
         this.thresholds = new double[thresholds.size()];
         for (int i = 0; i < thresholds.size(); i++) {
             this.thresholds[i] = thresholds.get(i);
         }
         this.setNext = new HashMap<>(3);
+        this.setNextLong = new HashMap<>(3);
         this.savedAggregates = new HashMap<>(3);
+        this.savedAggregatesLong = new HashMap<>(3);
     }
 
+    /**
+     * Find the subgroups which pass the quality metric thresholds.
+     * @param attributes Encoded attributes by row: attributes[row][column].
+     * @param aggregateColumns Aggregates by column: aggregateColumns[aggregate][row].
+     * @param aggregationOps How each aggregate is combined.
+     * @param cardinality One more than the largest encoded attribute.
+     * @param maxOrder Largest number of attributes in a subgroup.
+     * @param numThreads Number of tasks rows are divided into.
+     * @return The subgroups found.
+     */
     public List<APLExplanationResult> explain(
             final int[][] attributes,
             double[][] aggregateColumns,
@@ -52,9 +82,42 @@ public class APrioriLinear {
             final int maxOrder,
             int numThreads
     ) {
-        final int numAggregates = aggregateColumns.length;
         final int numRows = aggregateColumns[0].length;
         final int numColumns = attributes[0].length;
+        // Store the dataset by column for fast processing
+        final int[][] attributeColumns = new int[numColumns][numRows];
+        for (int i = 0; i < numColumns; i++) {
+            int[] curColumn = attributeColumns[i];
+            for (int j = 0; j < numRows; j++) {
+                curColumn[j] = attributes[j][i];
+            }
+        }
+        return explainColumns(attributeColumns, aggregateColumns, aggregationOps, cardinality, maxOrder, numThreads);
+    }
+
+    /**
+     * Find the subgroups which pass the quality metric thresholds, reading attributes stored
+     * by column, as produced by {@link AttributeEncoder#encodeColumns}.  Nothing is copied:
+     * each task reads its own range of rows straight out of the columns.
+     * @param attributeColumns Encoded attributes by column: attributeColumns[column][row].
+     * @param aggregateColumns Aggregates by column: aggregateColumns[aggregate][row].
+     * @param aggregationOps How each aggregate is combined.
+     * @param cardinality One more than the largest encoded attribute.
+     * @param maxOrder Largest number of attributes in a subgroup.
+     * @param numThreads Number of tasks rows are divided into.
+     * @return The subgroups found.
+     */
+    public List<APLExplanationResult> explainColumns(
+            final int[][] attributeColumns,
+            double[][] aggregateColumns,
+            AggregationOp[] aggregationOps,
+            int cardinality,
+            final int maxOrder,
+            int numThreads
+    ) {
+        final int numAggregates = aggregateColumns.length;
+        final int numRows = aggregateColumns[0].length;
+        final int numColumns = attributeColumns.length;
 
         // Maximum order of explanations.
         final boolean useIntSetAsArray;
@@ -67,18 +130,6 @@ public class APrioriLinear {
             useIntSetAsArray = false;
         }
 
-        // Shard the dataset by rows for the threads, but store it by column for fast processing
-        final int[][][] byThreadAttributesTranspose =
-                new int[numThreads][numColumns][(numRows + numThreads)/numThreads];
-        for (int threadNum = 0; threadNum < numThreads; threadNum++) {
-            final int startIndex = (numRows * threadNum) / numThreads;
-            final int endIndex = (numRows * (threadNum + 1)) / numThreads;
-            for(int i = 0; i < numColumns; i++)
-                for(int j = startIndex; j < endIndex; j++) {
-                    byThreadAttributesTranspose[threadNum][i][j - startIndex] = attributes[j][i];
-                }
-        }
-
         // Quality metrics are initialized with global aggregates to
         // allow them to determine the appropriate relative thresholds
         double[] globalAggregates = new double[numAggregates];
@@ -94,179 +145,272 @@ public class APrioriLinear {
             q.initialize(globalAggregates);
         }
 
-        // Row store for more convenient access
-        final double[][] aRows = new double[numRows][numAggregates];
-        for (int i = 0; i < numRows; i++) {
-            for (int j = 0; j < numAggregates; j++) {
-                aRows[i][j] = aggregateColumns[j][i];
-            }
-        }
+        // Bits per attribute when packing candidates of order greater than three into longs.
+        final int packedBits = IntSetAsLong.bitsForCardinality(cardinality);
         for (int curOrder = 1; curOrder <= maxOrder; curOrder++) {
             long startTime = System.currentTimeMillis();
             final int curOrderFinal = curOrder;
-            // Initialize per-thread hashmaps.
+            // Higher-order candidates are packed into longs only if all their attributes fit.
+            final boolean curUseIntSetAsArray = useIntSetAsArray
+                    || (curOrder > 3 && !IntSetAsLong.canPack(cardinality, curOrder));
+            // Initialize per-thread hashmaps.  Packed candidates go into flat tables that start
+            // small and grow as needed, as there may be far fewer candidates than the cardinality.
             final ArrayList<FastFixedHashTable> threadSetAggregates = new ArrayList<>(numThreads);
+            final ArrayList<LongAggregateMap> threadLongAggregates = new ArrayList<>(numThreads);
             for (int i = 0; i < numThreads; i++) {
-                threadSetAggregates.add(new FastFixedHashTable(cardinality, numAggregates, useIntSetAsArray));
+                if (curUseIntSetAsArray) {
+                    threadSetAggregates.add(new FastFixedHashTable(cardinality, numAggregates, true));
+                } else {
+                    threadLongAggregates.add(new LongAggregateMap(
+                            curOrder == 1 ? cardinality : Math.min(cardinality, initialTableSize), numAggregates));
+                }
             }
-            // Shard the dataset by row into threads and generate candidates.
-            final CountDownLatch doneSignal = new CountDownLatch(numThreads);
+            // Shard the dataset by row into tasks and generate candidates.
+            final List<Callable<Void>> countTasks = new ArrayList<>(numThreads);
             for (int threadNum = 0; threadNum < numThreads; threadNum++) {
                 final int curThreadNum = threadNum;
-                final int startIndex = (numRows * threadNum) / numThreads;
-                final int endIndex = (numRows * (threadNum + 1)) / numThreads;
-                final FastFixedHashTable thisThreadSetAggregates = threadSetAggregates.get(threadNum);
+                final int startIndex = (int) ((long) numRows * threadNum / numThreads);
+                final int endIndex = (int) ((long) numRows * (threadNum + 1) / numThreads);
+                final FastFixedHashTable thisThreadSetAggregates =
+                        curUseIntSetAsArray ? threadSetAggregates.get(threadNum) : null;
+                final LongAggregateMap thisThreadLongAggregates =
+                        curUseIntSetAsArray ? null : threadLongAggregates.get(threadNum);
                 // Do candidate generation in a lambda.
-                Runnable APrioriLinearRunnable = () -> {
-                    IntSet curCandidate;
-                    if (!useIntSetAsArray)
-                        curCandidate = new IntSetAsLong(0);
-                    else
-                        curCandidate = new IntSetAsArray(0);
+                countTasks.add(() -> {
+                    // Scratch space for the aggregates of candidates seen for the first time
+                    double[] newRow = new double[numAggregates];
                     if (curOrderFinal == 1) {
                         for (int colNum = 0; colNum < numColumns; colNum++) {
-                            int[] curColumnAttributes = byThreadAttributesTranspose[curThreadNum][colNum];
+                            int[] curColumnAttributes = attributeColumns[colNum];
                             for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
                                 // Require that all order-one candidates have minimum support.
-                                if (curColumnAttributes[rowNum - startIndex] == AttributeEncoder.noSupport)
+                                if (curColumnAttributes[rowNum] == AttributeEncoder.noSupport)
                                     continue;
                                 // Cascade to arrays if necessary, but otherwise pack attributes into longs.
-                                if (useIntSetAsArray) {
-                                    curCandidate = new IntSetAsArray(curColumnAttributes[rowNum - startIndex]);
-                                } else {
-                                    ((IntSetAsLong) curCandidate).value = curColumnAttributes[rowNum - startIndex];
-                                }
-                                double[] candidateVal = thisThreadSetAggregates.get(curCandidate);
-                                if (candidateVal == null) {
-                                    thisThreadSetAggregates.put(curCandidate,
-                                            Arrays.copyOf(aRows[rowNum], numAggregates));
+                                if (curUseIntSetAsArray) {
+                                    addCandidate(thisThreadSetAggregates, new IntSetAsArray(curColumnAttributes[rowNum]),
+                                            aggregateColumns, rowNum, aggregationOps, newRow);
                                 } else {
-                                    for (int a = 0; a < numAggregates; a++) {
-                                        AggregationOp curOp = aggregationOps[a];
-                                        candidateVal[a] = curOp.combine(candidateVal[a], aRows[rowNum][a]);
-                                    }
+                                    thisThreadLongAggregates.combine(curColumnAttributes[rowNum],
+                                            aggregateColumns, rowNum, aggregationOps);
                                 }
                             }
                         }
                     } else if (curOrderFinal == 2) {
                         for (int colNumOne = 0; colNumOne < numColumns; colNumOne++) {
-                            int[] curColumnOneAttributes = byThreadAttributesTranspose[curThreadNum][colNumOne];
+                            int[] curColumnOneAttributes = attributeColumns[colNumOne];
                             for (int colNumTwo = colNumOne + 1; colNumTwo < numColumns; colNumTwo++) {
-                                int[] curColumnTwoAttributes = byThreadAttributesTranspose[curThreadNum][colNumTwo];
+                                int[] curColumnTwoAttributes = attributeColumns[colNumTwo];
                                 for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
-                                    int rowNumInCol = rowNum - startIndex;
                                     // Only examine a pair if both its members have minimum support.
-                                    if (curColumnOneAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                            || curColumnTwoAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                            || !singleNextArray[curColumnOneAttributes[rowNumInCol]]
-                                            || !singleNextArray[curColumnTwoAttributes[rowNumInCol]])
+                                    if (curColumnOneAttributes[rowNum] == AttributeEncoder.noSupport
+                                            || curColumnTwoAttributes[rowNum] == AttributeEncoder.noSupport
+                                            || !singleNextArray[curColumnOneAttributes[rowNum]]
+                                            || !singleNextArray[curColumnTwoAttributes[rowNum]])
                                         continue;
                                     // Cascade to arrays if necessary, but otherwise pack attributes into longs.
-                                    if (useIntSetAsArray) {
-                                        curCandidate = new IntSetAsArray(curColumnOneAttributes[rowNumInCol],
-                                                curColumnTwoAttributes[rowNumInCol]);
-                                    } else {
-                                        ((IntSetAsLong) curCandidate).value = IntSetAsLong.twoIntToLong(curColumnOneAttributes[rowNumInCol],
-                                                curColumnTwoAttributes[rowNumInCol]);
-                                    }
-                                    double[] candidateVal = thisThreadSetAggregates.get(curCandidate);
-                                    if (candidateVal == null) {
-                                        thisThreadSetAggregates.put(curCandidate,
-                                                Arrays.copyOf(aRows[rowNum], numAggregates));
+                                    if (curUseIntSetAsArray) {
+                                        addCandidate(thisThreadSetAggregates, new IntSetAsArray(curColumnOneAttributes[rowNum], curColumnTwoAttributes[rowNum]),
+                                                aggregateColumns, rowNum, aggregationOps, newRow);
                                     } else {
-                                        for (int a = 0; a < numAggregates; a++) {
-                                            AggregationOp curOp = aggregationOps[a];
-                                            candidateVal[a] = curOp.combine(candidateVal[a], aRows[rowNum][a]);
-                                        }
+                                        thisThreadLongAggregates.combine(IntSetAsLong.twoIntToLong(curColumnOneAttributes[rowNum], curColumnTwoAttributes[rowNum]),
+                                                aggregateColumns, rowNum, aggregationOps);
                                     }
                                 }
                             }
                         }
                     } else if (curOrderFinal == 3) {
                         for (int colNumOne = 0; colNumOne < numColumns; colNumOne++) {
-                            int[] curColumnOneAttributes = byThreadAttributesTranspose[curThreadNum][colNumOne % numColumns];
+                            int[] curColumnOneAttributes = attributeColumns[colNumOne];
                             for (int colNumTwo = colNumOne + 1; colNumTwo < numColumns; colNumTwo++) {
-                                int[] curColumnTwoAttributes = byThreadAttributesTranspose[curThreadNum][colNumTwo % numColumns];
+                                int[] curColumnTwoAttributes = attributeColumns[colNumTwo];
                                 for (int colnumThree = colNumTwo + 1; colnumThree < numColumns; colnumThree++) {
-                                    int[] curColumnThreeAttributes = byThreadAttributesTranspose[curThreadNum][colnumThree % numColumns];
+                                    int[] curColumnThreeAttributes = attributeColumns[colnumThree];
                                     for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
-                                        int rowNumInCol = rowNum - startIndex;
-                                        // Only construct a triple if all its singleton members have minimum support.
-                                        if (curColumnOneAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                                || curColumnTwoAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                                || curColumnThreeAttributes[rowNumInCol] == AttributeEncoder.noSupport
-                                                || !singleNextArray[curColumnThreeAttributes[rowNumInCol]]
-                                                || !singleNextArray[curColumnOneAttributes[rowNumInCol]]
-                                                || !singleNextArray[curColumnTwoAttributes[rowNumInCol]])
+                                            // Only construct a triple if all its singleton members have minimum support.
+                                        if (curColumnOneAttributes[rowNum] == AttributeEncoder.noSupport
+                                                || curColumnTwoAttributes[rowNum] == AttributeEncoder.noSupport
+                                                || curColumnThreeAttributes[rowNum] == AttributeEncoder.noSupport
+                                                || !singleNextArray[curColumnThreeAttributes[rowNum]]
+                                                || !singleNextArray[curColumnOneAttributes[rowNum]]
+                                                || !singleNextArray[curColumnTwoAttributes[rowNum]])
                                             continue;
                                         // Cascade to arrays if necessary, but otherwise pack attributes into longs.
-                                        if (useIntSetAsArray) {
-                                            curCandidate = new IntSetAsArray(
-                                                    curColumnOneAttributes[rowNumInCol],
-                                                    curColumnTwoAttributes[rowNumInCol],
-                                                    curColumnThreeAttributes[rowNumInCol]);
-                                        } else {
-                                            ((IntSetAsLong) curCandidate).value = IntSetAsLong.threeIntToLong(
-                                                    curColumnOneAttributes[rowNumInCol],
-                                                    curColumnTwoAttributes[rowNumInCol],
-                                                    curColumnThreeAttributes[rowNumInCol]);
-                                        }
-                                        double[] candidateVal = thisThreadSetAggregates.get(curCandidate);
-                                        if (candidateVal == null) {
-                                            thisThreadSetAggregates.put(curCandidate,
-                                                    Arrays.copyOf(aRows[rowNum], numAggregates));
+                                        if (curUseIntSetAsArray) {
+                                            addCandidate(thisThreadSetAggregates, new IntSetAsArray( curColumnOneAttributes[rowNum], curColumnTwoAttributes[rowNum], curColumnThreeAttributes[rowNum]),
+                                                    aggregateColumns, rowNum, aggregationOps, newRow);
                                         } else {
-                                            for (int a = 0; a < numAggregates; a++) {
-                                                AggregationOp curOp = aggregationOps[a];
-                                                candidateVal[a] = curOp.combine(candidateVal[a], aRows[rowNum][a]);
-                                            }
+                                            thisThreadLongAggregates.combine(IntSetAsLong.threeIntToLong( curColumnOneAttributes[rowNum], curColumnTwoAttributes[rowNum], curColumnThreeAttributes[rowNum]),
+                                                    aggregateColumns, rowNum, aggregationOps);
                                         }
                                     }
                                 }
                             }
                         }
                     } else {
-                        throw new MacroBaseInternalError("High Order not supported");
+                        // Generic candidate generation for higher orders:  iterate over every
+                        // combination of curOrder columns in increasing order.
+                        int[] colNums = new int[curOrderFinal];
+                        for (int i = 0; i < curOrderFinal; i++) {
+                            colNums[i] = i;
+                        }
+                        int[][] curColumnsAttributes = new int[curOrderFinal][];
+                        int[] curValues = new int[curOrderFinal];
+                        boolean hasCombination = curOrderFinal <= numColumns;
+                        while (hasCombination) {
+                            for (int i = 0; i < curOrderFinal; i++) {
+                                curColumnsAttributes[i] = attributeColumns[colNums[i]];
+                            }
+                            rowLoop:
+                            for (int rowNum = startIndex; rowNum < endIndex; rowNum++) {
+                                // Only construct a candidate if all its singleton members have minimum support.
+                                for (int i = 0; i < curOrderFinal; i++) {
+                                    int curValue = curColumnsAttributes[i][rowNum];
+                                    if (curValue == AttributeEncoder.noSupport || !singleNextArray[curValue])
+                                        continue rowLoop;
+                                    curValues[i] = curValue;
+                                }
+                                // Cascade to arrays if necessary, but otherwise pack attributes into longs.
+                                if (curUseIntSetAsArray) {
+                                    addCandidate(thisThreadSetAggregates, new IntSetAsArray(Arrays.copyOf(curValues, curOrderFinal)),
+                                            aggregateColumns, rowNum, aggregationOps, newRow);
+                                } else {
+                                    thisThreadLongAggregates.combine(IntSetAsLong.packInts( curValues, curOrderFinal, packedBits),
+                                            aggregateColumns, rowNum, aggregationOps);
+                                }
+                            }
+                            hasCombination = nextCombination(colNums, numColumns);
+                        }
                     }
                     log.debug("Time spent in Thread {} in order {}:  {} ms",
                             curThreadNum, curOrderFinal, System.currentTimeMillis() - startTime);
-                    doneSignal.countDown();
-                };
-                // Run numThreads lambdas in separate threads
-                Thread APrioriLinearThread = new Thread(APrioriLinearRunnable);
-                APrioriLinearThread.start();
+                    return null;
+                });
             }
-            // Wait for all threads to finish running.
-            try {
-                doneSignal.await();
-            } catch (InterruptedException ex) {ex.printStackTrace();}
-
+            // Run the tasks on the shared pool and wait for all of them to finish.
+            MacroBaseExecutors.runAll(executor, countTasks);
 
-            Map<IntSet, double []> setAggregates = new HashMap<>();
-            // Collect the aggregates stored in the per-thread HashMaps.
-            for (FastFixedHashTable set : threadSetAggregates) {
-                if (useIntSetAsArray) {
-                    for (IntSet curCandidateKey : set.keySet()) {
-                        double[] curCandidateValue = set.get(curCandidateKey);
-                        double[] candidateVal = setAggregates.get(curCandidateKey);
-                        if (candidateVal == null) {
-                            setAggregates.put(curCandidateKey, Arrays.copyOf(curCandidateValue, numAggregates));
-                        } else {
-                            for (int a = 0; a < numAggregates; a++) {
-                                AggregationOp curOp = aggregationOps[a];
-                                candidateVal[a] = curOp.combine(candidateVal[a], curCandidateValue[a]);
-                            }
-                        }
+            // Merge the per-thread aggregates and prune them, keeping keys packed into longs
+            // whenever they fit.
+            int numCandidates;
+            if (curUseIntSetAsArray) {
+                numCandidates = mergeAndPrune(threadSetAggregates, curOrder, packedBits, aggregationOps);
+            } else {
+                numCandidates = mergeAndPruneLong(threadLongAggregates, curOrder, packedBits, aggregationOps);
+            }
+            if (curOrder == 1) {
+                singleNextArray = new boolean[cardinality];
+                if (curUseIntSetAsArray) {
+                    for (IntSet i : setNext.get(1)) {
+                        singleNextArray[i.getFirst()] = true;
                     }
                 } else {
-                    for (long curCandidateKeyLong : set.keySetLong()) {
-                        IntSetAsLong curCandidateKeyIntSetAsLong = new IntSetAsLong(curCandidateKeyLong);
-                        IntSet curCandidateKey = new IntSetAsArray(curCandidateKeyIntSetAsLong);
-                        double[] curCandidateValue = set.get(curCandidateKeyIntSetAsLong);
-                        double[] candidateVal = setAggregates.get(curCandidateKey);
-                        if (candidateVal == null) {
-                            setAggregates.put(curCandidateKey, Arrays.copyOf(curCandidateValue, numAggregates));
-                        } else {
+                    for (long i : setNextLong.get(1).toArray()) {
+                        singleNextArray[(int) i] = true;
+                    }
+                }
+            }
+            long elapsed = System.currentTimeMillis() - startTime;
+            log.debug("Order {}: {} rows, {} candidates in {} ms ({} rows/ms)",
+                    curOrder, numRows, numCandidates, elapsed, numRows / Math.max(elapsed, 1));
+        }
+
+        List<APLExplanationResult> results = new ArrayList<>();
+        // Only the saved sets are ever boxed into IntSets.
+        for (int curOrder: savedAggregatesLong.keySet()) {
+            LongAggregateMap curOrderSavedAggregates = savedAggregatesLong.get(curOrder);
+            double[] savedValues = curOrderSavedAggregates.getValues();
+            for (int slot = 0; slot < curOrderSavedAggregates.getCapacity(); slot++) {
+                long curKey = curOrderSavedAggregates.getKeyAt(slot);
+                if (curKey == 0) {
+                    continue;
+                }
+                double[] aggregates = Arrays.copyOfRange(savedValues,
+                        slot * numAggregates, (slot + 1) * numAggregates);
+                double[] metrics = new double[qualityMetrics.length];
+                for (int i = 0; i < metrics.length; i++) {
+                    metrics[i] = qualityMetrics[i].value(aggregates);
+                }
+                results.add(
+                        new APLExplanationResult(qualityMetrics, decodeLong(curKey, curOrder, packedBits),
+                                aggregates, metrics)
+                );
+            }
+        }
+        for (int curOrder: savedAggregates.keySet()) {
+            Map<IntSet, double []> curOrderSavedAggregates = savedAggregates.get(curOrder);
+            for (IntSet curSet : curOrderSavedAggregates.keySet()) {
+                double[] aggregates = curOrderSavedAggregates.get(curSet);
+                double[] metrics = new double[qualityMetrics.length];
+                for (int i = 0; i < metrics.length; i++) {
+                    metrics[i] = qualityMetrics[i].value(aggregates);
+                }
+                results.add(
+                        new APLExplanationResult(qualityMetrics, curSet, aggregates, metrics)
+                );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Merge the per-thread tables of an order whose keys do not fit into longs and prune the
+     * merged candidates.  Candidates are partitioned by hash so each is handled by one task.
+     * @return The number of distinct candidates.
+     */
+    private int mergeAndPrune(
+            List<FastFixedHashTable> threadSetAggregates,
+            int curOrder,
+            int packedBits,
+            AggregationOp[] aggregationOps
+    ) {
+        final int numAggregates = aggregationOps.length;
+        final int numTables = threadSetAggregates.size();
+        final int numPartitions = numTables;
+        // Scatter the per-thread aggregates into partitions by key hash.
+        final List<List<List<IntSet>>> threadPartitionKeys = new ArrayList<>(numTables);
+        final List<List<List<double[]>>> threadPartitionValues = new ArrayList<>(numTables);
+        final List<Callable<Void>> scatterTasks = new ArrayList<>(numTables);
+        for (FastFixedHashTable set : threadSetAggregates) {
+            final List<List<IntSet>> partitionKeys = new ArrayList<>(numPartitions);
+            final List<List<double[]>> partitionValues = new ArrayList<>(numPartitions);
+            for (int p = 0; p < numPartitions; p++) {
+                partitionKeys.add(new ArrayList<>());
+                partitionValues.add(new ArrayList<>());
+            }
+            threadPartitionKeys.add(partitionKeys);
+            threadPartitionValues.add(partitionValues);
+            scatterTasks.add(() -> {
+                for (IntSet curCandidateKey : set.keySet()) {
+                    int p = partitionOf(curCandidateKey, numPartitions);
+                    partitionKeys.get(p).add(curCandidateKey);
+                    partitionValues.get(p).add(set.get(curCandidateKey));
+                }
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, scatterTasks);
+
+        // Merge and prune each partition in parallel.
+        final List<Map<IntSet, double []>> partitionSaved = new ArrayList<>(numPartitions);
+        final List<List<IntSet>> partitionNext = new ArrayList<>(numPartitions);
+        final int[] partitionSizes = new int[numPartitions];
+        final List<Callable<Void>> mergeTasks = new ArrayList<>(numPartitions);
+        for (int partitionNum = 0; partitionNum < numPartitions; partitionNum++) {
+            final int curPartitionNum = partitionNum;
+            final Map<IntSet, double []> curPartitionSaved = new HashMap<>();
+            final List<IntSet> curPartitionNext = new ArrayList<>();
+            partitionSaved.add(curPartitionSaved);
+            partitionNext.add(curPartitionNext);
+            mergeTasks.add(() -> {
+                Map<IntSet, double []> setAggregates = new HashMap<>();
+                for (int threadNum = 0; threadNum < numTables; threadNum++) {
+                    List<IntSet> keys = threadPartitionKeys.get(threadNum).get(curPartitionNum);
+                    List<double[]> values = threadPartitionValues.get(threadNum).get(curPartitionNum);
+                    for (int i = 0; i < keys.size(); i++) {
+                        double[] curCandidateValue = values.get(i);
+                        double[] candidateVal = setAggregates.putIfAbsent(keys.get(i), curCandidateValue);
+                        if (candidateVal != null) {
                             for (int a = 0; a < numAggregates; a++) {
                                 AggregationOp curOp = aggregationOps[a];
                                 candidateVal[a] = curOp.combine(candidateVal[a], curCandidateValue[a]);
@@ -274,95 +418,375 @@ public class APrioriLinear {
                         }
                     }
                 }
-            }
+                partitionSizes[curPartitionNum] = setAggregates.size();
 
-            // Prune all the collected aggregates
-            HashSet<IntSet> curOrderNext = new HashSet<>();
-            HashSet<IntSet> curOrderSaved = new HashSet<>();
-            for (IntSet curCandidate: setAggregates.keySet()) {
-                QualityMetric.Action action = QualityMetric.Action.KEEP;
-                if (curOrder == 1 && curCandidate.getFirst() == AttributeEncoder.noSupport) {
-                    action = QualityMetric.Action.PRUNE;
-                } else {
-                    double[] curAggregates = setAggregates.get(curCandidate);
-                    for (int i = 0; i < qualityMetrics.length; i++) {
-                        QualityMetric q = qualityMetrics[i];
-                        double t = thresholds[i];
-                        action = QualityMetric.Action.combine(action, q.getAction(curAggregates, t));
+                for (Map.Entry<IntSet, double []> curEntry : setAggregates.entrySet()) {
+                    IntSet curCandidate = curEntry.getKey();
+                    if (curOrder == 1 && curCandidate.getFirst() == AttributeEncoder.noSupport) {
+                        continue;
                     }
+                    double[] curAggregates = curEntry.getValue();
+                    QualityMetric.Action action = getAction(curAggregates);
                     if (action == QualityMetric.Action.KEEP) {
-                        // Make sure the candidate isn't already covered by a pair
-                        if (curOrder != 3 || validateCandidate(curCandidate, setNext.get(2))) {
+                        // Make sure the candidate isn't already covered by a lower-order set
+                        if (curOrder < 3 || validateCandidate(curCandidate, curOrder, packedBits)) {
                             // if a set is already past the threshold on all metrics,
                             // save it and no need for further exploration if we do containment
-                            curOrderSaved.add(curCandidate);
+                            curPartitionSaved.put(curCandidate, curAggregates);
                         }
                     } else if (action == QualityMetric.Action.NEXT) {
                         // otherwise if a set still has potentially good subsets,
                         // save it for further examination
-                        curOrderNext.add(curCandidate);
+                        curPartitionNext.add(curCandidate);
                     }
                 }
-            }
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, mergeTasks);
 
-            // Save aggregates that pass all qualityMetrics to return later, store aggregates
-            // that have minimum support for higher-order exploration.
-            Map<IntSet, double []> curSavedAggregates = new HashMap<>(curOrderSaved.size());
-            for (IntSet curSaved : curOrderSaved) {
-                curSavedAggregates.put(curSaved, setAggregates.get(curSaved));
-            }
-            savedAggregates.put(curOrder, curSavedAggregates);
-            setNext.put(curOrder, curOrderNext);
-            if (curOrder == 1) {
-                singleNextArray = new boolean[cardinality];
-                for (IntSet i : curOrderNext) {
-                    singleNextArray[i.getFirst()] = true;
+        // Save aggregates that pass all qualityMetrics to return later, store aggregates
+        // that have minimum support for higher-order exploration.
+        int numCandidates = 0;
+        Map<IntSet, double []> curSavedAggregates = new HashMap<>();
+        HashSet<IntSet> curOrderNext = new HashSet<>();
+        for (int p = 0; p < numPartitions; p++) {
+            numCandidates += partitionSizes[p];
+            curSavedAggregates.putAll(partitionSaved.get(p));
+            curOrderNext.addAll(partitionNext.get(p));
+        }
+        savedAggregates.put(curOrder, curSavedAggregates);
+        setNext.put(curOrder, curOrderNext);
+        return numCandidates;
+    }
+
+    /**
+     * Merge the per-thread tables of an order whose keys are packed into longs and prune the
+     * merged candidates.  Keys stay packed and aggregates stay in flat arrays throughout, so
+     * nothing is allocated per candidate.
+     * @return The number of distinct candidates.
+     */
+    private int mergeAndPruneLong(
+            List<LongAggregateMap> threadSetAggregates,
+            int curOrder,
+            int packedBits,
+            AggregationOp[] aggregationOps
+    ) {
+        final int numAggregates = aggregationOps.length;
+        final int numTables = threadSetAggregates.size();
+        final int numPartitions = numTables;
+        // Scatter the per-thread aggregates into partitions by key hash, counting the
+        // entries in each partition first so they can be copied into exactly-sized arrays.
+        final long[][][] threadPartitionKeys = new long[numTables][][];
+        final double[][][] threadPartitionValues = new double[numTables][][];
+        final List<Callable<Void>> scatterTasks = new ArrayList<>(numTables);
+        for (int threadNum = 0; threadNum < numTables; threadNum++) {
+            final int curThreadNum = threadNum;
+            final LongAggregateMap set = threadSetAggregates.get(threadNum);
+            scatterTasks.add(() -> {
+                int capacity = set.getCapacity();
+                double[] setValues = set.getValues();
+                int[] partitionCounts = new int[numPartitions];
+                for (int slot = 0; slot < capacity; slot++) {
+                    long curKey = set.getKeyAt(slot);
+                    if (curKey != 0) {
+                        partitionCounts[partitionOf(curKey, numPartitions)]++;
+                    }
                 }
-            }
+                long[][] partitionKeys = new long[numPartitions][];
+                double[][] partitionValues = new double[numPartitions][];
+                for (int p = 0; p < numPartitions; p++) {
+                    partitionKeys[p] = new long[partitionCounts[p]];
+                    partitionValues[p] = new double[partitionCounts[p] * numAggregates];
+                }
+                int[] partitionPositions = new int[numPartitions];
+                for (int slot = 0; slot < capacity; slot++) {
+                    long curKey = set.getKeyAt(slot);
+                    if (curKey != 0) {
+                        int p = partitionOf(curKey, numPartitions);
+                        int pos = partitionPositions[p]++;
+                        partitionKeys[p][pos] = curKey;
+                        System.arraycopy(setValues, slot * numAggregates,
+                                partitionValues[p], pos * numAggregates, numAggregates);
+                    }
+                }
+                threadPartitionKeys[curThreadNum] = partitionKeys;
+                threadPartitionValues[curThreadNum] = partitionValues;
+                return null;
+            });
         }
+        MacroBaseExecutors.runAll(executor, scatterTasks);
 
-        List<APLExplanationResult> results = new ArrayList<>();
-        for (int curOrder: savedAggregates.keySet()) {
-            Map<IntSet, double []> curOrderSavedAggregates = savedAggregates.get(curOrder);
-            for (IntSet curSet : curOrderSavedAggregates.keySet()) {
-                double[] aggregates = curOrderSavedAggregates.get(curSet);
-                double[] metrics = new double[qualityMetrics.length];
-                for (int i = 0; i < metrics.length; i++) {
-                    metrics[i] = qualityMetrics[i].value(aggregates);
+        // Merge and prune each partition in parallel.
+        final LongHashSet prevOrderNext = setNextLong.get(curOrder - 1);
+        final LongAggregateMap[] partitionSaved = new LongAggregateMap[numPartitions];
+        final LongHashSet[] partitionNext = new LongHashSet[numPartitions];
+        final int[] partitionSizes = new int[numPartitions];
+        final List<Callable<Void>> mergeTasks = new ArrayList<>(numPartitions);
+        for (int partitionNum = 0; partitionNum < numPartitions; partitionNum++) {
+            final int curPartitionNum = partitionNum;
+            mergeTasks.add(() -> {
+                int expectedSize = 0;
+                for (int threadNum = 0; threadNum < numTables; threadNum++) {
+                    expectedSize += threadPartitionKeys[threadNum][curPartitionNum].length;
                 }
-                results.add(
-                        new APLExplanationResult(qualityMetrics, curSet, aggregates, metrics)
-                );
+                LongAggregateMap setAggregates = new LongAggregateMap(expectedSize, numAggregates);
+                for (int threadNum = 0; threadNum < numTables; threadNum++) {
+                    long[] keys = threadPartitionKeys[threadNum][curPartitionNum];
+                    double[] values = threadPartitionValues[threadNum][curPartitionNum];
+                    for (int i = 0; i < keys.length; i++) {
+                        setAggregates.combine(keys[i], values, i * numAggregates, aggregationOps);
+                    }
+                }
+                partitionSizes[curPartitionNum] = setAggregates.size();
+
+                LongAggregateMap curPartitionSaved = new LongAggregateMap(16, numAggregates);
+                LongHashSet curPartitionNext = new LongHashSet(16);
+                double[] mergedValues = setAggregates.getValues();
+                double[] curAggregates = new double[numAggregates];
+                for (int slot = 0; slot < setAggregates.getCapacity(); slot++) {
+                    long curCandidate = setAggregates.getKeyAt(slot);
+                    if (curCandidate == 0
+                            || (curOrder == 1 && curCandidate == AttributeEncoder.noSupport)) {
+                        continue;
+                    }
+                    System.arraycopy(mergedValues, slot * numAggregates, curAggregates, 0, numAggregates);
+                    QualityMetric.Action action = getAction(curAggregates);
+                    if (action == QualityMetric.Action.KEEP) {
+                        // Make sure the candidate isn't already covered by a lower-order set
+                        if (curOrder < 3 || validateCandidateLong(curCandidate, curOrder, packedBits, prevOrderNext)) {
+                            curPartitionSaved.put(curCandidate, mergedValues, slot * numAggregates);
+                        }
+                    } else if (action == QualityMetric.Action.NEXT) {
+                        curPartitionNext.add(curCandidate);
+                    }
+                }
+                partitionSaved[curPartitionNum] = curPartitionSaved;
+                partitionNext[curPartitionNum] = curPartitionNext;
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, mergeTasks);
+
+        int numCandidates = 0;
+        int numSaved = 0;
+        int numNext = 0;
+        for (int p = 0; p < numPartitions; p++) {
+            numCandidates += partitionSizes[p];
+            numSaved += partitionSaved[p].size();
+            numNext += partitionNext[p].size();
+        }
+        LongAggregateMap curSavedAggregates = new LongAggregateMap(numSaved, numAggregates);
+        LongHashSet curOrderNext = new LongHashSet(numNext);
+        for (int p = 0; p < numPartitions; p++) {
+            curSavedAggregates.putAll(partitionSaved[p]);
+            curOrderNext.addAll(partitionNext[p]);
+        }
+        savedAggregatesLong.put(curOrder, curSavedAggregates);
+        setNextLong.put(curOrder, curOrderNext);
+        return numCandidates;
+    }
+
+    /**
+     * Add a row's aggregates to a candidate's entry in a table, inserting it if absent.
+     * @param newRow Scratch array the row's aggregates are gathered into for an insertion.
+     */
+    private static void addCandidate(FastFixedHashTable table, IntSet curCandidate,
+                                     double[][] aggregateColumns, int rowNum,
+                                     AggregationOp[] aggregationOps, double[] newRow) {
+        double[] candidateVal = table.get(curCandidate);
+        if (candidateVal == null) {
+            for (int a = 0; a < aggregationOps.length; a++) {
+                newRow[a] = aggregateColumns[a][rowNum];
+            }
+            table.put(curCandidate, newRow);
+        } else {
+            for (int a = 0; a < aggregationOps.length; a++) {
+                AggregationOp curOp = aggregationOps[a];
+                candidateVal[a] = curOp.combine(candidateVal[a], aggregateColumns[a][rowNum]);
             }
         }
-        return results;
     }
 
     /**
-     * Check if all subsets of an order-3 candidate are order-2 candidates.
-     * @param o2Candidates All candidates of order 2 with minimum support.
-     * @param curCandidate An order-3 candidate
+     * Combine the actions of all quality metrics on a candidate's aggregates.
+     */
+    private QualityMetric.Action getAction(double[] curAggregates) {
+        QualityMetric.Action action = QualityMetric.Action.KEEP;
+        for (int i = 0; i < qualityMetrics.length; i++) {
+            QualityMetric q = qualityMetrics[i];
+            double t = thresholds[i];
+            action = QualityMetric.Action.combine(action, q.getAction(curAggregates, t));
+        }
+        return action;
+    }
+
+    /**
+     * Assign a candidate to one of numPartitions merge partitions by its hash.
+     */
+    private static int partitionOf(IntSet candidate, int numPartitions) {
+        int hashed = candidate.hashCode();
+        hashed ^= (hashed >>> 16);
+        return (hashed & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    /**
+     * Assign a packed candidate to one of numPartitions merge partitions.  This uses the high
+     * bits of the hash, as LongAggregateMap uses the low ones to pick slots.
+     */
+    private static int partitionOf(long candidate, int numPartitions) {
+        return (int) (LongAggregateMap.hash(candidate) >>> 33) % numPartitions;
+    }
+
+    /**
+     * Pack a set of attributes into a long the same way candidates of its order are packed.
+     * @param values Attributes in column order.
+     * @param order Number of attributes.
+     * @param packedBits Bits per attribute for orders greater than three.
+     * @return The packed key.
+     */
+    private static long packKey(int[] values, int order, int packedBits) {
+        switch (order) {
+            case 1:
+                return values[0];
+            case 2:
+                return IntSetAsLong.twoIntToLong(values[0], values[1]);
+            case 3:
+                return IntSetAsLong.threeIntToLong(values[0], values[1], values[2]);
+            default:
+                return IntSetAsLong.packInts(values, order, packedBits);
+        }
+    }
+
+    /**
+     * Unpack a saved candidate into an IntSet with its attributes in column order.
+     */
+    private static IntSet decodeLong(long key, int order, int packedBits) {
+        if (order <= 3) {
+            return new IntSetAsArray(new IntSetAsLong(key));
+        } else {
+            return new IntSetAsArray(IntSetAsLong.unpackInts(key, order, packedBits));
+        }
+    }
+
+    /**
+     * Check if all subsets of an order-3 or higher candidate are candidates of the order below.
+     * @param curCandidate A candidate of order 3 or higher
+     * @param curOrder The order of the candidate.
+     * @param packedBits Bits per attribute for packed orders greater than three.
      * @return Boolean
      */
-    private boolean validateCandidate(IntSet curCandidate,
-                                      HashSet<IntSet> o2Candidates) {
+    private boolean validateCandidate(IntSet curCandidate, int curOrder, int packedBits) {
+        int[] values = ((IntSetAsArray) curCandidate).getValues();
+        LongHashSet subCandidatesLong = setNextLong.get(curOrder - 1);
+        if (subCandidatesLong != null) {
+            // The order below fit into longs, so pack each subset to look it up.
+            int[] subValues = new int[curOrder - 1];
+            for (int skip = 0; skip < curOrder; skip++) {
+                for (int i = 0, j = 0; i < curOrder; i++) {
+                    if (i != skip) {
+                        subValues[j++] = values[i];
+                    }
+                }
+                if (!subCandidatesLong.contains(packKey(subValues, curOrder - 1, packedBits))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        HashSet<IntSet> subCandidates = setNext.get(curOrder - 1);
+        if (curOrder == 3) {
             IntSet subPair;
             subPair = new IntSetAsArray(
                     curCandidate.getFirst(),
                     curCandidate.getSecond());
-            if (o2Candidates.contains(subPair)) {
+            if (subCandidates.contains(subPair)) {
                 subPair = new IntSetAsArray(
                         curCandidate.getSecond(),
                         curCandidate.getThird());
-                if (o2Candidates.contains(subPair)) {
+                if (subCandidates.contains(subPair)) {
                     subPair = new IntSetAsArray(
                             curCandidate.getFirst(),
                             curCandidate.getThird());
-                    if (o2Candidates.contains(subPair)) {
+                    if (subCandidates.contains(subPair)) {
                         return true;
                     }
                 }
             }
-        return false;
+            return false;
+        }
+        // Higher-order candidates keep their attributes in column order, as do their subsets.
+        for (int skip = 0; skip < values.length; skip++) {
+            int[] subValues = new int[values.length - 1];
+            for (int i = 0, j = 0; i < values.length; i++) {
+                if (i != skip) {
+                    subValues[j++] = values[i];
+                }
+            }
+            if (!subCandidates.contains(new IntSetAsArray(subValues))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if all subsets of a packed order-3 or higher candidate are packed candidates of
+     * the order below, without unpacking it.
+     * @param curCandidate A packed candidate of order 3 or higher
+     * @param curOrder The order of the candidate.
+     * @param packedBits Bits per attribute for orders greater than three.
+     * @param subCandidates All packed candidates of the order below with minimum support.
+     * @return Boolean
+     */
+    private static boolean validateCandidateLong(long curCandidate, int curOrder, int packedBits,
+                                                 LongHashSet subCandidates) {
+        if (curOrder == 3) {
+            long mask = (1L << 21) - 1;
+            long a = curCandidate >>> 42;
+            long b = (curCandidate >>> 21) & mask;
+            long c = curCandidate & mask;
+            return subCandidates.contains(IntSetAsLong.twoIntToLong(a, b))
+                    && subCandidates.contains(IntSetAsLong.twoIntToLong(b, c))
+                    && subCandidates.contains(IntSetAsLong.twoIntToLong(a, c));
+        }
+        long mask = (1L << packedBits) - 1;
+        // Order-3 subsets use the fixed 21-bit layout rather than packedBits.
+        int subBits = (curOrder - 1 == 3) ? 21 : packedBits;
+        for (int skip = 0; skip < curOrder; skip++) {
+            long subKey = 0;
+            for (int i = 0; i < curOrder; i++) {
+                if (i != skip) {
+                    long value = (curCandidate >>> ((curOrder - 1 - i) * packedBits)) & mask;
+                    subKey = (subKey << subBits) + value;
+                }
+            }
+            if (!subCandidates.contains(subKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Advance colNums to the next combination of column indices in lexicographic order.
+     * @param colNums Strictly increasing column indices, updated in place.
+     * @param numColumns Total number of columns.
+     * @return False if colNums was already the last combination.
+     */
+    static boolean nextCombination(int[] colNums, int numColumns) {
+        int k = colNums.length;
+        int i = k - 1;
+        while (i >= 0 && colNums[i] == numColumns - k + i) {
+            i--;
+        }
+        if (i < 0) {
+            return false;
+        }
+        colNums[i]++;
+        for (int j = i + 1; j < k; j++) {
+            colNums[j] = colNums[j - 1] + 1;
+        }
+        return true;
     }
 }
@@ -1,130 +1,50 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.fpg;
 
-import com.google.common.collect.Sets;
 import edu.stanford.futuredata.macrobase.analysis.summary.fpg.result.ItemsetWithCount;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateMap;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
 
 
 public class FPGrowth {
+    private int numThreads = 1;
+
+    /**
+     * FP-tree stored column-wise in primitive arrays, one entry per node.  Items are replaced by
+     * their rank among the frequent items: rank 0 is the most frequent, ties are broken by item,
+     * and every path from the root visits ranks in increasing order.  Children are found through
+     * an open-addressing table keyed by parent and rank.
+     */
     class FPTree {
-        private FPTreeNode root = new FPTreeNode(-1, null, 0);
         // used to calculate the order
         private Map<Integer, Double> frequentItemCounts = new HashMap<>();
-
-        // item order -- need canonical to break ties; 0 is smallest, N is largest
-        private Map<Integer, Integer> frequentItemOrder = new HashMap<>();
-
-        protected Map<Integer, FPTreeNode> nodeHeaders = new HashMap<>();
-
-//        protected void printTreeDebug() {
-//            log.debug("Frequent Item Counts:");
-//            frequentItemCounts.entrySet().forEach(e -> log.debug(String.format("%d: %f", e.getKey(), e.getValue())));
-//
-//            walkTree(root, 1);
-//        }
-
-//        private void walkTree(FPTreeNode start, int treeDepth) {
-//            log.debug(String.format("%s node: %d, count: %f",
-//                                    new String(new char[treeDepth]).replaceAll("\0", "\t"),
-//                                    start.getItem(), start.getCount()));
-//            if (start.getChildren() != null) {
-//                for (FPTreeNode child : start.getChildren()) {
-//                    walkTree(child, treeDepth + 1);
-//                }
-//            }
-//        }
-
-        private class FPTreeNode {
-            private int item;
-            private double count;
-            private FPTreeNode nextLink;
-            private FPTreeNode parent;
-            private List<FPTreeNode> children;
-
-            public FPTreeNode(int item, FPTreeNode parent, int initialCount) {
-                this.item = item;
-                this.parent = parent;
-                this.count = initialCount;
-            }
-
-            public int getItem() {
-                return item;
-            }
-
-            public double getCount() {
-                return count;
-            }
-
-            public void incrementCount(double by) {
-                count += by;
-            }
-
-            public void setNextLink(FPTreeNode nextLink) {
-                this.nextLink = nextLink;
-            }
-
-            public FPTreeNode getNextLink() {
-                return nextLink;
-            }
-
-            public FPTreeNode getParent() {
-                return parent;
-            }
-
-
-            public List<FPTreeNode> getChildren() {
-                return children;
-            }
-
-            // insert the transaction at this node starting with transaction[currentIndex]
-            // then find the child that matches
-            public void insertTransaction(List<Integer> fullTransaction,
-                                          int currentIndex,
-                                          final double transactionCount) {
-                incrementCount(transactionCount);
-
-                if (currentIndex == fullTransaction.size()) {
-                    return;
-                }
-
-                int currentItem = fullTransaction.get(currentIndex);
-
-                FPTreeNode matchingChild = null;
-
-                if (children != null) {
-                    for (FPTreeNode child : children) {
-                        if (child.getItem() == currentItem) {
-                            matchingChild = child;
-                            break;
-                        }
-                    }
-                }
-
-                if (matchingChild == null) {
-                    matchingChild = new FPTreeNode(currentItem, this, 0);
-
-                    FPTreeNode prevHeader = nodeHeaders.get(currentItem);
-                    nodeHeaders.put(currentItem, matchingChild);
-
-                    if (prevHeader != null) {
-                        matchingChild.setNextLink(prevHeader);
-                    }
-
-                    if (children == null) {
-                        children = new ArrayList<>();
-                    }
-
-                    children.add(matchingChild);
-                }
-
-                matchingChild.insertTransaction(fullTransaction, currentIndex + 1, transactionCount);
-            }
+        private Map<Integer, Integer> rankOfItem = new HashMap<>();
+        private int[] itemOfRank = new int[0];
+        private double[] rankCounts = new double[0];
+        // first node of each rank in its chain of next links, or -1
+        private int[] headers = new int[0];
+
+        // node 0 is the root; its item is -1
+        private int numNodes = 0;
+        private int[] nodeItems = new int[16];
+        private double[] nodeCounts = new double[16];
+        private int[] nodeParents = new int[16];
+        private int[] nodeNextLinks = new int[16];
+        private int[] nodeNumChildren = new int[16];
+        private boolean isSinglePath = true;
+
+        // child of each (parent, rank), see childKey; 0 marks an empty slot
+        private long[] childKeys = new long[32];
+        private int[] childNodes = new int[32];
+
+        FPTree() {
+            addNode(-1, -1);
         }
 
         public void setFrequentCounts(Map<Integer, Double> counts) {
-            frequentItemCounts = counts;
+            frequentItemCounts = new HashMap<>(counts);
             sortFrequentItems();
         }
 
@@ -134,7 +54,7 @@ public class FPGrowth {
             Map<Integer, Double> itemCounts = new HashMap<>();
             for (Set<Integer> t : transactions) {
                 for (Integer item : t) {
-                    itemCounts.compute(item, (k, v) -> v == null ? 1 : v + 1);
+                    itemCounts.merge(item, 1.0, Double::sum);
                 }
             }
 
@@ -151,232 +71,311 @@ public class FPGrowth {
             // we have to materialize a canonical order so that items with equal counts
             // are consistently ordered when they are sorted during transaction insertion
             List<Map.Entry<Integer, Double>> sortedItemCounts = new ArrayList<>(frequentItemCounts.entrySet());
-            sortedItemCounts.sort((i1, i2) -> frequentItemCounts.get(i1.getKey())
-                    .compareTo(frequentItemCounts.get(i2.getKey())));
-            for (int i = 0; i < sortedItemCounts.size(); ++i) {
-                frequentItemOrder.put(sortedItemCounts.get(i).getKey(), i);
+            sortedItemCounts.sort((i1, i2) -> {
+                int c = Double.compare(i2.getValue(), i1.getValue());
+                return c != 0 ? c : Integer.compare(i1.getKey(), i2.getKey());
+            });
+            int numItems = sortedItemCounts.size();
+            rankOfItem = new HashMap<>();
+            itemOfRank = new int[numItems];
+            rankCounts = new double[numItems];
+            headers = new int[numItems];
+            Arrays.fill(headers, -1);
+            for (int i = 0; i < numItems; ++i) {
+                itemOfRank[i] = sortedItemCounts.get(i).getKey();
+                rankCounts[i] = sortedItemCounts.get(i).getValue();
+                rankOfItem.put(itemOfRank[i], i);
             }
         }
 
-        public void insertConditionalFrequentItems(List<ItemsetWithCount> patterns,
-                                                   int countRequiredForSupport) {
-            Map<Integer, Double> itemCounts = new HashMap<>();
+        public void insertTransactions(List<Set<Integer>> transactions) {
+            int[] path = new int[itemOfRank.length];
+            for (Set<Integer> t : transactions) {
+                int pathLength = 0;
+                for (Integer item : t) {
+                    Integer rank = rankOfItem.get(item);
+                    if (rank != null) {
+                        path[pathLength++] = rank;
+                    }
+                }
 
-            for (ItemsetWithCount i : patterns) {
-                for (Integer item : i.getItems()) {
-                    itemCounts.compute(item, (k, v) -> v == null ? i.getCount() : v + i.getCount());
+                if (pathLength > 0) {
+                    Arrays.sort(path, 0, pathLength);
+                    insertPath(path, pathLength, 1);
                 }
             }
+        }
 
-            for (Map.Entry<Integer, Double> e : itemCounts.entrySet()) {
-                if (e.getValue() >= countRequiredForSupport) {
-                    frequentItemCounts.put(e.getKey(), e.getValue());
+        /**
+         * Add count to the nodes along path[0, pathLength), which must be in increasing order,
+         * creating any that are missing.
+         */
+        private void insertPath(int[] path, int pathLength, double count) {
+            int node = 0;
+            nodeCounts[0] += count;
+            for (int i = 0; i < pathLength; i++) {
+                long key = childKey(node, path[i]);
+                int slot = findChildSlot(childKeys, key);
+                int child;
+                if (childKeys[slot] == key) {
+                    child = childNodes[slot];
+                } else {
+                    child = addNode(path[i], node);
+                    childKeys[slot] = key;
+                    childNodes[slot] = child;
+                    // keep the table at most half full
+                    if (2 * numNodes > childKeys.length) {
+                        growChildren();
+                    }
                 }
+                nodeCounts[child] += count;
+                node = child;
             }
+        }
 
-            // we have to materialize a canonical order so that items with equal counts
-            // are consistently ordered when they are sorted during transaction insertion
-            List<Map.Entry<Integer, Double>> sortedItemCounts = new ArrayList<>(frequentItemCounts.entrySet());
-            sortedItemCounts.sort((i1, i2) -> frequentItemCounts.get(i1.getKey())
-                    .compareTo(frequentItemCounts.get(i2.getKey())));
-            for (int i = 0; i < sortedItemCounts.size(); ++i) {
-                frequentItemOrder.put(sortedItemCounts.get(i).getKey(), i);
-            }
+        private long childKey(int parent, int rank) {
+            return ((long) parent << 32) | (rank + 1);
         }
 
-        public void insertConditionalFrequentPatterns(List<ItemsetWithCount> patterns) {
-            for (ItemsetWithCount is : patterns) {
-                List<Integer> filtered = is.getItems().stream().filter(i -> frequentItemCounts.containsKey(i)).collect(
-                        Collectors.toList());
-                filtered.sort((i1, i2) -> frequentItemOrder.get(i2).compareTo(frequentItemOrder.get(i1)));
-                root.insertTransaction(filtered, 0, is.getCount());
+        private int findChildSlot(long[] keys, long key) {
+            int mask = keys.length - 1;
+            int slot = (int) LongAggregateMap.hash(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
             }
+            return slot;
         }
 
-        public void insertTransactions(List<Set<Integer>> transactions) {
-            for (Set<Integer> t : transactions) {
-                List<Integer> filtered = t.stream().filter(i -> frequentItemCounts.containsKey(i)).collect(
-                        Collectors.toList());
+        private void growChildren() {
+            long[] oldKeys = childKeys;
+            int[] oldNodes = childNodes;
+            childKeys = new long[2 * oldKeys.length];
+            childNodes = new int[2 * oldKeys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = findChildSlot(childKeys, oldKeys[i]);
+                    childKeys[slot] = oldKeys[i];
+                    childNodes[slot] = oldNodes[i];
+                }
+            }
+        }
 
-                if (!filtered.isEmpty()) {
-                    filtered.sort((i1, i2) -> frequentItemOrder.get(i2).compareTo(frequentItemOrder.get(i1)));
-                    root.insertTransaction(filtered, 0, 1);
+        private int addNode(int rank, int parent) {
+            if (numNodes == nodeItems.length) {
+                int capacity = 2 * numNodes;
+                nodeItems = Arrays.copyOf(nodeItems, capacity);
+                nodeCounts = Arrays.copyOf(nodeCounts, capacity);
+                nodeParents = Arrays.copyOf(nodeParents, capacity);
+                nodeNextLinks = Arrays.copyOf(nodeNextLinks, capacity);
+                nodeNumChildren = Arrays.copyOf(nodeNumChildren, capacity);
+            }
+            int node = numNodes++;
+            nodeItems[node] = rank;
+            nodeCounts[node] = 0;
+            nodeParents[node] = parent;
+            nodeNumChildren[node] = 0;
+            nodeNextLinks[node] = -1;
+            if (parent != -1) {
+                if (nodeNumChildren[parent]++ > 0) {
+                    isSinglePath = false;
                 }
+                nodeNextLinks[node] = headers[rank];
+                headers[rank] = node;
             }
+            return node;
         }
 
         public int getSupport(Set<Integer> pattern) {
+            int[] ranks = new int[pattern.size()];
+            int numRanks = 0;
             for (Integer i : pattern) {
-                if (!frequentItemCounts.containsKey(i)) {
+                Integer rank = rankOfItem.get(i);
+                if (rank == null) {
                     return 0;
                 }
+                ranks[numRanks++] = rank;
             }
-
-            List<Integer> plist = new ArrayList<>(pattern);
-            // traverse bottom to top
-            plist.sort((i1, i2) -> frequentItemOrder.get(i1).compareTo(frequentItemOrder.get(i2)));
-
-            int count = 0;
-            FPTreeNode pathHead = nodeHeaders.get(plist.get(0));
-            while (pathHead != null) {
-                FPTreeNode curNode = pathHead;
-                int itemsToFind = plist.size();
-
-                while (curNode != null) {
-                    if (pattern.contains(curNode.getItem())) {
+            Arrays.sort(ranks);
+
+            // traverse bottom to top, starting from the nodes of the least frequent item
+            double count = 0;
+            for (int pathHead = headers[ranks[numRanks - 1]];
+                 pathHead != -1;
+                 pathHead = nodeNextLinks[pathHead]) {
+                int itemsToFind = numRanks - 1;
+                for (int curNode = nodeParents[pathHead];
+                     itemsToFind > 0 && curNode > 0;
+                     curNode = nodeParents[curNode]) {
+                    if (nodeItems[curNode] == ranks[itemsToFind - 1]) {
                         itemsToFind -= 1;
                     }
-
-                    if (itemsToFind == 0) {
-                        count += pathHead.count;
-                        break;
-                    }
-
-                    curNode = curNode.getParent();
                 }
-                pathHead = pathHead.getNextLink();
+                if (itemsToFind == 0) {
+                    count += nodeCounts[pathHead];
+                }
             }
 
-            return count;
+            return (int) count;
         }
 
-
-        List<ItemsetWithCount> mineItemsets(Integer supportCountRequired) {
-            List<ItemsetWithCount> singlePathItemsets = new ArrayList<>();
-            List<ItemsetWithCount> branchingItemsets = new ArrayList<>();
-
-            // mine single-path itemsets first
-            FPTreeNode curNode = root;
-            FPTreeNode nodeOfBranching = null;
-            Set<FPTreeNode> singlePathNodes = new HashSet<>();
-            while (true) {
-                if (curNode.children != null && curNode.children.size() > 1) {
-                    nodeOfBranching = curNode;
-                    break;
-                }
-
-                if (curNode != root) {
-                    singlePathNodes.add(curNode);
-                }
-
-                if (curNode.children == null || curNode.children.size() == 0) {
-                    break;
-                } else {
-                    curNode = curNode.children.get(0);
+        /**
+         * Build the tree of the prefix paths of the nodes of one rank, keeping the items that are
+         * frequent among them.  Counts are gathered on a first walk of the paths and the tree is
+         * filled on a second, so the conditional pattern base is never materialized.
+         */
+        FPTree conditionalTree(int rank, int supportCountRequired) {
+            // ancestors of a node always have smaller ranks
+            double[] conditionalCounts = new double[rank];
+            for (int node = headers[rank]; node != -1; node = nodeNextLinks[node]) {
+                double count = nodeCounts[node];
+                for (int walkNode = nodeParents[node]; walkNode > 0; walkNode = nodeParents[walkNode]) {
+                    conditionalCounts[nodeItems[walkNode]] += count;
                 }
             }
 
-            for (Set<FPTreeNode> subset : Sets.powerSet(singlePathNodes)) {
-                if (subset.isEmpty()) {
-                    continue;
+            FPTree conditionalTree = new FPTree();
+            int numFrequent = 0;
+            Integer[] frequentRanks = new Integer[rank];
+            for (int r = 0; r < rank; r++) {
+                if (conditionalCounts[r] >= supportCountRequired) {
+                    frequentRanks[numFrequent++] = r;
                 }
+            }
+            Arrays.sort(frequentRanks, 0, numFrequent, (r1, r2) -> {
+                int c = Double.compare(conditionalCounts[r2], conditionalCounts[r1]);
+                return c != 0 ? c : Integer.compare(r1, r2);
+            });
+            int[] conditionalRankOf = new int[rank];
+            Arrays.fill(conditionalRankOf, -1);
+            conditionalTree.itemOfRank = new int[numFrequent];
+            conditionalTree.rankCounts = new double[numFrequent];
+            conditionalTree.headers = new int[numFrequent];
+            Arrays.fill(conditionalTree.headers, -1);
+            for (int i = 0; i < numFrequent; i++) {
+                int r = frequentRanks[i];
+                conditionalRankOf[r] = i;
+                conditionalTree.itemOfRank[i] = itemOfRank[r];
+                conditionalTree.rankCounts[i] = conditionalCounts[r];
+            }
+            if (numFrequent == 0) {
+                return conditionalTree;
+            }
 
-                double minSupportInSubset = -1;
-                Set<Integer> items = new HashSet<>();
-                for (FPTreeNode n : subset) {
-                    items.add(n.getItem());
-
-                    if (minSupportInSubset == -1 || n.getCount() < minSupportInSubset) {
-                        minSupportInSubset = n.getCount();
+            int[] path = new int[numFrequent];
+            for (int node = headers[rank]; node != -1; node = nodeNextLinks[node]) {
+                int pathLength = 0;
+                for (int walkNode = nodeParents[node]; walkNode > 0; walkNode = nodeParents[walkNode]) {
+                    int conditionalRank = conditionalRankOf[nodeItems[walkNode]];
+                    if (conditionalRank != -1) {
+                        path[pathLength++] = conditionalRank;
                     }
                 }
-
-                assert (minSupportInSubset >= supportCountRequired);
-                singlePathItemsets.add(new ItemsetWithCount(items, minSupportInSubset));
-            }
-
-            // the entire tree was a single path...
-            if (nodeOfBranching == null) {
-                return singlePathItemsets;
+                if (pathLength > 0) {
+                    Arrays.sort(path, 0, pathLength);
+                    conditionalTree.insertPath(path, pathLength, nodeCounts[node]);
+                }
             }
+            return conditionalTree;
+        }
 
-            // all of the items in the single path will have been mined now
-            // due to the descending frequency count of the FPTree structure, so
-            // we remove them from consideration in the rest
+        List<ItemsetWithCount> mineItemsets(int supportCountRequired) {
+            return mineItemsets(supportCountRequired, 1);
+        }
 
-            // instead of destructively removing the nodes from NodeHeader table
-            // which would be valid but would make mining non-idempotent, we
-            // instead store the nodes to skip in a separate set
+        /**
+         * @param numThreads Number of threads to mine with; above 1, the conditional trees of the
+         *                   frequent items are built and mined as separate tasks on the shared pool.
+         */
+        List<ItemsetWithCount> mineItemsets(int supportCountRequired, int numThreads) {
+            List<ItemsetWithCount> ret = new ArrayList<>();
+            if (isSinglePath || numThreads <= 1) {
+                mine(supportCountRequired, new int[0], ret);
+                return ret;
+            }
 
-            Set<Integer> alreadyMinedItems = new HashSet<>();
-            for (FPTreeNode node : singlePathNodes) {
-                alreadyMinedItems.add(node.getItem());
+            int numRanks = itemOfRank.length;
+            List<List<ItemsetWithCount>> rankItemsets = new ArrayList<>(numRanks);
+            List<Callable<Void>> tasks = new ArrayList<>(numRanks);
+            for (int rank = numRanks - 1; rank >= 0; rank--) {
+                final int curRank = rank;
+                final List<ItemsetWithCount> itemsets = new ArrayList<>();
+                rankItemsets.add(itemsets);
+                tasks.add(() -> {
+                    mineRank(curRank, supportCountRequired, new int[0], itemsets);
+                    return null;
+                });
             }
+            MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+            for (List<ItemsetWithCount> itemsets : rankItemsets) {
+                ret.addAll(itemsets);
+            }
+            return ret;
+        }
 
-            for (Map.Entry<Integer, FPTreeNode> header : nodeHeaders.entrySet()) {
-                if (alreadyMinedItems.contains(header.getKey())) {
-                    continue;
+        /**
+         * Add every frequent itemset of this tree, combined with the items of the suffix whose
+         * conditional tree this is, to ret.
+         */
+        private void mine(int supportCountRequired, int[] suffix, List<ItemsetWithCount> ret) {
+            if (isSinglePath) {
+                // every combination of the nodes on the path is frequent, with the count of
+                // its deepest node
+                int[] pathNodes = new int[numNodes - 1];
+                for (int node = 1; node < numNodes; node++) {
+                    pathNodes[node - 1] = node;
                 }
-
-                // add the singleton item set
-                branchingItemsets.add(new ItemsetWithCount(Sets.newHashSet(header.getKey()),
-                                                           frequentItemCounts.get(header.getKey())));
-
-                List<ItemsetWithCount> conditionalPatternBase = new ArrayList<>();
-
-                // walk each "leaf" node
-                FPTreeNode conditionalNode = header.getValue();
-                while (conditionalNode != null) {
-                    final double leafSupport = conditionalNode.getCount();
-
-                    // walk the tree up to the branch node
-                    Set<Integer> conditionalPattern = new HashSet<>();
-                    FPTreeNode walkNode = conditionalNode.getParent();
-                    while (walkNode != nodeOfBranching.getParent() && walkNode != root) {
-                        conditionalPattern.add(walkNode.getItem());
-                        walkNode = walkNode.getParent();
+                for (long subset = 1; subset < (1L << pathNodes.length); subset++) {
+                    Set<Integer> items = new HashSet<>();
+                    for (int i : suffix) {
+                        items.add(i);
                     }
-
-                    if (conditionalPattern.size() > 0) {
-                        conditionalPatternBase.add(new ItemsetWithCount(conditionalPattern, leafSupport));
-                    }
-
-                    conditionalNode = conditionalNode.getNextLink();
-                }
-
-                if (conditionalPatternBase.isEmpty()) {
-                    continue;
-                }
-
-                // build and mine the conditional FPTree
-                FPTree conditionalTree = new FPTree();
-                conditionalTree.insertConditionalFrequentItems(conditionalPatternBase, supportCountRequired);
-                conditionalTree.insertConditionalFrequentPatterns(conditionalPatternBase);
-                List<ItemsetWithCount> conditionalFrequentItemsets = conditionalTree.mineItemsets(supportCountRequired);
-
-                if (!conditionalFrequentItemsets.isEmpty()) {
-                    for (ItemsetWithCount is : conditionalFrequentItemsets) {
-                        is.getItems().add(header.getKey());
+                    double count = 0;
+                    for (int i = 0; i < pathNodes.length; i++) {
+                        if ((subset & (1L << i)) != 0) {
+                            items.add(itemOfRank[nodeItems[pathNodes[i]]]);
+                            count = nodeCounts[pathNodes[i]];
+                        }
                     }
-
-                    branchingItemsets.addAll(conditionalFrequentItemsets);
+                    ret.add(new ItemsetWithCount(items, count));
                 }
+                return;
             }
 
-            if (singlePathItemsets.isEmpty()) {
-                return branchingItemsets;
+            for (int rank = itemOfRank.length - 1; rank >= 0; rank--) {
+                mineRank(rank, supportCountRequired, suffix, ret);
             }
+        }
 
-            // take the cross product of the mined itemsets
-            List<ItemsetWithCount> ret = new ArrayList<>();
-
-            ret.addAll(singlePathItemsets);
-            ret.addAll(branchingItemsets);
-
-            for (ItemsetWithCount i : singlePathItemsets) {
-                for (ItemsetWithCount j : branchingItemsets) {
-                    Set<Integer> combinedItems = new HashSet<>();
-                    combinedItems.addAll(i.getItems());
-                    combinedItems.addAll(j.getItems());
+        private void mineRank(int rank, int supportCountRequired, int[] suffix,
+                              List<ItemsetWithCount> ret) {
+            if (headers[rank] == -1) {
+                return;
+            }
+            int[] itemSuffix = Arrays.copyOf(suffix, suffix.length + 1);
+            itemSuffix[suffix.length] = itemOfRank[rank];
 
-                    ret.add(new ItemsetWithCount(combinedItems, Math.min(i.getCount(), j.getCount())));
-                }
+            // add the singleton item set
+            Set<Integer> items = new HashSet<>();
+            for (int i : itemSuffix) {
+                items.add(i);
             }
+            ret.add(new ItemsetWithCount(items, rankCounts[rank]));
 
-            return ret;
+            FPTree conditionalTree = conditionalTree(rank, supportCountRequired);
+            if (conditionalTree.numNodes > 1) {
+                conditionalTree.mine(supportCountRequired, itemSuffix, ret);
+            }
         }
     }
 
+    /**
+     * @param numThreads Number of threads to mine itemsets with; 1 mines on the calling thread.
+     * @return this
+     */
+    public FPGrowth setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
 
     public List<ItemsetWithCount> getItemsetsWithSupportRatio(List<Set<Integer>> transactions,
                                                               Double supportRatio) {
@@ -414,31 +413,15 @@ public class FPGrowth {
                                                               boolean printTreeDebug) {
         FPTree fp = new FPTree();
         int countRequiredForSupport = supportCount.intValue();
-//        log.debug("count required: {}", countRequiredForSupport);
-
-        long st = System.currentTimeMillis();
 
-        if (initialCounts == null) {
-            fp.insertFrequentItems(transactions, countRequiredForSupport);
-        } else {
+        if (initialCounts != null) {
             fp.setFrequentCounts(initialCounts);
         }
 
         fp.insertFrequentItems(transactions, countRequiredForSupport);
         fp.insertTransactions(transactions);
-        long en = System.currentTimeMillis();
-
-//        log.debug("FPTree load: {}", en - st);
-
-        //fp.printTreeDebug();
 
-        st = System.currentTimeMillis();
-        List<ItemsetWithCount> ret = fp.mineItemsets(countRequiredForSupport);
-        en = System.currentTimeMillis();
-
-//        log.debug("FPTree mine: {}", en - st);
-
-        return ret;
+        return fp.mineItemsets(countRequiredForSupport, numThreads);
     }
 
     // ugh, this is a really ugly function sig, but it's efficient
@@ -9,6 +9,7 @@ import java.util.*;
 
 public class FPGrowthEmerging {
     private boolean combinationsEnabled = true;
+    private int numThreads = 1;
 
     public FPGrowthEmerging() {};
     public FPGrowthEmerging setCombinationsEnabled(boolean flag) {
@@ -16,6 +17,15 @@ public class FPGrowthEmerging {
         return this;
     }
 
+    /**
+     * @param numThreads Number of threads to mine outlier itemsets with.
+     * @return this
+     */
+    public FPGrowthEmerging setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
 
     private List<FPGItemsetResult> getSingletonItemsets(List<Set<Integer>> inliers,
                                                         List<Set<Integer>> outliers,
@@ -102,7 +112,7 @@ public class FPGrowthEmerging {
             }
         }
 
-        FPGrowth fpg = new FPGrowth();
+        FPGrowth fpg = new FPGrowth().setNumThreads(numThreads);
         List<ItemsetWithCount> iwc = fpg.getItemsetsWithSupportCount(
                 outlierTransactions,
                 supportedOutlierCounts,
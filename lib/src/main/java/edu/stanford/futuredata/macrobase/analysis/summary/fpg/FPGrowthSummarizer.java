@@ -58,6 +58,7 @@ public class FPGrowthSummarizer extends BatchSummarizer {
         }
 
         long startTime = System.currentTimeMillis();
+        fpg.setNumThreads(numThreads);
         List<FPGItemsetResult> itemsetResults = fpg.getEmergingItemsetsWithMinSupport(
                 inlierItemsets,
                 outlierItemsets,
@@ -27,6 +27,7 @@ public class IncrementalSummarizer implements IncrementalOperator<Explanation> {
     private String outlierColumn = "_OUTLIER";
     private double minOutlierSupport = 0.1;
     private double minRiskRatio = 3.0;
+    private int numThreads = 1;
     private List<String> attributes = new ArrayList<>();
     // Default predicate for filtering outlying rows
     private DoublePredicate predicate = d -> d != 0.0;
@@ -93,6 +94,16 @@ public class IncrementalSummarizer implements IncrementalOperator<Explanation> {
     }
     public DoublePredicate getOutlierPredicate() { return predicate; }
 
+    /**
+     * @param numThreads Number of threads to mine each pane's new frequent itemsets with.
+     * @return this
+     */
+    public IncrementalSummarizer setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+    public int getNumThreads() { return numThreads; }
+
     public IncrementalSummarizer setAttributes(List<String> attributes) {
         this.attributes = attributes;
         this.encoder.setColumnNames(attributes);
@@ -316,7 +327,7 @@ public class IncrementalSummarizer implements IncrementalOperator<Explanation> {
         double minSupport = Math.ceil(minOutlierSupport * outlierItemsets.size());
         HashMap<Integer, Double> inlierPaneSingletonCount = new ExactCount().count(inlierItemsets).getCounts();
         // Get new frequent itemsets in outliers
-        FPGrowth fpGrowth = new FPGrowth();
+        FPGrowth fpGrowth = new FPGrowth().setNumThreads(numThreads);
         List<ItemsetWithCount> frequent = fpGrowth.getItemsetsWithSupportCount(outlierItemsets,
                 minSupport);
         List<ItemsetWithCount> newFrequent = new ArrayList<>();
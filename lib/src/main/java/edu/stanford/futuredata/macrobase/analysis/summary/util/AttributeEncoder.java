@@ -1,17 +1,29 @@
 package edu.stanford.futuredata.macrobase.analysis.summary.util;
 
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
+
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntFunction;
 
 /**
  * Encode every combination of attribute names and values into a distinct integer.
  * This class assumes that attributes are stored in String columns in dataframes
  * and is used inside of the explanation operators to search for explanatory
  * column values.
+ *
+ * Columns are first dictionary-encoded in parallel by {@link ColumnDictionary} (or taken from
+ * the DataFrame, which keeps the encodings of its columns across calls), and keys are then
+ * assigned per distinct value rather than per row.
  */
 public class AttributeEncoder {
     // An encoding for values which do not satisfy the minimum support threshold in encodeAttributesWithSupport.
     public static int noSupport = Integer.MAX_VALUE;
+    // Fewest rows worth filling in a separate task
+    private static final int minRowsPerTask = 100000;
 
     private HashMap<Integer, Map<String, Integer>> encoder;
     private int nextKey;
@@ -19,6 +31,7 @@ public class AttributeEncoder {
     private HashMap<Integer, String> valueDecoder;
     private HashMap<Integer, Integer> columnDecoder;
     private List<String> colNames;
+    private ExecutorService executor = MacroBaseExecutors.getSharedPool();
 
     public AttributeEncoder() {
         encoder = new HashMap<>();
@@ -31,6 +44,14 @@ public class AttributeEncoder {
         this.colNames = colNames;
     }
 
+    /**
+     * @param executor Pool on which columns are encoded in parallel, the shared pool by default.
+     */
+    public AttributeEncoder setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public int decodeColumn(int i) {return columnDecoder.get(i);}
     public String decodeColumnName(int i) {return colNames.get(columnDecoder.get(i));}
     public String decodeValue(int i) {return valueDecoder.get(i);}
@@ -51,60 +72,110 @@ public class AttributeEncoder {
         if (columns.isEmpty()) {
             return new int[0][0];
         }
+        ColumnDictionary[] dictionaries = getDictionaries(columns);
+        int[][] keys = getKeysWithSupport(dictionaries, minSupport, outlierColumn);
+        return toRows(dictionaries, keys, columns.get(0).length);
+    }
 
-        int numColumns = columns.size();
-        int numRows = columns.get(0).length;
+    /**
+     * Like encodeAttributesWithSupport, but returns the encoded values by column.
+     * @param columns Columns to be encoded.
+     * @param minSupport Minimum support to be satisfied.
+     * @param outlierColumn The ith value in this array is the number of outliers whose attributes are those of
+     *                      row i of columns.
+     * @return Encoded values indexed by column, then row.
+     */
+    public int[][] encodeColumnsWithSupport(List<String[]> columns, double minSupport, double[] outlierColumn) {
+        ColumnDictionary[] dictionaries = getDictionaries(columns);
+        int[][] keys = getKeysWithSupport(dictionaries, minSupport, outlierColumn);
+        return toColumns(dictionaries, keys);
+    }
 
-        for (int i = 0; i < numColumns; i++) {
-            if (!encoder.containsKey(i)) {
-                encoder.put(i, new HashMap<>());
-            }
-        }
-        // Create a map from strings to the number of times
-        // each string appears in an outlier.
-        int numOutliers = 0;
-        HashMap<String, Double> countMap = new HashMap<>();
+    /**
+     * Like encodeColumnsWithSupport, but reads the columns from a DataFrame, using the codes of
+     * columns it stores dictionary-encoded directly.
+     * @param input DataFrame holding the columns.
+     * @param columnNames Names of the String columns to be encoded.
+     * @param minSupport Minimum support to be satisfied.
+     * @param outlierColumn The ith value in this array is the number of outliers whose attributes are those of
+     *                      row i of input.
+     * @return Encoded values indexed by column, then row.
+     */
+    public int[][] encodeColumnsWithSupport(DataFrame input, List<String> columnNames, double minSupport,
+                                            double[] outlierColumn) {
+        ColumnDictionary[] dictionaries = getDictionaries(input, columnNames);
+        int[][] keys = getKeysWithSupport(dictionaries, minSupport, outlierColumn);
+        return toColumns(dictionaries, keys);
+    }
+
+    /**
+     * Key of each dictionary code of each column, ranked by outlier support.
+     */
+    private int[][] getKeysWithSupport(ColumnDictionary[] dictionaries, double minSupport, double[] outlierColumn) {
+        int numColumns = dictionaries.length;
+        int numRows = outlierColumn.length;
+
+        // Count the number of outliers with each value, one column per task.
+        double[][] outlierCounts = new double[numColumns][];
+        List<Callable<Void>> countTasks = new ArrayList<>(numColumns);
         for (int colIdx = 0; colIdx < numColumns; colIdx++) {
-            String[] curCol = columns.get(colIdx);
-            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
-                if (outlierColumn[rowIdx] > 0.0) {
-                    if (colIdx == 0)
-                        numOutliers += outlierColumn[rowIdx];
-                    String colVal = Integer.toString(colIdx) + curCol[rowIdx];
-                    Double curCount = countMap.get(colVal);
-                    if (curCount == null)
-                        countMap.put(colVal, outlierColumn[rowIdx]);
-                    else
-                        countMap.put(colVal, curCount + outlierColumn[rowIdx]);
+            final int curColIdx = colIdx;
+            countTasks.add(() -> {
+                int[] codes = dictionaries[curColIdx].getCodes();
+                double[] counts = new double[dictionaries[curColIdx].size()];
+                for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+                    if (outlierColumn[rowIdx] > 0.0) {
+                        counts[codes[rowIdx]] += outlierColumn[rowIdx];
+                    }
                 }
+                outlierCounts[curColIdx] = counts;
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, countTasks);
+        int numOutliers = 0;
+        for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
+            if (outlierColumn[rowIdx] > 0.0) {
+                numOutliers += outlierColumn[rowIdx];
             }
         }
 
-        // Rank the strings that have minimum support among the outliers
+        // Rank the values that have minimum support among the outliers
         // by the amount of support they have.
         double minSupportThreshold = minSupport * numOutliers;
-        List<String> filterOnMinSupport = countMap.keySet().stream()
-                .filter(line -> countMap.get(line) >= minSupportThreshold)
-                .collect(Collectors.toList());
-        filterOnMinSupport.sort((s1, s2) -> countMap.get(s2).compareTo(countMap.get(s1)));
+        List<int[]> filterOnMinSupport = new ArrayList<>();
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            double[] counts = outlierCounts[colIdx];
+            for (int code = 0; code < counts.length; code++) {
+                if (counts[code] > 0.0 && counts[code] >= minSupportThreshold) {
+                    filterOnMinSupport.add(new int[]{colIdx, code});
+                }
+            }
+        }
+        filterOnMinSupport.sort((v1, v2) -> Double.compare(
+                outlierCounts[v2[0]][v2[1]], outlierCounts[v1[0]][v1[1]]));
 
-        HashMap<String, Integer> stringToRank = new HashMap<>(filterOnMinSupport.size());
+        int[][] ranks = new int[numColumns][];
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            ranks[colIdx] = new int[dictionaries[colIdx].size()];
+        }
         for (int i = 0; i < filterOnMinSupport.size(); i++) {
+            int[] colAndCode = filterOnMinSupport.get(i);
             // We must one-index ranks because IntSetAsLong does not accept zero values.
-            stringToRank.put(filterOnMinSupport.get(i), i + 1);
+            ranks[colAndCode[0]][colAndCode[1]] = i + 1;
         }
 
-        // Encode the strings that have support with a key equal to their rank.
-        int[][] encodedAttributes = new int[numRows][numColumns];
+        // Encode the values that have support with a key equal to their rank.
+        int[][] keys = new int[numColumns][];
         for (int colIdx = 0; colIdx < numColumns; colIdx++) {
             Map<String, Integer> curColEncoder = encoder.get(colIdx);
-            String[] curCol = columns.get(colIdx);
-            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
-                String colVal = curCol[rowIdx];
-                String colNumAndVal = Integer.toString(colIdx) + colVal;
+            ColumnDictionary dictionary = dictionaries[colIdx];
+            keys[colIdx] = new int[dictionary.size()];
+            for (int code = 0; code < dictionary.size(); code++) {
+                String colVal = dictionary.getValue(code);
                 if (!curColEncoder.containsKey(colVal)) {
-                    if (stringToRank.containsKey(colNumAndVal)) {
-                        int newKey = stringToRank.get(colNumAndVal);
+                    int newKey = ranks[colIdx][code];
+                    if (newKey > 0) {
                         curColEncoder.put(colVal, newKey);
                         valueDecoder.put(newKey, colVal);
                         columnDecoder.put(newKey, colIdx);
@@ -113,46 +184,156 @@ public class AttributeEncoder {
                         curColEncoder.put(colVal, noSupport);
                     }
                 }
-                int curKey = curColEncoder.get(colVal);
-                encodedAttributes[rowIdx][colIdx] = curKey;
+                keys[colIdx][code] = curColEncoder.get(colVal);
             }
         }
-
-        return encodedAttributes;
+        return keys;
     }
 
     public int[][] encodeAttributesAsArray(List<String[]> columns) {
         if (columns.isEmpty()) {
             return new int[0][0];
         }
+        ColumnDictionary[] dictionaries = getDictionaries(columns);
+        return toRows(dictionaries, getKeys(dictionaries), columns.get(0).length);
+    }
 
-        int numColumns = columns.size();
-        int numRows = columns.get(0).length;
-
-        for (int i = 0; i < numColumns; i++) {
-            if (!encoder.containsKey(i)) {
-                encoder.put(i, new HashMap<>());
-            }
-        }
+    /**
+     * Like encodeAttributesAsArray, but returns the encoded values by column.
+     * @param columns Columns to be encoded.
+     * @return Encoded values indexed by column, then row.
+     */
+    public int[][] encodeColumns(List<String[]> columns) {
+        ColumnDictionary[] dictionaries = getDictionaries(columns);
+        return toColumns(dictionaries, getKeys(dictionaries));
+    }
 
-        int[][] encodedAttributes = new int[numRows][numColumns];
+    /**
+     * Like encodeColumns, but reads the columns from a DataFrame, using the codes of columns it
+     * stores dictionary-encoded directly.
+     * @param input DataFrame holding the columns.
+     * @param columnNames Names of the String columns to be encoded.
+     * @return Encoded values indexed by column, then row.
+     */
+    public int[][] encodeColumns(DataFrame input, List<String> columnNames) {
+        ColumnDictionary[] dictionaries = getDictionaries(input, columnNames);
+        return toColumns(dictionaries, getKeys(dictionaries));
+    }
 
+    /**
+     * Key of each dictionary code of each column, assigned in order of first appearance.
+     */
+    private int[][] getKeys(ColumnDictionary[] dictionaries) {
+        int numColumns = dictionaries.length;
+        // Dictionaries list values in order of first appearance, so keys are assigned
+        // in the same order as when scanning the rows.
+        int[][] keys = new int[numColumns][];
         for (int colIdx = 0; colIdx < numColumns; colIdx++) {
             Map<String, Integer> curColEncoder = encoder.get(colIdx);
-            String[] curCol = columns.get(colIdx);
-            for (int rowIdx = 0; rowIdx < numRows; rowIdx++) {
-                String colVal = curCol[rowIdx];
+            ColumnDictionary dictionary = dictionaries[colIdx];
+            keys[colIdx] = new int[dictionary.size()];
+            for (int code = 0; code < dictionary.size(); code++) {
+                String colVal = dictionary.getValue(code);
                 if (!curColEncoder.containsKey(colVal)) {
                     curColEncoder.put(colVal, nextKey);
                     valueDecoder.put(nextKey, colVal);
                     columnDecoder.put(nextKey, colIdx);
                     nextKey++;
                 }
-                int curKey = curColEncoder.get(colVal);
-                encodedAttributes[rowIdx][colIdx] = curKey;
+                keys[colIdx][code] = curColEncoder.get(colVal);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Dictionary-encode each column in its own task.
+     */
+    private ColumnDictionary[] getDictionaries(List<String[]> columns) {
+        return getDictionaries(columns.size(), colIdx -> ColumnDictionary.encode(columns.get(colIdx)));
+    }
+
+    /**
+     * Like getDictionaries(List), but encodings are taken from the DataFrame, so columns it
+     * already holds encoded are not scanned again.
+     */
+    private ColumnDictionary[] getDictionaries(DataFrame input, List<String> columnNames) {
+        return getDictionaries(columnNames.size(),
+                colIdx -> input.getEncodedStringColumnByName(columnNames.get(colIdx)));
+    }
+
+    private ColumnDictionary[] getDictionaries(int numColumns, IntFunction<ColumnDictionary> dictionaryOf) {
+        for (int i = 0; i < numColumns; i++) {
+            if (!encoder.containsKey(i)) {
+                encoder.put(i, new HashMap<>());
             }
         }
+        ColumnDictionary[] dictionaries = new ColumnDictionary[numColumns];
+        List<Callable<Void>> tasks = new ArrayList<>(numColumns);
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            final int curColIdx = colIdx;
+            tasks.add(() -> {
+                dictionaries[curColIdx] = dictionaryOf.apply(curColIdx);
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, tasks);
+        return dictionaries;
+    }
+
+    /**
+     * Build the column-major encoded attributes from the dictionary codes of each column and
+     * the key of each code, one column per task.
+     */
+    private int[][] toColumns(ColumnDictionary[] dictionaries, int[][] keys) {
+        int numColumns = dictionaries.length;
+        int[][] encodedColumns = new int[numColumns][];
+        List<Callable<Void>> tasks = new ArrayList<>(numColumns);
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            final int curColIdx = colIdx;
+            tasks.add(() -> {
+                int[] codes = dictionaries[curColIdx].getCodes();
+                int[] curKeys = keys[curColIdx];
+                int[] curColumn = new int[codes.length];
+                for (int rowIdx = 0; rowIdx < codes.length; rowIdx++) {
+                    curColumn[rowIdx] = curKeys[codes[rowIdx]];
+                }
+                encodedColumns[curColIdx] = curColumn;
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, tasks);
+        return encodedColumns;
+    }
 
+    /**
+     * Build the row-major encoded attributes from the dictionary codes of each column and the
+     * key of each code, filling ranges of rows in parallel.
+     */
+    private int[][] toRows(ColumnDictionary[] dictionaries, int[][] keys, int numRows) {
+        int numColumns = dictionaries.length;
+        int[][] codes = new int[numColumns][];
+        for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+            codes[colIdx] = dictionaries[colIdx].getCodes();
+        }
+        int[][] encodedAttributes = new int[numRows][];
+        int numTasks = Math.max(1, Math.min(numRows / minRowsPerTask, Runtime.getRuntime().availableProcessors()));
+        List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            final int startRow = (int) ((long) numRows * taskIdx / numTasks);
+            final int endRow = (int) ((long) numRows * (taskIdx + 1) / numTasks);
+            tasks.add(() -> {
+                for (int rowIdx = startRow; rowIdx < endRow; rowIdx++) {
+                    int[] curRow = new int[numColumns];
+                    for (int colIdx = 0; colIdx < numColumns; colIdx++) {
+                        curRow[colIdx] = keys[colIdx][codes[colIdx][rowIdx]];
+                    }
+                    encodedAttributes[rowIdx] = curRow;
+                }
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, tasks);
         return encodedAttributes;
     }
 
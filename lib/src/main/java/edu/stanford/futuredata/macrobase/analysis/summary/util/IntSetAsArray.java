@@ -48,6 +48,15 @@ public class IntSetAsArray implements IntSet {
         }
     }
 
+    /**
+     * Wraps an array of integers without copying it.  Sets built this way are only
+     * equal if their integers were given in the same order.
+     * @param values Integers in the set.
+     */
+    public IntSetAsArray(int[] values) {
+        this.values = values;
+    }
+
     public IntSetAsArray(int a, int b, int c) {
         values = new int[3];
         values[0] = a;
@@ -109,6 +118,10 @@ public class IntSetAsArray implements IntSet {
         return values[2];
     }
 
+    public int[] getValues() {
+        return values;
+    }
+
     public Set<Integer> getSet() {
         HashSet<Integer> curSet = new HashSet<>(values.length);
         for (int v : values) {
@@ -129,7 +142,12 @@ public class IntSetAsArray implements IntSet {
                 return values[0] == i || values[1] == i || values[2] == i;
             }
             default: {
-                return Arrays.binarySearch(values, i) >= 0;
+                for (int v : values) {
+                    if (v == i) {
+                        return true;
+                    }
+                }
+                return false;
             }
         }
     }
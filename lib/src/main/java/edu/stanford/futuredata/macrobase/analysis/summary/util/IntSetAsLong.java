@@ -8,6 +8,8 @@ import java.util.Set;
 /**
  * Sets of two or three integers of at most 31 or 21 bits each, stored as a long.
  * Extremely fast, but the integer size is capped and the integer must be nonzero.
+ * Larger sets can be packed into a long with packInts when their integers are small
+ * enough, but must then be decoded with unpackInts rather than the accessors here.
  */
 public class IntSetAsLong implements IntSet {
 
@@ -92,6 +94,59 @@ public class IntSetAsLong implements IntSet {
         return (a << (42)) + (b << 21) + c;
     }
 
+    /**
+     * Number of bits needed to store any integer less than cardinality.
+     * @param cardinality Exclusive upper bound on the integers to be stored.
+     * @return Bits per integer.
+     */
+    public static int bitsForCardinality(int cardinality) {
+        return 32 - Integer.numberOfLeadingZeros(cardinality);
+    }
+
+    /**
+     * Check if numValues integers less than cardinality fit into a long with packInts.
+     * @param cardinality Exclusive upper bound on the integers to be stored.
+     * @param numValues Number of integers in each set.
+     * @return Can the sets be packed?
+     */
+    public static boolean canPack(int cardinality, int numValues) {
+        return bitsForCardinality(cardinality) * numValues <= 63;
+    }
+
+    /**
+     * Pack numValues nonzero integers of at most bits bits each into a long, keeping their order.
+     * The first integer is stored in the most significant bits, so three 21-bit integers are
+     * packed exactly as in threeIntToLong.
+     * @param values Array holding the integers.
+     * @param numValues Number of integers to pack.
+     * @param bits Bits per integer.
+     * @return A long containing all integers in its lowest numValues * bits bits.
+     */
+    public static long packInts(int[] values, int numValues, int bits) {
+        long result = 0;
+        for (int i = 0; i < numValues; i++) {
+            result = (result << bits) + values[i];
+        }
+        return result;
+    }
+
+    /**
+     * Unpack numValues integers stored by packInts, in the order they were packed.
+     * @param packed A long produced by packInts.
+     * @param numValues Number of integers packed.
+     * @param bits Bits per integer.
+     * @return The packed integers.
+     */
+    public static int[] unpackInts(long packed, int numValues, int bits) {
+        int[] values = new int[numValues];
+        long valueMask = (1L << bits) - 1;
+        for (int i = numValues - 1; i >= 0; i--) {
+            values[i] = (int) (packed & valueMask);
+            packed >>>= bits;
+        }
+        return values;
+    }
+
     /**
      * Return the integer stored in the lowest bits of newLong.
      * @return The integer stored in newLong's least-significant bits.
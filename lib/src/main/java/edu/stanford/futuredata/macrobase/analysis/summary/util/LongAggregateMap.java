@@ -0,0 +1,279 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.util;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+
+/**
+ * An open-addressing hash map from nonzero longs to fixed-width arrays of doubles.
+ * All aggregates are stored in one flat array with stride numAggregates, so
+ * inserting and combining entries allocates nothing except when the table grows.
+ * The table starts small and grows incrementally: when it fills up, a table of twice
+ * the size is allocated and the old entries are moved over a few at a time by
+ * subsequent operations instead of all at once.
+ */
+public class LongAggregateMap {
+    // Number of old slots moved to the new table by each operation while growing.
+    private static final int migrationStep = 8;
+
+    private long[] keys;
+    private double[] values;
+    private final int numAggregates;
+    private int mask;
+    // Number of distinct keys in the map.
+    private int size = 0;
+    // Number of occupied slots in keys.
+    private int used = 0;
+
+    // The table being emptied while growing, null otherwise.
+    private long[] oldKeys;
+    private double[] oldValues;
+    private int oldMask;
+    // Next slot of oldKeys to be moved.
+    private int migrationPos;
+
+    public LongAggregateMap(int expectedSize, int numAggregates) {
+        int capacity = 2;
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        this.numAggregates = numAggregates;
+        this.keys = new long[capacity];
+        this.values = new double[capacity * numAggregates];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Scramble the bits of a key.  Callers that partition keys should use the high bits
+     * of this hash, as the table uses the low ones.
+     * @param key A key.
+     * @return A well-mixed hash of the key.
+     */
+    public static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int findSlot(long[] table, int tableMask, long key) {
+        int index = (int) hash(key) & tableMask;
+        while (table[index] != 0 && table[index] != key) {
+            index = (index + 1) & tableMask;
+        }
+        return index;
+    }
+
+    /**
+     * Find the slot of key in the current table.  If the key has not been moved out of the
+     * old table yet, move it now, so that the returned slot is empty only for new keys.
+     */
+    private int findCurrentSlot(long key) {
+        int index = findSlot(keys, mask, key);
+        if (keys[index] == 0 && oldKeys != null) {
+            int oldIndex = findSlot(oldKeys, oldMask, key);
+            if (oldKeys[oldIndex] != 0) {
+                // The stale copy left in the old table is skipped when migration reaches it.
+                keys[index] = key;
+                System.arraycopy(oldValues, oldIndex * numAggregates, values, index * numAggregates, numAggregates);
+                used++;
+            }
+        }
+        return index;
+    }
+
+    private void startGrowth() {
+        finishGrowth();
+        oldKeys = keys;
+        oldValues = values;
+        oldMask = mask;
+        migrationPos = 0;
+        int capacity = keys.length * 2;
+        keys = new long[capacity];
+        values = new double[capacity * numAggregates];
+        mask = capacity - 1;
+        used = 0;
+    }
+
+    private void migrate(int numSlots) {
+        int end = Math.min(migrationPos + numSlots, oldKeys.length);
+        for (int i = migrationPos; i < end; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int index = findSlot(keys, mask, key);
+                if (keys[index] == 0) {
+                    keys[index] = key;
+                    System.arraycopy(oldValues, i * numAggregates, values, index * numAggregates, numAggregates);
+                    used++;
+                }
+            }
+        }
+        migrationPos = end;
+        if (migrationPos == oldKeys.length) {
+            oldKeys = null;
+            oldValues = null;
+        }
+    }
+
+    /**
+     * Move every remaining entry out of the old table, if the map is growing.
+     */
+    private void finishGrowth() {
+        if (oldKeys != null) {
+            migrate(oldKeys.length);
+        }
+    }
+
+    private void afterUpdate() {
+        if (oldKeys != null) {
+            migrate(migrationStep);
+        }
+        if (used * 2 > keys.length) {
+            startGrowth();
+        }
+    }
+
+    /**
+     * Combine aggregates into the entry for key, inserting it if it is absent.
+     * @param key A nonzero key.
+     * @param aggregates Array holding the aggregates to combine.
+     * @param offset Position of the first aggregate in the array.
+     * @param aggregationOps How to combine each aggregate.
+     */
+    public void combine(long key, double[] aggregates, int offset, AggregationOp[] aggregationOps) {
+        int index = findCurrentSlot(key);
+        int base = index * numAggregates;
+        if (keys[index] == 0) {
+            keys[index] = key;
+            System.arraycopy(aggregates, offset, values, base, numAggregates);
+            size++;
+            used++;
+            afterUpdate();
+        } else {
+            for (int a = 0; a < numAggregates; a++) {
+                values[base + a] = aggregationOps[a].combine(values[base + a], aggregates[offset + a]);
+            }
+            if (oldKeys != null) {
+                afterUpdate();
+            }
+        }
+    }
+
+    /**
+     * Combine one row of column-major aggregates into the entry for key, inserting it if it
+     * is absent.
+     * @param key A nonzero key.
+     * @param aggregateColumns Aggregates by column: aggregateColumns[aggregate][row].
+     * @param row Row whose aggregates to combine.
+     * @param aggregationOps How to combine each aggregate.
+     */
+    public void combine(long key, double[][] aggregateColumns, int row, AggregationOp[] aggregationOps) {
+        int index = findCurrentSlot(key);
+        int base = index * numAggregates;
+        if (keys[index] == 0) {
+            keys[index] = key;
+            for (int a = 0; a < numAggregates; a++) {
+                values[base + a] = aggregateColumns[a][row];
+            }
+            size++;
+            used++;
+            afterUpdate();
+        } else {
+            for (int a = 0; a < numAggregates; a++) {
+                values[base + a] = aggregationOps[a].combine(values[base + a], aggregateColumns[a][row]);
+            }
+            if (oldKeys != null) {
+                afterUpdate();
+            }
+        }
+    }
+
+    /**
+     * Store aggregates for a key, replacing any already stored.
+     * @param key A nonzero key.
+     * @param aggregates Array holding the aggregates.
+     * @param offset Position of the first aggregate in the array.
+     */
+    public void put(long key, double[] aggregates, int offset) {
+        int index = findCurrentSlot(key);
+        if (keys[index] == 0) {
+            keys[index] = key;
+            size++;
+            used++;
+        }
+        System.arraycopy(aggregates, offset, values, index * numAggregates, numAggregates);
+        afterUpdate();
+    }
+
+    /**
+     * Add every entry of other to this map, overwriting existing entries.
+     * @param other A map with the same number of aggregates.
+     */
+    public void putAll(LongAggregateMap other) {
+        for (int i = 0; i < other.getCapacity(); i++) {
+            if (other.keys[i] != 0) {
+                put(other.keys[i], other.values, i * numAggregates);
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (keys[findSlot(keys, mask, key)] != 0) {
+            return true;
+        }
+        return oldKeys != null && oldKeys[findSlot(oldKeys, oldMask, key)] != 0;
+    }
+
+    /**
+     * Copy the aggregates stored for a key.
+     * @param key A nonzero key.
+     * @param dest Array receiving the aggregates.
+     * @return False if the key is absent, in which case dest is unchanged.
+     */
+    public boolean get(long key, double[] dest) {
+        int index = findSlot(keys, mask, key);
+        if (keys[index] != 0) {
+            System.arraycopy(values, index * numAggregates, dest, 0, numAggregates);
+            return true;
+        }
+        if (oldKeys != null) {
+            index = findSlot(oldKeys, oldMask, key);
+            if (oldKeys[index] != 0) {
+                System.arraycopy(oldValues, index * numAggregates, dest, 0, numAggregates);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finishes any growth in progress, so that every entry can be reached through
+     * getKeyAt and getValues.
+     * @return Number of slots.
+     */
+    public int getCapacity() {
+        finishGrowth();
+        return keys.length;
+    }
+
+    /**
+     * @param slot A slot below getCapacity().
+     * @return The key stored in the slot, 0 if it is empty.
+     */
+    public long getKeyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Finishes any growth in progress.
+     * @return The flat aggregate array; the aggregates for slot i start at i * numAggregates.
+     */
+    public double[] getValues() {
+        finishGrowth();
+        return values;
+    }
+}
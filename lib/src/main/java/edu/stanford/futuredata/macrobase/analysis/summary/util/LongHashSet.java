@@ -0,0 +1,88 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.util;
+
+/**
+ * An open-addressing hash set of nonzero longs.
+ */
+public class LongHashSet {
+    private long[] keys;
+    private int mask;
+    private int size = 0;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = 2;
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        this.keys = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private int findSlot(long key) {
+        int index = (int) LongAggregateMap.hash(key) & mask;
+        while (keys[index] != 0 && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void growAndRehash() {
+        long[] oldKeys = keys;
+        keys = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (long key : oldKeys) {
+            if (key != 0) {
+                keys[findSlot(key)] = key;
+            }
+        }
+    }
+
+    /**
+     * @param key A nonzero key.
+     * @return False if the key was already present.
+     */
+    public boolean add(long key) {
+        int index = findSlot(key);
+        if (keys[index] != 0) {
+            return false;
+        }
+        keys[index] = key;
+        if (++size * 2 > keys.length) {
+            growAndRehash();
+        }
+        return true;
+    }
+
+    public void addAll(LongHashSet other) {
+        for (long key : other.keys) {
+            if (key != 0) {
+                add(key);
+            }
+        }
+    }
+
+    public boolean contains(long key) {
+        return keys[findSlot(key)] != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The keys in the set, in no particular order.
+     */
+    public long[] toArray() {
+        long[] result = new long[size];
+        int i = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+}
@@ -1,5 +1,6 @@
 package edu.stanford.futuredata.macrobase.analysis.transform;
 
+import edu.stanford.futuredata.macrobase.analysis.classify.stats.QuantileSketch;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.operator.Transformer;
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
@@ -13,6 +14,9 @@ import java.util.*;
  * Useful for using correlated metrics as explanatory values.
  * By default transforms columns by bucketing them into low-med-high values
  * based on percentile.
+ * With a sketch error set, bucket boundaries are approximated by a {@link QuantileSketch} per
+ * column that accumulates every input processed so far, instead of exact percentiles of each
+ * input.
  */
 public class MetricBucketTransformer implements Transformer {
     // Transformed columns are added to the dataframe under a suffix.
@@ -22,6 +26,9 @@ public class MetricBucketTransformer implements Transformer {
     // The strings used to encode which bucket a value falls in can be either a simple index
     // or an encoding of the range of the bucket.
     private boolean simpleBucketValues = false;
+    // If positive, boundaries come from quantile sketches with this rank error
+    private double sketchError = 0.0;
+    private Map<String, QuantileSketch> sketches = new HashMap<>();
 
     private List<String> metricColumns;
     private List<String> transformedColumnNames;
@@ -55,10 +62,24 @@ public class MetricBucketTransformer implements Transformer {
             int n = colValues.length;
             int k = boundaryPercentiles.length;
             double[] curBoundaries = new double[k];
-            Percentile pCalc = new Percentile();
-            pCalc.setData(colValues);
-            for (int i = 0; i < k; i++) {
-                curBoundaries[i] = pCalc.evaluate(boundaryPercentiles[i]);
+            if (sketchError > 0.0) {
+                QuantileSketch batchSketch = QuantileSketch.of(colValues, sketchError);
+                QuantileSketch sketch = sketches.get(colName);
+                if (sketch == null) {
+                    sketch = batchSketch;
+                    sketches.put(colName, sketch);
+                } else {
+                    sketch.merge(batchSketch);
+                }
+                for (int i = 0; i < k; i++) {
+                    curBoundaries[i] = sketch.evaluate(boundaryPercentiles[i]);
+                }
+            } else {
+                Percentile pCalc = new Percentile();
+                pCalc.setData(colValues);
+                for (int i = 0; i < k; i++) {
+                    curBoundaries[i] = pCalc.evaluate(boundaryPercentiles[i]);
+                }
             }
 
             String[] bucketNames = new String[k+1];
@@ -118,6 +139,27 @@ public class MetricBucketTransformer implements Transformer {
         this.simpleBucketValues = simpleBucketValues;
     }
 
+    public double getSketchError() {
+        return sketchError;
+    }
+
+    /**
+     * @param sketchError If positive, approximate the boundaries with quantile sketches of all
+     *                    inputs processed so far, with about this rank error. If zero, use exact
+     *                    percentiles of each input.
+     */
+    public void setSketchError(double sketchError) {
+        this.sketchError = sketchError;
+        this.sketches = new HashMap<>();
+    }
+
+    /**
+     * @return The sketch of a column over all inputs processed so far, or null if there is none.
+     */
+    public QuantileSketch getSketch(String columnName) {
+        return sketches.get(columnName);
+    }
+
     public List<String> getTransformedColumnNames() {
         return transformedColumnNames;
     }
@@ -0,0 +1,102 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import java.util.*;
+
+/**
+ * Dictionary encoding of a String column: its distinct values in order of first appearance,
+ * and for every row the position of its value among them.
+ *
+ * A DataFrame can also store a String column in this form directly, see
+ * {@link DataFrame#addColumn(String, ColumnDictionary)}; values are then only materialized
+ * when a consumer asks for the String array.  DataFrames keep the encodings they hand out from
+ * {@link DataFrame#getEncodedStringColumn(int)}, so repeated queries encode each column once.
+ */
+public class ColumnDictionary {
+    private final String[] values;
+    private final int[] codes;
+
+    private ColumnDictionary(String[] values, int[] codes) {
+        this.values = values;
+        this.codes = codes;
+    }
+
+    /**
+     * @param column Column to encode.
+     * @return A new encoding of the column.
+     */
+    public static ColumnDictionary encode(String[] column) {
+        HashMap<String, Integer> codeOf = new HashMap<>();
+        ArrayList<String> values = new ArrayList<>();
+        int[] codes = new int[column.length];
+        for (int i = 0; i < column.length; i++) {
+            String value = column[i];
+            // Runs of the same String object are common and skip the hash lookup
+            if (i > 0 && value == column[i - 1]) {
+                codes[i] = codes[i - 1];
+                continue;
+            }
+            Integer code = codeOf.get(value);
+            if (code == null) {
+                code = values.size();
+                codeOf.put(value, code);
+                values.add(value);
+            }
+            codes[i] = code;
+        }
+        return new ColumnDictionary(values.toArray(new String[0]), codes);
+    }
+
+    /**
+     * Wrap an existing encoding, e.g. one read back from a file.
+     * @param values Distinct values, indexed by code.
+     * @param codes Code of each row's value; every code must index into values.
+     * @return An encoding sharing both arrays.
+     */
+    public static ColumnDictionary fromCodes(String[] values, int[] codes) {
+        return new ColumnDictionary(values, codes);
+    }
+
+    /**
+     * @param codes Codes of another column over the same values, e.g. a subset of these rows.
+     * @return An encoding sharing this dictionary's values.
+     */
+    public ColumnDictionary withCodes(int[] codes) {
+        return new ColumnDictionary(values, codes);
+    }
+
+    /**
+     * @return The column as a new String array; rows with the same value share one String.
+     */
+    public String[] decode() {
+        String[] column = new String[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            column[i] = values[codes[i]];
+        }
+        return column;
+    }
+
+    /**
+     * @return Number of distinct values.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return Number of rows.
+     */
+    public int getNumRows() {
+        return codes.length;
+    }
+
+    public String getValue(int code) {
+        return values[code];
+    }
+
+    /**
+     * @return The code of each row's value; shared, so it must not be modified.
+     */
+    public int[] getCodes() {
+        return codes;
+    }
+}
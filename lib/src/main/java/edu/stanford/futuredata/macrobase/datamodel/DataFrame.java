@@ -9,15 +9,18 @@ import com.google.common.base.Joiner;
 import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
 import edu.stanford.futuredata.macrobase.util.MacroBaseInternalError;
 import java.io.PrintStream;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.DoublePredicate;
 import java.util.function.Predicate;
-import java.util.stream.IntStream;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -29,14 +32,32 @@ import org.apache.commons.lang3.StringUtils;
  * The addColumn methods are the primary means of mutating a DataFrame and are
  * especially useful during DataFrame construction. DataFrames can also be
  * initialized from a schema and a set of rows.
+ *
+ * String columns may be stored dictionary-encoded, as a {@link ColumnDictionary} of int codes
+ * over their distinct values. Encoded columns are filtered, limited and combined through their
+ * codes, and their String arrays are only materialized (once) if a caller asks for them.
+ * A String column that is asked for its encoding keeps it, and is stored both ways from then on.
+ *
+ * filter, limit and orderBy return views: their columns share the arrays of this DataFrame
+ * and only record which of its rows they select. A view's column is copied out into its own
+ * array the first time it is requested, so chained operators only copy the columns that are
+ * eventually read. A view keeps the arrays of the DataFrame it was taken from reachable.
+ *
+ * Double columns may also be backed by a {@link DoubleBuffer}, e.g. one memory-mapped from a
+ * file, so that they stay off the heap. Such a column is only copied into an array if a caller
+ * asks for one; {@link #getDoubleColumnBuffer(int)} reads it in place.
+ *
+ * Each column's storage is published as a whole and never changed in place, so columns can be
+ * read, materialized and encoded from several threads without locking. Arrays returned by a
+ * DataFrame that has views, or is one, are shared with those views and must not be modified.
  */
 public class DataFrame {
 
     private static final int MAX_COLS_FOR_TABULAR_PRINT = 10;
 
     private Schema schema;
-    private ArrayList<String[]> stringCols;
-    private ArrayList<double[]> doubleCols;
+    private ArrayList<AtomicReference<StringColumn>> stringCols;
+    private ArrayList<AtomicReference<DoubleColumn>> doubleCols;
     // external indices define a global ordering on columns, but internally each
     // column is stored with other columns of its type. Thus external indices must be
     // converted into internal type-specific indices.
@@ -44,6 +65,44 @@ public class DataFrame {
 
     private int numRows;
 
+    /**
+     * The storage of a String column. Materializing or encoding the column replaces it with a
+     * new instance rather than changing it.
+     */
+    private static final class StringColumn {
+        // the stored values; null for an encoded column until it is first requested
+        final String[] values;
+        // the encoding of the stored values, or null
+        final ColumnDictionary encoded;
+        // for views, the stored rows that the column selects, in order; null if the stored
+        // values hold exactly its rows. Columns of the same view share one selection.
+        final int[] rows;
+
+        StringColumn(String[] values, ColumnDictionary encoded, int[] rows) {
+            this.values = values;
+            this.encoded = encoded;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The storage of a double column, replaced rather than changed like {@link StringColumn}.
+     */
+    private static final class DoubleColumn {
+        // the stored values; null for a buffered column until it is first requested
+        final double[] values;
+        // the buffer backing a column stored off the heap, or null
+        final DoubleBuffer buffer;
+        // as for StringColumn
+        final int[] rows;
+
+        DoubleColumn(double[] values, DoubleBuffer buffer, int[] rows) {
+            this.values = values;
+            this.buffer = buffer;
+            this.rows = rows;
+        }
+    }
+
     public DataFrame() {
         this.schema = new Schema();
         this.stringCols = new ArrayList<>();
@@ -121,8 +180,12 @@ public class DataFrame {
         other.schema = schema.copy();
         other.indexToTypeIndex = new ArrayList<>(indexToTypeIndex);
         other.numRows = numRows;
-        other.stringCols = new ArrayList<>(stringCols);
-        other.doubleCols = new ArrayList<>(doubleCols);
+        for (AtomicReference<StringColumn> col : stringCols) {
+            other.stringCols.add(new AtomicReference<>(col.get()));
+        }
+        for (AtomicReference<DoubleColumn> col : doubleCols) {
+            other.doubleCols.add(new AtomicReference<>(col.get()));
+        }
         return other;
     }
 
@@ -138,20 +201,18 @@ public class DataFrame {
         return Objects.equals(schema, o.schema) &&
             Objects.equals(numRows, o.numRows) &&
             Objects.equals(indexToTypeIndex, o.indexToTypeIndex) &&
-            compareStringCols(stringCols, o.stringCols) &&
-            compareDoubleCols(doubleCols, o.doubleCols);
+            compareStringCols(o) &&
+            compareDoubleCols(getDoubleCols(), o.getDoubleCols());
     }
 
     /**
-     * @return true if each String array in the first List contains the exact same values in the
-     * same order as the second List
+     * @return true if each String column of this DataFrame contains the exact same values in the
+     * same order as the other DataFrame's, regardless of how either is stored
      */
-    private boolean compareStringCols(final List<String[]> first, final List<String[]> second) {
-        for (int i = 0; i < first.size(); ++i) {
-            final String[] arr1 = first.get(i);
-            final String[] arr2 = second.get(i);
-            for (int j = 0; j < arr1.length; ++j) {
-                if (!Objects.equals(arr1[j], arr2[j])) {
+    private boolean compareStringCols(final DataFrame other) {
+        for (int i = 0; i < stringCols.size(); ++i) {
+            for (int j = 0; j < numRows; ++j) {
+                if (!Objects.equals(getStringValue(i, j), other.getStringValue(i, j))) {
                     return false;
                 }
             }
@@ -178,8 +239,20 @@ public class DataFrame {
 
     public Schema getSchema() {return this.schema;}
     public int getNumRows() {return numRows;}
-    public ArrayList<double[]> getDoubleCols() { return doubleCols; }
-    public ArrayList<String[]> getStringCols() { return stringCols; }
+    public ArrayList<double[]> getDoubleCols() {
+        final ArrayList<double[]> cols = new ArrayList<>(doubleCols.size());
+        for (int i = 0; i < doubleCols.size(); i++) {
+            cols.add(materializeDoubleColumn(i));
+        }
+        return cols;
+    }
+    public ArrayList<String[]> getStringCols() {
+        final ArrayList<String[]> cols = new ArrayList<>(stringCols.size());
+        for (int i = 0; i < stringCols.size(); i++) {
+            cols.add(materializeStringColumn(i));
+        }
+        return cols;
+    }
 
     public String toString() {
         return getRows().toString();
@@ -319,13 +392,47 @@ public class DataFrame {
         return this;
     }
 
+    /**
+     * Add a String column stored dictionary-encoded. Its values are only materialized as a
+     * String array if {@link #getStringColumn(int)} is called for it.
+     */
+    public DataFrame addColumn(String colName, ColumnDictionary colValues) {
+        if (numRows == 0) {
+            numRows = colValues.getNumRows();
+        }
+
+        schema.addColumn(Schema.ColType.STRING, colName);
+        addEncodedColumnInternal(colValues);
+        return this;
+    }
+
+    /**
+     * Add a double column backed by a buffer, which is only copied into an array if
+     * {@link #getDoubleColumn(int)} is called for it. The buffer must not be modified afterwards.
+     */
+    public DataFrame addColumn(String colName, DoubleBuffer colValues) {
+        if (numRows == 0) {
+            numRows = colValues.remaining();
+        }
+
+        schema.addColumn(ColType.DOUBLE, colName);
+        doubleCols.add(new AtomicReference<>(new DoubleColumn(null, colValues.slice(), null)));
+        indexToTypeIndex.add(doubleCols.size()-1);
+        return this;
+    }
+
     private void addStringColumnInternal(String[] colValues) {
-        stringCols.add(colValues);
+        stringCols.add(new AtomicReference<>(new StringColumn(colValues, null, null)));
+        indexToTypeIndex.add(stringCols.size()-1);
+    }
+
+    private void addEncodedColumnInternal(ColumnDictionary colValues) {
+        stringCols.add(new AtomicReference<>(new StringColumn(null, colValues, null)));
         indexToTypeIndex.add(stringCols.size()-1);
     }
 
     private void addDoubleColumnInternal(double[] colValues) {
-        doubleCols.add(colValues);
+        doubleCols.add(new AtomicReference<>(new DoubleColumn(colValues, null, null)));
         indexToTypeIndex.add(doubleCols.size()-1);
     }
 
@@ -353,10 +460,31 @@ public class DataFrame {
     public boolean hasColumn(String columnName) { return schema.hasColumn(columnName); }
 
     public double[] getDoubleColumn(int columnIdx) {
-        return doubleCols.get(indexToTypeIndex.get(columnIdx));
+        return materializeDoubleColumn(indexToTypeIndex.get(columnIdx));
     }
     public double[] getDoubleColumnByName(String columnName) {
-        return doubleCols.get(indexToTypeIndex.get(schema.getColumnIndex(columnName)));
+        return getDoubleColumn(schema.getColumnIndex(columnName));
+    }
+
+    /**
+     * @return A read-only buffer over a double column. Columns stored in a buffer are read in
+     * place rather than copied onto the heap, unless the DataFrame is a view of them.
+     */
+    public DoubleBuffer getDoubleColumnBuffer(int columnIdx) {
+        final int typeIndex = indexToTypeIndex.get(columnIdx);
+        final DoubleColumn col = doubleCols.get(typeIndex).get();
+        if (col.buffer != null && col.rows == null) {
+            return col.buffer.asReadOnlyBuffer();
+        }
+        return DoubleBuffer.wrap(materializeDoubleColumn(typeIndex)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return true if the double column is stored in a buffer and has not been copied into an
+     * array
+     */
+    public boolean isDoubleColumnBuffered(int columnIdx) {
+        return doubleCols.get(indexToTypeIndex.get(columnIdx)).get().values == null;
     }
     public ArrayList<double[]> getDoubleCols(List<Integer> columns) {
         ArrayList<double[]> cols = new ArrayList<>();
@@ -373,10 +501,187 @@ public class DataFrame {
         return getDoubleCols(this.schema.getColumnIndices(columns));
     }
     public String[] getStringColumn(int columnIdx) {
-        return stringCols.get(indexToTypeIndex.get(columnIdx));
+        return materializeStringColumn(indexToTypeIndex.get(columnIdx));
     }
     public String[] getStringColumnByName(String columnName) {
-        return stringCols.get(indexToTypeIndex.get(schema.getColumnIndex(columnName)));
+        return getStringColumn(schema.getColumnIndex(columnName));
+    }
+
+    /**
+     * @return true if the String column is stored dictionary-encoded
+     */
+    public boolean isStringColumnEncoded(int columnIdx) {
+        return stringCols.get(indexToTypeIndex.get(columnIdx)).get().encoded != null;
+    }
+
+    /**
+     * @return The dictionary encoding of a String column. A column stored as a String array is
+     * encoded on the first call and then kept encoded alongside its array, so the array must not
+     * be modified in place afterwards.
+     */
+    public ColumnDictionary getEncodedStringColumn(int columnIdx) {
+        return encodeStringColumn(indexToTypeIndex.get(columnIdx));
+    }
+    public ColumnDictionary getEncodedStringColumnByName(String columnName) {
+        return getEncodedStringColumn(schema.getColumnIndex(columnName));
+    }
+
+    /**
+     * @return The array of a double column, copying out its rows first if the column is a view
+     */
+    private double[] materializeDoubleColumn(int typeIndex) {
+        final AtomicReference<DoubleColumn> ref = doubleCols.get(typeIndex);
+        while (true) {
+            final DoubleColumn col = ref.get();
+            if (col.rows == null && (col.values != null || col.buffer == null)) {
+                return col.values;
+            }
+            final double[] newValues;
+            if (col.rows != null) {
+                newValues = new double[col.rows.length];
+                if (col.values == null) {
+                    // only the selected rows of a buffer are read
+                    for (int i = 0; i < col.rows.length; i++) {
+                        newValues[i] = col.buffer.get(col.rows[i]);
+                    }
+                } else {
+                    for (int i = 0; i < col.rows.length; i++) {
+                        newValues[i] = col.values[col.rows[i]];
+                    }
+                }
+            } else {
+                newValues = new double[col.buffer.capacity()];
+                col.buffer.duplicate().get(newValues);
+            }
+            // the buffer no longer holds a view's rows
+            final DoubleBuffer buffer = col.rows == null ? col.buffer : null;
+            // if another thread got here first, return what it stored instead
+            ref.compareAndSet(col, new DoubleColumn(newValues, buffer, null));
+        }
+    }
+
+    /**
+     * @return The encoding of a String column in this DataFrame's rows, or null if the column
+     * is not encoded. A view's codes are copied out first.
+     */
+    private ColumnDictionary materializeEncodedColumn(int typeIndex) {
+        final AtomicReference<StringColumn> ref = stringCols.get(typeIndex);
+        while (true) {
+            final StringColumn col = ref.get();
+            if (col.encoded == null || col.rows == null) {
+                return col.encoded;
+            }
+            final int[] codes = col.encoded.getCodes();
+            final int[] newCodes = new int[col.rows.length];
+            for (int i = 0; i < col.rows.length; i++) {
+                newCodes[i] = codes[col.rows[i]];
+            }
+            // a decoded array would hold the stored rows rather than this view's
+            ref.compareAndSet(col, new StringColumn(null, col.encoded.withCodes(newCodes), null));
+        }
+    }
+
+    /**
+     * @return The encoding of a String column, encoding its String array and storing the result
+     * first if the column is not encoded yet. The array is encoded without holding any lock, so
+     * several columns can be encoded concurrently; if two threads encode the same column, the
+     * encoding stored first is kept.
+     */
+    private ColumnDictionary encodeStringColumn(int typeIndex) {
+        final AtomicReference<StringColumn> ref = stringCols.get(typeIndex);
+        while (true) {
+            final ColumnDictionary encoded = materializeEncodedColumn(typeIndex);
+            if (encoded != null) {
+                return encoded;
+            }
+            final String[] values = materializeStringColumn(typeIndex);
+            final ColumnDictionary newEncoded = ColumnDictionary.encode(values);
+            final StringColumn col = ref.get();
+            if (col.encoded == null && col.values == values) {
+                ref.compareAndSet(col, new StringColumn(values, newEncoded, null));
+            }
+        }
+    }
+
+    /**
+     * @return The String array of a column, copying out its rows first if the column is a view
+     * and decoding it first if the column is encoded
+     */
+    private String[] materializeStringColumn(int typeIndex) {
+        final AtomicReference<StringColumn> ref = stringCols.get(typeIndex);
+        while (true) {
+            final ColumnDictionary encoded = materializeEncodedColumn(typeIndex);
+            final StringColumn col = ref.get();
+            if (col.rows == null && (col.values != null || encoded == null)) {
+                return col.values;
+            }
+            if (encoded != null) {
+                if (col.encoded == encoded) {
+                    ref.compareAndSet(col, new StringColumn(encoded.decode(), encoded, null));
+                }
+                continue;
+            }
+            final String[] newValues = new String[col.rows.length];
+            for (int i = 0; i < col.rows.length; i++) {
+                newValues[i] = col.values[col.rows[i]];
+            }
+            ref.compareAndSet(col, new StringColumn(newValues, null, null));
+        }
+    }
+
+    private String getStringValue(int typeIndex, int rowIdx) {
+        final StringColumn col = stringCols.get(typeIndex).get();
+        final int storedIdx = col.rows == null ? rowIdx : col.rows[rowIdx];
+        if (col.encoded != null) {
+            return col.encoded.getValue(col.encoded.getCodes()[storedIdx]);
+        }
+        return col.values[storedIdx];
+    }
+
+    private double getDoubleValue(int typeIndex, int rowIdx) {
+        final DoubleColumn col = doubleCols.get(typeIndex).get();
+        final int storedIdx = col.rows == null ? rowIdx : col.rows[rowIdx];
+        return col.values != null ? col.values[storedIdx] : col.buffer.get(storedIdx);
+    }
+
+    /**
+     * @param rows Rows of this DataFrame to select, in order
+     * @return A view of those rows that shares this DataFrame's column arrays
+     */
+    private DataFrame selectRows(final int[] rows) {
+        final DataFrame view = new DataFrame();
+        view.schema = schema.copy();
+        view.indexToTypeIndex = new ArrayList<>(indexToTypeIndex);
+        view.numRows = rows.length;
+        // Columns that already share a selection share the composed one too
+        final IdentityHashMap<int[], int[]> composed = new IdentityHashMap<>();
+        for (AtomicReference<StringColumn> ref : stringCols) {
+            final StringColumn col = ref.get();
+            view.stringCols.add(new AtomicReference<>(new StringColumn(
+                col.values, col.encoded, composeRows(col.rows, rows, composed))));
+        }
+        for (AtomicReference<DoubleColumn> ref : doubleCols) {
+            final DoubleColumn col = ref.get();
+            view.doubleCols.add(new AtomicReference<>(new DoubleColumn(
+                col.values, col.buffer, composeRows(col.rows, rows, composed))));
+        }
+        return view;
+    }
+
+    private static int[] composeRows(final int[] colRows, final int[] rows,
+        final IdentityHashMap<int[], int[]> composed) {
+        if (colRows == null) {
+            return rows;
+        }
+        int[] newRows = composed.get(colRows);
+        if (newRows == null) {
+            newRows = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                newRows[i] = colRows[rows[i]];
+            }
+            composed.put(colRows, newRows);
+        }
+        return newRows;
     }
     public ArrayList<String[]> getStringCols(List<Integer> columns) {
         ArrayList<String[]> cols = new ArrayList<>();
@@ -417,6 +722,15 @@ public class DataFrame {
         for (int colIdx = 0; colIdx < d; colIdx++) {
             Schema.ColType t = combined.schema.getColumnType(colIdx);
             if (t == Schema.ColType.STRING) {
+                boolean allEncoded = true;
+                for (DataFrame curOther : others) {
+                    allEncoded &= curOther.isStringColumnEncoded(colIdx);
+                }
+                if (allEncoded) {
+                    combined.stringCols.add(new AtomicReference<>(
+                        new StringColumn(null, unionEncoded(others, colIdx, n), null)));
+                    continue;
+                }
                 String[] newCol = new String[n];
                 int i = 0;
                 for (DataFrame curOther : others) {
@@ -426,7 +740,7 @@ public class DataFrame {
                         i++;
                     }
                 }
-                combined.stringCols.add(newCol);
+                combined.stringCols.add(new AtomicReference<>(new StringColumn(newCol, null, null)));
             } else if (t == Schema.ColType.DOUBLE) {
                 double[] newCol = new double[n];
                 int i = 0;
@@ -437,7 +751,7 @@ public class DataFrame {
                         i++;
                     }
                 }
-                combined.doubleCols.add(newCol);
+                combined.doubleCols.add(new AtomicReference<>(new DoubleColumn(newCol, null, null)));
             } else {
                 throw new MacroBaseInternalError("Invalid Col Type");
             }
@@ -446,6 +760,36 @@ public class DataFrame {
         return combined;
     }
 
+    /**
+     * Concatenate an encoded column of several DataFrames by merging their dictionaries and
+     * remapping each one's codes, without materializing any values.
+     */
+    private static ColumnDictionary unionEncoded(List<DataFrame> others, int colIdx, int n) {
+        final HashMap<String, Integer> codeOf = new HashMap<>();
+        final ArrayList<String> values = new ArrayList<>();
+        final int[] newCodes = new int[n];
+        int i = 0;
+        for (DataFrame curOther : others) {
+            final ColumnDictionary otherCol = curOther.getEncodedStringColumn(colIdx);
+            final int[] remap = new int[otherCol.size()];
+            for (int code = 0; code < remap.length; code++) {
+                final String value = otherCol.getValue(code);
+                Integer newCode = codeOf.get(value);
+                if (newCode == null) {
+                    newCode = values.size();
+                    codeOf.put(value, newCode);
+                    values.add(value);
+                }
+                remap[code] = newCode;
+            }
+            for (int code : otherCol.getCodes()) {
+                newCodes[i] = remap[code];
+                i++;
+            }
+        }
+        return ColumnDictionary.fromCodes(values.toArray(new String[0]), newCodes);
+    }
+
     /**
      * @param projectionCols The columns that should be included in the returned DataFrame. Projections
      * that aren't in the columns of the current DataFrame will be ignored
@@ -459,68 +803,39 @@ public class DataFrame {
                 continue;
             }
             final ColType type = schema.getColumnTypeByName(col);
+            final int typeIndex = indexToTypeIndex.get(schema.getColumnIndex(col));
+            other.schema.addColumn(type, col);
+            // Columns are shared as they are stored, views included
             if (type == ColType.DOUBLE) {
-                other.addColumn(col, getDoubleColumnByName(col));
+                other.doubleCols.add(new AtomicReference<>(doubleCols.get(typeIndex).get()));
+                other.indexToTypeIndex.add(other.doubleCols.size() - 1);
             } else if (type == ColType.STRING) {
-                other.addColumn(col, getStringColumnByName(col));
+                other.stringCols.add(new AtomicReference<>(stringCols.get(typeIndex).get()));
+                other.indexToTypeIndex.add(other.stringCols.size() - 1);
             }
         }
+        if (other.schema.getNumColumns() > 0) {
+            other.numRows = numRows;
+        }
         return other;
     }
 
     /**
      * @param mask rows to select
-     * @return new DataFrame with subset of rows
+     * @return new DataFrame with subset of rows, a view sharing this DataFrame's columns
      */
     public DataFrame filter(BitSet mask) {
-        DataFrame other = new DataFrame();
-
-        int d = schema.getNumColumns();
-        int numTrue = 0;
-        for (int i = 0; i < numRows; i++) {
-            if (mask.get(i)) {
-                numTrue++;
-            }
+        final int[] rows = new int[mask.get(0, numRows).cardinality()];
+        int j = 0;
+        for (int i = mask.nextSetBit(0); j < rows.length; i = mask.nextSetBit(i + 1)) {
+            rows[j] = i;
+            j++;
         }
-        for (int c = 0; c < d; c++) {
-            Schema.ColType t = schema.getColumnType(c);
-            String columnName = schema.getColumnName(c);
-            if (t == Schema.ColType.STRING) {
-                String[] oldColumn = getStringColumn(c);
-                String[] newColumn = new String[numTrue];
-                int j = 0;
-                for (int i = 0; i < numRows; i++) {
-                    if (mask.get(i)) {
-                        newColumn[j] = oldColumn[i];
-                        j++;
-                    }
-                }
-                other.addColumn(columnName, newColumn);
-            } else if (t == Schema.ColType.DOUBLE) {
-                double[] oldColumn = getDoubleColumn(c);
-                double[] newColumn = new double[numTrue];
-                int j = 0;
-                for (int i = 0; i < numRows; i++) {
-                    if (mask.get(i)) {
-                        newColumn[j] = oldColumn[i];
-                        j++;
-                    }
-                }
-                other.addColumn(columnName, newColumn);
-            } else {
-                throw new MacroBaseInternalError("Bad Column Type");
-            }
-        }
-        return other;
+        return selectRows(rows);
     }
 
     public DataFrame filter(int columnIdx, Predicate<Object> filter) {
-        String[] filterColumn = getStringColumn(columnIdx);
-        final BitSet mask = new BitSet(numRows);
-        for (int i = 0; i < numRows; i++) {
-          mask.set(i, filter.test(filterColumn[i]));
-        }
-        return filter(mask);
+        return filter(getMaskForFilter(columnIdx, filter));
     }
     public DataFrame filter(String columnName, Predicate<Object> filter) {
         return filter(schema.getColumnIndex(columnName), filter);
@@ -543,8 +858,21 @@ public class DataFrame {
      * on each row in the DataFrame
      */
     public BitSet getMaskForFilter(int columnIdx, Predicate<Object> filter) {
-        String[] filterColumn = getStringColumn(columnIdx);
         final BitSet mask = new BitSet(numRows);
+        if (isStringColumnEncoded(columnIdx)) {
+            // test each distinct value once, then look rows up by code
+            final ColumnDictionary filterColumn = getEncodedStringColumn(columnIdx);
+            final boolean[] matches = new boolean[filterColumn.size()];
+            for (int code = 0; code < matches.length; code++) {
+                matches[code] = filter.test(filterColumn.getValue(code));
+            }
+            final int[] codes = filterColumn.getCodes();
+            for (int i = 0; i < numRows; i++) {
+                mask.set(i, matches[codes[i]]);
+            }
+            return mask;
+        }
+        String[] filterColumn = getStringColumn(columnIdx);
         for (int i = 0; i < numRows; i++) {
           mask.set(i, filter.test(filterColumn[i]));
         }
@@ -587,37 +915,18 @@ public class DataFrame {
      * Execute the LIMIT clause of a SQL query, i.e., take the first n rows of the DataFrame
      * @param numRows Number of rows to include the new DataFrame. If -1, return the original
      * DataFrame
-     * @return the new DataFrame with only the first <tt>numRows</tt> rows.
+     * @return the new DataFrame with only the first <tt>numRows</tt> rows, a view sharing this
+     * DataFrame's columns
      */
     public DataFrame limit(final int numRows) {
       if (numRows < 0 || numRows >= this.numRows) {
           return this;
       }
-      final DataFrame result = new DataFrame();
-      result.schema = this.schema.copy();
-      result.indexToTypeIndex = new ArrayList<>(this.indexToTypeIndex);
-      result.numRows = numRows;
-      final int numColumns = this.schema.getNumColumns();
-
-      for (int colIdx = 0; colIdx < numColumns; colIdx++) {
-          Schema.ColType t = result.schema.getColumnType(colIdx);
-          if (t == Schema.ColType.STRING) {
-              final String[] col = this.getStringColumn(colIdx);
-              final String[] newCol = new String[numRows];
-              for (int i = 0; i < numRows; ++i) {
-                  newCol[i] = col[i];
-              }
-              result.stringCols.add(newCol);
-          } else if (t == Schema.ColType.DOUBLE) {
-              final double[] col = this.getDoubleColumn(colIdx);
-              final double[] newCol = new double[numRows];
-              for (int i = 0; i < numRows; ++i) {
-                  newCol[i] = col[i];
-              }
-              result.doubleCols.add(newCol);
-          }
+      final int[] rows = new int[numRows];
+      for (int i = 0; i < numRows; ++i) {
+          rows[i] = i;
       }
-      return result;
+      return selectRows(rows);
     }
 
     public Row getRow(int rowIdx) {
@@ -627,9 +936,9 @@ public class DataFrame {
             Schema.ColType t = schema.getColumnType(c);
             int typeSubIndex = indexToTypeIndex.get(c);
             if (t == Schema.ColType.STRING) {
-                rowValues.add(stringCols.get(typeSubIndex)[rowIdx]);
+                rowValues.add(getStringValue(typeSubIndex, rowIdx));
             } else if (t == Schema.ColType.DOUBLE) {
-                rowValues.add(doubleCols.get(typeSubIndex)[rowIdx]);
+                rowValues.add(getDoubleValue(typeSubIndex, rowIdx));
             } else {
                 throw new MacroBaseInternalError("Bad ColType");
             }
@@ -658,11 +967,15 @@ public class DataFrame {
         int d = columns.size();
         int[] typeSubIndices = getSubIndices(columns);
 
+        double[][] cols = new double[d][];
+        for (int j = 0; j < d; j++) {
+            cols[j] = materializeDoubleColumn(typeSubIndices[j]);
+        }
+
         for (int i = 0; i < this.numRows; i++) {
             double[] curRow = new double[d];
             for (int j = 0; j < d; j++) {
-                int colSubIndex = typeSubIndices[j];
-                curRow[j] = doubleCols.get(colSubIndex)[i];
+                curRow[j] = cols[j][i];
             }
             rows.add(curRow);
         }
@@ -673,11 +986,15 @@ public class DataFrame {
         int d = columns.size();
         int[] typeSubIndices = getSubIndices(columns);
 
+        String[][] cols = new String[d][];
+        for (int j = 0; j < d; j++) {
+            cols[j] = materializeStringColumn(typeSubIndices[j]);
+        }
+
         for (int i = 0; i < this.numRows; i++) {
             String[] curRow = new String[d];
             for (int j = 0; j < d; j++) {
-                int colSubIndex = typeSubIndices[j];
-                curRow[j] = stringCols.get(colSubIndex)[i];
+                curRow[j] = cols[j][i];
             }
             rows.add(curRow);
         }
@@ -692,78 +1009,89 @@ public class DataFrame {
 
     /**
      * Sort DataFrame rows by a single column.
-     * // TODO: write test for OrderBy
      * @param sortCol The column to sort by
      * @param sortAsc True => sort ascending, False => sort descending
      * @return A new DataFrame with the correct sorted order. If <tt>col</tt> is
      * not in the DataFrame's schema, return the same DataFrame, unchanged
      */
     public DataFrame orderBy(final String sortCol, final boolean sortAsc) {
-      // If column is not present in DataFrame, return as is
-      if (!this.schema.hasColumn(sortCol)) {
-          return this;
-      }
+        return orderBy(Collections.singletonList(sortCol), Collections.singletonList(sortAsc));
+    }
 
-      final DataFrame sortedDf = new DataFrame();
-      final ColType sortColType = this.schema.getColumnTypeByName(sortCol);
-      final int numColumns = this.schema.getNumColumns();
+    /**
+     * Sort DataFrame rows by several columns: rows are ordered by the first column, ties by the
+     * second column, and so on. Rows that tie on every column keep their original order.
+     * Ascending sorts put nulls last, descending sorts put them first.
+     * @param sortCols The columns to sort by. Columns that aren't in the DataFrame are ignored
+     * @param sortAsc For each column, true to sort ascending and false to sort descending
+     * @return A new DataFrame with the correct sorted order, a view sharing this DataFrame's
+     * columns. If none of <tt>sortCols</tt> are in
+     * the DataFrame's schema, return the same DataFrame, unchanged
+     */
+    public DataFrame orderBy(final List<String> sortCols, final List<Boolean> sortAsc) {
+        return orderBy(sortCols, sortAsc, -1);
+    }
 
-      if (sortColType == ColType.DOUBLE) {
-          sortColumns(sortedDf, numColumns, getDoubleColumnByName(sortCol), sortAsc);
-      } else {
-          sortColumns(sortedDf, numColumns, getStringColumnByName(sortCol), sortAsc);
-      }
-      return sortedDf;
-    }
-
-    // TODO: this code duplication is awful, gotta think of a better way of doing this
-    private void sortColumns(final DataFrame sortedDf, final int numColumns,
-        final double[] sortColumn, final boolean sortAsc) {
-        Comparator<Integer> comparator = comparing(i -> sortColumn[i], nullsLast(
-            naturalOrder()));
-        if (!sortAsc) {
-            comparator = comparator.reversed();
-        }
-        for (int c = 0; c < numColumns; ++c) {
-            if (this.schema.getColumnType(c) == ColType.DOUBLE) {
-                final double[] origCol = this.getDoubleColumn(c);
-                final double[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator)
-                    .mapToDouble(i -> origCol[i]).toArray();
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
-            } else {
-                // ColType.STRING
-                final String[] origCol = this.getStringColumn(c);
-                final String[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator).map(i -> origCol[i])
-                    .toArray(String[]::new);
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
+    /**
+     * Execute ORDER BY ... LIMIT: {@link #orderBy(List, List)}, but only keep the first
+     * <tt>numRows</tt> rows. These are found with a bounded heap instead of sorting every row.
+     * @param numRows Number of rows to return; if -1, all rows are sorted
+     * @return A new DataFrame with at most <tt>numRows</tt> rows in sorted order
+     */
+    public DataFrame orderBy(final List<String> sortCols, final List<Boolean> sortAsc,
+        final int numRows) {
+        final List<IndexSorter.RowComparator> comparators = new ArrayList<>();
+        for (int i = 0; i < sortCols.size(); ++i) {
+            if (schema.hasColumn(sortCols.get(i))) {
+                comparators.add(getRowComparator(schema.getColumnIndex(sortCols.get(i)),
+                    sortAsc.get(i)));
             }
         }
+        if (comparators.isEmpty()) {
+            return limit(numRows);
+        }
+        final IndexSorter.RowComparator comparator = comparators.size() == 1 ? comparators.get(0)
+            : (i, j) -> {
+                for (IndexSorter.RowComparator curComparator : comparators) {
+                    final int c = curComparator.compare(i, j);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            };
+
+        final int[] order;
+        if (numRows >= 0 && numRows < this.numRows) {
+            order = IndexSorter.topK(this.numRows, numRows, comparator);
+        } else {
+            order = IndexSorter.argsort(this.numRows, comparator);
+        }
+        return selectRows(order);
     }
 
-    private void sortColumns(final DataFrame sortedDf, final int numColumns,
-        final String[] sortColumn, final boolean sortAsc) {
-        Comparator<Integer> comparator = comparing(i -> sortColumn[i], nullsLast(naturalOrder()));
-        if (!sortAsc) {
-            comparator = comparator.reversed();
+    /**
+     * Order rows by one column, comparing primitives only: doubles directly, Strings by the
+     * rank of their dictionary code among the column's sorted distinct values.
+     */
+    private IndexSorter.RowComparator getRowComparator(final int columnIdx, final boolean sortAsc) {
+        final int sign = sortAsc ? 1 : -1;
+        if (schema.getColumnType(columnIdx) == ColType.DOUBLE) {
+            final double[] sortColumn = getDoubleColumn(columnIdx);
+            return (i, j) -> sign * Double.compare(sortColumn[i], sortColumn[j]);
         }
-        for (int c = 0; c < numColumns; ++c) {
-            if (this.schema.getColumnType(c) == ColType.DOUBLE) {
-                final double[] origCol = this.getDoubleColumn(c);
-                final double[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator)
-                    .mapToDouble(i -> origCol[i]).toArray();
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
-            } else {
-                // ColType.STRING
-                final String[] origCol = this.getStringColumn(c);
-                final String[] newCol = IntStream.range(0, origCol.length).boxed()
-                    .sorted(comparator).map(i -> origCol[i])
-                    .toArray(String[]::new);
-                sortedDf.addColumn(this.schema.getColumnName(c), newCol);
-            }
+        // ColType.STRING
+        final ColumnDictionary dictionary = getEncodedStringColumn(columnIdx);
+        final Integer[] sortedCodes = new Integer[dictionary.size()];
+        for (int code = 0; code < sortedCodes.length; ++code) {
+            sortedCodes[code] = code;
         }
+        Arrays.sort(sortedCodes, comparing(dictionary::getValue, nullsLast(naturalOrder())));
+        final int[] rankOf = new int[sortedCodes.length];
+        for (int rank = 0; rank < sortedCodes.length; ++rank) {
+            rankOf[sortedCodes[rank]] = rank;
+        }
+        final int[] codes = dictionary.getCodes();
+        return (i, j) -> sign * Integer.compare(rankOf[codes[i]], rankOf[codes[j]]);
     }
-
 }
@@ -0,0 +1,205 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Sorts row indices by a comparator over rows, without boxing.  Sorts are stable, so rows
+ * that compare equal keep their original order.
+ */
+class IndexSorter {
+    // Fewest rows worth sorting in a separate task
+    private static final int minRowsPerTask = 1 << 16;
+    // Runs at most this long are sorted by insertion sort
+    private static final int insertionSortThreshold = 32;
+
+    /**
+     * Compares two rows by their indices.
+     */
+    interface RowComparator {
+        int compare(int i, int j);
+    }
+
+    /**
+     * @param numRows Number of rows to sort.
+     * @param comparator Order of the rows.
+     * @return The row indices in sorted order.  Large inputs are sorted in ranges on the
+     * shared pool, which are then merged.
+     */
+    static int[] argsort(int numRows, RowComparator comparator) {
+        int numTasks = Math.max(1, Math.min(numRows / minRowsPerTask,
+                Runtime.getRuntime().availableProcessors()));
+        return argsort(numRows, comparator, numTasks);
+    }
+
+    /**
+     * @param numTasks Number of ranges to sort separately before merging them.
+     */
+    static int[] argsort(int numRows, RowComparator comparator, int numTasks) {
+        int[] indices = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            indices[i] = i;
+        }
+        numTasks = Math.max(1, Math.min(numTasks, numRows));
+        if (numTasks == 1) {
+            mergeSort(indices, indices.clone(), 0, numRows, comparator);
+            return indices;
+        }
+
+        int[] bounds = new int[numTasks + 1];
+        for (int taskIdx = 0; taskIdx <= numTasks; taskIdx++) {
+            bounds[taskIdx] = (int) ((long) numRows * taskIdx / numTasks);
+        }
+        final int[] sorted = indices;
+        final int[] scratch = indices.clone();
+        List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+        for (int taskIdx = 0; taskIdx < numTasks; taskIdx++) {
+            final int start = bounds[taskIdx];
+            final int end = bounds[taskIdx + 1];
+            tasks.add(() -> {
+                mergeSort(sorted, scratch, start, end, comparator);
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+
+        // Merge neighbouring ranges pairwise, each pass in parallel, until one is left
+        int[] src = sorted;
+        int[] dst = scratch;
+        while (bounds.length > 2) {
+            int numRanges = bounds.length - 1;
+            int numMerged = (numRanges + 1) / 2;
+            int[] mergedBounds = new int[numMerged + 1];
+            tasks = new ArrayList<>(numMerged);
+            for (int m = 0; m < numMerged; m++) {
+                final int start = bounds[2 * m];
+                final int mid = bounds[Math.min(2 * m + 1, numRanges)];
+                final int end = bounds[Math.min(2 * m + 2, numRanges)];
+                mergedBounds[m] = start;
+                final int[] from = src;
+                final int[] to = dst;
+                tasks.add(() -> {
+                    merge(from, to, start, mid, end, comparator);
+                    return null;
+                });
+            }
+            mergedBounds[numMerged] = numRows;
+            MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+            bounds = mergedBounds;
+            int[] tmp = src;
+            src = dst;
+            dst = tmp;
+        }
+        return src;
+    }
+
+    /**
+     * @param numRows Number of rows to choose from.
+     * @param k Number of rows to return.
+     * @param comparator Order of the rows.
+     * @return The indices of the first k rows in sorted order, found with a bounded heap
+     * instead of sorting every row.
+     */
+    static int[] topK(int numRows, int k, RowComparator comparator) {
+        k = Math.min(k, numRows);
+        // Break ties by index, so that the result matches a stable sort
+        RowComparator order = (i, j) -> {
+            int c = comparator.compare(i, j);
+            return c != 0 ? c : Integer.compare(i, j);
+        };
+        // Max-heap of the k smallest rows seen so far
+        int[] heap = new int[k];
+        int size = 0;
+        for (int row = 0; row < numRows; row++) {
+            if (size < k) {
+                heap[size] = row;
+                siftUp(heap, size, order);
+                size++;
+            } else if (k > 0 && order.compare(row, heap[0]) < 0) {
+                heap[0] = row;
+                siftDown(heap, k, order);
+            }
+        }
+
+        int[] sortedHeap = argsort(k, (i, j) -> order.compare(heap[i], heap[j]));
+        int[] result = new int[k];
+        for (int i = 0; i < k; i++) {
+            result[i] = heap[sortedHeap[i]];
+        }
+        return result;
+    }
+
+    private static void siftUp(int[] heap, int pos, RowComparator order) {
+        int row = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (order.compare(heap[parent], row) >= 0) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = row;
+    }
+
+    private static void siftDown(int[] heap, int size, RowComparator order) {
+        int row = heap[0];
+        int pos = 0;
+        while (2 * pos + 1 < size) {
+            int child = 2 * pos + 1;
+            if (child + 1 < size && order.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (order.compare(heap[child], row) <= 0) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = row;
+    }
+
+    /**
+     * Sort a[start, end) in place; scratch must hold the same values as a in that range.
+     */
+    private static void mergeSort(int[] a, int[] scratch, int start, int end,
+                                  RowComparator comparator) {
+        if (end - start <= insertionSortThreshold) {
+            for (int i = start + 1; i < end; i++) {
+                int row = a[i];
+                int j = i - 1;
+                while (j >= start && comparator.compare(a[j], row) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = row;
+            }
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        // Sort both halves into scratch, then merge them back into a
+        mergeSort(scratch, a, start, mid, comparator);
+        mergeSort(scratch, a, mid, end, comparator);
+        merge(scratch, a, start, mid, end, comparator);
+    }
+
+    private static void merge(int[] src, int[] dst, int start, int mid, int end,
+                              RowComparator comparator) {
+        if (mid == end || comparator.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, start, dst, start, end - start);
+            return;
+        }
+        int i = start;
+        int j = mid;
+        for (int out = start; out < end; out++) {
+            if (j >= end || (i < mid && comparator.compare(src[i], src[j]) <= 0)) {
+                dst[out] = src[i++];
+            } else {
+                dst[out] = src[j++];
+            }
+        }
+    }
+}
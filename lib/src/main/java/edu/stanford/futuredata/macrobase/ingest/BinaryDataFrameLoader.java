@@ -0,0 +1,222 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Loads a DataFrame written by {@link BinaryDataFrameWriter}.  Columns are memory-mapped and
+ * decoded in parallel, one task per column, and String columns are kept dictionary-encoded,
+ * as they are stored.  If column types are set, only those columns are loaded.
+ *
+ * A mapped loader instead leaves double columns in the file: they are backed by the mapping and
+ * only paged in when read, which keeps them off the heap.
+ */
+public class BinaryDataFrameLoader implements DataFrameLoader {
+    // Largest region mapped at once; mappings are limited to 2GB
+    private static final int maxMappedBytes = 1 << 30;
+
+    private final String filename;
+    private Map<String, Schema.ColType> columnTypes;
+    private boolean mapped = false;
+
+    public BinaryDataFrameLoader(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public DataFrameLoader setColumnTypes(Map<String, Schema.ColType> types) {
+        this.columnTypes = types;
+        return this;
+    }
+
+    /**
+     * @param mapped Whether double columns should stay memory-mapped instead of being read
+     * into arrays.  Columns too large for a single mapping are always read.
+     */
+    public BinaryDataFrameLoader setMapped(boolean mapped) {
+        this.mapped = mapped;
+        return this;
+    }
+
+    /**
+     * Write a DataFrame to a temporary file and reopen it mapped, so that its double columns no
+     * longer take up heap space.  The file is removed once it is no longer mapped.
+     * @param df DataFrame to spill.
+     * @return A DataFrame with the same contents, backed by the file.
+     */
+    public static DataFrame spill(DataFrame df) throws Exception {
+        File file = File.createTempFile("macrobase", ".mbdf");
+        file.deleteOnExit();
+        try {
+            new BinaryDataFrameWriter().writeToFile(df, file.getPath());
+            return new BinaryDataFrameLoader(file.getPath()).setMapped(true).load();
+        } finally {
+            // Mappings outlive the file on POSIX systems; elsewhere it is removed on exit
+            file.delete();
+        }
+    }
+
+    @Override
+    public DataFrame load() throws Exception {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MappedByteBuffer header = map(channel, 0);
+            byte[] magic = new byte[BinaryDataFrameWriter.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, BinaryDataFrameWriter.MAGIC)) {
+                throw new MacroBaseException(filename + " is not a MacroBase binary table");
+            }
+            int version = header.getInt();
+            if (version != BinaryDataFrameWriter.VERSION) {
+                throw new MacroBaseException("Unsupported binary table version " + version);
+            }
+            int numRows = header.getInt();
+            int numColumns = header.getInt();
+
+            List<String> names = new ArrayList<>();
+            List<Schema.ColType> types = new ArrayList<>();
+            List<Long> offsets = new ArrayList<>();
+            for (int c = 0; c < numColumns; c++) {
+                byte[] name = new byte[header.getInt()];
+                header.get(name);
+                String columnName = new String(name, StandardCharsets.UTF_8);
+                Schema.ColType type = header.get() == BinaryDataFrameWriter.DOUBLE_TYPE ?
+                        Schema.ColType.DOUBLE : Schema.ColType.STRING;
+                long offset = header.getLong();
+                if (columnTypes != null) {
+                    if (!columnTypes.containsKey(columnName)) {
+                        continue;
+                    }
+                    if (columnTypes.get(columnName) != type) {
+                        throw new MacroBaseException(
+                                "Column " + columnName + " is stored as " + type);
+                    }
+                }
+                names.add(columnName);
+                types.add(type);
+                offsets.add(offset);
+            }
+            if (columnTypes != null && names.size() < columnTypes.size()) {
+                throw new MacroBaseException(filename + " is missing some of the columns " +
+                        columnTypes.keySet());
+            }
+
+            Object[] columns = new Object[names.size()];
+            List<Callable<Void>> tasks = new ArrayList<>(names.size());
+            for (int c = 0; c < names.size(); c++) {
+                final int colIdx = c;
+                tasks.add(() -> {
+                    long offset = offsets.get(colIdx);
+                    long numBytes = (long) numRows * Double.BYTES;
+                    if (types.get(colIdx) == Schema.ColType.STRING) {
+                        columns[colIdx] = readStrings(channel, offset, numRows);
+                    } else if (mapped && numBytes <= Integer.MAX_VALUE) {
+                        columns[colIdx] = map(channel, offset, numBytes).asDoubleBuffer();
+                    } else {
+                        columns[colIdx] = readDoubles(channel, offset, numRows);
+                    }
+                    return null;
+                });
+            }
+            MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+
+            DataFrame df = new DataFrame();
+            for (int c = 0; c < names.size(); c++) {
+                if (columns[c] instanceof DoubleBuffer) {
+                    df.addColumn(names.get(c), (DoubleBuffer) columns[c]);
+                } else if (types.get(c) == Schema.ColType.DOUBLE) {
+                    df.addColumn(names.get(c), (double[]) columns[c]);
+                } else {
+                    df.addColumn(names.get(c), (ColumnDictionary) columns[c]);
+                }
+            }
+            return df;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position) throws IOException {
+        long length = Math.min(channel.size() - position, Integer.MAX_VALUE);
+        return map(channel, position, length);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static double[] readDoubles(FileChannel channel, long offset, int numRows)
+            throws IOException {
+        double[] column = new double[numRows];
+        int rowsPerChunk = maxMappedBytes / Double.BYTES;
+        for (int start = 0; start < numRows; start += rowsPerChunk) {
+            int length = Math.min(rowsPerChunk, numRows - start);
+            map(channel, offset + (long) start * Double.BYTES, (long) length * Double.BYTES)
+                    .asDoubleBuffer().get(column, start, length);
+        }
+        return column;
+    }
+
+    private static ColumnDictionary readStrings(FileChannel channel, long offset, int numRows)
+            throws IOException {
+        MappedByteBuffer dictionaryBuffer = map(channel, offset);
+        int numValues = dictionaryBuffer.getInt();
+        int codeWidth = dictionaryBuffer.get();
+        dictionaryBuffer.position(dictionaryBuffer.position() + 3);
+        String[] values = new String[numValues];
+        byte[] bytes = new byte[0];
+        for (int code = 0; code < numValues; code++) {
+            int length = dictionaryBuffer.getInt();
+            if (length < 0) {
+                continue;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            dictionaryBuffer.get(bytes, 0, length);
+            values[code] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        long codesOffset = offset + dictionaryBuffer.position();
+        int[] column = new int[numRows];
+        int rowsPerChunk = maxMappedBytes / codeWidth;
+        for (int start = 0; start < numRows; start += rowsPerChunk) {
+            int length = Math.min(rowsPerChunk, numRows - start);
+            MappedByteBuffer codes = map(channel, codesOffset + (long) start * codeWidth,
+                    (long) length * codeWidth);
+            int end = start + length;
+            if (codeWidth == 1) {
+                for (int i = start; i < end; i++) {
+                    column[i] = codes.get() & 0xFF;
+                }
+            } else if (codeWidth == 2) {
+                for (int i = start; i < end; i++) {
+                    column[i] = codes.getShort() & 0xFFFF;
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    column[i] = codes.getInt();
+                }
+            }
+        }
+        return ColumnDictionary.fromCodes(values, column);
+    }
+}
@@ -0,0 +1,188 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a DataFrame in a columnar binary format that {@link BinaryDataFrameLoader} can
+ * memory-map, so that large tables do not have to be parsed again on every load.
+ *
+ * All numbers are little-endian.  The file starts with a header:
+ *
+ *   magic "MBDF" | version int | numRows int | numColumns int
+ *   per column: name length int | name UTF-8 | type byte | data offset long
+ *
+ * followed by the data of each column, starting at an 8-byte aligned offset.  Double columns
+ * are numRows raw doubles.  String columns are dictionary-encoded:
+ *
+ *   dictionary size int | code width byte (1, 2, or 4) | 3 bytes padding
+ *   per distinct value: UTF-8 length int (-1 for null) | UTF-8 bytes
+ *   numRows codes of the given width
+ */
+public class BinaryDataFrameWriter implements DataFrameWriter {
+    static final byte[] MAGIC = {'M', 'B', 'D', 'F'};
+    static final int VERSION = 1;
+    static final byte STRING_TYPE = 0;
+    static final byte DOUBLE_TYPE = 1;
+
+    private static final int bufferSize = 1 << 20;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    @Override
+    public void writeToFile(DataFrame df, String filename) throws IOException {
+        Schema schema = df.getSchema();
+        int numColumns = schema.getNumColumns();
+        byte[][] names = new byte[numColumns][];
+        for (int c = 0; c < numColumns; c++) {
+            names[c] = schema.getColumnName(c).getBytes(StandardCharsets.UTF_8);
+        }
+
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel fileChannel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            channel = fileChannel;
+            long[] offsets = new long[numColumns];
+            // Write the header with placeholder offsets to find where the data starts
+            writeHeader(df, names, offsets);
+            long position = align(channel.position() + buffer.position());
+            for (int c = 0; c < numColumns; c++) {
+                pad(position);
+                offsets[c] = position;
+                if (schema.getColumnType(c) == Schema.ColType.DOUBLE) {
+                    // Read through a buffer, so that columns stored off the heap stay there
+                    writeDoubles(df.getDoubleColumnBuffer(c));
+                } else {
+                    // Reuse the encoding of columns the DataFrame already stores encoded
+                    writeStrings(df.isStringColumnEncoded(c) ? df.getEncodedStringColumn(c)
+                            : ColumnDictionary.encode(df.getStringColumn(c)));
+                }
+                position = align(channel.position() + buffer.position());
+            }
+            flush();
+
+            channel.position(0);
+            writeHeader(df, names, offsets);
+            flush();
+        } finally {
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void writeHeader(DataFrame df, byte[][] names, long[] offsets) throws IOException {
+        Schema schema = df.getSchema();
+        ensure(16);
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(df.getNumRows());
+        buffer.putInt(names.length);
+        for (int c = 0; c < names.length; c++) {
+            ensure(4);
+            buffer.putInt(names[c].length);
+            writeBytes(names[c]);
+            ensure(9);
+            buffer.put(schema.getColumnType(c) == Schema.ColType.DOUBLE ? DOUBLE_TYPE : STRING_TYPE);
+            buffer.putLong(offsets[c]);
+        }
+    }
+
+    private void writeDoubles(DoubleBuffer column) throws IOException {
+        while (column.hasRemaining()) {
+            ensure(8);
+            buffer.putDouble(column.get());
+        }
+    }
+
+    private void writeStrings(ColumnDictionary dictionary) throws IOException {
+        int numValues = dictionary.size();
+        int codeWidth = codeWidth(numValues);
+        ensure(8);
+        buffer.putInt(numValues);
+        buffer.put((byte) codeWidth);
+        buffer.put(new byte[3]);
+        for (int code = 0; code < numValues; code++) {
+            String value = dictionary.getValue(code);
+            ensure(4);
+            if (value == null) {
+                buffer.putInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(bytes.length);
+                writeBytes(bytes);
+            }
+        }
+        for (int code : dictionary.getCodes()) {
+            ensure(codeWidth);
+            if (codeWidth == 1) {
+                buffer.put((byte) code);
+            } else if (codeWidth == 2) {
+                buffer.putShort((short) code);
+            } else {
+                buffer.putInt(code);
+            }
+        }
+    }
+
+    /**
+     * @param numValues Number of distinct values in a column
+     * @return The fewest bytes that fit every code of the column
+     */
+    static int codeWidth(int numValues) {
+        if (numValues <= 1 << 8) {
+            return 1;
+        } else if (numValues <= 1 << 16) {
+            return 2;
+        }
+        return 4;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private void pad(long position) throws IOException {
+        long current = channel.position() + buffer.position();
+        ensure(8);
+        while (current < position) {
+            buffer.put((byte) 0);
+            current++;
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        int written = 0;
+        while (written < bytes.length) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, length);
+            written += length;
+        }
+    }
+
+    private void ensure(int numBytes) throws IOException {
+        if (buffer.remaining() < numBytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -1,41 +1,71 @@
 package edu.stanford.futuredata.macrobase.ingest;
 
+import com.google.common.io.ByteStreams;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Loads the required columns of a CSV file with a header into a DataFrame.  Values are parsed
+ * straight into primitive double and String columns, and repeated Strings in a column share
+ * one String object.
+ *
+ * When the parser is created from a file and more than one thread is set, the file is split on
+ * line boundaries and the pieces are parsed in parallel, skipping fields that are not required.
+ * This assumes that quoted fields do not contain line breaks.
+ */
 public class CSVDataFrameParser implements DataFrameLoader {
+    // Smallest piece of a file worth parsing in its own task
+    private static final long minBytesPerTask = 1 << 20;
+    // Stop sharing Strings in a column with more distinct values than this, to bound the memory
+    // spent looking them up
+    private static final int maxInternedPerColumn = 1 << 16;
+
     private Logger log = LoggerFactory.getLogger(CSVDataFrameParser.class);
     private CsvParser parser;
     private final List<String> requiredColumns;
     private Map<String, Schema.ColType> columnTypes;
     // when reading file, convert nulls to String "NULL" (default should be true)
     private final boolean convertNulls;
+    // only known when reading from a file, which is required for loading in parallel
+    private String filename;
+    private int numThreads = 1;
 
     private void init(String filename) {
-        CsvParserSettings settings = new CsvParserSettings();
-        settings.getFormat().setLineSeparator("\n");
-        CsvParser csvParser = new CsvParser(settings);
+        this.filename = filename.replaceFirst("^~", System.getProperty("user.home"));
+        CsvParser csvParser = new CsvParser(getSettings());
         csvParser.beginParsing(getReader(filename));
         this.parser = csvParser;
     }
 
+    private static CsvParserSettings getSettings() {
+        CsvParserSettings settings = new CsvParserSettings();
+        settings.getFormat().setLineSeparator("\n");
+        return settings;
+    }
+
     public CSVDataFrameParser(CsvParser parser, List<String> requiredColumns) {
         this.requiredColumns = requiredColumns;
         this.parser = parser;
@@ -68,83 +98,251 @@ public class CSVDataFrameParser implements DataFrameLoader {
         return this;
     }
 
+    /**
+     * @param numThreads Number of pieces to split the file into and parse in parallel.  Only
+     * used when the parser was created from a file.
+     * @return this
+     */
+    public CSVDataFrameParser setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
     @Override
     public DataFrame load() throws Exception {
         String[] header = parser.parseNext();
 
         int numColumns = header.length;
         int schemaLength = requiredColumns.size();
-        int schemaIndexMap[] = new int[numColumns];
-        Arrays.fill(schemaIndexMap, -1);
 
         String[] columnNameList = new String[schemaLength];
         Schema.ColType[] columnTypeList = new Schema.ColType[schemaLength];
+        // Position of each schema column among the fields of the file
+        int[] fieldIndices = new int[schemaLength];
         for (int c = 0, schemaIndex = 0; c < numColumns; c++) {
             String columnName = header[c];
-            Schema.ColType t = columnTypes.getOrDefault(columnName, Schema.ColType.STRING);
+            Schema.ColType t = columnTypes == null ? Schema.ColType.STRING :
+                    columnTypes.getOrDefault(columnName, Schema.ColType.STRING);
             if (requiredColumns.contains(columnName)) {
                 columnNameList[schemaIndex] = columnName;
                 columnTypeList[schemaIndex] = t;
-                schemaIndexMap[c] = schemaIndex;
+                fieldIndices[schemaIndex] = c;
                 schemaIndex++;
             }
         }
-        // Make sure to generate the schema in the right order
-        Schema schema = new Schema();
-        int numStringColumns = 0;
-        int numDoubleColumns = 0;
         for (int c = 0; c < schemaLength; c++) {
-            schema.addColumn(columnTypeList[c], columnNameList[c]);
-            if (columnTypeList[c] == Schema.ColType.STRING) {
-                numStringColumns++;
-            } else if (columnTypeList[c] == Schema.ColType.DOUBLE) {
-                numDoubleColumns++;
-            } else {
+            if (columnTypeList[c] != Schema.ColType.STRING && columnTypeList[c] != Schema.ColType.DOUBLE) {
                 throw new RuntimeException("Bad ColType");
             }
         }
 
-        ArrayList<String>[] stringColumns = (ArrayList<String>[]) new ArrayList[numStringColumns];
-        for (int i = 0; i < numStringColumns; i++) {
-            stringColumns[i] = new ArrayList<>();
-        }
-        ArrayList<Double>[] doubleColumns = (ArrayList<Double>[]) new ArrayList[numDoubleColumns];
-        for (int i = 0; i < numDoubleColumns; i++) {
-            doubleColumns[i] = new ArrayList<>();
+        List<ParsedColumns> pieces;
+        if (filename != null && numThreads > 1) {
+            parser.stopParsing();
+            pieces = parseInParallel(fieldIndices, columnTypeList);
+        } else {
+            ParsedColumns parsed = new ParsedColumns(columnTypeList, convertNulls);
+            parsed.parse(parser, fieldIndices);
+            pieces = new ArrayList<>();
+            pieces.add(parsed);
         }
 
-        String[] row;
+        int numRows = 0;
         int doubleParseFailures = 0;
-        while ((row = parser.parseNext()) != null) {
-            for (int c = 0, stringColNum = 0, doubleColNum = 0; c < numColumns; c++) {
-                if (schemaIndexMap[c] >= 0) {
-                    int schemaIndex = schemaIndexMap[c];
-                    Schema.ColType t = columnTypeList[schemaIndex];
-                    String rowValue = row[c];
-                    if (t == Schema.ColType.STRING) {
+        for (ParsedColumns piece : pieces) {
+            numRows += piece.numRows;
+            doubleParseFailures += piece.doubleParseFailures;
+        }
+        if (doubleParseFailures > 0)
+            log.warn("{} double values failed to parse", doubleParseFailures);
+
+        DataFrame df = new DataFrame();
+        for (int c = 0; c < schemaLength; c++) {
+            if (columnTypeList[c] == Schema.ColType.DOUBLE) {
+                double[] column = new double[numRows];
+                int start = 0;
+                for (ParsedColumns piece : pieces) {
+                    System.arraycopy(piece.doubles[c], 0, column, start, piece.numRows);
+                    start += piece.numRows;
+                }
+                df.addColumn(columnNameList[c], column);
+            } else {
+                String[] column = new String[numRows];
+                int start = 0;
+                for (ParsedColumns piece : pieces) {
+                    System.arraycopy(piece.strings[c], 0, column, start, piece.numRows);
+                    start += piece.numRows;
+                }
+                df.addColumn(columnNameList[c], column);
+            }
+        }
+        return df;
+    }
+
+    /**
+     * Split the rows of the file, which start after its first line, into pieces that end on
+     * line boundaries, and parse the required fields of each piece in its own task.
+     */
+    private List<ParsedColumns> parseInParallel(int[] fieldIndices, Schema.ColType[] columnTypeList)
+            throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+            long length = file.length();
+            // Rows start after the header
+            long start = lineEnd(file, 0);
+            long pieceLength = Math.max(minBytesPerTask, (length - start) / numThreads + 1);
+            boundaries.add(start);
+            while (start < length) {
+                long end = start + pieceLength;
+                // end on a line boundary: after the first line break at or after end - 1
+                start = end >= length ? length : lineEnd(file, end - 1);
+                boundaries.add(start);
+            }
+        }
+
+        int numPieces = boundaries.size() - 1;
+        List<ParsedColumns> pieces = new ArrayList<>(numPieces);
+        List<Callable<Void>> tasks = new ArrayList<>(numPieces);
+        // Only the required fields are kept, in the order of the schema
+        Integer[] selectedFields = new Integer[fieldIndices.length];
+        int[] selectedIndices = new int[fieldIndices.length];
+        for (int c = 0; c < fieldIndices.length; c++) {
+            selectedFields[c] = fieldIndices[c];
+            selectedIndices[c] = c;
+        }
+        for (int i = 0; i < numPieces; i++) {
+            long pieceStart = boundaries.get(i);
+            long pieceEnd = boundaries.get(i + 1);
+            ParsedColumns piece = new ParsedColumns(columnTypeList, convertNulls);
+            pieces.add(piece);
+            tasks.add(() -> {
+                CsvParserSettings settings = getSettings();
+                settings.selectIndexes(selectedFields);
+                CsvParser pieceParser = new CsvParser(settings);
+                try (FileInputStream in = new FileInputStream(filename)) {
+                    ByteStreams.skipFully(in, pieceStart);
+                    InputStream pieceIn = ByteStreams.limit(
+                            new BufferedInputStream(in, 1 << 16), pieceEnd - pieceStart);
+                    pieceParser.beginParsing(new InputStreamReader(pieceIn, StandardCharsets.UTF_8));
+                    piece.parse(pieceParser, selectedIndices);
+                }
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(MacroBaseExecutors.getSharedPool(), tasks);
+        return pieces;
+    }
+
+    /**
+     * @return The offset just after the first line break at or after position, or the length of
+     * the file if there is none.
+     */
+    private static long lineEnd(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = file.read(buffer)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return file.length();
+    }
+
+    /**
+     * Required columns of a sequence of rows, in growable primitive arrays.
+     */
+    private static class ParsedColumns {
+        private final Schema.ColType[] types;
+        private final boolean convertNulls;
+        private final double[][] doubles;
+        private final String[][] strings;
+        private final List<Map<String, String>> interned;
+        private int numRows;
+        private int doubleParseFailures;
+
+        ParsedColumns(Schema.ColType[] types, boolean convertNulls) {
+            this.types = types;
+            this.convertNulls = convertNulls;
+            this.doubles = new double[types.length][];
+            this.strings = new String[types.length][];
+            this.interned = new ArrayList<>(types.length);
+            int initialCapacity = 1024;
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    doubles[c] = new double[initialCapacity];
+                    interned.add(null);
+                } else {
+                    strings[c] = new String[initialCapacity];
+                    interned.add(new HashMap<>());
+                }
+            }
+        }
+
+        /**
+         * @param parser Parser positioned at the first row to parse
+         * @param fieldIndices Position of each column among the fields that the parser returns
+         */
+        void parse(CsvParser parser, int[] fieldIndices) {
+            String[] row;
+            while ((row = parser.parseNext()) != null) {
+                if (numRows == capacity()) {
+                    grow();
+                }
+                for (int c = 0; c < types.length; c++) {
+                    int fieldIndex = fieldIndices[c];
+                    String rowValue = fieldIndex < row.length ? row[fieldIndex] : null;
+                    if (types[c] == Schema.ColType.STRING) {
                         if (rowValue == null && convertNulls) {
                             rowValue = "NULL";
                         }
-                        stringColumns[stringColNum++].add(rowValue);
-                    } else if (t == Schema.ColType.DOUBLE) {
+                        strings[c][numRows] = intern(c, rowValue);
+                    } else {
                         try {
-                            doubleColumns[doubleColNum].add(Double.parseDouble(rowValue));
+                            doubles[c][numRows] = Double.parseDouble(rowValue);
                         } catch (NumberFormatException | NullPointerException e) {
-                            doubleColumns[doubleColNum].add(Double.NaN);
+                            doubles[c][numRows] = Double.NaN;
                             doubleParseFailures++;
                         }
-                        doubleColNum++;
-                    } else {
-                        throw new RuntimeException("Bad ColType");
                     }
                 }
+                numRows++;
             }
         }
-        if (doubleParseFailures > 0)
-            log.warn("{} double values failed to parse", doubleParseFailures);
 
-        DataFrame df = new DataFrame(schema, stringColumns, doubleColumns);
-        return df;
+        private String intern(int column, String value) {
+            if (value == null) {
+                return null;
+            }
+            Map<String, String> values = interned.get(column);
+            String shared = values.get(value);
+            if (shared != null) {
+                return shared;
+            }
+            if (values.size() < maxInternedPerColumn) {
+                values.put(value, value);
+            }
+            return value;
+        }
+
+        private int capacity() {
+            return types.length == 0 ? Integer.MAX_VALUE :
+                    types[0] == Schema.ColType.DOUBLE ? doubles[0].length : strings[0].length;
+        }
+
+        private void grow() {
+            int newCapacity = capacity() * 2;
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == Schema.ColType.DOUBLE) {
+                    doubles[c] = Arrays.copyOf(doubles[c], newCapacity);
+                } else {
+                    strings[c] = Arrays.copyOf(strings[c], newCapacity);
+                }
+            }
+        }
     }
 
     private static Reader getReader(String path) {
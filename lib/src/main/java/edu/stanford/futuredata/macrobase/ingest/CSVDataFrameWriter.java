@@ -3,15 +3,30 @@ package edu.stanford.futuredata.macrobase.ingest;
 import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvWriter;
 import com.univocity.parsers.csv.CsvWriterSettings;
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
-import edu.stanford.futuredata.macrobase.datamodel.Row;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.List;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
-public class CSVDataFrameWriter {
+/**
+ * Writes a DataFrame as CSV, streaming rows straight from the columns into one reused row
+ * buffer rather than building a Row per row.  Output can optionally be gzipped.
+ */
+public class CSVDataFrameWriter implements DataFrameWriter {
+    // Integral doubles below this magnitude print as the integer followed by ".0"
+    private static final double maxFastFormatted = 1e7;
+    private static final int streamBufferSize = 1 << 16;
 
     private final CsvFormat format;
+    private boolean gzip = false;
 
     public CSVDataFrameWriter() {
         this.format = new CsvFormat();
@@ -23,18 +38,78 @@ public class CSVDataFrameWriter {
         this.format.setLineSeparator(lineDelimiter);
     }
 
+    /**
+     * @param gzip Whether output written to files and byte streams is gzipped.
+     */
+    public CSVDataFrameWriter setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    @Override
+    public void writeToFile(DataFrame df, String filename) throws IOException {
+        writeToStream(df, new FileOutputStream(filename));
+    }
+
+    /**
+     * Write UTF-8 CSV, gzipped if set, and close the stream.
+     */
+    public void writeToStream(DataFrame df, OutputStream out) throws IOException {
+        OutputStream stream = gzip ? new GZIPOutputStream(out, streamBufferSize) : out;
+        writeToStream(df, new BufferedWriter(
+                new OutputStreamWriter(stream, StandardCharsets.UTF_8), streamBufferSize));
+    }
+
     public void writeToStream(DataFrame df, Writer out) throws IOException {
-        String[] columnNames = df.getSchema().getColumnNames().toArray(new String[0]);
+        Schema schema = df.getSchema();
+        int numColumns = schema.getNumColumns();
+        String[] columnNames = schema.getColumnNames().toArray(new String[0]);
         final CsvWriterSettings settings = new CsvWriterSettings();
         settings.setFormat(format);
         CsvWriter writer = new CsvWriter(out, settings);
         writer.writeHeaders(columnNames);
 
-        List<Row> rows = df.getRows();
-        for (Row curRow : rows) {
-            List<Object> rowValues = curRow.getVals();
-            writer.writeRow(rowValues);
+        // Encoded String columns are written from their dictionaries without being decoded,
+        // and double columns are read through buffers so that off-heap columns stay there.
+        String[][] stringColumns = new String[numColumns][];
+        ColumnDictionary[] encodedColumns = new ColumnDictionary[numColumns];
+        DoubleBuffer[] doubleColumns = new DoubleBuffer[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            if (schema.getColumnType(c) == Schema.ColType.DOUBLE) {
+                doubleColumns[c] = df.getDoubleColumnBuffer(c);
+            } else if (df.isStringColumnEncoded(c)) {
+                encodedColumns[c] = df.getEncodedStringColumn(c);
+            } else {
+                stringColumns[c] = df.getStringColumn(c);
+            }
+        }
+
+        String[] row = new String[numColumns];
+        int numRows = df.getNumRows();
+        for (int i = 0; i < numRows; i++) {
+            for (int c = 0; c < numColumns; c++) {
+                if (doubleColumns[c] != null) {
+                    row[c] = formatDouble(doubleColumns[c].get(i));
+                } else if (encodedColumns[c] != null) {
+                    row[c] = encodedColumns[c].getValue(encodedColumns[c].getCodes()[i]);
+                } else {
+                    row[c] = stringColumns[c][i];
+                }
+            }
+            writer.writeRow(row);
         }
         writer.close();
     }
+
+    /**
+     * @return The same text as Double.toString, taking a shortcut for integral values such as
+     * counts, which are the most common doubles in exported results.
+     */
+    static String formatDouble(double value) {
+        if (value == (long) value && Math.abs(value) < maxFastFormatted
+                && (value != 0.0 || 1.0 / value > 0)) {
+            return Long.toString((long) value).concat(".0");
+        }
+        return Double.toString(value);
+    }
 }
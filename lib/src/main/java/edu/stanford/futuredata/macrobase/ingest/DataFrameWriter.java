@@ -0,0 +1,9 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+
+import java.io.IOException;
+
+public interface DataFrameWriter {
+    void writeToFile(DataFrame df, String filename) throws IOException;
+}
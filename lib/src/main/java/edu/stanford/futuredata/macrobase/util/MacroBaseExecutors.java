@@ -0,0 +1,54 @@
+package edu.stanford.futuredata.macrobase.util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Long-lived thread pools shared by parallel operators, so that operators which are
+ * called many times do not pay for thread creation on every call.
+ */
+public class MacroBaseExecutors {
+    private static volatile ForkJoinPool sharedPool;
+
+    /**
+     * @return A pool with one worker per available processor, created on first use.  Its
+     * workers are daemon threads, so it never needs to be shut down.
+     */
+    public static ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            synchronized (MacroBaseExecutors.class) {
+                if (sharedPool == null) {
+                    sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Run tasks on an executor and wait for all of them to finish.  Runtime exceptions thrown
+     * by a task are rethrown as they are, anything else is wrapped in a MacroBaseInternalError.
+     * @param executor Executor to run on.
+     * @param tasks Tasks to run.
+     */
+    public static void runAll(ExecutorService executor, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MacroBaseInternalError("Interrupted while waiting for tasks");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MacroBaseInternalError("Task failed: " + cause);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -92,4 +93,12 @@ public class ArithmeticClassifierTest {
             assertTrue(mean <= 249);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOutlierCounts() throws Exception {
+        ArithmeticClassifier ac = new ArithmeticClassifier("count", "mean", "std");
+        ac.process(df);
+        double[] expected = ac.getResults().getDoubleColumnByName("_OUTLIER");
+        assertArrayEquals(expected, ac.getOutlierCounts(df), 0.0);
+    }
+}
@@ -62,4 +62,25 @@ public class PercentileClassifierTest {
         int numOutliers = outliers.getNumRows();
         assertTrue(numOutliers >= 90 && numOutliers <= 110);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSketch() throws Exception {
+        PercentileClassifier pc = new PercentileClassifier("val");
+        pc.setPercentile(10).setSketchError(0.01);
+        pc.process(df);
+        assertEquals(100.0, pc.getLowCutoff(), 10.0);
+        assertEquals(900.0, pc.getHighCutoff(), 10.0);
+
+        // The sketch accumulates across inputs
+        DataFrame next = new DataFrame();
+        double[] vals = new double[1000];
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = 1000 + i;
+        }
+        next.addColumn("val", vals);
+        pc.process(next);
+        assertEquals(2000, pc.getSketch().getCount());
+        assertEquals(200.0, pc.getLowCutoff(), 20.0);
+        assertEquals(1800.0, pc.getHighCutoff(), 20.0);
+    }
+}
@@ -0,0 +1,70 @@
+package edu.stanford.futuredata.macrobase.analysis.classify;
+
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PredicateCubeClassifierTest {
+    private DataFrame df;
+
+    @Before
+    public void setUp() {
+        df = new DataFrame();
+        int length = 100;
+        double[] counts = new double[length];
+        double[] metrics = new double[length];
+        String[] labels = new String[length];
+        for (int i = 0; i < length; i++) {
+            counts[i] = i + 1;
+            metrics[i] = i % 10;
+            labels[i] = "label" + (i % 4);
+        }
+        df.addColumn("count", counts);
+        df.addColumn("metric", metrics);
+        df.addColumn("label", ColumnDictionary.encode(labels));
+    }
+
+    @Test
+    public void testDoublePredicates() throws Exception {
+        String[] predicates = {"==", "!=", "<", ">", "<=", ">="};
+        int[] expectedMatches = {10, 90, 30, 60, 40, 70};
+        for (int p = 0; p < predicates.length; p++) {
+            PredicateCubeClassifier pc =
+                    new PredicateCubeClassifier("count", "metric", predicates[p], 3.0);
+            pc.process(df);
+            double[] outliers = pc.getResults().getDoubleColumnByName("_OUTLIER");
+            int numMatches = 0;
+            for (int i = 0; i < outliers.length; i++) {
+                if (outliers[i] > 0.0) {
+                    assertEquals(i + 1, outliers[i], 0.0);
+                    numMatches++;
+                }
+            }
+            assertEquals(expectedMatches[p], numMatches);
+            assertArrayEquals(outliers, pc.getOutlierCounts(df), 0.0);
+        }
+    }
+
+    @Test
+    public void testEncodedStringPredicate() throws Exception {
+        PredicateCubeClassifier pc =
+                new PredicateCubeClassifier("count", "label", "==", "label1");
+        double[] outliers = pc.getOutlierCounts(df);
+        double total = 0.0;
+        for (int i = 0; i < outliers.length; i++) {
+            assertEquals(i % 4 == 1 ? i + 1 : 0.0, outliers[i], 0.0);
+            total += outliers[i];
+        }
+        assertEquals(1250.0, total, 0.0);
+
+        // Same result when the column is stored as plain Strings
+        DataFrame plain = new DataFrame();
+        plain.addColumn("count", df.getDoubleColumnByName("count"));
+        plain.addColumn("label", df.getStringColumnByName("label"));
+        assertArrayEquals(outliers, pc.getOutlierCounts(plain), 0.0);
+    }
+}
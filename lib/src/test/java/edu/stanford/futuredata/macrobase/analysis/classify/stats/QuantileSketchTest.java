@@ -0,0 +1,70 @@
+package edu.stanford.futuredata.macrobase.analysis.classify.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+    @Test
+    public void testEvaluate() throws Exception {
+        int n = 1000000;
+        double[] values = new double[n];
+        Random random = new Random(0);
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextInt(n);
+        }
+        QuantileSketch sketch = QuantileSketch.of(values, 0.01);
+        assertEquals(n, sketch.getCount());
+        // Memory does not grow with the number of values
+        assertTrue(sketch.getNumRetained() < 2000);
+        for (double p : new double[]{1.0, 10.0, 50.0, 90.0, 99.0}) {
+            assertEquals(p / 100.0 * n, sketch.evaluate(p), 0.01 * n);
+        }
+        assertTrue(Double.isNaN(new QuantileSketch(0.01).evaluate(50.0)));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        QuantileSketch low = new QuantileSketch(0.02);
+        QuantileSketch high = new QuantileSketch(0.02);
+        for (int i = 0; i < 50000; i++) {
+            low.update(i);
+            high.update(50000 + i);
+        }
+        low.merge(high);
+        assertEquals(100000, low.getCount());
+        assertEquals(50000.0, low.evaluate(50.0), 2000.0);
+        assertEquals(1000.0, low.evaluate(1.0), 2000.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelfMerge() {
+        QuantileSketch sketch = new QuantileSketch(0.02);
+        sketch.update(1.0);
+        sketch.merge(sketch);
+    }
+
+    @Test
+    public void testUpdateAfterQuantile() {
+        QuantileSketch sketch = new QuantileSketch(0.02);
+        for (int i = 0; i < 10000; i++) {
+            sketch.update(i);
+        }
+        double median = sketch.evaluate(50.0);
+        assertEquals(median, sketch.evaluate(50.0), 0.0);
+        assertEquals(5000.0, median, 200.0);
+        // Quantiles reflect values added after they were last asked for
+        for (int i = 0; i < 10000; i++) {
+            sketch.update(10000 + i);
+        }
+        assertEquals(10000.0, sketch.evaluate(50.0), 400.0);
+        assertEquals(19999.0, sketch.evaluate(100.0), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidError() {
+        new QuantileSketch(0.0);
+    }
+}
@@ -3,6 +3,8 @@ package edu.stanford.futuredata.macrobase.analysis.classify.stats;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class WeightedPercentileTest {
@@ -44,4 +46,53 @@ public class WeightedPercentileTest {
         assertEquals(1.0, p0, 0.01);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testEvaluateMany() throws Exception {
+        WeightedPercentile wp = new WeightedPercentile(counts, metrics);
+        double[] results = wp.evaluate(new double[]{0.0, 1.0, 50.0, 90.0, 100.0});
+        assertArrayEquals(new double[]{1.0, 100.0, 707.0, 949.0, 1000.0}, results, 0.01);
+    }
+
+    @Test
+    public void testEvaluateSymmetric() throws Exception {
+        Random random = new Random(0);
+        int length = 50000;
+        double[] shuffledCounts = new double[length];
+        double[] shuffledMetrics = new double[length];
+        for (int i = 0; i < length; i++) {
+            // Repeated metrics and fractional counts
+            shuffledMetrics[i] = random.nextInt(500);
+            shuffledCounts[i] = random.nextInt(8) * 0.25;
+        }
+        double[] metricsCopy = shuffledMetrics.clone();
+        WeightedPercentile wp = new WeightedPercentile(shuffledCounts, shuffledMetrics);
+        for (double p : new double[]{0.0, 1.0, 5.0, 49.0, 50.0, 95.0, 100.0}) {
+            double[] cutoffs = WeightedPercentile.evaluateSymmetric(
+                    shuffledCounts, shuffledMetrics, p);
+            assertEquals(wp.evaluate(p), cutoffs[0], 0.0);
+            assertEquals(wp.evaluate(100.0 - p), cutoffs[1], 0.0);
+        }
+        // The inputs are left as they were
+        assertArrayEquals(metricsCopy, shuffledMetrics, 0.0);
+    }
+
+    @Test
+    public void testEvaluateSymmetricUnrepresentativeSample() throws Exception {
+        // Rows at multiples of 10 hold the smallest metrics, which a strided sample would
+        // mistake for the whole distribution
+        int length = 10240;
+        double[] skewedCounts = new double[length];
+        double[] skewedMetrics = new double[length];
+        for (int i = 0; i < length; i++) {
+            skewedCounts[i] = 1.0;
+            skewedMetrics[i] = i % 10 == 0 ? i : 1000000.0 + i;
+        }
+        WeightedPercentile wp = new WeightedPercentile(skewedCounts, skewedMetrics);
+        for (double p : new double[]{1.0, 20.0, 50.0}) {
+            double[] cutoffs = WeightedPercentile.evaluateSymmetric(
+                    skewedCounts, skewedMetrics, p);
+            assertEquals(wp.evaluate(p), cutoffs[0], 0.0);
+            assertEquals(wp.evaluate(100.0 - p), cutoffs[1], 0.0);
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package edu.stanford.futuredata.macrobase.analysis.summary;
 
 import edu.stanford.futuredata.macrobase.analysis.summary.util.AttributeEncoder;
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class AttributeEncoderTest {
     private AttributeEncoder e = new AttributeEncoder();
@@ -43,4 +48,51 @@ public class AttributeEncoderTest {
         }
         assertEquals(totalItems.size(), 5 + 3);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeWithSupport() {
+        String[] col1 = {"a", "b", "a", "c", "a", "b"};
+        String[] col2 = {"x", "x", "y", "y", "x", "z"};
+        double[] outliers = {1, 1, 1, 0, 1, 0};
+        List<String[]> columns = Arrays.asList(col1, col2);
+
+        int[][] encoded = e.encodeAttributesWithSupport(columns, 0.5, outliers);
+        // a and x are in 3 of 4 outliers, b in 1, y in 1; c and z are in none
+        int ns = AttributeEncoder.noSupport;
+        assertArrayEquals(new int[]{1, 2}, encoded[0]);
+        assertArrayEquals(new int[]{ns, 2}, encoded[1]);
+        assertArrayEquals(new int[]{1, ns}, encoded[2]);
+        assertArrayEquals(new int[]{ns, ns}, encoded[3]);
+        assertArrayEquals(new int[]{ns, ns}, encoded[5]);
+        assertEquals("a", e.decodeValue(1));
+        assertEquals(1, e.decodeColumn(2));
+
+        // A second encoder over the same columns gives the same keys
+        AttributeEncoder e2 = new AttributeEncoder();
+        int[][] encoded2 = e2.encodeAttributesWithSupport(columns, 0.5, outliers);
+        for (int i = 0; i < encoded.length; i++) {
+            assertArrayEquals(encoded[i], encoded2[i]);
+        }
+    }
+
+    @Test
+    public void testDataFrameKeepsEncoding() {
+        String[] col1 = {"a", "b", "a", "c"};
+        DataFrame df = new DataFrame();
+        df.addColumn("col1", col1);
+        List<String> columnNames = Arrays.asList("col1");
+
+        int[][] encoded = e.encodeColumns(df, columnNames);
+        ColumnDictionary dictionary = df.getEncodedStringColumnByName("col1");
+        assertEquals(3, dictionary.size());
+        AttributeEncoder e2 = new AttributeEncoder();
+        assertArrayEquals(encoded[0], e2.encodeColumns(df, columnNames)[0]);
+        assertSame(dictionary, df.getEncodedStringColumnByName("col1"));
+
+        // Encodings belong to the DataFrame, not to the array
+        col1[0] = "d";
+        DataFrame other = new DataFrame();
+        other.addColumn("col1", col1);
+        assertEquals(4, other.getEncodedStringColumnByName("col1").size());
+    }
+}
@@ -0,0 +1,175 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.operator.WindowedOperator;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class APLIncrementalSummarizerTest {
+    private static List<String> attributes = Arrays.asList("a", "b", "c");
+
+    private static DataFrame getTestDF() {
+        Random r = new Random(0);
+        int n = 6000;
+        double[] time = new double[n];
+        double[] outlier = new double[n];
+        String[][] cols = new String[3][n];
+        for (int i = 0; i < n; i++) {
+            time[i] = i / 100.0;
+            for (int j = 0; j < 3; j++) {
+                cols[j][i] = "v" + j + r.nextInt(4);
+            }
+            // Anomalous combinations change over time, so panes expire useful results
+            boolean anomalous = time[i] < 30 ? cols[0][i].equals("v01") : cols[1][i].equals("v12");
+            double p = anomalous ? 0.5 : 0.02;
+            outlier[i] = r.nextDouble() < p ? 1.0 : 0.0;
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("time", time);
+        df.addColumn("outlier", outlier);
+        for (int j = 0; j < 3; j++) {
+            df.addColumn(attributes.get(j), cols[j]);
+        }
+        return df;
+    }
+
+    private static APLOutlierSummarizer getSummarizer() {
+        APLOutlierSummarizer summ = new APLOutlierSummarizer();
+        summ.setOutlierColumn("outlier");
+        summ.setAttributes(attributes);
+        summ.setMinSupport(0.05);
+        summ.setMinRatioMetric(2.0);
+        return summ;
+    }
+
+    private static Map<Map<String, String>, Map<String, Double>> resultMap(APLExplanation e) {
+        Map<Map<String, String>, Map<String, Double>> results = new HashMap<>();
+        for (APLExplanationResult r : e.getResults()) {
+            results.put(r.prettyPrintMatch(e.getEncoder()), r.getAggregatesAsMap(Arrays.asList("Outliers", "Count")));
+        }
+        return results;
+    }
+
+    @Test
+    public void testMatchesBatch() throws Exception {
+        DataFrame df = getTestDF();
+        WindowedOperator<APLExplanation> windowedOp = new WindowedOperator<>(
+                new APLIncrementalSummarizer(getSummarizer())
+        );
+        windowedOp.setTimeColumn("time");
+        windowedOp.setSlideLength(10.0);
+        windowedOp.setWindowLength(30.0);
+        windowedOp.initialize();
+
+        int numCompared = 0;
+        for (double startTime = 0.0; startTime < 60.0; startTime += 5.0) {
+            double ls = startTime;
+            DataFrame miniBatch = df.filter("time", (double t) -> t >= ls && t < ls + 5.0);
+            windowedOp.process(miniBatch);
+            double windowEnd = windowedOp.getMaxWindowTime();
+            if (windowEnd < 30.0) {
+                continue;
+            }
+            APLExplanation incremental = windowedOp.getResults();
+
+            APLOutlierSummarizer batch = getSummarizer();
+            batch.process(df.filter("time", (double t) -> t >= windowEnd - 30.0 && t < windowEnd));
+            APLExplanation expected = batch.getResults();
+
+            assertEquals(expected.numTotal(), incremental.numTotal(), 0.0);
+            assertEquals(expected.numOutliers(), incremental.numOutliers(), 0.0);
+            assertFalse(expected.getResults().isEmpty());
+            assertEquals(resultMap(expected), resultMap(incremental));
+            numCompared++;
+        }
+        assertTrue(numCompared > 2);
+    }
+
+    private static DataFrame getMeanTestDF() {
+        Random r = new Random(0);
+        int n = 3000;
+        double[] time = new double[n];
+        double[] means = new double[n];
+        double[] stds = new double[n];
+        String[][] cols = new String[3][n];
+        for (int i = 0; i < n; i++) {
+            time[i] = i / 50.0;
+            for (int j = 0; j < 3; j++) {
+                cols[j][i] = "v" + j + r.nextInt(4);
+            }
+            boolean anomalous = time[i] < 30 ? cols[0][i].equals("v01") : cols[2][i].equals("v23");
+            // The level drifts, so panes and windows have different global means
+            means[i] = time[i] + (anomalous ? 40.0 : 0.0) + r.nextGaussian();
+            stds[i] = 1.0;
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("time", time);
+        df.addColumn("mean", means);
+        df.addColumn("std", stds);
+        for (int j = 0; j < 3; j++) {
+            df.addColumn(attributes.get(j), cols[j]);
+        }
+        return df;
+    }
+
+    private static APLMeanSummarizer getMeanSummarizer() {
+        APLMeanSummarizer summ = new APLMeanSummarizer();
+        summ.setAttributes(attributes);
+        summ.setMinSupport(0.05);
+        summ.setMinStdDev(1.0);
+        return summ;
+    }
+
+    @Test
+    public void testMeanMatchesBatch() throws Exception {
+        DataFrame df = getMeanTestDF();
+        APLIncrementalSummarizer summ = new APLIncrementalSummarizer(getMeanSummarizer(), 3);
+        int numCompared = 0;
+        for (double startTime = 0.0; startTime < 60.0; startTime += 10.0) {
+            double ls = startTime;
+            summ.process(df.filter("time", (double t) -> t >= ls && t < ls + 10.0));
+            APLExplanation incremental = summ.getResults();
+
+            APLMeanSummarizer batch = getMeanSummarizer();
+            batch.process(df.filter("time", (double t) -> t >= ls - 20.0 && t < ls + 10.0));
+            APLExplanation expected = batch.getResults();
+
+            assertEquals(expected.numTotal(), incremental.numTotal(), 0.0);
+            // Outliers are judged against the mean of the whole window, not of each pane
+            assertEquals(expected.numOutliers(), incremental.numOutliers(), 0.0);
+            assertFalse(expected.getResults().isEmpty());
+            Set<Map<String, String>> expectedMatches = new HashSet<>();
+            for (APLExplanationResult r : expected.getResults()) {
+                expectedMatches.add(r.prettyPrintMatch(expected.getEncoder()));
+            }
+            Set<Map<String, String>> incrementalMatches = new HashSet<>();
+            for (APLExplanationResult r : incremental.getResults()) {
+                incrementalMatches.add(r.prettyPrintMatch(incremental.getEncoder()));
+            }
+            assertEquals(expectedMatches, incrementalMatches);
+            numCompared++;
+        }
+        assertEquals(6, numCompared);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DataFrame df = getTestDF();
+        APLIncrementalSummarizer summ = new APLIncrementalSummarizer(getSummarizer(), 2);
+        for (double startTime = 0.0; startTime < 60.0; startTime += 10.0) {
+            double ls = startTime;
+            summ.process(df.filter("time", (double t) -> t >= ls && t < ls + 10.0));
+        }
+        // Only the last two panes remain, where a1 is no longer anomalous
+        APLExplanation e = summ.getResults();
+        assertEquals(2000.0, e.numTotal(), 0.0);
+        Map<Map<String, String>, Map<String, Double>> results = resultMap(e);
+        assertFalse(results.isEmpty());
+        for (Map<String, String> match : results.keySet()) {
+            assertEquals("v12", match.get("b"));
+        }
+    }
+}
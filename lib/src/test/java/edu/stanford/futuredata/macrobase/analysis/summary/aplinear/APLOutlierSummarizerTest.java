@@ -8,6 +8,8 @@ import edu.stanford.futuredata.macrobase.ingest.DataFrameLoader;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.*;
@@ -48,6 +50,29 @@ public class APLOutlierSummarizerTest {
         assertEquals(1, results.size());
     }
 
+    @Test
+    public void testOutlierValues() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("col1", new String[]{"a1", "a2", "a1", "a2"});
+        df.addColumn("counts", new double[]{100, 100, 100, 100});
+        df.addColumn("outliers", new double[]{0, 0, 0, 0});
+
+        APLOutlierSummarizer summ = new APLOutlierSummarizer();
+        summ.setCountColumn("counts");
+        summ.setOutlierColumn("outliers");
+        summ.setMinSupport(.05);
+        summ.setMinRatioMetric(1.5);
+        summ.setAttributes(Collections.singletonList("col1"));
+        summ.setOutlierValues(new double[]{50, 1, 50, 1});
+        summ.process(df);
+        assertEquals(102.0, summ.getResults().numOutliers(), 1e-10);
+        assertEquals(1, summ.getResults().getResults().size());
+
+        // The values only apply to the input they were set for
+        summ.process(df);
+        assertEquals(0.0, summ.getResults().numOutliers(), 1e-10);
+    }
+
     @Test
     public void testOrder3() throws Exception {
         DataFrame df = new DataFrame();
@@ -79,4 +104,98 @@ public class APLOutlierSummarizerTest {
         assertTrue(e.prettyPrint().contains("col1=a1"));
         assertEquals(47.0, e.numOutliers(), 1e-10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOrder4() throws Exception {
+        DataFrame df = new DataFrame();
+        String[] col1 = {"a1", "a1", "a1", "a1", "a2", "a2"};
+        String[] col2 = {"b1", "b1", "b1", "b2", "b1", "b2"};
+        String[] col3 = {"c1", "c1", "c2", "c1", "c1", "c2"};
+        String[] col4 = {"d1", "d2", "d1", "d1", "d1", "d2"};
+        double[] counts = {100, 100, 100, 100, 100, 500};
+        double[] oCounts = {50, 0, 0, 0, 0, 0};
+        df.addColumn("col1", col1);
+        df.addColumn("col2", col2);
+        df.addColumn("col3", col3);
+        df.addColumn("col4", col4);
+        df.addColumn("counts", counts);
+        df.addColumn("oCounts", oCounts);
+
+        List<String> explanationAttributes = Arrays.asList(
+                "col1",
+                "col2",
+                "col3",
+                "col4"
+        );
+        APLOutlierSummarizer summ = new APLOutlierSummarizer();
+        summ.setCountColumn("counts");
+        summ.setOutlierColumn("oCounts");
+        summ.setMinSupport(.1);
+        summ.setMinRatioMetric(6.0);
+        summ.setAttributes(explanationAttributes);
+        summ.process(df);
+        assertEquals(0, summ.getResults().getResults().size());
+
+        summ.setMaxOrder(4);
+        summ.process(df);
+        APLExplanation e = summ.getResults();
+        assertEquals(1, e.getResults().size());
+        String output = e.prettyPrint();
+        assertTrue(output.contains("col1=a1"));
+        assertTrue(output.contains("col4=d1"));
+    }
+
+    @Test
+    public void testSharedExecutor() throws Exception {
+        Map<String, Schema.ColType> schema = new HashMap<>();
+        schema.put("usage", Schema.ColType.DOUBLE);
+        schema.put("location", Schema.ColType.STRING);
+        schema.put("version", Schema.ColType.STRING);
+        DataFrameLoader loader = new CSVDataFrameParser(
+                "src/test/resources/sample.csv",
+                Arrays.asList("usage", "location", "version")
+        ).setColumnTypes(schema);
+        DataFrame df = loader.load();
+
+        PercentileClassifier pc = new PercentileClassifier("usage")
+                .setPercentile(5.0);
+        pc.process(df);
+        DataFrame df_classified = pc.getResults();
+
+        List<String> explanationAttributes = Arrays.asList(
+                "location",
+                "version"
+        );
+        APLOutlierSummarizer serial = new APLOutlierSummarizer();
+        serial.setMinSupport(.01);
+        serial.setMinRatioMetric(2.0);
+        serial.setAttributes(explanationAttributes);
+        serial.setNumThreads(1);
+        serial.process(df_classified);
+        Set<String> expected = new HashSet<>();
+        for (APLExplanationResult r : serial.getResults().getResults()) {
+            expected.add(r.toString());
+        }
+        assertFalse(expected.isEmpty());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            APLOutlierSummarizer parallel = new APLOutlierSummarizer();
+            parallel.setExecutor(executor);
+            parallel.setMinSupport(.01);
+            parallel.setMinRatioMetric(2.0);
+            parallel.setAttributes(explanationAttributes);
+            parallel.setNumThreads(5);
+            for (int i = 0; i < 3; i++) {
+                parallel.process(df_classified);
+                Set<String> actual = new HashSet<>();
+                for (APLExplanationResult r : parallel.getResults().getResults()) {
+                    actual.add(r.toString());
+                }
+                assertEquals(expected, actual);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.GlobalRatioQualityMetric;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.QualityMetric;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.SupportQualityMetric;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class APrioriLinearTest {
+    private static final int numRows = 2000;
+    private static final int numColumns = 5;
+    private static final int valuesPerColumn = 3;
+
+    private int[][] attributes = new int[numRows][numColumns];
+    private double[][] aggregates = new double[2][numRows];
+
+    public APrioriLinearTest() {
+        Random r = new Random(0);
+        for (int i = 0; i < numRows; i++) {
+            boolean allZero = true;
+            for (int j = 0; j < numColumns; j++) {
+                int value = r.nextInt(valuesPerColumn);
+                allZero &= (j == numColumns - 1) || value == 0;
+                attributes[i][j] = j * valuesPerColumn + value + 1;
+            }
+            // Outliers concentrate in rows sharing their first four attributes.
+            aggregates[0][i] = (allZero || r.nextInt(20) == 0) ? 1.0 : 0.0;
+            aggregates[1][i] = 1.0;
+        }
+    }
+
+    private static APrioriLinear getAPL() {
+        List<QualityMetric> metrics = Arrays.asList(
+                new SupportQualityMetric(0),
+                new GlobalRatioQualityMetric(0, 1));
+        return new APrioriLinear(metrics, Arrays.asList(0.01, 3.0));
+    }
+
+    private static Set<String> toStrings(List<APLExplanationResult> results) {
+        Set<String> strings = new HashSet<>();
+        for (APLExplanationResult result : results) {
+            strings.add(result.toString());
+        }
+        return strings;
+    }
+
+    private Set<String> explain(int cardinality, int maxOrder, int numThreads) {
+        AggregationOp[] ops = {AggregationOp.SUM, AggregationOp.SUM};
+        return toStrings(getAPL().explain(attributes, aggregates, ops, cardinality, maxOrder, numThreads));
+    }
+
+    @Test
+    public void testPackedMatchesArrays() {
+        int cardinality = numColumns * valuesPerColumn + 1;
+        Set<String> packed = explain(cardinality, 4, 1);
+        assertFalse(packed.isEmpty());
+        // With a large cardinality order four no longer fits into a long.
+        assertEquals(packed, explain(40000, 4, 1));
+        assertEquals(packed, explain(cardinality, 4, 3));
+        assertEquals(packed, explain(40000, 4, 3));
+    }
+
+    @Test
+    public void testColumnsMatchRows() {
+        int[][] attributeColumns = new int[numColumns][numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numColumns; j++) {
+                attributeColumns[j][i] = attributes[i][j];
+            }
+        }
+        int cardinality = numColumns * valuesPerColumn + 1;
+        AggregationOp[] ops = {AggregationOp.SUM, AggregationOp.SUM};
+        Set<String> byColumn = toStrings(
+                getAPL().explainColumns(attributeColumns, aggregates, ops, cardinality, 3, 3));
+        assertFalse(byColumn.isEmpty());
+        assertEquals(explain(cardinality, 3, 1), byColumn);
+    }
+}
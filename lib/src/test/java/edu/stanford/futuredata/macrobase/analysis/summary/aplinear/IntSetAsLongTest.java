@@ -4,7 +4,9 @@ import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSet;
 import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetAsLong;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class IntSetAsLongTest {
@@ -24,4 +26,16 @@ public class IntSetAsLongTest {
         assertEquals(p1.getSecond(), 2342);
         assertEquals(p1.getThird(), 0);
     }
+
+    @Test
+    public void testPacked() {
+        assertEquals(21, IntSetAsLong.bitsForCardinality(2097151));
+        assertTrue(IntSetAsLong.canPack(4000, 5));
+        assertFalse(IntSetAsLong.canPack(5000, 5));
+        int[] values = {4095, 1, 17, 300, 2048};
+        long packed = IntSetAsLong.packInts(values, 5, 12);
+        assertArrayEquals(values, IntSetAsLong.unpackInts(packed, 5, 12));
+        int[] triple = {3, 1, 20};
+        assertEquals(IntSetAsLong.threeIntToLong(3, 1, 20), IntSetAsLong.packInts(triple, 3, 21));
+    }
 }
@@ -0,0 +1,51 @@
+package edu.stanford.futuredata.macrobase.analysis.summary.aplinear;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateMap;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongHashSet;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongAggregateMapTest {
+    @Test
+    public void testCombine() {
+        AggregationOp[] ops = {AggregationOp.SUM, AggregationOp.MAX};
+        LongAggregateMap map = new LongAggregateMap(1, 2);
+        double[] values = {1.0, 5.0, 2.0, 3.0};
+        for (long key = 1; key <= 1000; key++) {
+            map.combine(key, values, 0, ops);
+            map.combine(key, values, 2, ops);
+        }
+        assertEquals(1000, map.size());
+        double[] result = new double[2];
+        for (long key = 1; key <= 1000; key++) {
+            assertTrue(map.get(key, result));
+            assertEquals(3.0, result[0], 1e-10);
+            assertEquals(5.0, result[1], 1e-10);
+        }
+        assertFalse(map.get(1001, result));
+        int numKeys = 0;
+        for (int slot = 0; slot < map.getCapacity(); slot++) {
+            if (map.getKeyAt(slot) != 0) {
+                numKeys++;
+            }
+        }
+        assertEquals(1000, numKeys);
+    }
+
+    @Test
+    public void testSet() {
+        LongHashSet set = new LongHashSet(1);
+        for (long key = 1; key <= 1000; key++) {
+            assertTrue(set.add(key << 40));
+        }
+        assertFalse(set.add(5L << 40));
+        assertEquals(1000, set.size());
+        assertTrue(set.contains(999L << 40));
+        assertFalse(set.contains(999L));
+        assertEquals(1000, set.toArray().length);
+    }
+}
@@ -167,5 +167,34 @@ public class FPGrowthTest {
         assertEquals(0, fpt.getSupport(intIfy("a, b, c, d")));
 
     }
-}
 
+    @Test
+    public void testParallelMatchesApriori() {
+        Random random = new Random(0);
+        List<Set<Integer>> txns = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Set<Integer> txn = new HashSet<>();
+            for (int item = 0; item < 12; item++) {
+                // skewed item frequencies give the tree many branches
+                if (random.nextDouble() < 1.0 / (item + 2)) {
+                    txn.add(item);
+                }
+            }
+            if (!txn.isEmpty()) {
+                txns.add(txn);
+            }
+        }
+
+        Set<ItemsetWithCount> apItemsets = new Apriori().getItemsets(txns, .01);
+        List<ItemsetWithCount> sequential = new FPGrowth().getItemsetsWithSupportRatio(txns, .01);
+        List<ItemsetWithCount> parallel = new FPGrowth().setNumThreads(4)
+                .getItemsetsWithSupportRatio(txns, .01);
+
+        assertEquals(apItemsets.size(), sequential.size());
+        assert(compareResults(apItemsets, sequential));
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i), parallel.get(i));
+        }
+    }
+}
@@ -69,4 +69,26 @@ public class MetricBucketTransformerTest {
         Collections.addAll(distinct, newCol);
         assertEquals(4, distinct.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSketch() throws Exception {
+        DataFrame df = new DataFrame();
+        int n = 1000;
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+        }
+        df.addColumn("values", values);
+
+        MetricBucketTransformer t = new MetricBucketTransformer("values");
+        t.setSimpleBucketValues(true);
+        t.setSketchError(0.01);
+        t.process(df);
+        t.process(df);
+        assertEquals(2 * n, t.getSketch("values").getCount());
+        String[] newCol = t.getResults().getStringColumnByName(t.getTransformedColumnNames().get(0));
+        assertEquals("values:0", newCol[50]);
+        assertEquals("values:1", newCol[500]);
+        assertEquals("values:2", newCol[950]);
+    }
+}
@@ -3,9 +3,21 @@ package edu.stanford.futuredata.macrobase.datamodel;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class DataFrameTest {
     private DataFrame tinyDF;
@@ -77,4 +89,173 @@ public class DataFrameTest {
         assertEquals(df2.getRow(0), df2.getRow(n));
         assertEquals(2.0 * n, df2.getDoubleColumn(2)[0], 1e-10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEncodedColumn() {
+        DataFrame encoded = new DataFrame();
+        encoded.addColumn("metric", new double[]{1.0, 2.0, 3.0});
+        encoded.addColumn("attribute",
+                ColumnDictionary.fromCodes(new String[]{"a", "b"}, new int[]{0, 0, 1}));
+        assertTrue(encoded.isStringColumnEncoded(1));
+        assertFalse(tinyDF.isStringColumnEncoded(1));
+        assertEquals(tinyDF, encoded);
+        assertEquals(tinyDF.getRow(2), encoded.getRow(2));
+
+        DataFrame filtered = encoded.filter("attribute", (Object x) -> x.equals("a"));
+        assertTrue(filtered.isStringColumnEncoded(1));
+        assertEquals(2, filtered.getNumRows());
+        assertArrayEquals(new double[]{1.0, 2.0}, filtered.getDoubleColumn(0), 0.0);
+        assertEquals(1, encoded.limit(1).getEncodedStringColumn(1).getNumRows());
+
+        DataFrame other = new DataFrame();
+        other.addColumn("metric", new double[]{4.0, 5.0});
+        other.addColumn("attribute",
+                ColumnDictionary.fromCodes(new String[]{"c", "a"}, new int[]{0, 1}));
+        DataFrame combined = DataFrame.unionAll(Arrays.asList(encoded, other));
+        assertTrue(combined.isStringColumnEncoded(1));
+        assertEquals(3, combined.getEncodedStringColumn(1).size());
+        assertArrayEquals(new String[]{"a", "a", "b", "c", "a"},
+                combined.getStringColumnByName("attribute"));
+        assertArrayEquals(new String[]{"a", "a", "b", "c", "a"},
+                DataFrame.unionAll(Arrays.asList(encoded, other.copy())).getStringColumn(1));
+    }
+
+    @Test
+    public void testOrderBy() {
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", new double[]{1.0, 2.0, 3.0, 4.0, 5.0});
+        df.addColumn("attribute", new String[]{"b", null, "a", "b", "a"});
+        df.addColumn("encoded",
+                ColumnDictionary.fromCodes(new String[]{"x", "y"}, new int[]{0, 1, 0, 1, 0}));
+
+        DataFrame sorted = df.orderBy("attribute", true);
+        assertArrayEquals(new double[]{3.0, 5.0, 1.0, 4.0, 2.0}, sorted.getDoubleColumn(0), 0.0);
+        assertArrayEquals(new String[]{"x", "x", "x", "y", "y"}, sorted.getStringColumn(2));
+        assertArrayEquals(new double[]{2.0, 1.0, 4.0, 3.0, 5.0},
+                df.orderBy("attribute", false).getDoubleColumn(0), 0.0);
+
+        DataFrame multi = df.orderBy(Arrays.asList("encoded", "metric"), Arrays.asList(false, false));
+        assertArrayEquals(new double[]{4.0, 2.0, 5.0, 3.0, 1.0}, multi.getDoubleColumn(0), 0.0);
+        assertTrue(multi.isStringColumnEncoded(2));
+
+        DataFrame top = df.orderBy(Arrays.asList("attribute", "metric"), Arrays.asList(true, false), 3);
+        assertEquals(3, top.getNumRows());
+        assertArrayEquals(new double[]{5.0, 3.0, 4.0}, top.getDoubleColumn(0), 0.0);
+        assertEquals(df, df.orderBy("missing", true));
+    }
+
+    @Test
+    public void testViews() {
+        DataFrame df = new DataFrame();
+        double[] metric = {1.0, 2.0, 3.0, 4.0, 5.0, 6.0};
+        df.addColumn("metric", metric);
+        df.addColumn("attribute", new String[]{"a", "b", "c", "d", "e", "f"});
+        df.addColumn("encoded",
+                ColumnDictionary.fromCodes(new String[]{"x", "y"}, new int[]{0, 1, 0, 1, 0, 1}));
+
+        BitSet mask = new BitSet();
+        mask.set(1, 6);
+        DataFrame view = df.filter(mask).filter("metric", (double x) -> x != 3.0).limit(3);
+        assertEquals(3, view.getNumRows());
+        assertEquals("e", view.getRow(2).getAs("attribute"));
+        DataFrame projected = view.project(Arrays.asList("encoded", "metric"));
+        assertArrayEquals(new double[]{2.0, 4.0, 5.0}, projected.getDoubleColumnByName("metric"), 0.0);
+        assertArrayEquals(new int[]{1, 1, 0}, projected.getEncodedStringColumn(0).getCodes());
+        assertArrayEquals(new String[]{"y", "y", "x"}, projected.getStringColumn(0));
+        assertArrayEquals(new String[]{"b", "d", "e"}, view.getStringColumnByName("attribute"));
+
+        view.addColumn("extra", new double[]{7.0, 8.0, 9.0});
+        assertEquals(9.0, view.getRow(2).getAs("extra"), 0.0);
+        assertEquals(3, df.getSchema().getNumColumns());
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0}, metric, 0.0);
+        assertEquals(0, df.filter(new BitSet()).getNumRows());
+    }
+
+    @Test
+    public void testConcurrentEncoding() throws Exception {
+        final int numCols = 8;
+        final int n = 10000;
+        DataFrame df = new DataFrame();
+        String[][] cols = new String[numCols][n];
+        for (int c = 0; c < numCols; c++) {
+            for (int i = 0; i < n; i++) {
+                cols[c][i] = c + ":" + (i * (c + 1)) % 97;
+            }
+            df.addColumn("s" + c, cols[c]);
+        }
+        DataFrame view = df.limit(n / 2);
+
+        // Each column is encoded by two threads at once, and the view's columns alongside
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<ColumnDictionary>> tasks = new ArrayList<>();
+            for (int c = 0; c < 2 * numCols; c++) {
+                final int colIdx = c % numCols;
+                tasks.add(() -> df.getEncodedStringColumn(colIdx));
+                tasks.add(() -> view.getEncodedStringColumn(colIdx));
+            }
+            List<Future<ColumnDictionary>> results = pool.invokeAll(tasks);
+            for (int c = 0; c < 2 * numCols; c++) {
+                final int colIdx = c % numCols;
+                ColumnDictionary encoded = results.get(2 * c).get();
+                assertSame(df.getEncodedStringColumn(colIdx), encoded);
+                assertArrayEquals(cols[colIdx], encoded.decode());
+                assertArrayEquals(Arrays.copyOf(cols[colIdx], n / 2),
+                        results.get(2 * c + 1).get().decode());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (int c = 0; c < numCols; c++) {
+            assertTrue(df.isStringColumnEncoded(c));
+            assertSame(cols[c], df.getStringColumn(c));
+        }
+    }
+
+    @Test
+    public void testConcurrentViewReads() throws Exception {
+        final int n = 10000;
+        double[] metric = new double[n];
+        String[] attribute = new String[n];
+        for (int i = 0; i < n; i++) {
+            metric[i] = i;
+            attribute[i] = String.valueOf(i % 13);
+        }
+        DataFrame df = new DataFrame();
+        df.addColumn("metric", metric);
+        df.addColumn("buffered", DoubleBuffer.wrap(metric));
+        df.addColumn("attribute", attribute);
+        df.addColumn("encoded", ColumnDictionary.encode(attribute));
+        DataFrame view = df.filter("metric", (double x) -> x % 2 == 1);
+
+        // Rows are read while other threads copy the view's columns out
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                tasks.add(() -> {
+                    for (int i = offset; i < n / 2; i += 8) {
+                        Row row = view.getRow(i);
+                        double x = 2 * i + 1;
+                        if (row.<Double>getAs("metric") != x || row.<Double>getAs("buffered") != x
+                                || !row.getAs("attribute").equals(attribute[2 * i + 1])
+                                || !row.getAs("encoded").equals(attribute[2 * i + 1])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                });
+                tasks.add(() -> view.getDoubleColumn(offset % 2)[n / 2 - 1] == n - 1
+                        && view.getStringColumn(2 + offset % 2)[0].equals(attribute[1]));
+            }
+            for (Future<Boolean> result : pool.invokeAll(tasks)) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(view.isDoubleColumnBuffered(1));
+        assertTrue(df.isDoubleColumnBuffered(1));
+    }
+}
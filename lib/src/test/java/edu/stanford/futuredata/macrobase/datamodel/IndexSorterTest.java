@@ -0,0 +1,41 @@
+package edu.stanford.futuredata.macrobase.datamodel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class IndexSorterTest {
+    @Test
+    public void testArgsort() {
+        Random random = new Random(0);
+        int[] keys = new int[10007];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(100);
+        }
+        // Boxed stable sort as the reference
+        int[] expected = Arrays.stream(boxedRange(keys.length))
+                .sorted(Comparator.comparingInt(i -> keys[i]))
+                .mapToInt(Integer::intValue).toArray();
+        for (int numTasks : new int[]{1, 2, 3, 8}) {
+            assertArrayEquals(expected,
+                    IndexSorter.argsort(keys.length, (i, j) -> Integer.compare(keys[i], keys[j]), numTasks));
+        }
+        assertArrayEquals(Arrays.copyOf(expected, 10),
+                IndexSorter.topK(keys.length, 10, (i, j) -> Integer.compare(keys[i], keys[j])));
+        assertArrayEquals(expected,
+                IndexSorter.topK(keys.length, keys.length + 1, (i, j) -> Integer.compare(keys[i], keys[j])));
+        assertArrayEquals(new int[0], IndexSorter.topK(keys.length, 0, (i, j) -> 0));
+    }
+
+    private static Integer[] boxedRange(int n) {
+        Integer[] range = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            range[i] = i;
+        }
+        return range;
+    }
+}
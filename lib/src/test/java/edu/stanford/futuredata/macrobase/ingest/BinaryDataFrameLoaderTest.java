@@ -0,0 +1,88 @@
+package edu.stanford.futuredata.macrobase.ingest;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BinaryDataFrameLoaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, Schema.ColType> types = new HashMap<>();
+        types.put("usage", Schema.ColType.DOUBLE);
+        types.put("latency", Schema.ColType.DOUBLE);
+        DataFrame df = new CSVDataFrameParser("src/test/resources/sample.csv",
+                Arrays.asList("usage", "latency", "location", "version"))
+                .setColumnTypes(types)
+                .load();
+        // Enough distinct values for two-byte codes, and a null
+        int n = df.getNumRows();
+        String[] ids = new String[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i == 0 ? null : "id" + (i % 1000) + "\u00e9";
+        }
+        df.addColumn("id", ids);
+
+        File file = folder.newFile("sample.mbdf");
+        new BinaryDataFrameWriter().writeToFile(df, file.getPath());
+        DataFrame loaded = new BinaryDataFrameLoader(file.getPath()).load();
+        assertEquals(df.getSchema(), loaded.getSchema());
+        assertEquals(df, loaded);
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("a", new String[]{"x", "y", "x"});
+        df.addColumn("b", new double[]{1.0, 2.0, 3.0});
+        File file = folder.newFile("small.mbdf");
+        new BinaryDataFrameWriter().writeToFile(df, file.getPath());
+
+        Map<String, Schema.ColType> types = new HashMap<>();
+        types.put("b", Schema.ColType.DOUBLE);
+        DataFrame loaded = new BinaryDataFrameLoader(file.getPath()).setColumnTypes(types).load();
+        assertEquals(1, loaded.getSchema().getNumColumns());
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0}, loaded.getDoubleColumnByName("b"), 0.0);
+    }
+
+    @Test
+    public void testCodeWidth() {
+        assertEquals(1, BinaryDataFrameWriter.codeWidth(256));
+        assertEquals(2, BinaryDataFrameWriter.codeWidth(257));
+        assertEquals(4, BinaryDataFrameWriter.codeWidth((1 << 16) + 1));
+    }
+
+    @Test
+    public void testMappedAndSpill() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("a", new String[]{"x", "y", "x"});
+        df.addColumn("b", new double[]{1.0, 2.0, 3.0});
+        File file = folder.newFile("mapped.mbdf");
+        new BinaryDataFrameWriter().writeToFile(df, file.getPath());
+
+        DataFrame mapped = new BinaryDataFrameLoader(file.getPath()).setMapped(true).load();
+        assertTrue(mapped.isDoubleColumnBuffered(1));
+        assertEquals(3.0, mapped.getDoubleColumnBuffer(1).get(2), 0.0);
+        assertEquals(2.0, mapped.getRow(1).<Double>getAs("b"), 0.0);
+        assertTrue(mapped.isDoubleColumnBuffered(1));
+        assertArrayEquals(new double[]{2.0}, mapped.filter("a", (Object x) -> x.equals("y"))
+                .getDoubleColumnByName("b"), 0.0);
+        assertEquals(df, mapped);
+        assertFalse(mapped.isDoubleColumnBuffered(1));
+
+        DataFrame spilled = BinaryDataFrameLoader.spill(df);
+        assertTrue(spilled.isDoubleColumnBuffered(1));
+        assertEquals(df, spilled);
+    }
+}
@@ -1,8 +1,16 @@
 package edu.stanford.futuredata.macrobase.ingest;
 
+import com.google.common.io.CharStreams;
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -22,4 +30,27 @@ public class CSVDataFrameWriterTest {
         assertEquals(3, out.split("\n").length);
         assertTrue(out.contains("b"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void writeGzip() throws Exception {
+        DataFrame df = new DataFrame();
+        df.addColumn("col1", ColumnDictionary.fromCodes(new String[]{"a,b", null}, new int[]{0, 1}));
+        df.addColumn("col2", new double[]{-0.5, 3.0});
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new CSVDataFrameWriter(",", "\n").setGzip(true).writeToStream(df, bytes);
+        String out = CharStreams.toString(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                StandardCharsets.UTF_8));
+        assertEquals("col1,col2\n\"a,b\",-0.5\n,3.0\n", out);
+    }
+
+    @Test
+    public void formatDouble() {
+        double[] values = {0.0, -0.0, 1.0, -42.0, 9999999.0, 1e7, 0.1, 123.456, 1e-5,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, Long.MAX_VALUE};
+        for (double value : values) {
+            assertEquals(Double.toString(value), CSVDataFrameWriter.formatDouble(value));
+        }
+    }
+}
@@ -3,15 +3,25 @@ package edu.stanford.futuredata.macrobase.ingest;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.datamodel.Row;
 import edu.stanford.futuredata.macrobase.datamodel.Schema;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class DataFrameCSVLoaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testLoadSimple() throws Exception {
         Map<String, Schema.ColType> colTypes = new HashMap<>();
@@ -30,4 +40,48 @@ public class DataFrameCSVLoaderTest {
         Row row = df.getRow(1);
         assertEquals("CAN", row.getAs("location"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLoadParallel() throws Exception {
+        // Large enough to be split into several pieces
+        File file = folder.newFile("large.csv");
+        Random r = new Random(0);
+        int n = 100000;
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("id,usage,location,unused");
+            for (int i = 0; i < n; i++) {
+                String usage = i % 1000 == 0 ? "bad" : Double.toString(r.nextDouble());
+                String location = i % 777 == 0 ? "" : "loc" + r.nextInt(50);
+                out.println(i + "," + usage + "," + location + ",\"unused, quoted\"");
+            }
+        }
+        Map<String, Schema.ColType> colTypes = new HashMap<>();
+        colTypes.put("id", Schema.ColType.DOUBLE);
+        colTypes.put("usage", Schema.ColType.DOUBLE);
+        colTypes.put("location", Schema.ColType.STRING);
+
+        DataFrame sequential = new CSVDataFrameParser(file.getPath(), colTypes).load();
+        DataFrame parallel = new CSVDataFrameParser(file.getPath(), colTypes)
+                .setNumThreads(4)
+                .load();
+        assertEquals(n, parallel.getNumRows());
+        assertEquals(sequential.getSchema(), parallel.getSchema());
+        // DataFrame.equals does not treat NaNs as equal
+        for (String column : Arrays.asList("id", "usage")) {
+            assertArrayEquals(sequential.getDoubleColumnByName(column),
+                    parallel.getDoubleColumnByName(column), 0.0);
+        }
+        assertArrayEquals(sequential.getStringColumnByName("location"),
+                parallel.getStringColumnByName("location"));
+        double[] ids = parallel.getDoubleColumnByName("id");
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, ids[i], 0.0);
+        }
+        assertEquals(Double.NaN, parallel.getDoubleColumnByName("usage")[0], 0.0);
+        String[] locations = parallel.getStringColumnByName("location");
+        assertEquals("NULL", locations[0]);
+        // Repeated values share one String
+        assertSame(locations[1], Arrays.stream(locations).filter(locations[1]::equals)
+                .skip(1).findFirst().get());
+    }
+}
@@ -0,0 +1,102 @@
+package edu.stanford.futuredata.macrobase.integration;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APrioriLinear;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.GlobalRatioQualityMetric;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.SupportQualityMetric;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measure the peak heap usage of APrioriLinear on row-major attributes (explain) and on
+ * column-major attributes (explainColumns).  Run each layout in its own JVM, with a small young
+ * generation so that the peak reflects live data rather than uncollected garbage:
+ *
+ *   java -Xmx4g -Xmn32m -XX:+UseSerialGC -cp ... APrioriLinearMemoryBenchmark rows 10000000
+ *   java -Xmx4g -Xmn32m -XX:+UseSerialGC -cp ... APrioriLinearMemoryBenchmark columns 10000000
+ *
+ * Inputs have three attribute columns of 100 values each and two aggregates.  Peak heap at
+ * 10^7 rows, in MB, including the input:
+ *
+ *   layout                                  input  peak
+ *   rows, copying into per-thread columns
+ *         and a row store of aggregates       497  1128
+ *   rows, transposed into columns once        497   784
+ *   columns                                   269   440
+ *
+ * Apart from the candidate tables, which are bounded by the cardinality, all of this grows
+ * linearly with the number of rows: at 10^8 rows the peak drops from about 11 GB to about 4.4 GB.
+ */
+public class APrioriLinearMemoryBenchmark {
+    private static final int numColumns = 3;
+    private static final int valuesPerColumn = 100;
+
+    private static long usedHeap() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    public static void main(String[] args) {
+        boolean byColumn = args.length > 0 && args[0].equals("columns");
+        int numRows = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+        Random r = new Random(0);
+        int[][] attributes = byColumn ? new int[numColumns][numRows] : new int[numRows][numColumns];
+        double[][] aggregates = new double[2][numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numColumns; j++) {
+                int value = j * valuesPerColumn + r.nextInt(valuesPerColumn) + 1;
+                if (byColumn) {
+                    attributes[j][i] = value;
+                } else {
+                    attributes[i][j] = value;
+                }
+            }
+            // Outliers concentrate in the first value of the first column
+            boolean anomalous = attributes[byColumn ? 0 : i][byColumn ? i : 0] == 1;
+            aggregates[0][i] = r.nextInt(anomalous ? 2 : 20) == 0 ? 1.0 : 0.0;
+            aggregates[1][i] = 1.0;
+        }
+
+        System.gc();
+        long inputHeap = usedHeap();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        APrioriLinear apl = new APrioriLinear(
+                Arrays.asList(new SupportQualityMetric(0), new GlobalRatioQualityMetric(0, 1)),
+                Arrays.asList(0.001, 1.5));
+        AggregationOp[] ops = {AggregationOp.SUM, AggregationOp.SUM};
+        int cardinality = numColumns * valuesPerColumn + 1;
+        long startTime = System.currentTimeMillis();
+        int numResults;
+        if (byColumn) {
+            numResults = apl.explainColumns(attributes, aggregates, ops, cardinality, 3, 1).size();
+        } else {
+            numResults = apl.explain(attributes, aggregates, ops, cardinality, 3, 1).size();
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        System.out.printf("%s: %d rows, %d results in %d ms, input %d MB, peak %d MB%n",
+                byColumn ? "columns" : "rows", numRows, numResults, elapsed,
+                inputHeap >> 20, peakHeap() >> 20);
+    }
+}
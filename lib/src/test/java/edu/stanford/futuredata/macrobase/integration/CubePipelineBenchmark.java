@@ -0,0 +1,128 @@
+package edu.stanford.futuredata.macrobase.integration;
+
+import edu.stanford.futuredata.macrobase.analysis.classify.ArithmeticClassifier;
+import edu.stanford.futuredata.macrobase.analysis.classify.CubeClassifier;
+import edu.stanford.futuredata.macrobase.analysis.classify.PredicateCubeClassifier;
+import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLExplanation;
+import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLOutlierSummarizer;
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the two ways CubePipeline can get classifier results into APLOutlierSummarizer.  The
+ * two-stage path adds the outlier counts to a copy of the cube and the summarizer reads them
+ * back by name; the fused path hands the array over with setOutlierValues.  Cubes have three
+ * attribute columns of 100 values each, with outliers concentrated in the first value of the
+ * first column.
+ *
+ * Build the JMH harness with mvn -Pbenchmark clean test-compile, then run main() from the
+ * test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class CubePipelineBenchmark {
+    private static final int numColumns = 3;
+    private static final int valuesPerColumn = 100;
+
+    @Param({"1000000", "10000000"})
+    public int numRows;
+
+    @Param({"arithmetic", "predicate"})
+    public String classifierType;
+
+    private DataFrame cube;
+    private List<String> attributes;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(0);
+        attributes = new ArrayList<>(numColumns);
+        String[][] values = new String[numColumns][valuesPerColumn];
+        for (int j = 0; j < numColumns; j++) {
+            attributes.add("a" + j);
+            for (int v = 0; v < valuesPerColumn; v++) {
+                values[j][v] = "a" + j + "v" + v;
+            }
+        }
+        String[][] attributeColumns = new String[numColumns][numRows];
+        double[] counts = new double[numRows];
+        double[] means = new double[numRows];
+        double[] stds = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numColumns; j++) {
+                attributeColumns[j][i] = values[j][r.nextInt(valuesPerColumn)];
+            }
+            boolean anomalous = attributeColumns[0][i] == values[0][0];
+            counts[i] = 1 + r.nextInt(10);
+            means[i] = (anomalous ? 40.0 : 10.0) + 5.0 * r.nextGaussian();
+            stds[i] = 1.0 + r.nextDouble();
+        }
+        cube = new DataFrame();
+        for (int j = 0; j < numColumns; j++) {
+            cube.addColumn(attributes.get(j), attributeColumns[j]);
+        }
+        cube.addColumn("count", counts);
+        cube.addColumn("mean", means);
+        cube.addColumn("std", stds);
+        // The cube keeps the encodings of its attributes, which copies of it then share, so
+        // encode them up front rather than in whichever path runs first
+        for (String attribute : attributes) {
+            cube.getEncodedStringColumnByName(attribute);
+        }
+    }
+
+    private CubeClassifier getClassifier() throws MacroBaseException {
+        if (classifierType.equals("arithmetic")) {
+            return new ArithmeticClassifier("count", "mean", "std").setPercentile(1.0);
+        }
+        return new PredicateCubeClassifier("count", "mean", ">", 30.0);
+    }
+
+    private APLOutlierSummarizer getSummarizer(CubeClassifier classifier) {
+        APLOutlierSummarizer summarizer = new APLOutlierSummarizer();
+        summarizer.setOutlierColumn(classifier.getOutputColumnName());
+        summarizer.setCountColumn(classifier.getCountColumnName());
+        summarizer.setAttributes(attributes);
+        summarizer.setMinSupport(0.01);
+        summarizer.setMinRatioMetric(1.5);
+        return summarizer;
+    }
+
+    @Benchmark
+    public APLExplanation twoStage() throws Exception {
+        CubeClassifier classifier = getClassifier();
+        APLOutlierSummarizer summarizer = getSummarizer(classifier);
+        classifier.process(cube);
+        summarizer.process(classifier.getResults());
+        return summarizer.getResults();
+    }
+
+    @Benchmark
+    public APLExplanation fused() throws Exception {
+        CubeClassifier classifier = getClassifier();
+        APLOutlierSummarizer summarizer = getSummarizer(classifier);
+        summarizer.setOutlierValues(classifier.getOutlierCounts(cube));
+        summarizer.process(cube);
+        return summarizer.getResults();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(CubePipelineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
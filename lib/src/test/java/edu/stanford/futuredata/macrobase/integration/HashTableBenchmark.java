@@ -0,0 +1,90 @@
+package edu.stanford.futuredata.macrobase.integration;
+
+import edu.stanford.futuredata.macrobase.analysis.summary.util.FastFixedHashTable;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.IntSetAsLong;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.LongAggregateMap;
+import edu.stanford.futuredata.macrobase.analysis.summary.util.qualitymetrics.AggregationOp;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare counting candidates in the per-slot FastFixedHashTable with the flat, incrementally
+ * growing LongAggregateMap used by APrioriLinear for packed candidates.  Each run inserts
+ * numKeys distinct order-2 candidates and combines each one three more times.
+ *
+ * Build the JMH harness with mvn -Pbenchmark clean test-compile, then run main() from the
+ * test classpath.  At 10^7 keys FastFixedHashTable needs well over 4 GB of heap, so expect
+ * that configuration to fail on small machines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class HashTableBenchmark {
+    // Attribute cardinality FastFixedHashTable is sized with, as in APrioriLinear
+    private static final int cardinality = 10000;
+    private static final AggregationOp[] ops = {AggregationOp.SUM, AggregationOp.SUM};
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int numKeys;
+
+    private long[] keys;
+    private double[] row = {1.0, 1.0};
+
+    @Setup
+    public void setup() {
+        Random r = new Random(0);
+        keys = new long[numKeys * 4];
+        for (int i = 0; i < keys.length; i++) {
+            int k = i % numKeys;
+            keys[i] = IntSetAsLong.twoIntToLong(k / cardinality + 1, k % cardinality + cardinality);
+        }
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            long tmp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = tmp;
+        }
+    }
+
+    @Benchmark
+    public FastFixedHashTable fastFixedHashTable() {
+        FastFixedHashTable table = new FastFixedHashTable(cardinality, ops.length, false);
+        IntSetAsLong candidate = new IntSetAsLong(0);
+        for (long key : keys) {
+            candidate.value = key;
+            double[] candidateVal = table.get(candidate);
+            if (candidateVal == null) {
+                table.put(candidate, row);
+            } else {
+                for (int a = 0; a < ops.length; a++) {
+                    candidateVal[a] = ops[a].combine(candidateVal[a], row[a]);
+                }
+            }
+        }
+        return table;
+    }
+
+    @Benchmark
+    public LongAggregateMap longAggregateMap() {
+        LongAggregateMap table = new LongAggregateMap(1024, ops.length);
+        for (long key : keys) {
+            table.combine(key, row, 0, ops);
+        }
+        return table;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(HashTableBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
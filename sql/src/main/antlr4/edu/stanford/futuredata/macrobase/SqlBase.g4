@@ -30,8 +30,12 @@ singleExpression
 
 statement
     : query                                                            #statementDefault
-    | IMPORT FROM CSV FILE STRING INTO qualifiedName
-        ('(' columnDefinition (',' columnDefinition)* ')')?            #importCsv
+    | IMPORT FROM CSV FILE csvFile=STRING INTO qualifiedName
+        ('(' columnDefinition (',' columnDefinition)* ')')?
+        (SAVE TO binaryFile=STRING)?                                   #importCsv
+    | LOAD TABLE qualifiedName FROM FILE STRING                        #loadTable
+    | SET SESSION? identifier EQ expression                            #setSession
+    | SHOW STATS                                                       #showStats
     ;
 
 query
@@ -335,13 +339,13 @@ nonReserved
     | GRANT | GRANTS | GRAPHVIZ
     | HOUR
     | IF | INCLUDING | INPUT | INTEGER | INTERVAL | ISOLATION
-    | LAST | LATERAL | LEVEL | LIMIT | LOGICAL
+    | LAST | LATERAL | LEVEL | LIMIT | LOAD | LOGICAL
     | MAP | MINUTE | MONTH
     | NFC | NFD | NFKC | NFKD | NO | NULLIF | NULLS
     | ONLY | OPTION | ORDINALITY | OUTPUT | OVER
     | PARTITION | PARTITIONS | POSITION | PRECEDING | PRIVILEGES | PROPERTIES | PUBLIC
     | RANGE | READ | RENAME | REPEATABLE | REPLACE | RESET | RESTRICT | REVOKE | ROLLBACK | ROW | ROWS
-    | SCHEMA | SCHEMAS | SECOND | SESSION | SET | SETS
+    | SAVE | SCHEMA | SCHEMAS | SECOND | SESSION | SET | SETS
     | SHOW | SMALLINT | SOME | START | STATS | SUBSTRING | SYSTEM
     | TABLES | TABLESAMPLE | TEXT | TIME | TIMESTAMP | TINYINT | TO | TRY_CAST | TYPE
     | UNBOUNDED | UNCOMMITTED | USE
@@ -445,6 +449,7 @@ LEVEL: 'LEVEL';
 LIKE: 'LIKE';
 LIMIT: 'LIMIT';
 LINES: 'LINES';
+LOAD: 'LOAD';
 LOGICAL: 'LOGICAL';
 MAP: 'MAP';
 MAX: 'MAX';
@@ -496,6 +501,7 @@ ROLLBACK: 'ROLLBACK';
 ROLLUP: 'ROLLUP';
 ROW: 'ROW';
 ROWS: 'ROWS';
+SAVE: 'SAVE';
 SCHEMA: 'SCHEMA';
 SCHEMAS: 'SCHEMAS';
 SECOND: 'SECOND';
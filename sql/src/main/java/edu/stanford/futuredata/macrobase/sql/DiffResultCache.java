@@ -0,0 +1,78 @@
+package edu.stanford.futuredata.macrobase.sql;
+
+import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the explanations computed for DIFF queries, evicting the least recently used
+ * entry once it is full. Keys identify everything that determines an explanation: the DIFF
+ * itself (its subqueries, attributes and thresholds) and the versions of the tables it reads.
+ * The clauses evaluated after summarization (SELECT, WHERE, ORDER BY, LIMIT) are not part of
+ * the key, so queries that only differ in those share an entry.
+ */
+class DiffResultCache {
+
+    private final LinkedHashMap<String, DataFrame> entries;
+    private int capacity;
+    private long hits;
+    private long misses;
+
+    DiffResultCache(final int capacity) {
+        this.capacity = capacity;
+        // access order, so that iteration starts at the least recently used entry
+        this.entries = new LinkedHashMap<String, DataFrame>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DataFrame> eldest) {
+                return size() > DiffResultCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cached explanation for the key, or null if there is none. Counts a hit or a
+     * miss.
+     */
+    DataFrame get(final String key) {
+        final DataFrame result = entries.get(key);
+        if (result == null) {
+            ++misses;
+        } else {
+            ++hits;
+        }
+        return result;
+    }
+
+    void put(final String key, final DataFrame explanation) {
+        if (capacity > 0) {
+            entries.put(key, explanation);
+        }
+    }
+
+    /**
+     * Change the maximum number of entries, evicting the least recently used ones if there are
+     * too many. A capacity of 0 disables the cache.
+     */
+    void setCapacity(final int capacity) {
+        this.capacity = capacity;
+        while (entries.size() > capacity) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+}
@@ -6,19 +6,24 @@ import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
+import edu.stanford.futuredata.macrobase.ingest.BinaryDataFrameWriter;
 import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameWriter;
+import edu.stanford.futuredata.macrobase.ingest.DataFrameWriter;
 import edu.stanford.futuredata.macrobase.sql.parser.ParsingException;
 import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
 import edu.stanford.futuredata.macrobase.sql.parser.StatementSplitter;
+import edu.stanford.futuredata.macrobase.sql.tree.ExportClause;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
+import edu.stanford.futuredata.macrobase.sql.tree.LoadTable;
 import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
+import edu.stanford.futuredata.macrobase.sql.tree.ShowStats;
 import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.nio.file.Paths;
 import jline.console.ConsoleReader;
@@ -47,9 +52,12 @@ public class MacroBaseSQLRepl {
      * Main entry point to the SQL CLI interface in MacroBase
      *
      * @param userWantsPaging try to enable paging of results in SQL shell
+     * @param numThreads number of threads to execute queries with; can be changed later with
+     * <tt>SET threads = N</tt>
      * @throws IOException if unable to instantiate ConsoleReader
      */
-    private MacroBaseSQLRepl(final boolean userWantsPaging) throws IOException {
+    private MacroBaseSQLRepl(final boolean userWantsPaging, final int numThreads)
+        throws IOException {
         // First try to turn paging on
         this.paging = enablePaging(userWantsPaging);
         // Initialize console reader and writer
@@ -60,7 +68,7 @@ public class MacroBaseSQLRepl {
         reader.addCompleter(new FileNameCompleter());
 
         parser = new SqlParser();
-        queryEngine = new QueryEngine();
+        queryEngine = new QueryEngine(numThreads);
     }
 
     /**
@@ -110,6 +118,12 @@ public class MacroBaseSQLRepl {
                 if (stmt instanceof ImportCsv) {
                     final ImportCsv importStatement = (ImportCsv) stmt;
                     result = queryEngine.importTableFromCsv(importStatement);
+                } else if (stmt instanceof LoadTable) {
+                    result = queryEngine.loadTableFromFile((LoadTable) stmt);
+                } else if (stmt instanceof SetSession) {
+                    result = queryEngine.setSessionParameter((SetSession) stmt);
+                } else if (stmt instanceof ShowStats) {
+                    result = queryEngine.getSessionStats();
                 } else {
                     final QueryBody q = ((Query) stmt).getQueryBody();
                     result = queryEngine.executeQuery(q);
@@ -136,10 +150,8 @@ public class MacroBaseSQLRepl {
                         // print result to file; if file already exists, do nothing and print error message
                         final String filename = exportExpr.getFilename();
                         if (!exists(Paths.get(filename))) {
-                            try (OutputStreamWriter outFile = new OutputStreamWriter(
-                                new FileOutputStream(filename))) {
-                                new CSVDataFrameWriter(exportExpr.getFieldDelimiter(),
-                                    exportExpr.getLineDelimiter()).writeToStream(result, outFile);
+                            try {
+                                getExportWriter(exportExpr).writeToFile(result, filename);
                             } catch (IOException e) {
                                 e.printStackTrace();
                             }
@@ -208,6 +220,20 @@ public class MacroBaseSQLRepl {
         return commandBuilder.toString();
     }
 
+    /**
+     * Pick the writer for INTO OUTFILE from the file's extension: ".mbdf" files are written in
+     * the binary format that LOAD TABLE reads, ".gz" files as gzipped CSV, and anything else as
+     * plain CSV.
+     */
+    private static DataFrameWriter getExportWriter(final ExportClause exportExpr) {
+        final String filename = exportExpr.getFilename();
+        if (filename.endsWith(".mbdf")) {
+            return new BinaryDataFrameWriter();
+        }
+        return new CSVDataFrameWriter(exportExpr.getFieldDelimiter(),
+            exportExpr.getLineDelimiter()).setGzip(filename.endsWith(".gz"));
+    }
+
     public static void main(String... args) throws IOException {
         ArgumentParser parser = ArgumentParsers.newFor("MacroBase SQL").build()
             .defaultHelp(true)
@@ -215,9 +241,18 @@ public class MacroBaseSQLRepl {
         parser.addArgument("-f", "--file").help("Load file with SQL queries to execute");
         parser.addArgument("-p", "--paging").type(Arguments.booleanType()).setDefault(false)
             .help("Turn on paging of results for SQL queries");
+        parser.addArgument("-t", "--threads").type(Integer.class)
+            .setDefault(Runtime.getRuntime().availableProcessors())
+            .help("Number of threads to execute queries with");
         final Namespace parsedArgs = parser.parseArgsOrFail(args);
+        final int numThreads = parsedArgs.getInt("threads");
+        if (numThreads < 1) {
+            parser.printUsage();
+            System.err.println("--threads must be a positive integer");
+            System.exit(1);
+        }
 
-        final MacroBaseSQLRepl repl = new MacroBaseSQLRepl(parsedArgs.get("paging"));
+        final MacroBaseSQLRepl repl = new MacroBaseSQLRepl(parsedArgs.get("paging"), numThreads);
         final String asciiArt = Resources
             .toString(Resources.getResource(ASCII_ART_FILE), Charsets.UTF_8);
 
@@ -3,8 +3,11 @@ package edu.stanford.futuredata.macrobase.sql;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
+import edu.stanford.futuredata.macrobase.sql.tree.LoadTable;
 import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
+import edu.stanford.futuredata.macrobase.sql.tree.ShowStats;
 import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import org.slf4j.Logger;
@@ -27,6 +30,12 @@ public class MacroBaseSQLSession {
         if (stmt instanceof ImportCsv) {
             final ImportCsv importStatement = (ImportCsv) stmt;
             return queryEngine.importTableFromCsv(importStatement);
+        } else if (stmt instanceof LoadTable) {
+            return queryEngine.loadTableFromFile((LoadTable) stmt);
+        } else if (stmt instanceof SetSession) {
+            return queryEngine.setSessionParameter((SetSession) stmt);
+        } else if (stmt instanceof ShowStats) {
+            return queryEngine.getSessionStats();
         } else {
             final QueryBody q = ((Query) stmt).getQueryBody();
             return queryEngine.executeQuery(q);
@@ -8,8 +8,11 @@ import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.Lists;
 import edu.stanford.futuredata.macrobase.analysis.MBFunction;
 import edu.stanford.futuredata.macrobase.analysis.summary.aplinear.APLOutlierSummarizer;
+import edu.stanford.futuredata.macrobase.datamodel.ColumnDictionary;
 import edu.stanford.futuredata.macrobase.datamodel.DataFrame;
 import edu.stanford.futuredata.macrobase.datamodel.Schema.ColType;
+import edu.stanford.futuredata.macrobase.ingest.BinaryDataFrameLoader;
+import edu.stanford.futuredata.macrobase.ingest.BinaryDataFrameWriter;
 import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameParser;
 import edu.stanford.futuredata.macrobase.sql.tree.AllColumns;
 import edu.stanford.futuredata.macrobase.sql.tree.ComparisonExpression;
@@ -20,9 +23,12 @@ import edu.stanford.futuredata.macrobase.sql.tree.Expression;
 import edu.stanford.futuredata.macrobase.sql.tree.FunctionCall;
 import edu.stanford.futuredata.macrobase.sql.tree.Identifier;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
+import edu.stanford.futuredata.macrobase.sql.tree.IntLiteral;
+import edu.stanford.futuredata.macrobase.sql.tree.LoadTable;
 import edu.stanford.futuredata.macrobase.sql.tree.Literal;
 import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression.Type;
+import edu.stanford.futuredata.macrobase.sql.tree.Node;
 import edu.stanford.futuredata.macrobase.sql.tree.NotExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.NullLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.OrderBy;
@@ -31,6 +37,7 @@ import edu.stanford.futuredata.macrobase.sql.tree.QuerySpecification;
 import edu.stanford.futuredata.macrobase.sql.tree.Relation;
 import edu.stanford.futuredata.macrobase.sql.tree.Select;
 import edu.stanford.futuredata.macrobase.sql.tree.SelectItem;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
 import edu.stanford.futuredata.macrobase.sql.tree.SingleColumn;
 import edu.stanford.futuredata.macrobase.sql.tree.SortItem;
 import edu.stanford.futuredata.macrobase.sql.tree.SortItem.Ordering;
@@ -39,6 +46,7 @@ import edu.stanford.futuredata.macrobase.sql.tree.StringLiteral;
 import edu.stanford.futuredata.macrobase.sql.tree.Table;
 import edu.stanford.futuredata.macrobase.sql.tree.TableSubquery;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
+import edu.stanford.futuredata.macrobase.util.MacroBaseExecutors;
 import edu.stanford.futuredata.macrobase.util.MacroBaseSQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -51,7 +59,11 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.stream.DoubleStream;
 import org.slf4j.Logger;
@@ -61,12 +73,99 @@ class QueryEngine {
 
     private static final Logger log = LoggerFactory.getLogger(QueryEngine.class.getSimpleName());
 
+    // Fewest 64-row words of a mask worth evaluating in a separate task
+    private static final int minWordsPerTask = 1024;
+    private static final int DEFAULT_DIFF_CACHE_SIZE = 16;
+
     private final Map<String, DataFrame> tablesInMemory;
-    private final int numThreads;
+    // Bumped every time a table is (re)imported, so cached DIFF results on old data are not used
+    private final Map<String, Integer> tableVersions;
+    private final DiffResultCache diffCache;
+    private final ExecutorService executor;
+    private int numThreads;
+    private int nextTableVersion;
 
     QueryEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numThreads Number of tasks DIFF queries, WHERE clauses, UDFs, and CSV imports are
+     * split into
+     */
+    QueryEngine(final int numThreads) {
         tablesInMemory = new HashMap<>();
-        numThreads = 1; // TODO: add configuration parameter for numThreads
+        tableVersions = new HashMap<>();
+        diffCache = new DiffResultCache(DEFAULT_DIFF_CACHE_SIZE);
+        executor = MacroBaseExecutors.getSharedPool();
+        this.numThreads = numThreads;
+    }
+
+    int getNumThreads() {
+        return numThreads;
+    }
+
+    DiffResultCache getDiffCache() {
+        return diffCache;
+    }
+
+    /**
+     * Top-level method for changing a session parameter with SET. Parameters are
+     * <tt>threads</tt>, the number of threads used to execute queries, and
+     * <tt>diff_cache_size</tt>, the number of DIFF results to cache (0 disables the cache).
+     *
+     * @return A DataFrame with the name and new value of the parameter
+     * @throws MacroBaseSQLException if the parameter is unknown or its value is invalid
+     */
+    DataFrame setSessionParameter(SetSession setStatement) throws MacroBaseSQLException {
+        final String name = setStatement.getName().getValue().toLowerCase();
+        final Expression value = setStatement.getValue();
+        if (!(value instanceof IntLiteral)) {
+            throw new MacroBaseSQLException(name + " must be an integer, got " + value);
+        }
+        final int intValue = ((IntLiteral) value).getValue();
+        switch (name) {
+            case "threads":
+                if (intValue < 1) {
+                    throw new MacroBaseSQLException("threads must be positive, got " + intValue);
+                }
+                numThreads = intValue;
+                break;
+            case "diff_cache_size":
+                if (intValue < 0) {
+                    throw new MacroBaseSQLException(
+                        "diff_cache_size must not be negative, got " + intValue);
+                }
+                diffCache.setCapacity(intValue);
+                break;
+            default:
+                throw new MacroBaseSQLException("Unknown session parameter " + name);
+        }
+
+        final DataFrame result = new DataFrame();
+        result.addColumn("parameter", new String[]{name});
+        result.addColumn("value", new double[]{intValue});
+        return result;
+    }
+
+    /**
+     * Top-level method for SHOW STATS, which reports the session parameters and how often DIFF
+     * queries were answered from the cache.
+     *
+     * @return A DataFrame with the name and value of each statistic
+     */
+    DataFrame getSessionStats() {
+        final DataFrame result = new DataFrame();
+        result.addColumn("statistic", new String[]{"threads", "diff_cache_size",
+            "diff_cache_entries", "diff_cache_hits", "diff_cache_misses"});
+        result.addColumn("value", new double[]{numThreads, diffCache.getCapacity(),
+            diffCache.size(), diffCache.getHits(), diffCache.getMisses()});
+        return result;
+    }
+
+    private void putTable(final String tableName, final DataFrame df) {
+        tablesInMemory.put(tableName, df);
+        tableVersions.put(tableName, nextTableVersion++);
     }
 
     /**
@@ -80,8 +179,32 @@ class QueryEngine {
         final String tableName = importStatement.getTableName().toString();
         final Map<String, ColType> schema = importStatement.getSchema();
         try {
-            DataFrame df = new CSVDataFrameParser(filename, schema).load();
-            tablesInMemory.put(tableName, df);
+            DataFrame df = new CSVDataFrameParser(filename, schema).setNumThreads(numThreads)
+                .load();
+            if (importStatement.getBinaryFilename().isPresent()) {
+                new BinaryDataFrameWriter()
+                    .writeToFile(df, importStatement.getBinaryFilename().get());
+            }
+            putTable(tableName, df);
+            return df;
+        } catch (Exception e) {
+            throw new MacroBaseSQLException(e);
+        }
+    }
+
+    /**
+     * Top-level method for loading a table saved by IMPORT ... SAVE TO, which is
+     * memory-mapped instead of parsed. Double columns stay mapped, off the heap, until a query
+     * needs them as arrays
+     *
+     * @return A DataFrame containing the loaded table
+     * @throws MacroBaseSQLException if the file can't be read or isn't a saved table
+     */
+    DataFrame loadTableFromFile(LoadTable loadStatement) throws MacroBaseSQLException {
+        try {
+            DataFrame df = new BinaryDataFrameLoader(loadStatement.getFilename()).setMapped(true)
+                .load();
+            putTable(loadStatement.getTableName().toString(), df);
             return df;
         } catch (Exception e) {
             throw new MacroBaseSQLException(e);
@@ -119,6 +242,60 @@ class QueryEngine {
      * query, an exception is thrown
      */
     private DataFrame executeDiffQuerySpec(final DiffQuerySpecification diffQuery)
+        throws MacroBaseException {
+        final String cacheKey = getDiffCacheKey(diffQuery);
+        DataFrame resultDf = diffCache.get(cacheKey);
+        if (resultDf == null) {
+            resultDf = explainDiff(diffQuery);
+            diffCache.put(cacheKey, resultDf);
+        } else {
+            log.debug("Using cached result for DIFF");
+        }
+        return evaluateSQLClauses(diffQuery, resultDf);
+    }
+
+    /**
+     * Key under which the explanation computed for a DIFF query is cached: the query without the
+     * clauses that are evaluated after summarization, normalized by {@link SqlFormatter}, followed
+     * by the versions of the tables it reads.
+     */
+    private String getDiffCacheKey(final DiffQuerySpecification diffQuery) {
+        final DiffQuerySpecification summarization = new DiffQuerySpecification(
+            new Select(false, ImmutableList.of(new AllColumns())),
+            diffQuery.getFirst(),
+            diffQuery.getSecond(),
+            diffQuery.getSplitQuery(),
+            diffQuery.getAttributeCols(),
+            Optional.of(diffQuery.getMinRatioExpression()),
+            Optional.of(diffQuery.getMinSupportExpression()),
+            Optional.of(diffQuery.getRatioMetricExpr()),
+            Optional.of(diffQuery.getMaxCombo()),
+            Optional.empty(),
+            Optional.empty(),
+            Optional.empty(),
+            Optional.empty());
+        final Map<String, Integer> versions = new TreeMap<>();
+        collectTableVersions(summarization, versions);
+        return SqlFormatter.formatSql(summarization, Optional.empty()) + versions;
+    }
+
+    private void collectTableVersions(final Node node, final Map<String, Integer> versions) {
+        if (node instanceof Table) {
+            final String tableName = ((Table) node).getName().toString();
+            versions.put(tableName, tableVersions.get(tableName));
+        }
+        for (Node child : node.getChildren()) {
+            collectTableVersions(child, versions);
+        }
+    }
+
+    /**
+     * Run the subqueries of a DIFF query and summarize their differences
+     *
+     * @return A DataFrame containing the explanations, before any other clause of the query is
+     * evaluated
+     */
+    private DataFrame explainDiff(final DiffQuerySpecification diffQuery)
         throws MacroBaseException {
         final String outlierColName = "outlier_col";
         DataFrame dfToExplain;
@@ -195,8 +372,7 @@ class QueryEngine {
         final DataFrame resultDf = summarizer.getResults().toDataFrame(explainCols);
         resultDf.renameColumn("outliers", "outlier_count");
         resultDf.renameColumn("count", "total_count");
-
-        return evaluateSQLClauses(diffQuery, resultDf);
+        return resultDf;
     }
 
     /**
@@ -286,23 +462,40 @@ class QueryEngine {
         resultDf = evaluateWhereClause(resultDf, query.getWhere());
         resultDf = evaluateSelectClause(resultDf, query.getSelect());
         // TODO: what if you order by something that's not in the SELECT clause?
-        resultDf = evaluateOrderByClause(resultDf, query.getOrderBy());
+        resultDf = evaluateOrderByClause(resultDf, query.getOrderBy(), query.getLimit());
         return evaluateLimitClause(resultDf, query.getLimit());
     }
 
     /**
-     * Evaluate ORDER BY clause. For now, we only support sorting by a single column.
+     * Evaluate ORDER BY clause, by one or more columns. If the query also has a LIMIT, only the
+     * rows that will be returned are sorted.
+     *
+     * @param limitStr The LIMIT clause of the query, if any
      */
-    private DataFrame evaluateOrderByClause(DataFrame df, Optional<OrderBy> orderByOpt) {
+    private DataFrame evaluateOrderByClause(DataFrame df, Optional<OrderBy> orderByOpt,
+        Optional<String> limitStr) throws MacroBaseSQLException {
         if (!orderByOpt.isPresent()) {
             return df;
         }
-        final OrderBy orderBy = orderByOpt.get();
-        // For now, we only support sorting by a single column
-        // TODO: support multi-column sort
-        final SortItem sortItem = orderBy.getSortItems().get(0);
-        final String sortCol = ((Identifier) sortItem.getSortKey()).getValue();
-        return df.orderBy(sortCol, sortItem.getOrdering() == Ordering.ASCENDING);
+        final List<String> sortCols = new ArrayList<>();
+        final List<Boolean> sortAsc = new ArrayList<>();
+        for (SortItem sortItem : orderByOpt.get().getSortItems()) {
+            if (!(sortItem.getSortKey() instanceof Identifier)) {
+                throw new MacroBaseSQLException(
+                    "ORDER BY only supports column names, not " + sortItem.getSortKey());
+            }
+            sortCols.add(((Identifier) sortItem.getSortKey()).getValue());
+            sortAsc.add(sortItem.getOrdering() == Ordering.ASCENDING);
+        }
+        int numRows = -1;
+        if (limitStr.isPresent()) {
+            try {
+                numRows = Integer.parseInt(limitStr.get());
+            } catch (NumberFormatException e) {
+                // LIMIT ALL
+            }
+        }
+        return df.orderBy(sortCols, sortAsc, numRows);
     }
 
     /**
@@ -347,16 +540,38 @@ class QueryEngine {
 
         // create shallow copy, so modifications don't persist on the original DataFrame
         final DataFrame resultDf = inputDf.copy();
-        for (SingleColumn udfCol : udfCols) {
-            final FunctionCall func = (FunctionCall) udfCol.getExpression();
+        if (udfCols.isEmpty()) {
+            return resultDf;
+        }
+        // UDFs depend on their whole input column, so evaluate each one in its own task
+        final double[][] udfResults = new double[udfCols.size()][];
+        final MacroBaseException[] errors = new MacroBaseException[udfCols.size()];
+        final List<Callable<Void>> tasks = new ArrayList<>(udfCols.size());
+        for (int i = 0; i < udfCols.size(); i++) {
+            final FunctionCall func = (FunctionCall) udfCols.get(i).getExpression();
             // for now, if UDF is a.b.c.d(), ignore "a.b.c."
             final String funcName = func.getName().getSuffix();
             // for now, assume func.getArguments returns at least 1 argument, always grab the first
             final MBFunction mbFunction = MBFunction.getFunction(funcName,
                 func.getArguments().stream().map(Expression::toString).findFirst().get());
-
-            // modify resultDf in place, add column; mbFunction is evaluated on input DataFrame
-            resultDf.addColumn(udfCol.toString(), mbFunction.apply(inputDf));
+            final int udfIndex = i;
+            tasks.add(() -> {
+                try {
+                    // mbFunction is evaluated on input DataFrame
+                    udfResults[udfIndex] = mbFunction.apply(inputDf);
+                } catch (MacroBaseException e) {
+                    errors[udfIndex] = e;
+                }
+                return null;
+            });
+        }
+        MacroBaseExecutors.runAll(executor, tasks);
+        for (int i = 0; i < udfCols.size(); i++) {
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+            // modify resultDf in place, add column
+            resultDf.addColumn(udfCols.get(i).toString(), udfResults[i]);
         }
         return resultDf;
     }
@@ -487,13 +702,42 @@ class QueryEngine {
         final double[] col = mbFunction.apply(df);
         final DoublePredicate predicate = generateLambdaForPredicate(
             ((DoubleLiteral) val).getValue(), type);
-        final BitSet mask = new BitSet(col.length);
-        for (int i = 0; i < col.length; ++i) {
-            if (predicate.test(col[i])) {
-                mask.set(i);
-            }
+        return parallelMask(col.length, (i) -> predicate.test(col[i]));
+    }
+
+    /**
+     * Evaluate a predicate on every row, splitting the rows into ranges that are evaluated in
+     * parallel. Each range covers whole 64-bit words of the mask, so no two tasks write to the
+     * same word.
+     *
+     * @param numRows The number of rows
+     * @param rowPredicate Whether the row at a given index belongs in the mask
+     * @return A BitSet with the bits of the matching rows set
+     */
+    private BitSet parallelMask(final int numRows, final IntPredicate rowPredicate) {
+        final long[] words = new long[(numRows + 63) / 64];
+        final int numTasks = Math.max(1, Math.min(numThreads, words.length / minWordsPerTask));
+        final List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+        for (int t = 0; t < numTasks; ++t) {
+            final int startWord = (int) ((long) words.length * t / numTasks);
+            final int endWord = (int) ((long) words.length * (t + 1) / numTasks);
+            tasks.add(() -> {
+                for (int w = startWord; w < endWord; ++w) {
+                    final int startRow = w * 64;
+                    final int endRow = Math.min(startRow + 64, numRows);
+                    long word = 0L;
+                    for (int i = startRow; i < endRow; ++i) {
+                        if (rowPredicate.test(i)) {
+                            word |= 1L << (i - startRow);
+                        }
+                    }
+                    words[w] = word;
+                }
+                return null;
+            });
         }
-        return mask;
+        MacroBaseExecutors.runAll(executor, tasks);
+        return BitSet.valueOf(words);
     }
 
 
@@ -527,22 +771,44 @@ class QueryEngine {
                         + " is not a DoubleLiteral");
             }
 
-            return df.getMaskForFilter(colIndex,
-                generateLambdaForPredicate(((DoubleLiteral) literal).getValue(), compExprType));
+            final double[] col = df.getDoubleColumn(colIndex);
+            final DoublePredicate predicate = generateLambdaForPredicate(
+                ((DoubleLiteral) literal).getValue(), compExprType);
+            return parallelMask(df.getNumRows(), (i) -> predicate.test(col[i]));
         } else {
             // colType == ColType.STRING
+            final Predicate<Object> predicate;
             if (literal instanceof StringLiteral) {
-                return df.getMaskForFilter(colIndex,
-                    generateLambdaForPredicate(((StringLiteral) literal).getValue(), compExprType));
+                predicate = generateLambdaForPredicate(((StringLiteral) literal).getValue(),
+                    compExprType);
             } else if (literal instanceof NullLiteral) {
-                return df.getMaskForFilter(colIndex,
-                    generateLambdaForPredicate(null, compExprType));
+                predicate = generateLambdaForPredicate(null, compExprType);
             } else {
                 throw new MacroBaseSQLException(
                     "Column " + colName + " has type " + colType + ", but " + literal
                         + " is not StringLiteral");
             }
+            return maskForStringColumn(df, colIndex, predicate);
+        }
+    }
+
+    /**
+     * Evaluate a predicate on every row of a String column. For dictionary-encoded columns, the
+     * predicate is only evaluated once per distinct value, and rows are matched by their codes.
+     */
+    private BitSet maskForStringColumn(final DataFrame df, final int colIndex,
+        final Predicate<Object> predicate) {
+        if (df.isStringColumnEncoded(colIndex)) {
+            final ColumnDictionary dictionary = df.getEncodedStringColumn(colIndex);
+            final boolean[] matches = new boolean[dictionary.size()];
+            for (int code = 0; code < matches.length; ++code) {
+                matches[code] = predicate.test(dictionary.getValue(code));
+            }
+            final int[] codes = dictionary.getCodes();
+            return parallelMask(df.getNumRows(), (i) -> matches[codes[i]]);
         }
+        final String[] col = df.getStringColumn(colIndex);
+        return parallelMask(df.getNumRows(), (i) -> predicate.test(col[i]));
     }
 
     /**
@@ -24,6 +24,7 @@ import com.google.common.base.Strings;
 import edu.stanford.futuredata.macrobase.sql.tree.AliasedRelation;
 import edu.stanford.futuredata.macrobase.sql.tree.AllColumns;
 import edu.stanford.futuredata.macrobase.sql.tree.AstVisitor;
+import edu.stanford.futuredata.macrobase.sql.tree.DiffQuerySpecification;
 import edu.stanford.futuredata.macrobase.sql.tree.Expression;
 import edu.stanford.futuredata.macrobase.sql.tree.Identifier;
 import edu.stanford.futuredata.macrobase.sql.tree.Join;
@@ -40,6 +41,7 @@ import edu.stanford.futuredata.macrobase.sql.tree.Relation;
 import edu.stanford.futuredata.macrobase.sql.tree.Select;
 import edu.stanford.futuredata.macrobase.sql.tree.SelectItem;
 import edu.stanford.futuredata.macrobase.sql.tree.SingleColumn;
+import edu.stanford.futuredata.macrobase.sql.tree.SplitQuery;
 import edu.stanford.futuredata.macrobase.sql.tree.Table;
 import edu.stanford.futuredata.macrobase.sql.tree.TableSubquery;
 import java.util.List;
@@ -120,6 +122,58 @@ final class SqlFormatter {
             return null;
         }
 
+        @Override
+        public Void visitDiffQuerySpecification(DiffQuerySpecification node, Integer indent) {
+            process(node.getSelect(), indent);
+
+            append(indent, "FROM DIFF");
+            builder.append('\n');
+            append(indent, "  ");
+            if (node.hasTwoArgs()) {
+                process(node.getFirst().get(), indent);
+                builder.append('\n');
+                append(indent, ", ");
+                process(node.getSecond().get(), indent);
+            } else {
+                final SplitQuery splitQuery = node.getSplitQuery().get();
+                builder.append("(SPLIT ");
+                process(splitQuery.getInputRelation(), indent);
+                builder.append(" WHERE ")
+                    .append(formatExpression(splitQuery.getWhereClause(), parameters))
+                    .append(')');
+            }
+            builder.append('\n');
+
+            append(indent, "ON " + node.getAttributeCols().stream()
+                .map(col -> formatExpression(col, parameters))
+                .collect(joining(", ")))
+                .append('\n');
+            append(indent, "WITH MIN RATIO " + node.getMinRatioExpression().getMinRatio()
+                + " MIN SUPPORT " + node.getMinSupportExpression().getMinSupport())
+                .append('\n');
+            append(indent, "COMPARE BY " + formatExpression(
+                node.getRatioMetricExpr().getFuncName(), parameters) + "("
+                + node.getRatioMetricExpr().getAggExpr().getAgg() + "(*))")
+                .append('\n');
+            append(indent, "MAX COMBO " + node.getMaxCombo().getValue())
+                .append('\n');
+
+            if (node.getWhere().isPresent()) {
+                append(indent, "WHERE " + formatExpression(node.getWhere().get(), parameters))
+                    .append('\n');
+            }
+
+            if (node.getOrderBy().isPresent()) {
+                process(node.getOrderBy().get(), indent);
+            }
+
+            if (node.getLimit().isPresent()) {
+                append(indent, "LIMIT " + node.getLimit().get())
+                    .append('\n');
+            }
+            return null;
+        }
+
         @Override
         protected Void visitOrderBy(OrderBy node, Integer indent) {
             append(indent, formatOrderBy(node, parameters))
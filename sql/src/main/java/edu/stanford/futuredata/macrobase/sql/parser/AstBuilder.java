@@ -50,6 +50,7 @@ import edu.stanford.futuredata.macrobase.sql.tree.IsNotNullPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.IsNullPredicate;
 import edu.stanford.futuredata.macrobase.sql.tree.Join;
 import edu.stanford.futuredata.macrobase.sql.tree.LikePredicate;
+import edu.stanford.futuredata.macrobase.sql.tree.LoadTable;
 import edu.stanford.futuredata.macrobase.sql.tree.LogicalBinaryExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.MinRatioExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.MinSupportExpression;
@@ -67,6 +68,8 @@ import edu.stanford.futuredata.macrobase.sql.tree.RatioMetricExpression;
 import edu.stanford.futuredata.macrobase.sql.tree.Relation;
 import edu.stanford.futuredata.macrobase.sql.tree.Select;
 import edu.stanford.futuredata.macrobase.sql.tree.SelectItem;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
+import edu.stanford.futuredata.macrobase.sql.tree.ShowStats;
 import edu.stanford.futuredata.macrobase.sql.tree.SingleColumn;
 import edu.stanford.futuredata.macrobase.sql.tree.SortItem;
 import edu.stanford.futuredata.macrobase.sql.tree.SplitQuery;
@@ -164,7 +167,7 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
     // Import CSVs into SQL
     @Override
     public Node visitImportCsv(SqlBaseParser.ImportCsvContext context) {
-        String filename = context.STRING().getText();
+        String filename = context.csvFile.getText();
         filename = filename.substring(1, filename.length() - 1);
         // Remove single quotes from beginning and end of filename
         final List<ColumnDefinition> columns = visit(context.columnDefinition(),
@@ -173,7 +176,31 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
             getLocation(context),
             filename,
             getQualifiedName(context.qualifiedName()),
-            columns
+            columns,
+            getTextIfPresent(context.binaryFile).map(AstBuilder::unquote)
+        );
+    }
+
+    @Override
+    public Node visitLoadTable(SqlBaseParser.LoadTableContext context) {
+        return new LoadTable(
+            getLocation(context),
+            unquote(context.STRING().getText()),
+            getQualifiedName(context.qualifiedName())
+        );
+    }
+
+    @Override
+    public Node visitShowStats(SqlBaseParser.ShowStatsContext context) {
+        return new ShowStats(getLocation(context));
+    }
+
+    @Override
+    public Node visitSetSession(SqlBaseParser.SetSessionContext context) {
+        return new SetSession(
+            getLocation(context),
+            visit(context.identifier(), Identifier.class),
+            visit(context.expression(), Expression.class)
         );
     }
 
@@ -789,6 +816,10 @@ class AstBuilder extends SqlBaseBaseVisitor<Node> {
             .map(clazz::cast);
     }
 
+    private <T> T visit(ParserRuleContext context, Class<T> clazz) {
+        return clazz.cast(visit(context));
+    }
+
     private <T> List<T> visit(List<? extends ParserRuleContext> contexts, Class<T> clazz) {
         return contexts.stream()
             .map(this::visit)
@@ -222,4 +222,16 @@ public abstract class AstVisitor<R, C> {
     public R visitImportCsv(ImportCsv node, C context) {
         return visitStatement(node, context);
     }
+
+    public R visitLoadTable(LoadTable node, C context) {
+        return visitStatement(node, context);
+    }
+
+    public R visitSetSession(SetSession node, C context) {
+        return visitStatement(node, context);
+    }
+
+    public R visitShowStats(ShowStats node, C context) {
+        return visitStatement(node, context);
+    }
 }
@@ -186,6 +186,7 @@ public class DiffQuerySpecification extends QueryBody {
         nodes.add(select);
         first.ifPresent(nodes::add);
         second.ifPresent(nodes::add);
+        splitQuery.ifPresent(nodes::add);
         nodes.addAll(attributeCols);
         nodes.add(minRatioExpr);
         nodes.add(minSupportExpr);
@@ -204,6 +205,7 @@ public class DiffQuerySpecification extends QueryBody {
             .add("select", select)
             .add("first", first)
             .add("second", second.orElse(null))
+            .add("splitQuery", splitQuery.orElse(null))
             .add("attributeCols", attributeCols)
             .add("minRatioExpr", minRatioExpr)
             .add("minSupportExpr", minSupportExpr)
@@ -228,6 +230,7 @@ public class DiffQuerySpecification extends QueryBody {
         return Objects.equals(select, o.select) &&
             Objects.equals(first, o.first) &&
             Objects.equals(second, o.second) &&
+            Objects.equals(splitQuery, o.splitQuery) &&
             Objects.equals(attributeCols, o.attributeCols) &&
             Objects.equals(minRatioExpr, o.minRatioExpr) &&
             Objects.equals(minSupportExpr, o.minSupportExpr) &&
@@ -242,7 +245,7 @@ public class DiffQuerySpecification extends QueryBody {
     @Override
     public int hashCode() {
         return Objects
-            .hash(select, first, second, attributeCols, minRatioExpr, minSupportExpr,
+            .hash(select, first, second, splitQuery, attributeCols, minRatioExpr, minSupportExpr,
                 ratioMetricExpr,
                 maxCombo, where, orderBy,
                 limit, exportExpr);
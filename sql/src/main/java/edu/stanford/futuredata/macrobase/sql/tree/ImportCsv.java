@@ -16,24 +16,31 @@ public class ImportCsv extends Statement {
     private final String filename;
     private final QualifiedName tableName;
     private final Map<String, ColType> schema;
+    private final Optional<String> binaryFilename;
 
     public ImportCsv(String filename, QualifiedName tableName, List<ColumnDefinition> columns) {
-        this(Optional.empty(), filename, tableName, columns);
+        this(Optional.empty(), filename, tableName, columns, Optional.empty());
     }
 
     public ImportCsv(NodeLocation location, String filename, QualifiedName tableName,
         List<ColumnDefinition> columns) {
-        this(Optional.of(location), filename, tableName, columns);
+        this(Optional.of(location), filename, tableName, columns, Optional.empty());
+    }
+
+    public ImportCsv(NodeLocation location, String filename, QualifiedName tableName,
+        List<ColumnDefinition> columns, Optional<String> binaryFilename) {
+        this(Optional.of(location), filename, tableName, columns, binaryFilename);
     }
 
     private ImportCsv(Optional<NodeLocation> location, String filename, QualifiedName tableName,
-        List<ColumnDefinition> columns) {
+        List<ColumnDefinition> columns, Optional<String> binaryFilename) {
         super(location);
         this.filename = requireNonNull(filename, "table is null");
         this.tableName = requireNonNull(tableName, "where is null");
         requireNonNull(columns, "columns is null");
         this.schema = columns.stream()
             .collect(Collectors.toMap(x -> x.getName().getValue(), this::getColType));
+        this.binaryFilename = requireNonNull(binaryFilename, "binaryFilename is null");
     }
 
     private ColType getColType(final ColumnDefinition colDef) {
@@ -58,6 +65,13 @@ public class ImportCsv extends Statement {
         return schema;
     }
 
+    /**
+     * @return The file to also save the imported table to in binary, if SAVE TO was given
+     */
+    public Optional<String> getBinaryFilename() {
+        return binaryFilename;
+    }
+
     @Override
     public <R, C> R accept(AstVisitor<R, C> visitor, C context) {
         return visitor.visitImportCsv(this, context);
@@ -70,7 +84,7 @@ public class ImportCsv extends Statement {
 
     @Override
     public int hashCode() {
-        return Objects.hash(filename, tableName, schema);
+        return Objects.hash(filename, tableName, schema, binaryFilename);
     }
 
     @Override
@@ -84,7 +98,8 @@ public class ImportCsv extends Statement {
         ImportCsv o = (ImportCsv) obj;
         return Objects.equals(filename, o.filename) &&
             Objects.equals(tableName, o.tableName) &&
-            Objects.equals(schema, o.schema);
+            Objects.equals(schema, o.schema) &&
+            Objects.equals(binaryFilename, o.binaryFilename);
     }
 
     @Override
@@ -93,6 +108,7 @@ public class ImportCsv extends Statement {
             .add("filename", filename)
             .add("tableName", tableName)
             .add("columns", schema)
+            .add("binaryFilename", binaryFilename.orElse(null))
             .toString();
     }
 }
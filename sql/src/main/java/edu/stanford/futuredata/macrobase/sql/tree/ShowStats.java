@@ -0,0 +1,50 @@
+package edu.stanford.futuredata.macrobase.sql.tree;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * SHOW STATS; reports the session parameters and the hits and misses of the DIFF result cache.
+ */
+public class ShowStats extends Statement {
+
+    public ShowStats() {
+        this(Optional.empty());
+    }
+
+    public ShowStats(NodeLocation location) {
+        this(Optional.of(location));
+    }
+
+    private ShowStats(Optional<NodeLocation> location) {
+        super(location);
+    }
+
+    @Override
+    public <R, C> R accept(AstVisitor<R, C> visitor, C context) {
+        return visitor.visitShowStats(this, context);
+    }
+
+    @Override
+    public List<Node> getChildren() {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public int hashCode() {
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return (obj != null) && (getClass() == obj.getClass());
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this).toString();
+    }
+}
@@ -1,5 +1,6 @@
 package edu.stanford.futuredata.macrobase.sql;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Charsets;
@@ -11,16 +12,22 @@ import edu.stanford.futuredata.macrobase.ingest.CSVDataFrameParser;
 import edu.stanford.futuredata.macrobase.sql.parser.ParsingException;
 import edu.stanford.futuredata.macrobase.sql.parser.SqlParser;
 import edu.stanford.futuredata.macrobase.sql.tree.ImportCsv;
+import edu.stanford.futuredata.macrobase.sql.tree.LoadTable;
 import edu.stanford.futuredata.macrobase.sql.tree.Query;
 import edu.stanford.futuredata.macrobase.sql.tree.QueryBody;
+import edu.stanford.futuredata.macrobase.sql.tree.SetSession;
+import edu.stanford.futuredata.macrobase.sql.tree.ShowStats;
 import edu.stanford.futuredata.macrobase.sql.tree.Statement;
 import edu.stanford.futuredata.macrobase.util.MacroBaseException;
 import edu.stanford.futuredata.macrobase.util.MacroBaseSQLException;
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class MacroBaseSQLTest {
 
@@ -28,6 +35,9 @@ public class MacroBaseSQLTest {
     private QueryEngine queryEngine;
     private DataFrame input;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private final Map<String, ColType> GLOBAL_RATIO_SCHEMA = ImmutableMap.<String, ColType>builder()
         .put("location", ColType.STRING)
         .put("version", ColType.STRING)
@@ -212,6 +222,92 @@ public class MacroBaseSQLTest {
         query20();
     }
 
+    @Test
+    public void setThreads() throws Exception {
+        final Statement stmt = parser.createStatement("SET threads = 4");
+        assertTrue(stmt instanceof SetSession);
+        queryEngine.setSessionParameter((SetSession) stmt);
+        assertEquals(4, queryEngine.getNumThreads());
+        // Results must not depend on the number of threads
+        testAllQueries();
+    }
+
+    @Test(expected = MacroBaseSQLException.class)
+    public void setInvalidThreads() throws Exception {
+        queryEngine.setSessionParameter((SetSession) parser.createStatement("SET threads = 0"));
+    }
+
+    @Test
+    public void saveAndLoadTable() throws Exception {
+        final String binaryFilename = new File(folder.getRoot(), "sample.mbdf").getPath();
+        final String importQueryStr = Resources
+            .toString(Resources.getResource("import.sql"), Charsets.UTF_8);
+        final Statement importStmt = parser.createStatement(importQueryStr
+            .replace(";", " SAVE TO '" + binaryFilename + "'"));
+        assertTrue(importStmt instanceof ImportCsv);
+        queryEngine.importTableFromCsv((ImportCsv) importStmt);
+
+        // A new session only sees the table once it is loaded from the saved file
+        queryEngine = new QueryEngine();
+        final Statement loadStmt = parser
+            .createStatement("LOAD TABLE sample FROM FILE '" + binaryFilename + "'");
+        assertTrue(loadStmt instanceof LoadTable);
+        final DataFrame loaded = queryEngine.loadTableFromFile((LoadTable) loadStmt);
+        assertTrue(input.equals(loaded));
+        query1();
+    }
+
+    @Test
+    public void diffCache() throws Exception {
+        query1();
+        query1();
+        // Only ORDER BY and LIMIT differ from query 1
+        final DataFrame limited = queryEngine.executeQuery(((Query) parser.createStatement(
+            "SELECT * FROM DIFF (SELECT * FROM sample WHERE usage > 1000.0) outliers, "
+                + "(SELECT * FROM sample WHERE usage < 1000.0) inliers ON location, version "
+                + "ORDER BY support LIMIT 1")).getQueryBody());
+        assertEquals(1, limited.getNumRows());
+        assertEquals(1, queryEngine.getDiffCache().getMisses());
+        assertEquals(2, queryEngine.getDiffCache().getHits());
+
+        // Re-importing the table must not serve results computed on the old data
+        final String importQueryStr = Resources
+            .toString(Resources.getResource("import.sql"), Charsets.UTF_8);
+        queryEngine.importTableFromCsv(
+            (ImportCsv) parser.createStatement(importQueryStr.replace(";", "")));
+        query1();
+        assertEquals(2, queryEngine.getDiffCache().getMisses());
+
+        final Statement stmt = parser.createStatement("SHOW STATS");
+        assertTrue(stmt instanceof ShowStats);
+        final DataFrame stats = queryEngine.getSessionStats();
+        assertEquals(2.0, stats.getDoubleColumnByName("value")[3], 0.0);
+
+        queryEngine.setSessionParameter(
+            (SetSession) parser.createStatement("SET diff_cache_size = 0"));
+        assertEquals(0, queryEngine.getDiffCache().size());
+        query1();
+        assertEquals(3, queryEngine.getDiffCache().getMisses());
+    }
+
+    @Test
+    public void orderByMultipleColumns() throws Exception {
+        final DataFrame sorted = queryEngine.executeQuery(((Query) parser.createStatement(
+            "SELECT * FROM sample ORDER BY location, usage DESC")).getQueryBody());
+        assertEquals(input.getNumRows(), sorted.getNumRows());
+        final String[] location = sorted.getStringColumnByName("location");
+        final double[] usage = sorted.getDoubleColumnByName("usage");
+        for (int i = 1; i < sorted.getNumRows(); ++i) {
+            final int c = location[i - 1].compareTo(location[i]);
+            assertTrue(c < 0 || (c == 0 && usage[i - 1] >= usage[i]));
+        }
+
+        // ORDER BY ... LIMIT only keeps the top rows, and must match the full sort
+        final DataFrame top = queryEngine.executeQuery(((Query) parser.createStatement(
+            "SELECT * FROM sample ORDER BY location, usage DESC LIMIT 5")).getQueryBody());
+        assertEquals(sorted.limit(5), top);
+    }
+
     private DataFrame loadDataFrameFromCSV(final String csvFilename,
         final Map<String, ColType> schema) throws Exception {
         return new CSVDataFrameParser(Resources.getResource(csvFilename).getFile(), schema, false).load();